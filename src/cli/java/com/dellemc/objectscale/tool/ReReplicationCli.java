@@ -0,0 +1,655 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.pipeline.WatchdogOptions;
+import com.dellemc.objectscale.util.Hedger;
+import com.dellemc.objectscale.util.Throttle;
+import org.apache.commons.cli.*;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+public class ReReplicationCli {
+    private static final Logger log = LogManager.getLogger(ReReplicationCli.class);
+    public static final String RELEASE_VERSION = ReReplicationCli.class.getPackage().getImplementationVersion();
+
+    static Options options() {
+        Options options = new Options();
+
+        options.addOption(Option.builder("e").longOpt("endpoint")
+                .desc("ObjectScale S3 endpoint URL. This includes scheme and port (i.e. https://10.1.4.5:9021)")
+                .hasArg().argName("endpoint-uri").build());
+        options.addOption(Option.builder("b").longOpt("bucket").desc("The bucket to inventory. May be given more than once, or as a comma-separated list, to inventory or re-replicate several buckets in one run (see --parallel-buckets) or to --watch them")
+                .hasArg().argName("bucket-name").build());
+        options.addOption(Option.builder("a").longOpt("access-key").desc("The AWS Access Key ID to access the bucket (if not using an AWS profile)")
+                .hasArg().argName("access-key").build());
+        options.addOption(Option.builder("s").longOpt("secret-key").desc("The AWS Secret Key to access the bucket (if not using an AWS profile)")
+                .hasArg().argName("secret-key").build());
+        options.addOption(Option.builder("p").longOpt("profile").desc("The AWS CLI profile to use for credentials, if other than default (configuration must be set for this profile)")
+                .hasArg().argName("profile-name").build());
+        options.addOption(Option.builder("f").longOpt("file")
+                .desc("The file to read when triggering re-replication, or write when generating an inventory (in CSV format). With several buckets, " + BatchRunner.BUCKET_PLACEHOLDER + " in the file name is replaced with each bucket's name (i.e. inventory-" + BatchRunner.BUCKET_PLACEHOLDER + ".csv), and the same goes for --audit-log")
+                .hasArg().argName("inventory-file").build());
+        options.addOption(Option.builder().longOpt("parallel-buckets")
+                .desc("With several buckets, how many to inventory or re-replicate at once (default: " + BatchRunner.DEFAULT_PARALLEL_BUCKETS + "). They share one connection pool and the --threads, so a small bucket finishes quickly and larger ones take up the spare threads")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder("t").longOpt("threads")
+                .desc("The size of the thread pool used to HEAD and COPY objects for inventory or re-replication")
+                .hasArg().argName("thread-count").build());
+        options.addOption(Option.builder().longOpt("virtual-threads")
+                .desc("Run HEAD and COPY requests on virtual threads (requires Java 21+; ignored with a warning on older JVMs). --threads then only limits the number of concurrent requests, so it can be set in the thousands")
+                .build());
+        options.addOption(Option.builder().longOpt("max-inflight-memory")
+                .desc("The most memory that queued rows (listed or read from the inventory, but not yet processed) may hold, with an optional k/m/g suffix. Fewer rows are queued when keys are long. Defaults to 25% of the maximum heap size")
+                .hasArg().argName("size").build());
+        options.addOption(Option.builder().longOpt("record-trace")
+                .desc("Record every S3 call (operation, key, timing, status and the response fields the tool uses, but no payloads or credentials) to this file, so the run can be analyzed or replayed offline (see --replay-trace)")
+                .hasArg().argName("trace-file").build());
+        options.addOption(Option.builder().longOpt("replay-trace")
+                .desc("Instead of calling S3, answer from a trace recorded with --record-trace, reproducing its latencies and errors. Use to tune --threads and other options offline. Does not require an endpoint")
+                .hasArg().argName("trace-file").build());
+        options.addOption(Option.builder().longOpt("replay-speed")
+                .desc("With --replay-trace, replay recorded latencies this many times faster (default: 1)")
+                .hasArg().argName("factor").build());
+        options.addOption(Option.builder().longOpt("audit-log")
+                .desc("Write a CSV row to this file for every re-replication attempt (key, source and new version ID, whether the ACL was copied, latency and outcome), and for every HEAD that returns no usable replication status. Rows are written in the background, in batches. Per-object log messages are only sampled, so use this for a complete record")
+                .hasArg().argName("audit-file").build());
+        options.addOption(Option.builder().longOpt("temp-dir")
+                .desc("Create temp files (the memory-mapped sets of keys from --include-keys/--exclude-keys, the keys already seen or journaled, and --priority-sort spill files) in this directory instead of java.io.tmpdir, which is often in RAM (tmpfs). Use a directory on disk for very large inventories")
+                .hasArg().argName("directory").build());
+        options.addOption(Option.builder().longOpt("stall-timeout")
+                .desc("If no version completes for this long, log the versions in flight and their threads' stacks (default: 10m)")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("max-stalls")
+                .desc("Abort the run after this many --stall-timeout periods in a row without progress (default: " + WatchdogOptions.DEFAULT_MAX_STALLS + ")")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("task-deadline")
+                .desc("Cancel and retry a HEAD that is still running after this long, i.e. on a hung connection (default: 30m). COPYs are never cancelled, since the server may still complete a cancelled COPY")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("task-retries")
+                .desc("How many times to retry a HEAD cancelled by --task-deadline before it fails (default: " + WatchdogOptions.DEFAULT_TASK_RETRIES + ")")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("jfr")
+                .desc("Record Java Flight Recorder events (each S3 request and listing page, queue-full waits, pipeline stalls and executor changes, plus the JVM's default low-overhead events) to this file, for analysis in JDK Mission Control. Only the most recent data is kept (see --jfr-max-size), so this can be left on for long runs. Requires a JVM with JFR (Java 11+, or 8u262+)")
+                .hasArg().argName("jfr-file").build());
+        options.addOption(Option.builder().longOpt("jfr-max-size")
+                .desc("With --jfr, the most recording data to keep, with an optional k/m/g suffix; older data is discarded (default: 256m)")
+                .hasArg().argName("size").build());
+        options.addOption(Option.builder().longOpt("unsafe-disable-ssl-validation")
+                .desc("Disables SSL/TLS certificate validation - this is NOT safe!").build());
+
+        OptionGroup commandGroup = new OptionGroup();
+        commandGroup.addOption(Option.builder("i").longOpt("inventory")
+                .desc("Perform an inventory of the bucket and output to CSV")
+                .build());
+        commandGroup.addOption(Option.builder("r").longOpt("re-replicate")
+                .desc("Trigger re-replication of a list of objects from a provided file. Re-replication is triggered by COPYing the object to itself to create a new version, which will trigger CRR policy replication for that new version")
+                .build());
+        commandGroup.addOption(Option.builder().longOpt("sample")
+                .desc("Estimate the replication health of the bucket by HEADing a random sample of its versions (current versions, unless --all-versions is specified). Prints estimated FAILED/PENDING/COMPLETE counts and bytes with 95% confidence intervals, and writes the sampled versions to the inventory file")
+                .build());
+        commandGroup.addOption(Option.builder().longOpt("watch")
+                .desc("Run continuously: every --pass-interval, list the current versions in each bucket (-b may be given more than once), HEAD those not already known to have replicated, and re-replicate the ones that failed. Known-replicated and re-replicated versions are remembered between passes, and snapshotted to the inventory file so a restarted watch resumes where it left off")
+                .build());
+        commandGroup.addOption(Option.builder("l").longOpt("lookup")
+                .desc("Look up all versions of an object key in an indexed inventory file (see --index-interval) and print them. Does not require an endpoint or bucket")
+                .hasArg().argName("object-key").build());
+        commandGroup.setRequired(true);
+        options.addOptionGroup(commandGroup);
+
+        // inventory options
+        OptionGroup filterGroup = new OptionGroup(); // filter sub-group
+        filterGroup.addOption(Option.builder("c").longOpt("current-version")
+                .desc("Only inventory the current object versions (do not include previous/non-current versions)")
+                .build());
+        filterGroup.addOption(Option.builder().longOpt("failed-current-version")
+                .desc("Only inventory the current object versions that failed replication (do not include previous/non-current versions or replicated versions) - this is the default")
+                .build());
+        filterGroup.addOption(Option.builder().longOpt("all-versions")
+                .desc("Inventory all object versions").build());
+        options.addOptionGroup(filterGroup);
+        options.addOption(Option.builder().longOpt("prefix")
+                .desc("Only inventory objects in the bucket that are under this prefix")
+                .hasArg().argName("bucket-prefix").build());
+        options.addOption(Option.builder().longOpt("modified-after")
+                .desc("Only inventory versions modified after this time (ISO-8601 timestamp or date, i.e. 2021-09-01T12:00:00Z or 2021-09-01)")
+                .hasArg().argName("timestamp").build());
+        options.addOption(Option.builder().longOpt("modified-before")
+                .desc("Only inventory versions modified before this time (ISO-8601 timestamp or date)")
+                .hasArg().argName("timestamp").build());
+        options.addOption(Option.builder().longOpt("min-size")
+                .desc("Only inventory objects of at least this size (bytes, or with a k/m/g/t suffix)")
+                .hasArg().argName("size").build());
+        options.addOption(Option.builder().longOpt("max-size")
+                .desc("Only inventory objects of at most this size (bytes, or with a k/m/g/t suffix)")
+                .hasArg().argName("size").build());
+        options.addOption(Option.builder().longOpt("exclude-delete-markers")
+                .desc("Do not inventory delete markers").build());
+        options.addOption(Option.builder().longOpt("start-after")
+                .desc("Only inventory keys that sort after this key")
+                .hasArg().argName("object-key").build());
+        options.addOption(Option.builder().longOpt("end-before")
+                .desc("Only inventory keys that sort before this key")
+                .hasArg().argName("object-key").build());
+        options.addOption(Option.builder().longOpt("pending-older-than")
+                .desc("Treat versions that have been PENDING replication for longer than this as FAILED, so they are included in failed-version inventories and are re-replicated (i.e. 90m, 24h, 7d)")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("hedge")
+                .desc("When performing inventory or sampling, send a second HEAD for any version whose HEAD is slower than most (see --hedge-percentile), and use whichever returns first. This stops a few slow HEADs from holding up the (ordered) inventory output")
+                .build());
+        options.addOption(Option.builder().longOpt("hedge-percentile")
+                .desc("With --hedge, the percentile of recent HEAD latency after which a HEAD is hedged (default: " + (int) Hedger.DEFAULT_PERCENTILE + ")")
+                .hasArg().argName("percentile").build());
+        options.addOption(Option.builder().longOpt("hedge-budget")
+                .desc("With --hedge, the most hedged HEADs to send, as a percentage of all HEADs (default: " + (int) (Hedger.DEFAULT_BUDGET * 100) + ")")
+                .hasArg().argName("percent").build());
+        options.addOption(Option.builder().longOpt("hedge-endpoint")
+                .desc("With --hedge, send hedged HEADs to this endpoint (i.e. a different node) instead of --endpoint")
+                .hasArg().argName("url").build());
+        options.addOption(Option.builder().longOpt("include-keys")
+                .desc("Only process keys listed in this file (one key per line, or a CSV/inventory with keys in the first column). Lists of hundreds of millions of keys are supported; they are held off-heap in temp files")
+                .hasArg().argName("keys-file").build());
+        options.addOption(Option.builder().longOpt("exclude-keys")
+                .desc("Do not process keys listed in this file (same format as --include-keys)")
+                .hasArg().argName("keys-file").build());
+        options.addOption(Option.builder().longOpt("include-pattern")
+                .desc("Only process keys matching this glob (* and ? do not match /, ** matches anything), or regular expression if prefixed with " + KeyFilter.REGEX_PREFIX + ". May be specified more than once")
+                .hasArg().argName("pattern").build());
+        options.addOption(Option.builder().longOpt("exclude-pattern")
+                .desc("Do not process keys matching this glob or " + KeyFilter.REGEX_PREFIX + " pattern. May be specified more than once")
+                .hasArg().argName("pattern").build());
+        options.addOption(Option.builder().longOpt("force-overwrite")
+                .desc("When performing inventory, if the inventory file already exists, overwrite it").build());
+        options.addOption(Option.builder().longOpt("index-interval")
+                .desc("When performing inventory, also write a sparse key index (<inventory-file>" + InventoryIndex.INDEX_FILE_SUFFIX + ") with an entry every N rows. The index enables --lookup and --partition (suggested value: " + InventoryIndex.DEFAULT_INTERVAL + ")")
+                .hasArg().argName("row-count").build());
+        options.addOption(Option.builder().longOpt("rollup")
+                .desc("When performing inventory, also write a summary of replication status by prefix, owner and PENDING age (<inventory-file>" + InventoryRollup.ROLLUP_FILE_SUFFIX + "). The summary is updated every minute during the run")
+                .build());
+        options.addOption(Option.builder().longOpt("rollup-depth")
+                .desc("The number of prefix levels (delimited by " + InventoryRollup.DELIMITER + ") to summarize in the rollup (default: " + InventoryRollup.DEFAULT_DEPTH + ")")
+                .hasArg().argName("depth").build());
+        options.addOption(Option.builder().longOpt("rollup-max-prefixes")
+                .desc("The maximum number of distinct prefixes (and owners) to track in the rollup. Beyond this, only the heaviest hitters are kept and their counts become approximate (default: " + InventoryRollup.DEFAULT_MAX_ENTRIES + ")")
+                .hasArg().argName("count").build());
+
+        // sampling options
+        options.addOption(Option.builder().longOpt("sample-size")
+                .desc("The maximum number of versions to HEAD when sampling (default: " + ReplicationSampler.DEFAULT_SAMPLE_SIZE + ")")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("sample-precision")
+                .desc("When sampling, stop as soon as the confidence intervals for FAILED and PENDING fractions are within +/- this fraction (default: " + ReplicationSampler.DEFAULT_PRECISION + ", or +/- 1 percentage point)")
+                .hasArg().argName("fraction").build());
+
+        options.addOption(Option.builder().longOpt("re-replicate-custom-acls")
+                .desc("Adds support for custom ACLs during re-replication. WARNING: this will triple the API calls to S3 and take longer to complete")
+                .build());
+        options.addOption(Option.builder().longOpt("resume")
+                .desc("Resume an interrupted re-replication. Every completed copy is recorded in a journal (<inventory-file>" + ReReplicationJournal.JOURNAL_FILE_SUFFIX + "), and keys already in the journal are skipped")
+                .build());
+        options.addOption(Option.builder().longOpt("priority")
+                .desc("When re-replicating, process the most important rows first: newest (most recently modified first) or smallest (smallest first). Rows are reordered within a buffer (see --priority-buffer), or sorted completely with --priority-sort")
+                .hasArg().argName("policy").build());
+        options.addOption(Option.builder().longOpt("priority-prefix")
+                .desc("When re-replicating, process keys under this prefix first (highest weight first; keys not under a weighted prefix have a weight of 0). May be specified more than once, i.e. --priority-prefix critical/=10 --priority-prefix logs/=-1")
+                .hasArg().argName("prefix=weight").build());
+        options.addOption(Option.builder().longOpt("priority-buffer")
+                .desc("The number of rows to reorder at once when using --priority or --priority-prefix (default: " + PriorityOrder.DEFAULT_BUFFER_SIZE + ")")
+                .hasArg().argName("row-count").build());
+        options.addOption(Option.builder().longOpt("priority-sort")
+                .desc("Sort the entire inventory by priority before re-replicating. Inventories larger than --priority-buffer are sorted in chunks that are spilled to temp files and merged")
+                .build());
+        options.addOption(Option.builder().longOpt("large-object-size")
+                .desc("When re-replicating, objects of at least this size are copied in a separate lane with its own threads, so that a burst of large copies can't hold up small ones (bytes, or with a k/m/g/t suffix; default: 64m)")
+                .hasArg().argName("size").build());
+        options.addOption(Option.builder().longOpt("large-object-threads")
+                .desc("The number of threads dedicated to large objects (default: a quarter of --threads). Each lane borrows idle threads from the other, but large objects never use more than half of all threads")
+                .hasArg().argName("thread-count").build());
+        options.addOption(Option.builder().longOpt("verify")
+                .desc("After re-replicating each version, HEAD the new version (with backoff) until replication is COMPLETE or FAILED, or --verify-timeout expires. Versions that did not replicate are written to <inventory-file>" + ReplicationVerifier.RETRY_FILE_SUFFIX + ", which can be used as the input of another run")
+                .build());
+        options.addOption(Option.builder().longOpt("verify-timeout")
+                .desc("How long to wait for each re-replicated version to replicate when using --verify (default: 1h)")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("throttle")
+                .desc("When re-replicating, limit copies during a time of day (local time), i.e. 06:00-22:00=threads:8,ops:200,bytes:50m for at most 8 copies at once, 200 copies/s and 50MiB/s, or 06:00-22:00=pause to stop copying. Windows may wrap around midnight. May be specified more than once; the first window that matches applies, and copies are unlimited outside every window. The limits change while the run is in progress")
+                .hasArg().argName("window").build());
+        options.addOption(Option.builder().longOpt("max-duration")
+                .desc("When re-replicating, stop after this long (i.e. 8h). Copies in progress complete and are journaled, and the rest of the inventory is left for a run with --resume. With several buckets, this is the time for all of them")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("max-objects")
+                .desc("When re-replicating, stop after copying this many objects. The rest of the inventory is left for a run with --resume. With several buckets, this counts the objects of all of them")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("partition")
+                .desc("Only re-replicate one partition of an indexed inventory file, i.e. 2/8 processes the second of 8 balanced partitions. Use this to run several instances of the tool in parallel against one inventory")
+                .hasArg().argName("n/count").build());
+
+        // watch options
+        options.addOption(Option.builder().longOpt("pass-interval")
+                .desc("With --watch, how often to start a pass over every bucket; if a pass takes longer, the next starts right away (default: 15m)")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("max-rate")
+                .desc("With --watch, the most HEAD and COPY requests to make per second, across all threads and buckets (default: no limit)")
+                .hasArg().argName("requests-per-second").build());
+        options.addOption(Option.builder().longOpt("snapshot-interval")
+                .desc("With --watch, how often to save the watch state to the inventory file; it is also saved after each pass and on exit (default: 5m)")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("status-port")
+                .desc("With --watch, serve each bucket's progress, backlog and throughput as JSON at http://localhost:<port>" + ReplicationWatcher.STATUS_PATH)
+                .hasArg().argName("port").build());
+        options.addOption(Option.builder().longOpt("max-repairs")
+                .desc("With --watch, stop re-replicating a key after this many re-replications that did not replicate either (default: " + ReplicationWatcher.DEFAULT_MAX_REPAIRS + ")")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("max-passes")
+                .desc("With --watch, exit after this many passes over every bucket (default: run until stopped)")
+                .hasArg().argName("count").build());
+
+        // logging options
+        options.addOption(Option.builder("v").longOpt("verbose").desc("Verbose logging").build());
+        options.addOption(Option.builder("d").longOpt("debug").desc("Debug logging").build());
+
+        // help output
+        options.addOption(Option.builder("h").longOpt("help").desc("Print this help text").build());
+
+        return options;
+    }
+
+    static AbstractReplicationTool.Config parseConfig(CommandLine commandLine) {
+        AbstractReplicationTool.Config config;
+        if (commandLine.hasOption("re-replicate")) {
+            ReReplicationProcessor.Config.ConfigBuilder<?, ?> builder = ReReplicationProcessor.Config.builder()
+                    .reReplicateCustomAcls(commandLine.hasOption("re-replicate-custom-acls"))
+                    .resume(commandLine.hasOption("resume"))
+                    .verify(commandLine.hasOption("verify"));
+            if (commandLine.hasOption("priority"))
+                builder.priorityPolicy(parsePriorityPolicy(commandLine.getOptionValue("priority")));
+            if (commandLine.hasOption("priority-prefix"))
+                builder.priorityPrefixWeights(parsePrefixWeights(commandLine.getOptionValues("priority-prefix")));
+            if (commandLine.hasOption("priority-buffer"))
+                builder.priorityBufferSize(Integer.parseInt(commandLine.getOptionValue("priority-buffer")));
+            builder.prioritySort(commandLine.hasOption("priority-sort"));
+            if (commandLine.hasOption("large-object-size"))
+                builder.largeObjectSize(parseSize(commandLine.getOptionValue("large-object-size")));
+            if (commandLine.hasOption("large-object-threads"))
+                builder.largeObjectThreads(Integer.parseInt(commandLine.getOptionValue("large-object-threads")));
+            if (commandLine.hasOption("verify-timeout"))
+                builder.verifyTimeout(parseDuration(commandLine.getOptionValue("verify-timeout")));
+            if (commandLine.hasOption("throttle"))
+                builder.throttleSchedule(new ThrottleSchedule(parseThrottleWindows(commandLine.getOptionValues("throttle"))));
+            if (commandLine.hasOption("max-duration"))
+                builder.maxDuration(parseDuration(commandLine.getOptionValue("max-duration")));
+            if (commandLine.hasOption("max-objects"))
+                builder.maxObjects(Long.parseLong(commandLine.getOptionValue("max-objects")));
+            if (commandLine.hasOption("partition")) {
+                String[] partition = commandLine.getOptionValue("partition").split("/");
+                if (partition.length != 2)
+                    throw new IllegalArgumentException("partition must be in the form n/count (i.e. 2/8)");
+                builder.partitionIndex(Integer.parseInt(partition[0].trim()) - 1)
+                        .partitionCount(Integer.parseInt(partition[1].trim()));
+            }
+            config = builder.build();
+        } else if (commandLine.hasOption("watch")) {
+            List<String> buckets = parseBuckets(commandLine.getOptionValues("bucket"));
+            ReplicationWatcher.Config.ConfigBuilder<?, ?> builder = ReplicationWatcher.Config.builder()
+                    // the first bucket is validated like any other tool's
+                    .bucket(buckets.isEmpty() ? null : buckets.get(0))
+                    .buckets(buckets)
+                    .prefix(commandLine.getOptionValue("prefix"))
+                    .reReplicateCustomAcls(commandLine.hasOption("re-replicate-custom-acls"))
+                    .maxPasses(Integer.parseInt(commandLine.getOptionValue("max-passes", "0")));
+            if (commandLine.hasOption("pass-interval"))
+                builder.passInterval(parseDuration(commandLine.getOptionValue("pass-interval")));
+            if (commandLine.hasOption("max-rate"))
+                builder.maxRequestsPerSecond(Double.parseDouble(commandLine.getOptionValue("max-rate")));
+            if (commandLine.hasOption("snapshot-interval"))
+                builder.snapshotInterval(parseDuration(commandLine.getOptionValue("snapshot-interval")));
+            if (commandLine.hasOption("status-port"))
+                builder.statusPort(Integer.parseInt(commandLine.getOptionValue("status-port")));
+            if (commandLine.hasOption("max-repairs"))
+                builder.maxRepairs(Integer.parseInt(commandLine.getOptionValue("max-repairs")));
+            config = builder.build();
+        } else {
+            InventoryGenerator.Config.ConfigBuilder<?, ?> builder;
+            if (commandLine.hasOption("sample")) {
+                builder = ReplicationSampler.Config.builder()
+                        .sampleSize(Integer.parseInt(commandLine.getOptionValue("sample-size", "" + ReplicationSampler.DEFAULT_SAMPLE_SIZE)))
+                        .samplePrecision(Double.parseDouble(commandLine.getOptionValue("sample-precision", "" + ReplicationSampler.DEFAULT_PRECISION)));
+            } else {
+                builder = InventoryGenerator.Config.builder();
+            }
+            config = builder
+                    .filterType(filterTypeFromCli(commandLine))
+                    .forceOverwrite(commandLine.hasOption("force-overwrite"))
+                    .prefix(commandLine.getOptionValue("prefix"))
+                    .indexInterval(Integer.parseInt(commandLine.getOptionValue("index-interval", "0")))
+                    .rollup(commandLine.hasOption("rollup"))
+                    .rollupDepth(Integer.parseInt(commandLine.getOptionValue("rollup-depth", "" + InventoryRollup.DEFAULT_DEPTH)))
+                    .rollupMaxEntries(Integer.parseInt(commandLine.getOptionValue("rollup-max-prefixes", "" + InventoryRollup.DEFAULT_MAX_ENTRIES)))
+                    .modifiedAfter(parseInstant(commandLine.getOptionValue("modified-after")))
+                    .modifiedBefore(parseInstant(commandLine.getOptionValue("modified-before")))
+                    .minSize(parseSize(commandLine.getOptionValue("min-size")))
+                    .maxSize(parseSize(commandLine.getOptionValue("max-size")))
+                    .excludeDeleteMarkers(commandLine.hasOption("exclude-delete-markers"))
+                    .startAfter(commandLine.getOptionValue("start-after"))
+                    .endBefore(commandLine.getOptionValue("end-before"))
+                    .hedge(commandLine.hasOption("hedge"))
+                    .hedgePercentile(Double.parseDouble(commandLine.getOptionValue("hedge-percentile", "" + Hedger.DEFAULT_PERCENTILE)))
+                    .hedgeBudget(commandLine.hasOption("hedge-budget")
+                            ? Double.parseDouble(commandLine.getOptionValue("hedge-budget")) / 100 : Hedger.DEFAULT_BUDGET)
+                    .hedgeEndpoint(commandLine.hasOption("hedge-endpoint") ? URI.create(commandLine.getOptionValue("hedge-endpoint")) : null)
+                    .build();
+        }
+
+        config = config.toBuilder()
+                .endpoint(commandLine.hasOption("endpoint") ? URI.create(commandLine.getOptionValue("endpoint")) : null)
+                .bucket(config.getBucket() != null ? config.getBucket() : commandLine.getOptionValue("bucket"))
+                .accessKey(commandLine.getOptionValue("access-key"))
+                .secretKey(commandLine.getOptionValue("secret-key"))
+                .awsProfile(commandLine.getOptionValue("profile"))
+                .inventoryFile(commandLine.hasOption("file") ? Paths.get(commandLine.getOptionValue("file")) : null)
+                .disableSslValidation(commandLine.hasOption("unsafe-disable-ssl-validation"))
+                .virtualThreads(commandLine.hasOption("virtual-threads"))
+                .maxInflightMemory(parseSize(commandLine.getOptionValue("max-inflight-memory")))
+                .pendingOlderThan(parseDuration(commandLine.getOptionValue("pending-older-than")))
+                .includeKeysFile(commandLine.hasOption("include-keys") ? Paths.get(commandLine.getOptionValue("include-keys")) : null)
+                .excludeKeysFile(commandLine.hasOption("exclude-keys") ? Paths.get(commandLine.getOptionValue("exclude-keys")) : null)
+                .includePatterns(commandLine.hasOption("include-pattern") ? Arrays.asList(commandLine.getOptionValues("include-pattern")) : null)
+                .excludePatterns(commandLine.hasOption("exclude-pattern") ? Arrays.asList(commandLine.getOptionValues("exclude-pattern")) : null)
+                .recordTrace(commandLine.hasOption("record-trace") ? Paths.get(commandLine.getOptionValue("record-trace")) : null)
+                .replayTrace(commandLine.hasOption("replay-trace") ? Paths.get(commandLine.getOptionValue("replay-trace")) : null)
+                .replaySpeed(Double.parseDouble(commandLine.getOptionValue("replay-speed", "1")))
+                .jfrFile(commandLine.hasOption("jfr") ? Paths.get(commandLine.getOptionValue("jfr")) : null)
+                .auditFile(commandLine.hasOption("audit-log") ? Paths.get(commandLine.getOptionValue("audit-log")) : null)
+                .tempDir(commandLine.hasOption("temp-dir") ? Paths.get(commandLine.getOptionValue("temp-dir")) : null)
+                .build();
+
+        if (commandLine.hasOption("threads")) {
+            config = config.toBuilder()
+                    .threadCount(Integer.parseInt(commandLine.getOptionValue("threads")))
+                    .build();
+        }
+
+        if (commandLine.hasOption("stall-timeout"))
+            config = config.toBuilder().stallTimeout(parseDuration(commandLine.getOptionValue("stall-timeout"))).build();
+        if (commandLine.hasOption("max-stalls"))
+            config = config.toBuilder().maxStalls(Integer.parseInt(commandLine.getOptionValue("max-stalls"))).build();
+        if (commandLine.hasOption("task-deadline"))
+            config = config.toBuilder().taskDeadline(parseDuration(commandLine.getOptionValue("task-deadline"))).build();
+        if (commandLine.hasOption("task-retries"))
+            config = config.toBuilder().taskRetries(Integer.parseInt(commandLine.getOptionValue("task-retries"))).build();
+
+        if (commandLine.hasOption("jfr-max-size")) {
+            config = config.toBuilder()
+                    .jfrMaxSize(parseSize(commandLine.getOptionValue("jfr-max-size")))
+                    .build();
+        }
+
+        // an inventory or re-replication of several buckets (or into per-bucket files) is run as a batch
+        if (!(config instanceof ReplicationWatcher.Config)) {
+            List<String> buckets = parseBuckets(commandLine.getOptionValues("bucket"));
+            if (buckets.size() > 1 || (config.getInventoryFile() != null
+                    && config.getInventoryFile().toString().contains(BatchRunner.BUCKET_PLACEHOLDER))) {
+                config = BatchRunner.Config.forBuckets(config, buckets,
+                        Integer.parseInt(commandLine.getOptionValue("parallel-buckets", "" + BatchRunner.DEFAULT_PARALLEL_BUCKETS)));
+            }
+        }
+
+        return config;
+    }
+
+    /**
+     * Parses an ISO-8601 timestamp (2021-09-01T12:00:00Z) or date (2021-09-01, meaning midnight UTC)
+     */
+    static Instant parseInstant(String value) {
+        if (value == null) return null;
+        if (value.contains("T")) return Instant.parse(value);
+        return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    /**
+     * Parses a duration with a unit suffix (90s, 30m, 24h, 7d) or in ISO-8601 format (PT24H)
+     */
+    static Duration parseDuration(String value) {
+        if (value == null) return null;
+        value = value.trim();
+        if (value.toUpperCase().startsWith("P")) return Duration.parse(value);
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 's':
+                return Duration.ofSeconds(amount);
+            case 'm':
+                return Duration.ofMinutes(amount);
+            case 'h':
+                return Duration.ofHours(amount);
+            case 'd':
+                return Duration.ofDays(amount);
+            default:
+                throw new IllegalArgumentException("invalid duration: " + value + " (use a s/m/h/d suffix, i.e. 24h)");
+        }
+    }
+
+    /**
+     * Parses a size in bytes, with an optional binary unit suffix (k, m, g or t)
+     */
+    static Long parseSize(String value) {
+        if (value == null) return null;
+        value = value.trim().toLowerCase();
+        if (value.endsWith("b")) value = value.substring(0, value.length() - 1);
+        // each unit is 1024 times the one before it
+        int unit = "kmgt".indexOf(value.charAt(value.length() - 1));
+        if (unit >= 0) value = value.substring(0, value.length() - 1);
+        int shift = 10 * (unit + 1);
+        return Long.parseLong(value.trim()) << shift;
+    }
+
+    /**
+     * Parses bucket names given as separate values and/or comma-separated
+     */
+    static List<String> parseBuckets(String[] values) {
+        List<String> buckets = new ArrayList<>();
+        if (values == null) return buckets;
+        for (String value : values) {
+            for (String bucket : value.split(",")) {
+                if (!bucket.trim().isEmpty()) buckets.add(bucket.trim());
+            }
+        }
+        return buckets;
+    }
+
+    static PriorityOrder.Policy parsePriorityPolicy(String value) {
+        for (PriorityOrder.Policy policy : PriorityOrder.Policy.values()) {
+            if (policy.name().equalsIgnoreCase(value.trim())) return policy;
+        }
+        throw new IllegalArgumentException("invalid priority policy: " + value + " (use newest or smallest)");
+    }
+
+    /**
+     * Parses prefix weights in the form <code>prefix=weight</code>
+     */
+    static Map<String, Integer> parsePrefixWeights(String[] values) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String value : values) {
+            int separator = value.lastIndexOf('=');
+            if (separator < 0)
+                throw new IllegalArgumentException("prefix weight must be in the form prefix=weight (i.e. critical/=10)");
+            weights.put(value.substring(0, separator), Integer.parseInt(value.substring(separator + 1).trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Parses throttle windows in the form <code>HH:mm-HH:mm=threads:n,ops:n,bytes:size</code> (any of the limits may
+     * be left out) or <code>HH:mm-HH:mm=pause</code>
+     */
+    static List<ThrottleSchedule.Window> parseThrottleWindows(String[] values) {
+        List<ThrottleSchedule.Window> windows = new ArrayList<>();
+        for (String value : values) {
+            int separator = value.indexOf('=');
+            String[] times = separator < 0 ? new String[0] : value.substring(0, separator).split("-");
+            if (times.length != 2)
+                throw new IllegalArgumentException("throttle must be in the form HH:mm-HH:mm=limits (i.e. 06:00-22:00=threads:8,ops:200)");
+            String limits = value.substring(separator + 1).trim();
+            windows.add(new ThrottleSchedule.Window(LocalTime.parse(times[0].trim()), LocalTime.parse(times[1].trim()),
+                    limits.equalsIgnoreCase("pause") ? Throttle.Limits.PAUSED : parseThrottleLimits(limits)));
+        }
+        return windows;
+    }
+
+    static Throttle.Limits parseThrottleLimits(String value) {
+        Integer threads = null;
+        Double ops = null;
+        Long bytes = null;
+        for (String limit : value.split(",")) {
+            String[] nameValue = limit.split(":");
+            if (nameValue.length != 2)
+                throw new IllegalArgumentException("invalid throttle limit: " + limit + " (use threads:n, ops:n or bytes:size)");
+            switch (nameValue[0].trim().toLowerCase()) {
+                case "threads":
+                    threads = Integer.parseInt(nameValue[1].trim());
+                    break;
+                case "ops":
+                    ops = Double.parseDouble(nameValue[1].trim());
+                    break;
+                case "bytes":
+                    bytes = parseSize(nameValue[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("invalid throttle limit: " + limit + " (use threads:n, ops:n or bytes:size)");
+            }
+        }
+        return new Throttle.Limits(threads, ops, bytes);
+    }
+
+    static InventoryGenerator.FilterType filterTypeFromCli(CommandLine commandLine) {
+        if (commandLine.hasOption("current-version")) {
+            return InventoryGenerator.FilterType.CurrentVersionOnly;
+        } else if (commandLine.hasOption("all-versions")) {
+            return InventoryGenerator.FilterType.AllVersions;
+        } else {
+            return InventoryGenerator.FilterType.FailedCurrentVersionOnly;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("rereplication-tool - a tool to inventory replication status or re-trigger replication for object versions in a bucket with an associated CRR policy.");
+        System.out.println("Version: " + RELEASE_VERSION + "\n");
+
+        // check for help option
+        CommandLine commandLine = new DefaultParser().parse(new Options().addOption(Option.builder("h").build()), args, true);
+        if (commandLine.hasOption('h')) {
+            HelpFormatter hf = new HelpFormatter();
+            hf.printHelp("java -jar rereplication-tool-1.0.jar -e <endpoint> -b <bucket> (-i|-r|--sample) -f <inventory-file> [options]\n"
+                            + "       java -jar rereplication-tool-1.0.jar -e <endpoint> -b <bucket> -b <bucket> [...] (-i|-r) -f <inventory-file-with-{bucket}> [options]\n"
+                            + "       java -jar rereplication-tool-1.0.jar -e <endpoint> -b <bucket> [-b <bucket> ...] --watch -f <state-file> [options]\n"
+                            + "       java -jar rereplication-tool-1.0.jar -l <object-key> -f <inventory-file>",
+                    "options:", options(), null);
+            System.out.println();
+
+        } else {
+            commandLine = new DefaultParser().parse(options(), args);
+
+            // set log level
+            if (commandLine.hasOption('d')) {
+                Configurator.setLevel(LogManager.getRootLogger().getName(), Level.DEBUG);
+            } else if (commandLine.hasOption('v')) {
+                Configurator.setLevel(LogManager.getRootLogger().getName(), Level.INFO);
+            }
+
+            if (commandLine.hasOption("lookup")) {
+                if (!commandLine.hasOption("file"))
+                    throw new IllegalArgumentException("an inventory file is required for lookup");
+                lookup(Paths.get(commandLine.getOptionValue("file")), commandLine.getOptionValue("lookup"));
+                return;
+            }
+
+            AbstractReplicationTool.Config config = parseConfig(commandLine);
+            log.info("parsed options:\n{}", config);
+            config.validate();
+
+            try (AbstractReplicationTool tool = createTool(config)) {
+                long now = System.currentTimeMillis();
+                ProcessingStats grossRecords = new ProcessingStats(now), filteredRecords = new ProcessingStats(now);
+                tool.setGrossRecords(grossRecords);
+                tool.setFilteredRecords(filteredRecords);
+                CompletableFuture<Void> toolFuture = CompletableFuture.runAsync(tool);
+
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+                ScheduledFuture<?> statsFuture = executor.scheduleAtFixedRate(() -> {
+                    // print stats every second
+                    System.out.print(getStatsLine(tool) + "\r");
+                }, 1, 1, TimeUnit.SECONDS);
+
+                toolFuture.join(); // waits for tool to complete
+
+                // record end-time for stats
+                long endTime = System.currentTimeMillis();
+                grossRecords.setEndTimeMillis(endTime);
+                filteredRecords.setEndTimeMillis(endTime);
+
+                // stop the stats printer
+                statsFuture.cancel(true);
+                executor.shutdown();
+                System.out.println(getStatsLine(tool));
+                if (tool.getSummary() != null) System.out.println(tool.getSummary());
+                System.out.println("Done.");
+            } // try-with-resources will close the tool (and associated S3Client)
+        }
+    }
+
+    static AbstractReplicationTool createTool(AbstractReplicationTool.Config config) {
+        if (config instanceof ReplicationWatcher.Config) {
+            return new ReplicationWatcher((ReplicationWatcher.Config) config);
+        } else if (config instanceof BatchRunner.Config) {
+            return new BatchRunner((BatchRunner.Config) config);
+        } else if (config instanceof ReplicationSampler.Config) {
+            return new ReplicationSampler((ReplicationSampler.Config) config);
+        } else if (config instanceof InventoryGenerator.Config) {
+            return new InventoryGenerator((InventoryGenerator.Config) config);
+        } else {
+            return new ReReplicationProcessor((ReReplicationProcessor.Config) config);
+        }
+    }
+
+    static void lookup(Path inventoryFile, String key) throws IOException {
+        long start = System.nanoTime();
+        InventoryIndex index = InventoryIndex.load(inventoryFile);
+        List<InventoryRow> rows = index.lookup(key);
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        CSVPrinter csvPrinter = CSVFormat.DEFAULT.withHeader(InventoryRow.Header.class).print(System.out);
+        for (InventoryRow row : rows) {
+            csvPrinter.printRecord(row.toFieldArray());
+        }
+        csvPrinter.flush();
+        System.out.printf("%nFound %d version(s) of [%s] in %d ms%n", rows.size(), key, durationMs);
+    }
+
+    static String getStatsLine(AbstractReplicationTool tool) {
+        return String.format("%s: %d (%d/s) [%d errors%s], %s: %d (%d/s%s) [%d errors]\r",
+                tool.getGrossRecordsLabel(), tool.getGrossRecords().getProcessedObjects(),
+                tool.getGrossRecords().getPerSecondAverage(), tool.getGrossRecords().getErrors(),
+                tool.getGrossRecords().getDuplicates() > 0 ? ", " + tool.getGrossRecords().getDuplicates() + " duplicates" : "",
+                tool.getFilteredRecordsLabel(), tool.getFilteredRecords().getProcessedObjects(),
+                tool.getFilteredRecords().getPerSecondAverage(),
+                tool.getFilteredRecords().getProcessedBytes() > 0 ? ", " + ProcessingStats.formatByteRate(tool.getFilteredRecords().getBytesPerSecondAverage()) : "",
+                tool.getFilteredRecords().getErrors());
+    }
+}
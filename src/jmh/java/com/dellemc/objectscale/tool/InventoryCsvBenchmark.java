@@ -0,0 +1,95 @@
+package com.dellemc.objectscale.tool;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing inventory rows as CSV ({@link InventoryRow#toFieldArray()} with {@link CSVPrinter#printRecord}, as
+ * {@link InventoryWriter} does) and reading them back ({@link ReReplicationProcessor#inventoryRowFromCsvRecord}, both
+ * with and without the CSV parsing), one row per operation. Run with <code>./gradlew jmh -Pjmh.include=InventoryCsv</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryCsvBenchmark {
+    static final int ROW_COUNT = 1000;
+
+    List<InventoryRow> rows;
+    String csv;
+    List<CSVRecord> records;
+    StringWriter writer;
+    CSVPrinter printer;
+
+    @Setup
+    public void setup() throws IOException {
+        rows = sampleRows(ROW_COUNT);
+        StringWriter csvWriter = new StringWriter();
+        try (CSVPrinter csvPrinter = CSVFormat.DEFAULT.withHeader(InventoryRow.Header.class).print(csvWriter)) {
+            for (InventoryRow row : rows) csvPrinter.printRecord(row.toFieldArray());
+        }
+        csv = csvWriter.toString();
+        records = parser().getRecords();
+        writer = new StringWriter(csv.length() * 2);
+        printer = CSVFormat.DEFAULT.print(writer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public void writeRows() throws IOException {
+        // reuse the buffer, so only the formatting is measured
+        writer.getBuffer().setLength(0);
+        for (InventoryRow row : rows) printer.printRecord(row.toFieldArray());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public void mapRecords(Blackhole blackhole) {
+        for (CSVRecord record : records) blackhole.consume(ReReplicationProcessor.inventoryRowFromCsvRecord(record));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public void parseAndMapRows(Blackhole blackhole) throws IOException {
+        for (CSVRecord record : parser()) blackhole.consume(ReReplicationProcessor.inventoryRowFromCsvRecord(record));
+    }
+
+    CSVParser parser() throws IOException {
+        return CSVFormat.DEFAULT.withHeader(InventoryRow.Header.class)
+                .withSkipHeaderRecord()
+                .withIgnoreEmptyLines()
+                .parse(new StringReader(csv));
+    }
+
+    /**
+     * Rows shaped like a real inventory: nested keys, a version per key or two, and the odd delete marker
+     */
+    static List<InventoryRow> sampleRows(int count) {
+        List<InventoryRow> rows = new ArrayList<>(count);
+        Instant lastModified = Instant.parse("2021-08-01T12:00:00.123Z");
+        for (int i = 0; i < count; i++) {
+            boolean deleteMarker = i % 10 == 9;
+            rows.add(new InventoryRow(String.format("data/2021/08/%02d/object-%08d.json", i % 31 + 1, i / 2),
+                    String.format("%d-%08d", 1627819200000L + i, i), deleteMarker, i % 2 == 1,
+                    lastModified.plusMillis(i), deleteMarker ? null : "d41d8cd98f00b204e9800998ecf8427e",
+                    deleteMarker ? 0L : 4096L * (i % 7), "owner-1",
+                    i % 20 == 0 ? ReplicationStatus.FAILED : ReplicationStatus.COMPLETE));
+        }
+        return rows;
+    }
+}
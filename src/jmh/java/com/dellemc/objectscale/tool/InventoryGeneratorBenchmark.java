@@ -0,0 +1,80 @@
+package com.dellemc.objectscale.tool;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-version work {@link InventoryGenerator} does outside of S3 requests: merging a listing page's
+ * versions and delete markers back into order, stripping ETag quotes and mapping the replication status header. Each
+ * operation is one version. Run with <code>./gradlew jmh -Pjmh.include=InventoryGenerator</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryGeneratorBenchmark {
+    // a full listing page
+    static final int PAGE_SIZE = 1000;
+    static final String[] STATUS_HEADERS = {"COMPLETED", "COMPLETE", "PENDING", "FAILED", "REPLICA"};
+
+    /**
+     * The fraction of each page that is delete markers
+     */
+    @Param({"0", "0.3"})
+    double deleteMarkerFraction;
+
+    ListObjectVersionsResponse page;
+    String[] eTags;
+
+    @Setup
+    public void setup() {
+        List<ObjectVersion> versions = new ArrayList<>();
+        List<DeleteMarkerEntry> deleteMarkers = new ArrayList<>();
+        Instant lastModified = Instant.parse("2021-08-01T12:00:00.123Z");
+        int markerEvery = deleteMarkerFraction > 0 ? (int) Math.round(1 / deleteMarkerFraction) : Integer.MAX_VALUE;
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            String key = String.format("data/2021/08/%02d/object-%08d.json", i / 100 + 1, i / 2);
+            String versionId = String.format("%d-%08d", 1627819200000L + i, i);
+            if (i % markerEvery == markerEvery - 1) {
+                deleteMarkers.add(DeleteMarkerEntry.builder().key(key).versionId(versionId).isLatest(i % 2 == 1)
+                        .lastModified(lastModified).owner(owner -> owner.id("owner-1")).build());
+            } else {
+                versions.add(ObjectVersion.builder().key(key).versionId(versionId).isLatest(i % 2 == 1)
+                        .lastModified(lastModified).eTag("\"d41d8cd98f00b204e9800998ecf8427e\"").size(4096L)
+                        .owner(owner -> owner.id("owner-1")).build());
+            }
+        }
+        page = ListObjectVersionsResponse.builder().versions(versions).deleteMarkers(deleteMarkers).build();
+        eTags = new String[]{"\"d41d8cd98f00b204e9800998ecf8427e\"", "d41d8cd98f00b204e9800998ecf8427e",
+                " \"5d41402abc4b2a76b9719d911017c592-12\" "};
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void rowsFromPage(Blackhole blackhole) {
+        InventoryGenerator.rowsFromPage(page).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void stripQuotes(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++) blackhole.consume(InventoryGenerator.stripQuotes(eTags[i % eTags.length]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void getReplicationStatusEnum(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++)
+            blackhole.consume(InventoryGenerator.getReplicationStatusEnum(STATUS_HEADERS[i % STATUS_HEADERS.length]));
+    }
+}
@@ -0,0 +1,45 @@
+package com.dellemc.objectscale.tool;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link ProcessingStats} counters that every worker thread updates for every object, alone and with
+ * several threads updating the same counters. Run with <code>./gradlew jmh -Pjmh.include=ProcessingStats</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessingStatsBenchmark {
+    ProcessingStats stats;
+
+    @Setup
+    public void setup() {
+        stats = new ProcessingStats(System.currentTimeMillis());
+    }
+
+    /**
+     * What a worker does per copied object
+     */
+    @Benchmark
+    public void incrementObjectAndBytes() {
+        stats.incProcessedObjects();
+        stats.incProcessedBytes(4096);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contendedIncrementObjectAndBytes() {
+        incrementObjectAndBytes();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void heavilyContendedIncrementObjectAndBytes() {
+        incrementObjectAndBytes();
+    }
+}
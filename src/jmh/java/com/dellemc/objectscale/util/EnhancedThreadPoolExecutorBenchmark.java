@@ -0,0 +1,90 @@
+package com.dellemc.objectscale.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures submit-to-completion throughput of {@link EnhancedThreadPoolExecutor} with trivial tasks, so the cost is
+ * dominated by the executor's own admission and hand-off. Each invocation submits a batch of tasks and waits for them
+ * all to complete.
+ * <p>
+ * Run with <code>./gradlew jmh</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnhancedThreadPoolExecutorBenchmark {
+    static final int BATCH_SIZE = 10000;
+
+    @Param({"32", "128", "512", "1024"})
+    int poolSize;
+
+    @Param({"1000"})
+    int queueSize;
+
+    EnhancedThreadPoolExecutor executor;
+
+    @Setup
+    public void setup() {
+        executor = new EnhancedThreadPoolExecutor(poolSize, new LinkedBlockingDeque<>(queueSize), "bench-pool");
+        executor.prestartAllCoreThreads();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * One submitter (like the inventory reader thread)
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void blockingSubmitRunnable() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            executor.blockingSubmit(done::countDown);
+        }
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void blockingSubmitCallable() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            executor.blockingSubmit(() -> {
+                done.countDown();
+                return null;
+            });
+        }
+        done.await();
+    }
+
+    /**
+     * Several submitters competing for queue slots
+     */
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void contendedBlockingSubmit() throws InterruptedException {
+        blockingSubmitRunnable();
+    }
+
+    /**
+     * Many submitters (i.e. pipeline stages or lanes feeding one pool)
+     */
+    @Benchmark
+    @Threads(16)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void heavilyContendedBlockingSubmit() throws InterruptedException {
+        blockingSubmitRunnable();
+    }
+}
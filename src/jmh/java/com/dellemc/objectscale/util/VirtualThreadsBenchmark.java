@@ -0,0 +1,71 @@
+package com.dellemc.objectscale.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares platform and virtual thread pools running the same number of blocking tasks at once. Each task sleeps for
+ * <code>latencyMillis</code> to stand in for an S3 request, so throughput is bounded by <code>inFlight /
+ * latency</code>, and the difference between the modes is the cost of the threads themselves (i.e. creation, context
+ * switches and memory at high counts).
+ * <p>
+ * The virtual mode requires Java 21+ (it fails on older JVMs). Run with
+ * <code>./gradlew jmh -Pjmh.include=VirtualThreads</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class VirtualThreadsBenchmark {
+    @Param({"platform", "virtual"})
+    String mode;
+
+    @Param({"256", "1024", "5000"})
+    int inFlight;
+
+    @Param({"5"})
+    int latencyMillis;
+
+    EnhancedThreadPoolExecutor executor;
+    int batchSize;
+
+    @Setup
+    public void setup() {
+        boolean virtual = "virtual".equals(mode);
+        if (virtual && !VirtualThreads.isAvailable())
+            throw new IllegalStateException("virtual threads are not available in this JVM");
+        executor = new EnhancedThreadPoolExecutor(inFlight, new LinkedBlockingDeque<>(inFlight), "bench-pool", virtual);
+        executor.prestartAllCoreThreads();
+        // enough tasks to keep every thread busy several times over
+        batchSize = inFlight * 4;
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Runs a batch of <code>4 * inFlight</code> tasks (multiply the score by this for tasks per second)
+     */
+    @Benchmark
+    public void blockingTasks() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            executor.blockingSubmit(() -> {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException ignored) {
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
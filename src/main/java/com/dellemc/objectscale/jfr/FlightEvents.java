@@ -0,0 +1,138 @@
+package com.dellemc.objectscale.jfr;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+import java.nio.file.Path;
+
+/**
+ * Emits Java Flight Recorder events from the tools' hot paths (S3 requests, listing pages, queue and pipeline stalls,
+ * executor changes), so a long run can be examined after the fact in JDK Mission Control. JFR is looked up once; on a
+ * JVM without it, {@link #isAvailable()} returns false and every method does nothing.
+ * <p>
+ * Timed events are started with a <code>begin*()</code> method, which returns an opaque handle, and finished with the
+ * matching <code>commit*()</code> method. When JFR is not available, or the event type is not being recorded,
+ * <code>begin*()</code> returns null without allocating, and <code>commit*()</code> ignores a null handle, so the cost
+ * while not recording is a field read. The handle is an Object so that callers never reference a JFR class.
+ */
+public final class FlightEvents {
+    private static final Logger log = LogManager.getLogger(FlightEvents.class);
+
+    private static final boolean AVAILABLE;
+
+    static {
+        boolean available = false;
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            available = JfrEvents.isAvailable();
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            log.debug("JFR is not available in this JVM", e);
+        }
+        AVAILABLE = available;
+    }
+
+    private FlightEvents() {
+    }
+
+    /**
+     * @return true if this JVM supports Java Flight Recorder
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Starts recording this tool's events (and the JDK's default, low-overhead events) to <code>file</code>, keeping
+     * at most <code>maxSize</code> bytes of the most recent data. The recording is written when the returned handle is
+     * closed, or if the JVM exits first
+     *
+     * @throws UnsupportedOperationException if JFR is not available
+     */
+    public static AutoCloseable startRecording(Path file, long maxSize) {
+        if (!AVAILABLE) throw new UnsupportedOperationException("JFR is not available in this JVM");
+        try {
+            return JfrEvents.startRecording(file, maxSize);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return an interceptor that emits an event for every call made by an S3 client, or null if JFR is not available
+     */
+    public static ExecutionInterceptor s3Interceptor() {
+        return AVAILABLE ? new FlightRecorderInterceptor() : null;
+    }
+
+    static Object beginListPage() {
+        return AVAILABLE ? JfrEvents.beginListPage() : null;
+    }
+
+    static void commitListPage(Object event, String bucket, String keyMarker, String versionIdMarker, int count,
+                               boolean truncated, int statusCode, String errorCode, int attempts) {
+        if (event != null)
+            JfrEvents.commitListPage(event, bucket, keyMarker, versionIdMarker, count, truncated, statusCode, errorCode, attempts);
+    }
+
+    static Object beginS3Request() {
+        return AVAILABLE ? JfrEvents.beginS3Request() : null;
+    }
+
+    static void commitS3Request(Object event, String operation, String bucket, String key, String versionId,
+                                int statusCode, String errorCode, long bytes, int attempts) {
+        if (event != null)
+            JfrEvents.commitS3Request(event, operation, bucket, key, versionId, statusCode, errorCode, bytes, attempts);
+    }
+
+    /**
+     * Starts timing the re-replication of one object version (the individual requests have their own events)
+     */
+    public static Object beginReReplicate() {
+        return AVAILABLE ? JfrEvents.beginReReplicate() : null;
+    }
+
+    public static void commitReReplicate(Object event, String key, String versionId, long size, String newVersionId) {
+        if (event != null) JfrEvents.commitReReplicate(event, key, versionId, size, newVersionId);
+    }
+
+    /**
+     * Call when a submitter finds an executor's queue full, before it waits
+     */
+    public static Object beginQueueFull() {
+        return AVAILABLE ? JfrEvents.beginQueueFull() : null;
+    }
+
+    public static void commitQueueFull(Object event, String executor, int queueSize) {
+        if (event != null) JfrEvents.commitQueueFull(event, executor, queueSize);
+    }
+
+    /**
+     * Call before a pipeline stage hands its output to the next stage
+     */
+    public static Object beginStageStall() {
+        return AVAILABLE ? JfrEvents.beginStageStall() : null;
+    }
+
+    public static void commitStageStall(Object event, String pipeline, String stage, int items) {
+        if (event != null) JfrEvents.commitStageStall(event, pipeline, stage, items);
+    }
+
+    /**
+     * Call when a pipeline source has to wait for memory, before it waits
+     */
+    public static Object beginMemoryWait() {
+        return AVAILABLE ? JfrEvents.beginMemoryWait() : null;
+    }
+
+    public static void commitMemoryWait(Object event, String pipeline, long bytes, long limit) {
+        if (event != null) JfrEvents.commitMemoryWait(event, pipeline, bytes, limit);
+    }
+
+    /**
+     * Records that an executor or a throttle was paused, resumed or resized
+     */
+    public static void executorAction(String executor, String action, int oldPoolSize, int newPoolSize) {
+        if (AVAILABLE) JfrEvents.executorAction(executor, action, oldPoolSize, newPoolSize);
+    }
+}
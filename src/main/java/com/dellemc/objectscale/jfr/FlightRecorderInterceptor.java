@@ -0,0 +1,122 @@
+package com.dellemc.objectscale.jfr;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectAclRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectAclRequest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emits a List Page event for each ListObjectVersions call and an S3 Request event for every other call. The event
+ * spans the whole call, including SDK retries. Create with {@link FlightEvents#s3Interceptor()}
+ */
+class FlightRecorderInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Object> EVENT = new ExecutionAttribute<>("FlightEvent");
+    private static final ExecutionAttribute<AtomicInteger> ATTEMPTS = new ExecutionAttribute<>("FlightEventAttempts");
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        Object event = context.request() instanceof ListObjectVersionsRequest
+                ? FlightEvents.beginListPage() : FlightEvents.beginS3Request();
+        if (event == null) return;
+        executionAttributes.putAttribute(EVENT, event);
+        executionAttributes.putAttribute(ATTEMPTS, new AtomicInteger());
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        AtomicInteger attempts = executionAttributes.getAttribute(ATTEMPTS);
+        if (attempts != null) attempts.incrementAndGet();
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        Object event = executionAttributes.getAttribute(EVENT);
+        if (event == null) return;
+        int statusCode = context.httpResponse().statusCode();
+        if (context.response() instanceof ListObjectVersionsResponse) {
+            ListObjectVersionsRequest request = (ListObjectVersionsRequest) context.request();
+            ListObjectVersionsResponse response = (ListObjectVersionsResponse) context.response();
+            FlightEvents.commitListPage(event, request.bucket(), request.keyMarker(), request.versionIdMarker(),
+                    response.versions().size() + response.deleteMarkers().size(),
+                    Boolean.TRUE.equals(response.isTruncated()), statusCode, null, attempts(executionAttributes));
+        } else {
+            long bytes = -1;
+            if (context.response() instanceof HeadObjectResponse) {
+                Long contentLength = ((HeadObjectResponse) context.response()).contentLength();
+                if (contentLength != null) bytes = contentLength;
+            }
+            commitS3Request(event, context.request(), executionAttributes, statusCode, null, bytes);
+        }
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        Object event = executionAttributes.getAttribute(EVENT);
+        if (event == null) return;
+        Throwable exception = context.exception();
+        int statusCode = 0;
+        String errorCode;
+        if (exception instanceof AwsServiceException && ((AwsServiceException) exception).awsErrorDetails() != null) {
+            statusCode = ((AwsServiceException) exception).statusCode();
+            errorCode = ((AwsServiceException) exception).awsErrorDetails().errorCode();
+        } else if (exception instanceof SdkServiceException) {
+            statusCode = ((SdkServiceException) exception).statusCode();
+            errorCode = exception.getClass().getSimpleName();
+        } else {
+            // no response (i.e. a timeout or connection failure)
+            errorCode = exception.getClass().getSimpleName();
+        }
+        if (context.request() instanceof ListObjectVersionsRequest) {
+            ListObjectVersionsRequest request = (ListObjectVersionsRequest) context.request();
+            FlightEvents.commitListPage(event, request.bucket(), request.keyMarker(), request.versionIdMarker(),
+                    0, false, statusCode, errorCode, attempts(executionAttributes));
+        } else {
+            commitS3Request(event, context.request(), executionAttributes, statusCode, errorCode, -1);
+        }
+    }
+
+    private void commitS3Request(Object event, SdkRequest request, ExecutionAttributes executionAttributes,
+                                 int statusCode, String errorCode, long bytes) {
+        String bucket = null, key = null, versionId = null;
+        if (request instanceof HeadObjectRequest) {
+            HeadObjectRequest head = (HeadObjectRequest) request;
+            bucket = head.bucket();
+            key = head.key();
+            versionId = head.versionId();
+        } else if (request instanceof CopyObjectRequest) {
+            CopyObjectRequest copy = (CopyObjectRequest) request;
+            bucket = copy.destinationBucket();
+            key = copy.destinationKey();
+        } else if (request instanceof GetObjectAclRequest) {
+            GetObjectAclRequest getAcl = (GetObjectAclRequest) request;
+            bucket = getAcl.bucket();
+            key = getAcl.key();
+            versionId = getAcl.versionId();
+        } else if (request instanceof PutObjectAclRequest) {
+            PutObjectAclRequest putAcl = (PutObjectAclRequest) request;
+            bucket = putAcl.bucket();
+            key = putAcl.key();
+            versionId = putAcl.versionId();
+        }
+        FlightEvents.commitS3Request(event, executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME),
+                bucket, key, versionId, statusCode, errorCode, bytes, attempts(executionAttributes));
+    }
+
+    private static int attempts(ExecutionAttributes executionAttributes) {
+        AtomicInteger attempts = executionAttributes.getAttribute(ATTEMPTS);
+        return attempts != null ? attempts.get() : 1;
+    }
+}
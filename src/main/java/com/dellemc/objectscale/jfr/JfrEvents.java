@@ -0,0 +1,325 @@
+package com.dellemc.objectscale.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * The JFR event types and recording. Only {@link FlightEvents} may use this class, and only after checking that JFR is
+ * available, because loading it on a JVM without JFR fails
+ */
+final class JfrEvents {
+    private static final String CATEGORY = "Re-Replication Tool";
+
+    private JfrEvents() {
+    }
+
+    static boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    @Name("com.dellemc.objectscale.ListPage")
+    @Label("List Page")
+    @Category({CATEGORY, "S3"})
+    @Description("A ListObjectVersions page fetched")
+    @StackTrace(false)
+    static class ListPageEvent extends Event {
+        static final EventType TYPE = EventType.getEventType(ListPageEvent.class);
+
+        @Label("Bucket")
+        String bucket;
+        @Label("Key Marker")
+        String keyMarker;
+        @Label("Version ID Marker")
+        String versionIdMarker;
+        @Label("Entries")
+        @Description("Versions and delete markers in the page")
+        int count;
+        @Label("Truncated")
+        boolean truncated;
+        @Label("Status Code")
+        int statusCode;
+        @Label("Error Code")
+        String errorCode;
+        @Label("Attempts")
+        int attempts;
+    }
+
+    @Name("com.dellemc.objectscale.S3Request")
+    @Label("S3 Request")
+    @Category({CATEGORY, "S3"})
+    @Description("A HEAD, COPY or other S3 request, including SDK retries")
+    @StackTrace(false)
+    static class S3RequestEvent extends Event {
+        static final EventType TYPE = EventType.getEventType(S3RequestEvent.class);
+
+        @Label("Operation")
+        String operation;
+        @Label("Bucket")
+        String bucket;
+        @Label("Key")
+        String key;
+        @Label("Version ID")
+        String versionId;
+        @Label("Status Code")
+        @Description("0 if there was no response (i.e. a timeout)")
+        int statusCode;
+        @Label("Error Code")
+        String errorCode;
+        @Label("Bytes")
+        @Description("The object size, if the response includes it")
+        @DataAmount
+        long bytes;
+        @Label("Attempts")
+        int attempts;
+    }
+
+    @Name("com.dellemc.objectscale.ReReplicate")
+    @Label("Re-Replicate")
+    @Category({CATEGORY, "S3"})
+    @Description("An object version re-replicated (ACL read, COPY and ACL write)")
+    @StackTrace(false)
+    static class ReReplicateEvent extends Event {
+        static final EventType TYPE = EventType.getEventType(ReReplicateEvent.class);
+
+        @Label("Key")
+        String key;
+        @Label("Version ID")
+        String versionId;
+        @Label("Size")
+        @DataAmount
+        long size;
+        @Label("New Version ID")
+        String newVersionId;
+    }
+
+    @Name("com.dellemc.objectscale.QueueFull")
+    @Label("Queue Full")
+    @Category({CATEGORY, "Stalls"})
+    @Description("A submitter waited for space in an executor's queue")
+    @Threshold("1 ms")
+    static class QueueFullEvent extends Event {
+        static final EventType TYPE = EventType.getEventType(QueueFullEvent.class);
+
+        @Label("Executor")
+        String executor;
+        @Label("Queue Size")
+        int queueSize;
+    }
+
+    @Name("com.dellemc.objectscale.StageStall")
+    @Label("Stage Stall")
+    @Category({CATEGORY, "Stalls"})
+    @Description("A pipeline stage waited to hand completed items to the next stage (the next stage was full, or an "
+            + "ordered stage was waiting for earlier items)")
+    @Threshold("1 ms")
+    static class StageStallEvent extends Event {
+        static final EventType TYPE = EventType.getEventType(StageStallEvent.class);
+
+        @Label("Pipeline")
+        String pipeline;
+        @Label("Stage")
+        String stage;
+        @Label("Items")
+        int items;
+    }
+
+    @Name("com.dellemc.objectscale.MemoryWait")
+    @Label("Memory Wait")
+    @Category({CATEGORY, "Stalls"})
+    @Description("A pipeline source waited for in-flight items to free memory")
+    @Threshold("1 ms")
+    static class MemoryWaitEvent extends Event {
+        static final EventType TYPE = EventType.getEventType(MemoryWaitEvent.class);
+
+        @Label("Pipeline")
+        String pipeline;
+        @Label("Item Size")
+        @DataAmount
+        long bytes;
+        @Label("Limit")
+        @DataAmount
+        long limit;
+    }
+
+    @Name("com.dellemc.objectscale.ExecutorAction")
+    @Label("Executor Action")
+    @Category({CATEGORY, "Executors"})
+    @Description("An executor or throttle was paused, resumed or resized (a throttle's concurrency limit is its pool "
+            + "size; -1 if unlimited)")
+    static class ExecutorActionEvent extends Event {
+        @Label("Executor")
+        String executor;
+        @Label("Action")
+        String action;
+        @Label("Old Pool Size")
+        int oldPoolSize;
+        @Label("New Pool Size")
+        int newPoolSize;
+    }
+
+    // begin*() returns null (no allocation) when the event type is not being recorded
+
+    static Object beginListPage() {
+        if (!ListPageEvent.TYPE.isEnabled()) return null;
+        ListPageEvent event = new ListPageEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitListPage(Object begun, String bucket, String keyMarker, String versionIdMarker, int count,
+                               boolean truncated, int statusCode, String errorCode, int attempts) {
+        ListPageEvent event = (ListPageEvent) begun;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.bucket = bucket;
+        event.keyMarker = keyMarker;
+        event.versionIdMarker = versionIdMarker;
+        event.count = count;
+        event.truncated = truncated;
+        event.statusCode = statusCode;
+        event.errorCode = errorCode;
+        event.attempts = attempts;
+        event.commit();
+    }
+
+    static Object beginS3Request() {
+        if (!S3RequestEvent.TYPE.isEnabled()) return null;
+        S3RequestEvent event = new S3RequestEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitS3Request(Object begun, String operation, String bucket, String key, String versionId,
+                                int statusCode, String errorCode, long bytes, int attempts) {
+        S3RequestEvent event = (S3RequestEvent) begun;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.operation = operation;
+        event.bucket = bucket;
+        event.key = key;
+        event.versionId = versionId;
+        event.statusCode = statusCode;
+        event.errorCode = errorCode;
+        event.bytes = bytes;
+        event.attempts = attempts;
+        event.commit();
+    }
+
+    static Object beginReReplicate() {
+        if (!ReReplicateEvent.TYPE.isEnabled()) return null;
+        ReReplicateEvent event = new ReReplicateEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitReReplicate(Object begun, String key, String versionId, long size, String newVersionId) {
+        ReReplicateEvent event = (ReReplicateEvent) begun;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.key = key;
+        event.versionId = versionId;
+        event.size = size;
+        event.newVersionId = newVersionId;
+        event.commit();
+    }
+
+    static Object beginQueueFull() {
+        if (!QueueFullEvent.TYPE.isEnabled()) return null;
+        QueueFullEvent event = new QueueFullEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitQueueFull(Object begun, String executor, int queueSize) {
+        QueueFullEvent event = (QueueFullEvent) begun;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.executor = executor;
+        event.queueSize = queueSize;
+        event.commit();
+    }
+
+    static Object beginStageStall() {
+        if (!StageStallEvent.TYPE.isEnabled()) return null;
+        StageStallEvent event = new StageStallEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitStageStall(Object begun, String pipeline, String stage, int items) {
+        StageStallEvent event = (StageStallEvent) begun;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.pipeline = pipeline;
+        event.stage = stage;
+        event.items = items;
+        event.commit();
+    }
+
+    static Object beginMemoryWait() {
+        if (!MemoryWaitEvent.TYPE.isEnabled()) return null;
+        MemoryWaitEvent event = new MemoryWaitEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitMemoryWait(Object begun, String pipeline, long bytes, long limit) {
+        MemoryWaitEvent event = (MemoryWaitEvent) begun;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.pipeline = pipeline;
+        event.bytes = bytes;
+        event.limit = limit;
+        event.commit();
+    }
+
+    static void executorAction(String executor, String action, int oldPoolSize, int newPoolSize) {
+        ExecutorActionEvent event = new ExecutorActionEvent();
+        if (!event.shouldCommit()) return;
+        event.executor = executor;
+        event.action = action;
+        event.oldPoolSize = oldPoolSize;
+        event.newPoolSize = newPoolSize;
+        event.commit();
+    }
+
+    /**
+     * Starts a recording with the JDK's default settings (low overhead) plus this tool's events, keeping at most
+     * <code>maxSize</code> bytes of the most recent data on disk. The recording is written to <code>file</code> when
+     * it is closed, or when the JVM exits
+     */
+    static AutoCloseable startRecording(Path file, long maxSize) throws IOException, ParseException {
+        Recording recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("rereplication-tool");
+        recording.setToDisk(true);
+        recording.setMaxSize(maxSize);
+        recording.setDestination(file);
+        recording.setDumpOnExit(true);
+        for (Class<? extends Event> eventClass : Arrays.asList(ListPageEvent.class, S3RequestEvent.class,
+                ReReplicateEvent.class, QueueFullEvent.class, StageStallEvent.class, MemoryWaitEvent.class,
+                ExecutorActionEvent.class)) {
+            recording.enable(eventClass);
+        }
+        recording.start();
+        return () -> {
+            // stop() writes the recording to its destination
+            recording.stop();
+            recording.close();
+        };
+    }
+}
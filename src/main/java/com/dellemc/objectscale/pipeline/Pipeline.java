@@ -0,0 +1,410 @@
+package com.dellemc.objectscale.pipeline;
+
+import com.dellemc.objectscale.jfr.FlightEvents;
+import com.dellemc.objectscale.util.MemoryBudget;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * A chain of stages that items flow through, i.e. source &rarr; filter &rarr; remote call &rarr; sink. Each stage has
+ * its own bounded queue and threads (see {@link StageOptions}), so a slow stage applies backpressure to the stages
+ * before it, and every stage keeps its own {@link StageStats}.
+ * <p>
+ * The source is read by the thread that calls {@link #run()}. When it is exhausted, each stage in turn is drained, so
+ * every item reaches the sink before <code>run()</code> returns. If any stage fails (an item fails without an error
+ * handler), or {@link #cancel()} is called, all stages are stopped and queued items are discarded. To end a run early
+ * but cleanly, call {@link #stopReading()} (items already read are still processed) or {@link #stopEarly()} (items that
+ * have not been processed are dropped, but items already processed still reach the sink).
+ * <p>
+ * Queue sizes limit the number of items in each stage. To limit memory instead, give the pipeline a
+ * {@link MemoryBudget} and a weigher that estimates the bytes retained by each item (see
+ * {@link Builder#memoryBudget(MemoryBudget, ToLongFunction)}). Each item then takes its weight from the budget when it
+ * is read from the source, and gives it back when it leaves the pipeline (or is dropped), so the source waits while
+ * the budget is used up.
+ * <pre>
+ * Pipeline.from("list", rows)
+ *         .map("head", this::head, StageOptions.&lt;Row&gt;builder().concurrency(32).ordered(true).build())
+ *         .sink("write", writer::write)
+ *         .run();
+ * </pre>
+ */
+public class Pipeline {
+    private static final Logger log = LogManager.getLogger(Pipeline.class);
+
+    // how often the source checks for cancellation while waiting for the memory budget
+    static final long BUDGET_POLL_MILLIS = 100;
+
+    private final String name;
+    private final Stream<?> source;
+    private final List<Stage> stages;
+    private final StageStats sourceStats;
+    private final MemoryBudget memoryBudget;
+    private final ToLongFunction<Object> weigher;
+    private final WatchdogOptions watchdogOptions;
+    private StallWatchdog watchdog;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private volatile boolean cancelled;
+    private volatile boolean sourceStopped, stopping;
+    private volatile long startNanos, endNanos;
+
+    private Pipeline(String name, Stream<?> source, List<Stage> stages, MemoryBudget memoryBudget,
+                     ToLongFunction<Object> weigher, WatchdogOptions watchdogOptions) {
+        this.name = name;
+        this.source = source;
+        this.stages = stages;
+        this.memoryBudget = memoryBudget;
+        this.weigher = weigher;
+        this.watchdogOptions = watchdogOptions;
+        this.sourceStats = new StageStats(name, 1);
+    }
+
+    /**
+     * Starts building a pipeline. The pipeline closes the source stream when it is done
+     *
+     * @param name the name of the pipeline (and its source stage)
+     */
+    public static <T> Builder<T> from(String name, Stream<T> source) {
+        return new Builder<>(name, source, new ArrayList<>());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Runs the pipeline, waiting as long as necessary for the last items to complete (use a
+     * {@link Builder#watchdog(WatchdogOptions) watchdog} to detect a stalled pipeline)
+     */
+    public void run() {
+        run(null);
+    }
+
+    /**
+     * Runs the pipeline to completion
+     *
+     * @param drainTimeout how long to wait for each stage to finish its queued items once the source is exhausted (null
+     *                     to wait indefinitely)
+     * @throws CancellationException if the pipeline was cancelled
+     * @throws RuntimeException      if a stage failed (wrapping the first failure)
+     */
+    public void run(Duration drainTimeout) {
+        startNanos = System.nanoTime();
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).start(this, i + 1 < stages.size() ? stages.get(i + 1) : null);
+        }
+        if (watchdogOptions != null) {
+            watchdog = new StallWatchdog(this, watchdogOptions);
+            watchdog.start();
+        }
+        try (Stream<?> source = this.source) {
+            Stage first = stages.get(0);
+            Iterator<?> iterator = source.iterator();
+            while (!cancelled && !sourceStopped) {
+                long start = System.nanoTime();
+                if (!iterator.hasNext()) break;
+                Object value = iterator.next();
+                long read = System.nanoTime();
+                sourceStats.busyNanos.add(read - start);
+                sourceStats.received.increment();
+                sourceStats.emitted.increment();
+                Item item = new Item(value, weigher == null ? 0 : weigher.applyAsLong(value));
+                if (!acquire(item)) break;
+                first.submit(item);
+                sourceStats.waitingNanos.add(System.nanoTime() - read);
+            }
+
+            // end of stream: drain each stage in order, so everything it emits reaches the next stage before that one
+            // is drained
+            for (Stage stage : stages) {
+                if (cancelled) break;
+                long timeout = drainTimeout == null ? Long.MAX_VALUE : drainTimeout.toNanos();
+                if (!stage.drain(timeout, TimeUnit.NANOSECONDS)) {
+                    cancel();
+                    throw new RuntimeException("stage " + stage.name + " of pipeline " + name
+                            + " did not finish within " + drainTimeout + "; bailing out");
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            throw new RuntimeException(e);
+        } catch (IllegalStateException e) {
+            // the first stage was shut down (cancelled) while we were submitting
+            if (!cancelled) {
+                cancel();
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            // the source failed
+            cancel();
+            throw e;
+        } finally {
+            endNanos = System.nanoTime();
+            if (watchdog != null) watchdog.stop();
+        }
+        if (failure.get() != null) throw new RuntimeException("pipeline " + name + " failed", failure.get());
+        if (cancelled) throw new CancellationException("pipeline " + name + " was cancelled");
+        log.info("Pipeline {} complete:\n{}", name, getSummary());
+    }
+
+    // waits for the item to fit in the memory budget
+    private boolean acquire(Item item) throws InterruptedException {
+        if (memoryBudget == null) return true;
+        Object memoryWait = FlightEvents.beginMemoryWait();
+        try {
+            while (!memoryBudget.tryAcquire(item.bytes, BUDGET_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled) return false;
+            }
+            return true;
+        } finally {
+            FlightEvents.commitMemoryWait(memoryWait, name, item.bytes, memoryBudget.getLimit());
+        }
+    }
+
+    void release(Item item) {
+        if (memoryBudget != null) memoryBudget.release(item.bytes);
+    }
+
+    /**
+     * Stops every stage, discarding queued items. {@link #run()} will throw a {@link CancellationException}
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Stage stage : stages) stage.cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops reading the source. Items already read are processed as usual, and {@link #run()} returns normally once
+     * they have all reached the sink
+     */
+    public void stopReading() {
+        if (!sourceStopped) log.info("pipeline {} has stopped reading its source", name);
+        sourceStopped = true;
+    }
+
+    /**
+     * Stops reading the source, and drops items waiting for any stage but the last. Items already being processed
+     * complete, and reach the sink as usual, so {@link #run()} returns normally once they have
+     */
+    public void stopEarly() {
+        if (!stopping) log.info("stopping pipeline {} early", name);
+        sourceStopped = true;
+        stopping = true;
+    }
+
+    public boolean isStopping() {
+        return stopping;
+    }
+
+    /**
+     * @return true if any stage's throttle is paused, so a lack of progress is expected
+     */
+    boolean isPaused() {
+        for (Stage stage : stages) {
+            if (stage.isPaused()) return true;
+        }
+        return false;
+    }
+
+    void fail(Stage stage, RuntimeException e) {
+        if (failure.compareAndSet(null, e)) {
+            log.error("stage {} of pipeline {} failed; cancelling", stage.name, name, e);
+            cancel();
+        }
+    }
+
+    /**
+     * Fails the whole pipeline (i.e. it stopped making progress); {@link #run()} will throw <code>e</code>
+     */
+    void abort(RuntimeException e) {
+        if (failure.compareAndSet(null, e)) {
+            log.error(e.getMessage());
+            cancel();
+        }
+    }
+
+    List<Stage> getStages() {
+        return stages;
+    }
+
+    boolean isWatched() {
+        return watchdogOptions != null;
+    }
+
+    WatchdogOptions getWatchdogOptions() {
+        return watchdogOptions;
+    }
+
+    /**
+     * @return a count that increases whenever an item is read or completes (or fails, or is skipped) in any stage
+     */
+    long getProgress() {
+        long progress = sourceStats.getReceived();
+        for (Stage stage : stages) progress += stage.stats.getEmitted() + stage.stats.getErrors() + stage.stats.getSkipped();
+        return progress;
+    }
+
+    /**
+     * @return stats for the source and each stage, in order
+     */
+    public List<StageStats> getStageStats() {
+        List<StageStats> stats = new ArrayList<>();
+        stats.add(sourceStats);
+        for (Stage stage : stages) stats.add(stage.stats);
+        return Collections.unmodifiableList(stats);
+    }
+
+    /**
+     * @return one line per stage, with its counts, how busy its threads were, and how long it waited on the next stage
+     */
+    public String getSummary() {
+        long elapsed = (endNanos > startNanos ? endNanos : System.nanoTime()) - startNanos;
+        List<String> lines = new ArrayList<>();
+        lines.add("  " + sourceStats.format(elapsed, -1, stages.get(0).name));
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            String nextStage = i + 1 < stages.size() ? stages.get(i + 1).name : null;
+            lines.add("  " + stage.stats.format(elapsed, stage.getQueued(), nextStage));
+        }
+        if (memoryBudget != null)
+            lines.add(String.format("  memory budget: peak %s of %s, reading waited %d times",
+                    formatBytes(memoryBudget.getPeakUsed()), formatBytes(memoryBudget.getLimit()), memoryBudget.getWaitCount()));
+        if (watchdog != null) lines.add("  " + watchdog.getSummary());
+        return String.join("\n", lines);
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + "B";
+        if (bytes < 1024 * 1024) return (bytes / 1024) + "KiB";
+        return (bytes / (1024 * 1024)) + "MiB";
+    }
+
+    /**
+     * An item and its weight, passed between stages
+     */
+    static final class Item {
+        final Object value;
+        final long bytes;
+
+        Item(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Adds stages to a pipeline. Each method returns a builder for the new output type
+     *
+     * @param <T> the type of item emitted by the last stage
+     */
+    public static class Builder<T> {
+        private final String name;
+        private final Stream<?> source;
+        private final List<Stage> stages;
+        private MemoryBudget memoryBudget;
+        private ToLongFunction<Object> weigher;
+        private WatchdogOptions watchdogOptions;
+
+        private Builder(String name, Stream<?> source, List<Stage> stages) {
+            this.name = name;
+            this.source = source;
+            this.stages = stages;
+        }
+
+        private <R> Builder<R> next() {
+            Builder<R> next = new Builder<>(name, source, stages);
+            next.memoryBudget = memoryBudget;
+            next.weigher = weigher;
+            next.watchdogOptions = watchdogOptions;
+            return next;
+        }
+
+        /**
+         * Watches the pipeline for stalls while it runs (see {@link StallWatchdog})
+         */
+        public Builder<T> watchdog(WatchdogOptions watchdogOptions) {
+            this.watchdogOptions = watchdogOptions;
+            return this;
+        }
+
+        /**
+         * Limits the memory held by items in the pipeline. Each item keeps the weight it had when it was read from the
+         * source, so the weigher should allow for anything later stages add to it
+         *
+         * @param weigher estimates the bytes retained by an item
+         */
+        @SuppressWarnings("unchecked")
+        public Builder<T> memoryBudget(MemoryBudget memoryBudget, ToLongFunction<? super T> weigher) {
+            if (!stages.isEmpty()) throw new IllegalStateException("the memory budget must be set before adding stages");
+            this.memoryBudget = memoryBudget;
+            this.weigher = (ToLongFunction<Object>) weigher;
+            return this;
+        }
+
+        /**
+         * Adds a single-threaded filter stage
+         */
+        public Builder<T> filter(String stageName, Predicate<? super T> predicate) {
+            return filter(stageName, predicate, StageOptions.defaults());
+        }
+
+        public Builder<T> filter(String stageName, Predicate<? super T> predicate, StageOptions<? super T> options) {
+            return map(stageName, item -> predicate.test(item) ? item : null, options);
+        }
+
+        /**
+         * Adds a stage that transforms each item (i.e. a remote call). If the function returns null, the item is dropped
+         */
+        public <R> Builder<R> map(String stageName, Function<? super T, ? extends R> function, StageOptions<? super T> options) {
+            stages.add(new Stage(stageName, options, function, null));
+            return next();
+        }
+
+        /**
+         * Adds a single-threaded final stage, and returns the pipeline
+         */
+        public Pipeline sink(String stageName, Consumer<? super T> consumer) {
+            return sink(stageName, consumer, StageOptions.defaults());
+        }
+
+        public Pipeline sink(String stageName, Consumer<? super T> consumer, StageOptions<? super T> options) {
+            // the sink's output is only counted (as the number of items handled successfully)
+            Function<T, Object> function = item -> {
+                consumer.accept(item);
+                return item;
+            };
+            stages.add(new Stage(stageName, options, function, null));
+            return build();
+        }
+
+        /**
+         * Adds a final stage that receives items in batches of up to {@link StageOptions#getBatchSize()} (the last batch
+         * may be smaller), and returns the pipeline
+         */
+        public Pipeline sinkBatches(String stageName, Consumer<List<T>> consumer, StageOptions<? super T> options) {
+            stages.add(new Stage(stageName, options, null, consumer));
+            return build();
+        }
+
+        private Pipeline build() {
+            return new Pipeline(name, source, new ArrayList<>(stages), memoryBudget, weigher, watchdogOptions);
+        }
+    }
+}
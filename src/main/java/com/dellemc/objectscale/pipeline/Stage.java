@@ -0,0 +1,378 @@
+package com.dellemc.objectscale.pipeline;
+
+import com.dellemc.objectscale.jfr.FlightEvents;
+import com.dellemc.objectscale.util.LanedExecutor;
+import com.dellemc.objectscale.util.Throttle;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * One stage of a {@link Pipeline}. Items submitted by the previous stage are queued in this stage's executor, processed
+ * by its threads, and the results are submitted to the next stage. Items are untyped here; {@link Pipeline.Builder}
+ * keeps the stages type-safe
+ */
+class Stage {
+    private static final Logger log = LogManager.getLogger(Stage.class);
+
+    static final long DRAIN_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    final String name;
+    private final StageOptions<Object> options;
+    // exactly one of these is set
+    private final Function<Object, Object> itemFunction; // returns null to drop the item
+    private final Consumer<List<Object>> batchConsumer;
+    final StageStats stats;
+    private Pipeline pipeline;
+    private Stage next;
+    private LanedExecutor executor;
+
+    private final Object batchLock = new Object();
+    private List<Pipeline.Item> pendingBatch = new ArrayList<>();
+    private final Object sequenceLock = new Object();
+    private long nextSequence;
+    // completed batches of an ordered stage, waiting for earlier batches to complete
+    private final Object reorderLock = new Object();
+    private final Map<Long, List<Pipeline.Item>> reorderBuffer = new HashMap<>();
+    private long nextToEmit;
+    // items being processed, by thread (only tracked when the pipeline has a watchdog)
+    final Map<Thread, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    Stage(String name, StageOptions<?> options, Function<?, ?> itemFunction, Consumer<? extends List<?>> batchConsumer) {
+        if (options.getBatchSize() < 1) throw new IllegalArgumentException("batchSize must be at least 1");
+        if (options.getLanes() == null && (options.getConcurrency() < 1 || options.getQueueSize() < 1))
+            throw new IllegalArgumentException("concurrency and queueSize must be at least 1");
+        if (options.getThrottle() != null && batchConsumer != null)
+            throw new IllegalArgumentException("batch sinks cannot be throttled");
+        this.name = name;
+        this.options = (StageOptions<Object>) options;
+        this.itemFunction = (Function<Object, Object>) itemFunction;
+        this.batchConsumer = (Consumer<List<Object>>) batchConsumer;
+        this.stats = new StageStats(name, options.getThreadCount());
+    }
+
+    void start(Pipeline pipeline, Stage next) {
+        this.pipeline = pipeline;
+        this.next = next;
+        this.executor = new LanedExecutor(pipeline.getName() + "-" + name, options.isVirtualThreads(), options.toLanes(name));
+    }
+
+    /**
+     * Queues an item, blocking while this stage's queue is full
+     *
+     * @throws IllegalStateException if the stage has been shut down (i.e. the pipeline was cancelled)
+     */
+    void submit(Pipeline.Item item) throws InterruptedException {
+        stats.received.increment();
+        if (options.getBatchSize() == 1) {
+            dispatch(Collections.singletonList(item));
+            return;
+        }
+        List<Pipeline.Item> batch = null;
+        synchronized (batchLock) {
+            pendingBatch.add(item);
+            if (pendingBatch.size() >= options.getBatchSize()) {
+                batch = pendingBatch;
+                pendingBatch = new ArrayList<>();
+            }
+        }
+        if (batch != null) dispatch(batch);
+    }
+
+    /**
+     * Called at the end of the stream; no more items will be submitted. Waits for every queued item to be processed
+     * and handed to the next stage
+     *
+     * @return false if the timeout elapsed first
+     */
+    boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        List<Pipeline.Item> batch;
+        synchronized (batchLock) {
+            batch = pendingBatch;
+            pendingBatch = new ArrayList<>();
+        }
+        if (!batch.isEmpty()) dispatch(batch);
+        executor.shutdown();
+        // once cancelled, don't wait for threads that ignore interrupts (i.e. blocked in a socket read)
+        long remaining = unit.toNanos(timeout);
+        while (!executor.awaitTermination(Math.min(remaining, DRAIN_POLL_NANOS), TimeUnit.NANOSECONDS)) {
+            if (pipeline.isCancelled()) return true;
+            remaining -= DRAIN_POLL_NANOS;
+            if (remaining <= 0) return false;
+        }
+        return true;
+    }
+
+    void cancel() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    boolean isPaused() {
+        return options.getThrottle() != null && options.getThrottle().isPaused();
+    }
+
+    /**
+     * @return the number of items (or batches) waiting in this stage's queue
+     */
+    int getQueued() {
+        if (executor == null) return 0;
+        int queued = 0;
+        for (int lane = 0; lane < executor.getLaneCount(); lane++) queued += executor.getQueueSize(lane);
+        return queued;
+    }
+
+    private void dispatch(List<Pipeline.Item> batch) throws InterruptedException {
+        int lane = options.getLaneSelector() == null ? 0 : options.getLaneSelector().applyAsInt(batch.get(0).value);
+        if (options.isOrdered()) {
+            // sequence numbers must be handed out in submission order
+            synchronized (sequenceLock) {
+                long sequence = nextSequence++;
+                executor.blockingSubmit(lane, () -> process(sequence, batch));
+            }
+        } else {
+            executor.blockingSubmit(lane, () -> process(-1, batch));
+        }
+    }
+
+    private void process(long sequence, List<Pipeline.Item> batch) {
+        if (pipeline.isCancelled()) return;
+        long start = System.nanoTime();
+        List<Pipeline.Item> output = new ArrayList<>(batch.size());
+        if (batchConsumer != null) {
+            List<Object> values = new ArrayList<>(batch.size());
+            for (Pipeline.Item item : batch) values.add(item.value);
+            InFlight task = pipeline.isWatched() ? track(values.size() + " items starting with " + values.get(0), false) : null;
+            try {
+                batchConsumer.accept(values);
+                output = batch;
+            } catch (RuntimeException e) {
+                for (Pipeline.Item item : batch) {
+                    pipeline.release(item);
+                    handleError(item.value, e);
+                }
+            } finally {
+                if (task != null) untrack(task);
+            }
+        } else {
+            Throttle throttle = options.getThrottle();
+            for (Pipeline.Item item : batch) {
+                if (skipIfStopping(item)) continue;
+                if (throttle != null) {
+                    long throttleStart = System.nanoTime();
+                    long bytes = options.getThrottleWeigher() == null ? 0 : options.getThrottleWeigher().applyAsLong(item.value);
+                    try {
+                        // a paused throttle must not hold up an early stop
+                        if (!throttle.acquire(bytes, this::isSkipping)) {
+                            skipIfStopping(item);
+                            continue;
+                        }
+                    } catch (InterruptedException e) {
+                        // only cancelling the pipeline interrupts a waiting thread
+                        log.debug("stage {} interrupted while throttled", name);
+                        return;
+                    } finally {
+                        // waiting for the throttle is not work
+                        start += System.nanoTime() - throttleStart;
+                    }
+                }
+                try {
+                    // the pipeline may have stopped while the item was throttled
+                    if (skipIfStopping(item)) continue;
+                    Object result = pipeline.isWatched() ? applyWatched(item.value) : itemFunction.apply(item.value);
+                    if (result != null) output.add(new Pipeline.Item(result, item.bytes));
+                    else pipeline.release(item);
+                } catch (RuntimeException e) {
+                    pipeline.release(item);
+                    handleError(item.value, e);
+                } finally {
+                    if (throttle != null) throttle.release();
+                }
+            }
+        }
+        stats.busyNanos.add(System.nanoTime() - start);
+        stats.emitted.add(output.size());
+        emit(sequence, output);
+    }
+
+    /**
+     * Once the pipeline is stopping early, items that have not been processed are dropped, except by the last stage
+     * (so work that was already done is still recorded)
+     */
+    private boolean skipIfStopping(Pipeline.Item item) {
+        if (!isSkipping()) return false;
+        pipeline.release(item);
+        stats.skipped.increment();
+        return true;
+    }
+
+    private boolean isSkipping() {
+        return next != null && pipeline.isStopping();
+    }
+
+    /**
+     * Applies the function while the watchdog can see the item, retrying it if the watchdog cancels it
+     */
+    private Object applyWatched(Object value) {
+        InFlight task = track(value, options.isCancellable());
+        try {
+            while (true) {
+                try {
+                    return itemFunction.apply(value);
+                } catch (RuntimeException e) {
+                    if (pipeline.isCancelled() || !task.restart(pipeline.getWatchdogOptions().getTaskRetries())) throw e;
+                    log.warn("retrying {} in stage {} after it was cancelled (attempt {})", value, name, task.getAttempt());
+                }
+            }
+        } finally {
+            untrack(task);
+        }
+    }
+
+    private InFlight track(Object item, boolean cancellable) {
+        InFlight task = new InFlight(this, Thread.currentThread(), item, cancellable);
+        inFlight.put(task.thread, task);
+        return task;
+    }
+
+    private void untrack(InFlight task) {
+        inFlight.remove(task.thread);
+        // a cancellation that arrives just as the item completes must not interrupt the next item
+        if (task.finish()) Thread.interrupted();
+    }
+
+    /**
+     * An item being processed by one of this stage's threads, as seen by the {@link StallWatchdog}
+     */
+    static final class InFlight {
+        private final Stage stage;
+        private final Thread thread;
+        private final Object item;
+        private final boolean cancellable;
+        private volatile long startNanos = System.nanoTime();
+        private volatile int attempt = 1;
+        // guarded by this
+        private boolean cancelled, finished;
+
+        InFlight(Stage stage, Thread thread, Object item, boolean cancellable) {
+            this.stage = stage;
+            this.thread = thread;
+            this.item = item;
+            this.cancellable = cancellable;
+        }
+
+        /**
+         * Interrupts the item's thread, unless the item already finished or was cancelled
+         *
+         * @return true if the item was cancelled
+         */
+        synchronized boolean cancel() {
+            if (finished || cancelled) return false;
+            cancelled = true;
+            thread.interrupt();
+            return true;
+        }
+
+        /**
+         * Called by the item's thread when the item fails. If the failure was caused by a cancellation, and the item
+         * has retries left, clears the cancellation (and interrupt) and starts the next attempt
+         *
+         * @return true if the item should be retried
+         */
+        synchronized boolean restart(int retries) {
+            if (!cancelled || attempt > retries) return false;
+            Thread.interrupted();
+            cancelled = false;
+            attempt++;
+            startNanos = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * @return true if the item was cancelled (so its thread may still be interrupted)
+         */
+        synchronized boolean finish() {
+            finished = true;
+            return cancelled;
+        }
+
+        Stage getStage() {
+            return stage;
+        }
+
+        Thread getThread() {
+            return thread;
+        }
+
+        Object getItem() {
+            return item;
+        }
+
+        boolean isCancellable() {
+            return cancellable;
+        }
+
+        long getStartNanos() {
+            return startNanos;
+        }
+
+        int getAttempt() {
+            return attempt;
+        }
+    }
+
+    private void handleError(Object item, RuntimeException e) {
+        // once cancelled, failures are expected (i.e. interrupted calls)
+        if (pipeline.isCancelled()) return;
+        stats.errors.increment();
+        if (options.getErrorHandler() == null) {
+            pipeline.fail(this, e);
+            return;
+        }
+        try {
+            options.getErrorHandler().accept(item, e);
+        } catch (RuntimeException handlerError) {
+            pipeline.fail(this, handlerError);
+        }
+    }
+
+    private void emit(long sequence, List<Pipeline.Item> output) {
+        if (next == null) {
+            // the items have left the pipeline
+            for (Pipeline.Item item : output) pipeline.release(item);
+            return;
+        }
+        long start = System.nanoTime();
+        Object stall = FlightEvents.beginStageStall();
+        try {
+            if (sequence < 0) {
+                for (Pipeline.Item item : output) next.submit(item);
+            } else {
+                synchronized (reorderLock) {
+                    reorderBuffer.put(sequence, output);
+                    List<Pipeline.Item> ready;
+                    while ((ready = reorderBuffer.remove(nextToEmit)) != null) {
+                        nextToEmit++;
+                        for (Pipeline.Item item : ready) next.submit(item);
+                    }
+                }
+            }
+        } catch (InterruptedException | IllegalStateException e) {
+            // the next stage was shut down, so the pipeline is already stopping
+            if (!pipeline.isCancelled()) pipeline.fail(this, new RuntimeException(e));
+            else log.debug("stage {} stopped while handing off items", name);
+        } finally {
+            stats.waitingNanos.add(System.nanoTime() - start);
+            FlightEvents.commitStageStall(stall, pipeline.getName(), name, output.size());
+        }
+    }
+}
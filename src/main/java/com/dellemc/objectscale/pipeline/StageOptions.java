@@ -0,0 +1,95 @@
+package com.dellemc.objectscale.pipeline;
+
+import com.dellemc.objectscale.util.LanedExecutor;
+import com.dellemc.objectscale.util.Throttle;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * How a {@link Pipeline} stage runs: its concurrency, input queue, batching and ordering, and what to do with items
+ * that fail
+ *
+ * @param <T> the type of item the stage receives
+ */
+@Builder
+@Getter
+@ToString
+public class StageOptions<T> {
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * The number of threads that process items in this stage
+     */
+    @Builder.Default
+    private final int concurrency = 1;
+    /**
+     * The maximum number of items (or batches) waiting in this stage's input queue. When it is full, the previous
+     * stage blocks
+     */
+    @Builder.Default
+    private final int queueSize = DEFAULT_QUEUE_SIZE;
+    /**
+     * Items are handed to the stage's threads in batches of this size (only sinks receive the batch as a list; other
+     * stages still process one item at a time, but pay the hand-off cost once per batch)
+     */
+    @Builder.Default
+    private final int batchSize = 1;
+    /**
+     * If true, this stage emits its output in the same order as its input, even with several threads
+     */
+    private final boolean ordered;
+    /**
+     * Run this stage on virtual threads (see {@link com.dellemc.objectscale.util.VirtualThreads})
+     */
+    private final boolean virtualThreads;
+    /**
+     * Split this stage into lanes, each with its own threads and queue (see {@link LanedExecutor}). If set,
+     * <code>concurrency</code> and <code>queueSize</code> are ignored. Lanes can only be used by one pipeline
+     */
+    private final List<LanedExecutor.Lane> lanes;
+    /**
+     * Chooses the lane for each item (or batch, by its first item), when using <code>lanes</code>
+     */
+    private final ToIntFunction<? super T> laneSelector;
+    /**
+     * Called with each item that fails in this stage; the item is then dropped. If not set (or if the handler throws),
+     * the first failure cancels the pipeline
+     */
+    private final BiConsumer<? super T, RuntimeException> errorHandler;
+    /**
+     * If true, a {@link StallWatchdog} may interrupt an item that has been processing for too long, and the stage
+     * will retry it (see {@link WatchdogOptions#getTaskDeadline()}). Only set this if the function can safely be
+     * interrupted and repeated (i.e. a HEAD)
+     */
+    private final boolean cancellable;
+    /**
+     * If set, each item waits for the throttle before it is processed, so the stage's concurrency and rate can be
+     * limited (or paused) while the pipeline runs. Time spent waiting does not count towards the item's task
+     * deadline, and a paused throttle is not a stall. Not supported for batch sinks
+     */
+    private final Throttle throttle;
+    /**
+     * The size of each item in bytes, for the throttle's bytes per second limit
+     */
+    private final ToLongFunction<? super T> throttleWeigher;
+
+    public static <T> StageOptions<T> defaults() {
+        return StageOptions.<T>builder().build();
+    }
+
+    LanedExecutor.Lane[] toLanes(String stageName) {
+        if (lanes != null) return lanes.toArray(new LanedExecutor.Lane[0]);
+        return new LanedExecutor.Lane[]{new LanedExecutor.Lane(stageName, concurrency, concurrency, queueSize)};
+    }
+
+    int getThreadCount() {
+        if (lanes == null) return concurrency;
+        return lanes.stream().mapToInt(LanedExecutor.Lane::getThreads).sum();
+    }
+}
@@ -0,0 +1,89 @@
+package com.dellemc.objectscale.pipeline;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one stage of a {@link Pipeline}. Comparing stages shows where the bottleneck is: the slowest stage is
+ * busy most of the time, while the stages before it spend their time waiting to hand items to it
+ */
+public class StageStats {
+    private final String name;
+    private final int threads;
+    final LongAdder received = new LongAdder();
+    final LongAdder emitted = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+    final LongAdder busyNanos = new LongAdder();
+    final LongAdder waitingNanos = new LongAdder();
+
+    StageStats(String name, int threads) {
+        this.name = name;
+        this.threads = threads;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the number of items this stage received
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * @return the number of items this stage passed on (fewer than received if it filters)
+     */
+    public long getEmitted() {
+        return emitted.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return the number of items dropped without being processed, because the pipeline stopped early
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return the total time (across all threads) spent processing items
+     */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * @return the total time (across all threads) spent waiting for space in the next stage's queue
+     */
+    public long getWaitingNanos() {
+        return waitingNanos.sum();
+    }
+
+    /**
+     * @return the fraction of this stage's thread time spent processing items, over the given elapsed time
+     */
+    public double getUtilization(long elapsedNanos) {
+        if (elapsedNanos <= 0 || threads == 0) return 0;
+        return (double) getBusyNanos() / ((double) elapsedNanos * threads);
+    }
+
+    String format(long elapsedNanos, int queued, String nextStage) {
+        double threadNanos = Math.max(1, (double) elapsedNanos * threads);
+        StringBuilder line = new StringBuilder(String.format("%s: %d in, %d out, %d errors, %d threads %.0f%% busy",
+                name, getReceived(), getEmitted(), getErrors(), threads, 100 * getBusyNanos() / threadNanos));
+        if (nextStage != null)
+            line.append(String.format(", %.0f%% waiting on %s", 100 * getWaitingNanos() / threadNanos, nextStage));
+        if (getSkipped() > 0) line.append(String.format(", %d skipped", getSkipped()));
+        if (queued >= 0) line.append(String.format(", %d queued", queued));
+        return line.toString();
+    }
+}
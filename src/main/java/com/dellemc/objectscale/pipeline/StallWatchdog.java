@@ -0,0 +1,175 @@
+package com.dellemc.objectscale.pipeline;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches a running {@link Pipeline} for progress, instead of giving it a fixed time to finish. Progress is any item
+ * read from the source or completed (or failed) in any stage, so a long run of slow items is fine as long as they keep
+ * completing.
+ * <p>
+ * Every check, items that have been processing for longer than {@link WatchdogOptions#getTaskDeadline()} in a
+ * cancellable stage are interrupted, and retried by their stage (see {@link StageOptions#isCancellable()}). If nothing
+ * completes for {@link WatchdogOptions#getStallTimeout()}, the in-flight items and their threads' stacks are logged;
+ * after {@link WatchdogOptions#getMaxStalls()} such windows in a row, the pipeline is aborted. While a stage's
+ * {@link StageOptions#getThrottle() throttle} is paused, the pipeline is not expected to make progress, so the stall
+ * window starts again when it resumes.
+ */
+class StallWatchdog {
+    private static final Logger log = LogManager.getLogger(StallWatchdog.class);
+
+    // the most stuck items (and stacks) to log for each stall
+    static final int MAX_DUMPED_ITEMS = 10;
+    // weight of the latest interval in the smoothed completion rate
+    private static final double RATE_SMOOTHING = 0.2;
+
+    private final Pipeline pipeline;
+    private final WatchdogOptions options;
+    private ScheduledExecutorService scheduler;
+    private final AtomicLong cancelledItems = new AtomicLong();
+    private volatile int stallCount;
+    private volatile double completionRate;
+    private volatile long oldestInFlightNanos;
+    // only used by the scheduler thread
+    private long lastProgress = -1, lastProgressNanos, lastCheckProgress, lastCheckNanos;
+    private int consecutiveStalls;
+
+    StallWatchdog(Pipeline pipeline, WatchdogOptions options) {
+        options.validate();
+        this.pipeline = pipeline;
+        this.options = options;
+    }
+
+    void start() {
+        lastProgressNanos = lastCheckNanos = System.nanoTime();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, pipeline.getName() + "-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = options.checkIntervalNanos();
+        scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    void check() {
+        try {
+            long now = System.nanoTime();
+            List<Stage.InFlight> inFlight = new ArrayList<>();
+            for (Stage stage : pipeline.getStages()) inFlight.addAll(stage.inFlight.values());
+            inFlight.sort(Comparator.comparingLong(Stage.InFlight::getStartNanos));
+            oldestInFlightNanos = inFlight.isEmpty() ? 0 : now - inFlight.get(0).getStartNanos();
+
+            long progress = pipeline.getProgress();
+            double intervalRate = (progress - lastCheckProgress) / Math.max(1e-9, (now - lastCheckNanos) / 1e9);
+            completionRate = RATE_SMOOTHING * intervalRate + (1 - RATE_SMOOTHING) * completionRate;
+            lastCheckProgress = progress;
+            lastCheckNanos = now;
+
+            if (options.getTaskDeadline() != null) cancelLateItems(inFlight, now);
+            checkProgress(inFlight, progress, now);
+        } catch (RuntimeException e) {
+            log.warn("watchdog check of pipeline {} failed", pipeline.getName(), e);
+        }
+    }
+
+    private void cancelLateItems(List<Stage.InFlight> inFlight, long now) {
+        long deadline = options.getTaskDeadline().toNanos();
+        for (Stage.InFlight item : inFlight) {
+            if (!item.isCancellable() || now - item.getStartNanos() < deadline) continue;
+            if (item.cancel()) {
+                cancelledItems.incrementAndGet();
+                log.warn("{} in stage {} of pipeline {} has been running for {} (attempt {} of {}); cancelling it",
+                        item.getItem(), item.getStage().name, pipeline.getName(), formatNanos(now - item.getStartNanos()),
+                        item.getAttempt(), options.getTaskRetries() + 1);
+            }
+        }
+    }
+
+    private void checkProgress(List<Stage.InFlight> inFlight, long progress, long now) {
+        // a paused pipeline is not stalled
+        if (progress != lastProgress || pipeline.isPaused()) {
+            if (consecutiveStalls > 0) log.info("pipeline {} is making progress again", pipeline.getName());
+            lastProgress = progress;
+            lastProgressNanos = now;
+            consecutiveStalls = 0;
+            return;
+        }
+        if (now - lastProgressNanos < options.getStallTimeout().toNanos()) return;
+
+        // start the next window
+        lastProgressNanos = now;
+        consecutiveStalls++;
+        stallCount++;
+        log.warn(stallReport(inFlight, now));
+        if (consecutiveStalls >= options.getMaxStalls()) {
+            pipeline.abort(new RuntimeException(String.format("pipeline %s made no progress for %s; aborting",
+                    pipeline.getName(), formatNanos(options.getStallTimeout().toNanos() * consecutiveStalls))));
+            // nothing more to watch while the stages shut down
+            stop();
+        }
+    }
+
+    private String stallReport(List<Stage.InFlight> inFlight, long now) {
+        StringBuilder report = new StringBuilder(String.format(
+                "pipeline %s has made no progress for %s (stall %d of %d before aborting); %d items in flight",
+                pipeline.getName(), formatNanos(options.getStallTimeout().toNanos() * consecutiveStalls),
+                consecutiveStalls, options.getMaxStalls(), inFlight.size()));
+        if (!inFlight.isEmpty()) report.append(", oldest ").append(formatNanos(oldestInFlightNanos));
+        report.append(':');
+        for (Stage.InFlight item : inFlight.subList(0, Math.min(MAX_DUMPED_ITEMS, inFlight.size()))) {
+            report.append(String.format("%n  %s: %s (%s, attempt %d) on %s", item.getStage().name, item.getItem(),
+                    formatNanos(now - item.getStartNanos()), item.getAttempt(), item.getThread().getName()));
+            for (StackTraceElement frame : item.getThread().getStackTrace()) {
+                report.append(String.format("%n      at %s", frame));
+            }
+        }
+        if (inFlight.size() > MAX_DUMPED_ITEMS)
+            report.append(String.format("%n  ... and %d more", inFlight.size() - MAX_DUMPED_ITEMS));
+        return report.toString();
+    }
+
+    /**
+     * @return items completed per second, smoothed over the last few checks
+     */
+    double getCompletionRate() {
+        return completionRate;
+    }
+
+    /**
+     * @return how long the oldest in-flight item had been processing at the last check
+     */
+    long getOldestInFlightNanos() {
+        return oldestInFlightNanos;
+    }
+
+    int getStallCount() {
+        return stallCount;
+    }
+
+    long getCancelledItems() {
+        return cancelledItems.get();
+    }
+
+    String getSummary() {
+        return String.format("watchdog: %d stalls, %d items cancelled past their deadline", getStallCount(), getCancelledItems());
+    }
+
+    static String formatNanos(long nanos) {
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+        if (seconds < 60) return String.format("%.1fs", nanos / 1e9);
+        if (seconds < 3600) return String.format("%dm%02ds", seconds / 60, seconds % 60);
+        return String.format("%dh%02dm", seconds / 3600, (seconds / 60) % 60);
+    }
+}
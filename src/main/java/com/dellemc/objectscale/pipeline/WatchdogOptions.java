@@ -0,0 +1,66 @@
+package com.dellemc.objectscale.pipeline;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * When a {@link StallWatchdog} considers a {@link Pipeline} stalled, and what it does about it
+ */
+@Builder
+@Getter
+@ToString
+public class WatchdogOptions {
+    public static final Duration DEFAULT_STALL_TIMEOUT = Duration.ofMinutes(10);
+    public static final int DEFAULT_MAX_STALLS = 3;
+    public static final Duration DEFAULT_TASK_DEADLINE = Duration.ofMinutes(30);
+    public static final int DEFAULT_TASK_RETRIES = 2;
+
+    /**
+     * If no item completes in any stage for this long, the pipeline is stalled: the stuck items and their threads'
+     * stacks are logged
+     */
+    @Builder.Default
+    private final Duration stallTimeout = DEFAULT_STALL_TIMEOUT;
+    /**
+     * The pipeline is aborted after this many consecutive stalls (i.e. 3 x 10 minutes without progress)
+     */
+    @Builder.Default
+    private final int maxStalls = DEFAULT_MAX_STALLS;
+    /**
+     * An item that has been processing for longer than this, in a stage with
+     * {@link StageOptions#isCancellable() cancellable} set, is interrupted and retried. Null to never cancel items
+     */
+    @Builder.Default
+    private final Duration taskDeadline = DEFAULT_TASK_DEADLINE;
+    /**
+     * How many times an item may be cancelled and retried before it fails
+     */
+    @Builder.Default
+    private final int taskRetries = DEFAULT_TASK_RETRIES;
+
+    public static WatchdogOptions defaults() {
+        return WatchdogOptions.builder().build();
+    }
+
+    void validate() {
+        if (stallTimeout == null || stallTimeout.isNegative() || stallTimeout.isZero())
+            throw new IllegalArgumentException("stallTimeout must be positive");
+        if (maxStalls < 1) throw new IllegalArgumentException("maxStalls must be at least 1");
+        if (taskDeadline != null && (taskDeadline.isNegative() || taskDeadline.isZero()))
+            throw new IllegalArgumentException("taskDeadline must be positive");
+        if (taskRetries < 0) throw new IllegalArgumentException("taskRetries cannot be negative");
+    }
+
+    /**
+     * How often the watchdog checks the pipeline: often enough to notice a stall or a late item within a quarter of
+     * its window, but at least every 10 seconds
+     */
+    long checkIntervalNanos() {
+        long window = stallTimeout.toNanos();
+        if (taskDeadline != null) window = Math.min(window, taskDeadline.toNanos());
+        return Math.max(Duration.ofMillis(10).toNanos(), Math.min(window / 4, Duration.ofSeconds(10).toNanos()));
+    }
+}
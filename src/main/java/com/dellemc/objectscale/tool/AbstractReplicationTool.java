@@ -1,5 +1,13 @@
 package com.dellemc.objectscale.tool;
 
+import com.dellemc.objectscale.jfr.FlightEvents;
+import com.dellemc.objectscale.pipeline.WatchdogOptions;
+import com.dellemc.objectscale.trace.ReplayS3Client;
+import com.dellemc.objectscale.trace.TraceRecorder;
+import com.dellemc.objectscale.util.LogSampler;
+import com.dellemc.objectscale.util.MemoryBudget;
+import com.dellemc.objectscale.util.Throttle;
+import com.dellemc.objectscale.util.VirtualThreads;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -9,28 +17,51 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.Strings;
 import software.amazon.awssdk.auth.credentials.*;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.SdkHttpConfigurationOption;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.utils.AttributeMap;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 public abstract class AbstractReplicationTool implements Runnable, AutoCloseable {
     private static final Logger log = LogManager.getLogger(AbstractReplicationTool.class);
 
+    // the SDK's default
+    static final int DEFAULT_MAX_CONNECTIONS = 50;
+    static final long DEFAULT_JFR_MAX_SIZE = 256 * 1024 * 1024;
+
     protected final Config config;
     protected final S3Client s3Client;
     private final boolean createdClient;
+    protected final KeyFilter keyFilter;
     private boolean closed = false;
+    // shared by every client the tool creates
+    private TraceRecorder traceRecorder;
+    private ReplayS3Client replayClient;
+    private final AutoCloseable flightRecording;
     protected ProcessingStats grossRecords;
     protected ProcessingStats filteredRecords;
+    // per-object messages go to the audit log (if configured); only a sample of them is logged
+    protected final LogSampler logSampler = new LogSampler();
+    protected volatile AuditLog auditLog;
+    // set when the tool runs one bucket of a batch; HEADs and COPYs of every bucket in the batch go through it
+    volatile Throttle sharedThrottle;
 
     public AbstractReplicationTool(Config config, S3Client s3Client) {
         this.config = config;
+        this.flightRecording = startFlightRecording(config);
+        this.keyFilter = KeyFilter.fromConfig(config);
         if (s3Client != null) {
             this.s3Client = s3Client;
             this.createdClient = false;
@@ -44,6 +75,29 @@ public abstract class AbstractReplicationTool implements Runnable, AutoCloseable
 
     abstract String getFilteredRecordsLabel();
 
+    /**
+     * @return a summary of the results to print when the tool completes, or null if there is nothing to add to the
+     * processing stats. Subclasses should include this (the audit log summary)
+     */
+    String getSummary() {
+        List<String> summary = new ArrayList<>();
+        if (auditLog != null) summary.add(auditLog.getSummary());
+        if (logSampler.getSuppressedCount() > 0)
+            summary.add(String.format("%d similar per-object log messages were suppressed%s", logSampler.getSuppressedCount(),
+                    auditLog != null ? " (see the audit log)" : ""));
+        return summary.isEmpty() ? null : String.join("\n", summary);
+    }
+
+    /**
+     * Opens the audit log for a run, if one is configured. The caller must set it as the {@link #auditLog} of the
+     * tools that record to it, and close it
+     *
+     * @return the audit log, or null if <code>auditFile</code> is not set
+     */
+    AuditLog openAuditLog(boolean append) throws IOException {
+        return config.auditFile != null ? new AuditLog(config.auditFile, append) : null;
+    }
+
     @Override
     public synchronized void close() {
         if (!closed) {
@@ -53,11 +107,40 @@ public abstract class AbstractReplicationTool implements Runnable, AutoCloseable
                 } catch (Exception ignored) {
                 }
             }
+            if (keyFilter != null) keyFilter.close();
+            // after the clients, so no more calls are recorded
+            if (traceRecorder != null) {
+                traceRecorder.close();
+                log.info("recorded {} S3 calls to {}", traceRecorder.getEventCount(), config.recordTrace);
+            }
+            if (flightRecording != null) {
+                try {
+                    flightRecording.close();
+                    log.info("wrote flight recording to {}", config.jfrFile);
+                } catch (Exception e) {
+                    log.warn("could not write flight recording to {}", config.jfrFile, e);
+                }
+            }
             closed = true;
         }
     }
 
+    static AutoCloseable startFlightRecording(Config config) {
+        if (config.jfrFile == null) return null;
+        if (!FlightEvents.isAvailable()) {
+            log.warn("Java Flight Recorder is not available in this JVM; not recording to {}", config.jfrFile);
+            return null;
+        }
+        log.info("recording JFR events to {} (keeping the last {} bytes)", config.jfrFile, config.jfrMaxSize);
+        return FlightEvents.startRecording(config.jfrFile, config.jfrMaxSize);
+    }
+
     S3Client createClient(Config config) {
+        if (config.replayTrace != null) {
+            if (replayClient == null) replayClient = new ReplayS3Client(config.replayTrace, config.replaySpeed);
+            return replayClient;
+        }
+
         AwsCredentialsProvider credentialsProvider;
         if (!Strings.isBlank(config.awsProfile)) {
             credentialsProvider = ProfileCredentialsProvider.create(config.awsProfile);
@@ -67,22 +150,32 @@ public abstract class AbstractReplicationTool implements Runnable, AutoCloseable
             credentialsProvider = DefaultCredentialsProvider.create();
         }
 
+        // every thread (and every verifier thread) may need a connection at the same time
+        ApacheHttpClient.Builder httpClientBuilder = ApacheHttpClient.builder()
+                .maxConnections(Math.max(DEFAULT_MAX_CONNECTIONS, config.threadCount * 2));
         SdkHttpClient httpClient;
         if (config.disableSslValidation) {
-            httpClient = ApacheHttpClient.builder().buildWithDefaults(
+            httpClient = httpClientBuilder.buildWithDefaults(
                     AttributeMap.builder()
                             .put(SdkHttpConfigurationOption.TRUST_ALL_CERTIFICATES, true)
                             .build());
         } else {
-            httpClient = ApacheHttpClient.builder().build();
+            httpClient = httpClientBuilder.build();
         }
 
-        return S3Client.builder()
+        S3ClientBuilder builder = S3Client.builder()
                 .endpointOverride(config.endpoint)
                 .credentialsProvider(credentialsProvider)
                 .region(Region.US_EAST_1) // TODO: would this ever need to be different?
-                .httpClient(httpClient)
-                .build();
+                .httpClient(httpClient);
+        ClientOverrideConfiguration.Builder override = ClientOverrideConfiguration.builder();
+        if (config.recordTrace != null) {
+            if (traceRecorder == null) traceRecorder = new TraceRecorder(config.recordTrace);
+            override.addExecutionInterceptor(traceRecorder);
+        }
+        // costs nothing unless JFR is recording (i.e. --jfr or -XX:StartFlightRecording)
+        if (FlightEvents.isAvailable()) override.addExecutionInterceptor(FlightEvents.s3Interceptor());
+        return builder.overrideConfiguration(override.build()).build();
     }
 
     public ProcessingStats getGrossRecords() {
@@ -117,12 +210,124 @@ public abstract class AbstractReplicationTool implements Runnable, AutoCloseable
         @Builder.Default
         private final int threadCount = DEFAULT_THREAD_COUNT;
         private final boolean disableSslValidation;
+        /**
+         * Run S3 requests on virtual threads, if the JVM supports them (Java 21+). <code>threadCount</code> is then
+         * only a limit on concurrent requests, so it can be set much higher (i.e. thousands) without the cost of a
+         * platform thread per request
+         */
+        private final boolean virtualThreads;
+        /**
+         * The most memory (in bytes, estimated per row) that rows waiting in the pipeline may hold. This limits how far
+         * the listing (or inventory reader) can get ahead of HEAD/COPY requests: small rows can queue deeply, large
+         * rows (long keys) less so. Defaults to {@link MemoryBudget#DEFAULT_HEAP_FRACTION} of the maximum heap
+         */
+        private final Long maxInflightMemory;
+        /**
+         * Versions that have been PENDING replication for longer than this are considered stuck, and are treated as
+         * FAILED (they are included in failed-version inventories and will be re-replicated)
+         */
+        private final Duration pendingOlderThan;
+        /**
+         * Only process keys in this file (see {@link KeyFilter})
+         */
+        private final Path includeKeysFile;
+        /**
+         * Do not process keys in this file (see {@link KeyFilter})
+         */
+        private final Path excludeKeysFile;
+        /**
+         * Only process keys matching any of these glob (or <code>regex:</code>) patterns
+         */
+        private final List<String> includePatterns;
+        /**
+         * Do not process keys matching any of these glob (or <code>regex:</code>) patterns
+         */
+        private final List<String> excludePatterns;
+        /**
+         * Record every S3 call (operation, key, timing, status and the response fields the tools use) to this file,
+         * for offline analysis or replay. Payloads and credentials are not recorded
+         */
+        private final Path recordTrace;
+        /**
+         * Instead of calling S3, answer from a trace recorded with <code>recordTrace</code>, reproducing its latencies
+         * and errors (see {@link ReplayS3Client}). No endpoint is needed
+         */
+        private final Path replayTrace;
+        /**
+         * How much faster than recorded to replay latencies (i.e. 10 for 10x)
+         */
+        @Builder.Default
+        private final double replaySpeed = 1;
+        /**
+         * Record Java Flight Recorder events (S3 requests, listing pages, queue and pipeline stalls) to this file. JFR
+         * keeps only the most recent <code>jfrMaxSize</code> bytes, so this can be left on for long runs
+         */
+        private final Path jfrFile;
+        @Builder.Default
+        private final long jfrMaxSize = DEFAULT_JFR_MAX_SIZE;
+        /**
+         * Write a CSV row for every re-replication (and every HEAD that returns no usable replication status) to this
+         * file, with the key, version IDs, latency and outcome (see {@link AuditLog}). Per-object log messages are
+         * sampled either way
+         */
+        private final Path auditFile;
+        /**
+         * Where to create temp files: the memory-mapped key sets (key lists, the run's seen keys and the journal's
+         * keys) and priority sort spill files. Defaults to <code>java.io.tmpdir</code>, which is often a RAM-backed
+         * tmpfs, so use a directory on disk for very large inventories
+         */
+        private final Path tempDir;
+        /**
+         * If no version completes for this long, the run is stalled: the stuck versions and their threads' stacks are
+         * logged
+         */
+        @Builder.Default
+        private final Duration stallTimeout = WatchdogOptions.DEFAULT_STALL_TIMEOUT;
+        /**
+         * Abort the run after this many stall timeouts in a row without progress
+         */
+        @Builder.Default
+        private final int maxStalls = WatchdogOptions.DEFAULT_MAX_STALLS;
+        /**
+         * Cancel and retry a HEAD that is still running after this long (i.e. a hung connection); COPYs are never
+         * cancelled, since the server may still complete one and a retry would write another version
+         */
+        @Builder.Default
+        private final Duration taskDeadline = WatchdogOptions.DEFAULT_TASK_DEADLINE;
+        /**
+         * How many times to retry a HEAD cancelled at <code>taskDeadline</code> before it fails
+         */
+        @Builder.Default
+        private final int taskRetries = WatchdogOptions.DEFAULT_TASK_RETRIES;
+
+        public WatchdogOptions getWatchdogOptions() {
+            return WatchdogOptions.builder()
+                    .stallTimeout(stallTimeout)
+                    .maxStalls(maxStalls)
+                    .taskDeadline(taskDeadline)
+                    .taskRetries(taskRetries)
+                    .build();
+        }
+
+        /**
+         * @return true if virtual threads were requested and are supported by the JVM
+         */
+        public boolean useVirtualThreads() {
+            return virtualThreads && VirtualThreads.isAvailable();
+        }
+
+        /**
+         * @return <code>maxInflightMemory</code>, or the default if not set
+         */
+        public long getInflightMemoryLimit() {
+            return maxInflightMemory != null ? maxInflightMemory : MemoryBudget.defaultLimit();
+        }
 
         /**
          * Validate this configuration
          */
         public void validate() {
-            if (endpoint == null)
+            if (endpoint == null && replayTrace == null)
                 throw new IllegalArgumentException("endpoint is required");
 
             if (Strings.isBlank(bucket))
@@ -134,6 +339,54 @@ public abstract class AbstractReplicationTool implements Runnable, AutoCloseable
             if (!Strings.isBlank(accessKey) && Strings.isBlank(secretKey))
                 throw new IllegalArgumentException("when using accessKey, you must provide a secretKey");
 
+            if (pendingOlderThan != null && pendingOlderThan.isNegative())
+                throw new IllegalArgumentException("pendingOlderThan cannot be negative");
+
+            for (Path keysFile : new Path[]{includeKeysFile, excludeKeysFile}) {
+                if (keysFile != null && !Files.isReadable(keysFile))
+                    throw new IllegalArgumentException("cannot read key list " + keysFile);
+            }
+
+            // fail fast on bad patterns
+            KeyFilter.compile(includePatterns);
+            KeyFilter.compile(excludePatterns);
+
+            if (threadCount < 1)
+                throw new IllegalArgumentException("threadCount must be at least 1");
+
+            if (maxInflightMemory != null && maxInflightMemory < 1)
+                throw new IllegalArgumentException("maxInflightMemory must be positive");
+
+            if (recordTrace != null && replayTrace != null)
+                throw new IllegalArgumentException("cannot record and replay a trace at the same time");
+
+            if (replayTrace != null && !Files.isReadable(replayTrace))
+                throw new IllegalArgumentException("cannot read trace " + replayTrace);
+
+            if (tempDir != null && !(Files.isDirectory(tempDir) && Files.isWritable(tempDir)))
+                throw new IllegalArgumentException("temp directory " + tempDir + " is not a writable directory");
+
+            if (replaySpeed <= 0)
+                throw new IllegalArgumentException("replaySpeed must be positive");
+
+            if (jfrMaxSize < 1)
+                throw new IllegalArgumentException("jfrMaxSize must be positive");
+
+            if (stallTimeout == null || stallTimeout.isNegative() || stallTimeout.isZero())
+                throw new IllegalArgumentException("stallTimeout must be positive");
+
+            if (maxStalls < 1)
+                throw new IllegalArgumentException("maxStalls must be at least 1");
+
+            if (taskDeadline == null || taskDeadline.isNegative() || taskDeadline.isZero())
+                throw new IllegalArgumentException("taskDeadline must be positive");
+
+            if (taskRetries < 0)
+                throw new IllegalArgumentException("taskRetries cannot be negative");
+
+            if (virtualThreads && !VirtualThreads.isAvailable())
+                log.warn("virtual threads require Java 21 or later; using platform threads");
+
             if (disableSslValidation)
                 log.warn("SSL validation is disabled - this is NOT safe!");
         }
@@ -0,0 +1,104 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.GroupCommitWriter;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A structured record of the requests made for each object version: one CSV row per re-replication (COPY) attempt,
+ * and per HEAD that did not return a usable replication status, with the key, source version ID, new version ID, whether
+ * the ACL was copied, the latency and the outcome. Rows are written by a background thread in batches (see
+ * {@link GroupCommitWriter}), so worker threads never wait for formatting or disk I/O. This replaces per-object INFO
+ * logging, which is sampled instead (see {@link com.dellemc.objectscale.util.LogSampler}).
+ */
+public class AuditLog implements AutoCloseable {
+    private static final Logger log = LogManager.getLogger(AuditLog.class);
+
+    public enum Header {Time, Operation, Key, VersionId, NewVersionId, AclApplied, LatencyMs, Outcome}
+
+    public static final String OPERATION_HEAD = "HEAD", OPERATION_COPY = "COPY";
+    public static final String OUTCOME_OK = "OK";
+    public static final String OUTCOME_NO_REPLICATION_STATUS = "NoReplicationStatus";
+    public static final String OUTCOME_UNKNOWN_REPLICATION_STATUS = "UnknownReplicationStatus";
+
+    private final Path auditFile;
+    private final GroupCommitWriter<Object[]> writer;
+    // "<operation> <outcome>" -> count
+    private final Map<String, LongAdder> outcomeCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param append if true, rows are appended to an existing audit log, otherwise it is overwritten
+     */
+    public AuditLog(Path auditFile, boolean append) throws IOException {
+        this.auditFile = auditFile;
+        boolean writeHeader = !append || !Files.exists(auditFile) || Files.size(auditFile) == 0;
+        this.writer = new GroupCommitWriter<>(auditFile, append, values -> CSVFormat.DEFAULT.format(values), "audit-writer");
+        if (writeHeader) writer.append(Header.values());
+    }
+
+    /**
+     * Records a request (asynchronously)
+     *
+     * @param newVersionId the version created by the request, if any
+     * @param outcome      {@link #OUTCOME_OK}, or what went wrong (see {@link #outcomeOf(Throwable)})
+     */
+    public void record(String operation, InventoryRow inventoryRow, String newVersionId, boolean aclApplied,
+                       long latencyNanos, String outcome) {
+        outcomeCounts.computeIfAbsent(operation + " " + outcome, k -> new LongAdder()).increment();
+        writer.append(new Object[]{Instant.now(), operation, inventoryRow.getKey(), inventoryRow.getVersionId(),
+                newVersionId, aclApplied, TimeUnit.NANOSECONDS.toMillis(latencyNanos), outcome});
+    }
+
+    /**
+     * @return the S3 error code of a failed request (i.e. AccessDenied), or the exception type if there was no response
+     */
+    public static String outcomeOf(Throwable exception) {
+        if (exception instanceof AwsServiceException && ((AwsServiceException) exception).awsErrorDetails() != null
+                && ((AwsServiceException) exception).awsErrorDetails().errorCode() != null)
+            return ((AwsServiceException) exception).awsErrorDetails().errorCode();
+        return exception.getClass().getSimpleName();
+    }
+
+    public Path getAuditFile() {
+        return auditFile;
+    }
+
+    /**
+     * @return the number of rows committed to the audit log by this instance (including the header)
+     */
+    public long getCommittedCount() {
+        return writer.getCommittedCount();
+    }
+
+    /**
+     * @return the number of requests recorded for each operation and outcome (i.e. "COPY OK: 1000, COPY AccessDenied: 2")
+     */
+    public String getSummary() {
+        List<String> counts = new ArrayList<>();
+        new TreeMap<>(outcomeCounts).forEach((outcome, count) -> counts.add(outcome + ": " + count.sum()));
+        return String.format("Audit log %s: %s", auditFile, counts.isEmpty() ? "nothing recorded" : String.join(", ", counts));
+    }
+
+    /**
+     * Waits for all recorded rows to be committed, and closes the audit log
+     */
+    @Override
+    public void close() {
+        writer.close();
+        log.info("Audit log {} closed; {} rows committed in {} batches", auditFile, writer.getCommittedCount(), writer.getBatchCount());
+    }
+}
@@ -0,0 +1,409 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.Throttle;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs an inventory or re-replication over several buckets in one process. Each bucket is handled by its own
+ * {@link InventoryGenerator} or {@link ReReplicationProcessor}, with its own files (<code>{bucket}</code> in the
+ * inventory and audit file names is replaced with the bucket name), but every bucket uses the same S3 clients and
+ * connection pools.
+ * <p>
+ * Up to <code>parallelBuckets</code> buckets run at once, and the HEADs and COPYs of all of them share one
+ * {@link Throttle} that lets <code>threadCount</code> run at a time, in the order they were requested. So each running
+ * bucket gets an equal share of the threads while it has work queued: a small bucket finishes quickly (and the next
+ * bucket starts), and when fewer buckets have work left they take up the spare threads.
+ * <p>
+ * The <code>maxDuration</code> and <code>maxObjects</code> of a re-replication apply to the whole batch: each bucket
+ * stops when the batch's time is up or its objects have been copied, and buckets that have not started by then are
+ * left for a run with <code>resume</code>.
+ */
+public class BatchRunner extends AbstractReplicationTool {
+    private static final Logger log = LogManager.getLogger(BatchRunner.class);
+
+    public static final String BUCKET_PLACEHOLDER = "{bucket}";
+    public static final int DEFAULT_PARALLEL_BUCKETS = 4;
+
+    private final Config config;
+    private final Throttle throttle;
+    // hedged HEADs of every bucket go here, if they go to another endpoint
+    private final S3Client hedgeClient;
+    // rows passed to be copied by every bucket, counted against maxObjects
+    private final AtomicLong admittedCount = new AtomicLong();
+    // when the run started, for maxDuration
+    private volatile long startNanos;
+    // in the order the buckets were given
+    private final Map<String, BucketRun> runs = new LinkedHashMap<>();
+
+    public BatchRunner(Config config) {
+        super(config, null);
+        this.config = config;
+        this.throttle = new Throttle("batch-throttle", new Throttle.Limits(config.getThreadCount(), null, null));
+        URI hedgeEndpoint = config.getHedgeEndpoint();
+        this.hedgeClient = hedgeEndpoint != null ? createClient(config.toBuilder().endpoint(hedgeEndpoint).build()) : null;
+        for (String bucket : config.buckets) {
+            runs.put(bucket, new BucketRun(bucket));
+        }
+    }
+
+    @Override
+    String getGrossRecordsLabel() {
+        return config.isReReplication() ? "Records read" : "Listed versions";
+    }
+
+    @Override
+    String getFilteredRecordsLabel() {
+        return config.isReReplication() ? "Objects triggered" : "Output records";
+    }
+
+    @Override
+    public void run() {
+        startNanos = System.nanoTime();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(config.parallelBuckets, runs.size()),
+                r -> new Thread(r, "batch-bucket-" + threadNumber.incrementAndGet()));
+        ScheduledExecutorService scheduler = startScheduler();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (BucketRun run : runs.values()) {
+                futures.add(executor.submit(() -> runBucket(run)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (scheduler != null) scheduler.shutdownNow();
+        }
+
+        List<String> failed = new ArrayList<>();
+        for (BucketRun run : runs.values()) {
+            if (run.error != null) failed.add(run.bucket);
+        }
+        if (!failed.isEmpty())
+            throw new RuntimeException(String.format("%d of %d buckets failed: %s (see the log for each bucket's error)",
+                    failed.size(), runs.size(), String.join(", ", failed)));
+        if (runs.values().stream().anyMatch(run -> run.skipReason != null))
+            log.info("Some buckets were not started; run again with --resume to continue");
+
+        log.info("{} complete; exiting normally", BatchRunner.class.getSimpleName());
+    }
+
+    /**
+     * Runs the inventory or re-replication of one bucket. A bucket that fails does not stop the others
+     */
+    void runBucket(BucketRun run) {
+        AbstractReplicationTool.Config bucketConfig = config.configFor(run.bucket);
+        Duration maxDuration = config.getMaxDuration();
+        if (maxDuration != null) {
+            // the time left in the batch
+            maxDuration = maxDuration.minusNanos(System.nanoTime() - startNanos);
+            if (maxDuration.isNegative() || maxDuration.isZero()) {
+                run.skip("the batch reached the maximum duration of " + config.getMaxDuration());
+                return;
+            }
+            bucketConfig = ((ReReplicationProcessor.Config) bucketConfig).toBuilder().maxDuration(maxDuration).build();
+        }
+        Long maxObjects = config.getMaxObjects();
+        if (maxObjects != null && admittedCount.get() >= maxObjects) {
+            run.skip("the batch reached the maximum of " + maxObjects + " objects");
+            return;
+        }
+        log.info("Bucket [{}] starting ({})", run.bucket, bucketConfig.getInventoryFile());
+        run.start(grossRecords, filteredRecords);
+        try (AbstractReplicationTool tool = createTool(bucketConfig)) {
+            tool.sharedThrottle = throttle;
+            tool.setGrossRecords(run.grossRecords);
+            tool.setFilteredRecords(run.filteredRecords);
+            tool.run();
+            run.finish(tool.getSummary(), null);
+            log.info("Bucket [{}] {}", run.bucket, run.getStatsLine());
+        } catch (RuntimeException e) {
+            run.finish(null, e);
+            log.error("Bucket [{}] {}", run.bucket, run.getStatsLine(), e);
+        }
+    }
+
+    AbstractReplicationTool createTool(AbstractReplicationTool.Config bucketConfig) {
+        if (bucketConfig instanceof ReReplicationProcessor.Config) {
+            ReReplicationProcessor processor = new ReReplicationProcessor((ReReplicationProcessor.Config) bucketConfig, s3Client);
+            processor.admittedCount = admittedCount;
+            return processor;
+        }
+        return new InventoryGenerator((InventoryGenerator.Config) bucketConfig, s3Client, hedgeClient);
+    }
+
+    /**
+     * Starts applying the throttle schedule (of a re-replication) to the shared throttle, if there is one
+     *
+     * @return the scheduler to shut down at the end of the run, or null if it isn't needed
+     */
+    ScheduledExecutorService startScheduler() {
+        ThrottleSchedule schedule = config.getThrottleSchedule();
+        if (schedule == null) return null;
+        // the schedule can lower the number of threads, but not raise it
+        schedule.apply(throttle, config.getThreadCount());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-schedule");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = ThrottleSchedule.CHECK_INTERVAL.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> schedule.apply(throttle, config.getThreadCount()), interval, interval, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    /**
+     * @return the progress of each bucket, in the order they were given
+     */
+    public List<BucketRun> getBucketRuns() {
+        return new ArrayList<>(runs.values());
+    }
+
+    @Override
+    String getSummary() {
+        List<String> summary = new ArrayList<>();
+        int complete = 0, failed = 0;
+        for (BucketRun run : runs.values()) {
+            if (run.grossRecords == null) {
+                summary.add(String.format("Bucket [%s]: not started%s", run.bucket,
+                        run.skipReason != null ? " (" + run.skipReason + ")" : ""));
+                continue;
+            }
+            summary.add(String.format("Bucket [%s]: %s", run.bucket, run.getStatsLine()));
+            if (run.summary != null) summary.add("  " + run.summary.replace("\n", "\n  "));
+            if (run.error != null) failed++;
+            else if (run.done) complete++;
+        }
+        summary.add(String.format("%d of %d buckets complete, %d failed; HEADs and COPYs waited %ds in total for one of %d shared threads",
+                complete, runs.size(), failed, TimeUnit.NANOSECONDS.toSeconds(throttle.getWaitNanos()), config.getThreadCount()));
+        if (super.getSummary() != null) summary.add(super.getSummary());
+        return String.join("\n", summary);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (hedgeClient != null) hedgeClient.close();
+        super.close();
+    }
+
+    /**
+     * The progress of one bucket. Its stats are also counted in the batch's stats
+     */
+    public class BucketRun {
+        @Getter
+        private final String bucket;
+        @Getter
+        private volatile ProcessingStats grossRecords, filteredRecords;
+        private volatile String summary;
+        @Getter
+        private volatile RuntimeException error;
+        @Getter
+        private volatile boolean done;
+        // why the bucket was not started, if it wasn't
+        @Getter
+        private volatile String skipReason;
+
+        BucketRun(String bucket) {
+            this.bucket = bucket;
+        }
+
+        void start(ProcessingStats batchGrossRecords, ProcessingStats batchFilteredRecords) {
+            long now = System.currentTimeMillis();
+            filteredRecords = new ProcessingStats(now, batchFilteredRecords);
+            grossRecords = new ProcessingStats(now, batchGrossRecords);
+        }
+
+        void skip(String reason) {
+            skipReason = reason;
+            log.info("Bucket [{}] not started: {}", bucket, reason);
+        }
+
+        void finish(String summary, RuntimeException error) {
+            long now = System.currentTimeMillis();
+            grossRecords.setEndTimeMillis(now);
+            filteredRecords.setEndTimeMillis(now);
+            this.summary = summary;
+            this.error = error;
+            this.done = true;
+        }
+
+        String getStatsLine() {
+            String state = error != null ? "FAILED (" + error.getMessage() + ")" : done ? "done" : "running";
+            return String.format("%s in %ds; %s: %d (%d/s) [%d errors], %s: %d (%d/s) [%d errors]", state,
+                    TimeUnit.MILLISECONDS.toSeconds((done ? grossRecords.getEndTimeMillis() : System.currentTimeMillis())
+                            - grossRecords.getStartTimeMillis()),
+                    getGrossRecordsLabel(), grossRecords.getProcessedObjects(), grossRecords.getPerSecondAverage(), grossRecords.getErrors(),
+                    getFilteredRecordsLabel(), filteredRecords.getProcessedObjects(), filteredRecords.getPerSecondAverage(),
+                    filteredRecords.getErrors());
+        }
+    }
+
+    @SuperBuilder(toBuilder = true)
+    @Getter
+    @EqualsAndHashCode(callSuper = true)
+    @ToString(callSuper = true)
+    public static class Config extends AbstractReplicationTool.Config {
+        /**
+         * The buckets to run, in order
+         */
+        private final List<String> buckets;
+        /**
+         * The inventory or re-replication to run on each bucket. Its <code>bucket</code> is replaced, and
+         * <code>{bucket}</code> in its inventory and audit file names is replaced with the bucket name
+         */
+        private final AbstractReplicationTool.Config bucketConfig;
+        /**
+         * The most buckets to run at once. They share <code>threadCount</code> threads
+         */
+        @Builder.Default
+        private final int parallelBuckets = DEFAULT_PARALLEL_BUCKETS;
+
+        /**
+         * @return a batch that runs <code>bucketConfig</code> on each bucket, with its connection settings
+         */
+        public static Config forBuckets(AbstractReplicationTool.Config bucketConfig, List<String> buckets, int parallelBuckets) {
+            return Config.builder()
+                    .buckets(buckets)
+                    .bucketConfig(bucketConfig)
+                    .parallelBuckets(parallelBuckets)
+                    // the first bucket is validated like any other tool's
+                    .bucket(buckets.isEmpty() ? null : buckets.get(0))
+                    .endpoint(bucketConfig.getEndpoint())
+                    .accessKey(bucketConfig.getAccessKey())
+                    .secretKey(bucketConfig.getSecretKey())
+                    .awsProfile(bucketConfig.getAwsProfile())
+                    .inventoryFile(bucketConfig.getInventoryFile())
+                    .threadCount(bucketConfig.getThreadCount())
+                    .disableSslValidation(bucketConfig.isDisableSslValidation())
+                    .maxInflightMemory(bucketConfig.getMaxInflightMemory())
+                    .recordTrace(bucketConfig.getRecordTrace())
+                    .replayTrace(bucketConfig.getReplayTrace())
+                    .replaySpeed(bucketConfig.getReplaySpeed())
+                    .jfrFile(bucketConfig.getJfrFile())
+                    .jfrMaxSize(bucketConfig.getJfrMaxSize())
+                    .build();
+        }
+
+        boolean isReReplication() {
+            return bucketConfig instanceof ReReplicationProcessor.Config;
+        }
+
+        /**
+         * @return the throttle schedule of a re-replication, or null if there isn't one
+         */
+        ThrottleSchedule getThrottleSchedule() {
+            return isReReplication() ? ((ReReplicationProcessor.Config) bucketConfig).getThrottleSchedule() : null;
+        }
+
+        /**
+         * @return the time for the whole batch to re-replicate, or null if there is no limit
+         */
+        Duration getMaxDuration() {
+            return isReReplication() ? ((ReReplicationProcessor.Config) bucketConfig).getMaxDuration() : null;
+        }
+
+        /**
+         * @return the most objects for the whole batch to re-replicate, or null if there is no limit
+         */
+        Long getMaxObjects() {
+            return isReReplication() ? ((ReReplicationProcessor.Config) bucketConfig).getMaxObjects() : null;
+        }
+
+        /**
+         * @return the endpoint for the hedged HEADs of an inventory, or null if they go to the same endpoint
+         */
+        URI getHedgeEndpoint() {
+            if (!(bucketConfig instanceof InventoryGenerator.Config)) return null;
+            InventoryGenerator.Config inventoryConfig = (InventoryGenerator.Config) bucketConfig;
+            return inventoryConfig.isHedge() ? inventoryConfig.getHedgeEndpoint() : null;
+        }
+
+        /**
+         * @return the configuration for one bucket of the batch
+         */
+        public AbstractReplicationTool.Config configFor(String bucket) {
+            AbstractReplicationTool.Config config = bucketConfig.toBuilder()
+                    .bucket(bucket)
+                    .inventoryFile(forBucket(bucketConfig.getInventoryFile(), bucket))
+                    .auditFile(forBucket(bucketConfig.getAuditFile(), bucket))
+                    // recorded once for the whole batch
+                    .recordTrace(null)
+                    .jfrFile(null)
+                    .maxInflightMemory(getInflightMemoryLimit() / Math.min(parallelBuckets, buckets.size()))
+                    .build();
+            // applied to the shared throttle instead
+            if (getThrottleSchedule() != null)
+                config = ((ReReplicationProcessor.Config) config).toBuilder().throttleSchedule(null).build();
+            return config;
+        }
+
+        static Path forBucket(Path file, String bucket) {
+            if (file == null) return null;
+            return Paths.get(file.toString().replace(BUCKET_PLACEHOLDER, bucket));
+        }
+
+        @Override
+        public void validate() {
+            super.validate();
+
+            if (buckets == null || buckets.isEmpty())
+                throw new IllegalArgumentException("at least one bucket is required");
+
+            if (buckets.stream().distinct().count() < buckets.size())
+                throw new IllegalArgumentException("each bucket can only be run once");
+
+            if (parallelBuckets < 1)
+                throw new IllegalArgumentException("parallelBuckets must be at least 1");
+
+            if (bucketConfig == null)
+                throw new IllegalArgumentException("bucketConfig is required");
+
+            if (bucketConfig instanceof ReplicationSampler.Config
+                    || !(bucketConfig instanceof InventoryGenerator.Config || bucketConfig instanceof ReReplicationProcessor.Config))
+                throw new IllegalArgumentException("only an inventory or a re-replication can be run on several buckets");
+
+            if (buckets.size() > 1) {
+                if (!getInventoryFile().toString().contains(BUCKET_PLACEHOLDER))
+                    throw new IllegalArgumentException("with several buckets, the inventory file name must contain "
+                            + BUCKET_PLACEHOLDER + " (i.e. inventory-" + BUCKET_PLACEHOLDER + ".csv)");
+                if (bucketConfig.getAuditFile() != null && !bucketConfig.getAuditFile().toString().contains(BUCKET_PLACEHOLDER))
+                    throw new IllegalArgumentException("with several buckets, the audit file name must contain " + BUCKET_PLACEHOLDER);
+            }
+
+            // fail before any bucket has started
+            for (String bucket : buckets) {
+                configFor(bucket).validate();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.dellemc.objectscale.tool;
+
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Applies the inventory filter criteria in two phases. {@link #testListing(InventoryRow)} evaluates everything that can
+ * be determined from the listing (version type, time, size, key range, key lists and patterns) and is applied
+ * <em>before</em> a version is HEADed, so filtered versions cost nothing. {@link #testStatus(InventoryRow)} evaluates
+ * criteria that depend on the replication status, which is only known after the HEAD.
+ */
+public class InventoryFilter {
+    private final InventoryGenerator.FilterType filterType;
+    private final Instant modifiedAfter;
+    private final Instant modifiedBefore;
+    private final Long minSize;
+    private final Long maxSize;
+    private final boolean excludeDeleteMarkers;
+    private final String endBefore;
+    private final Duration pendingOlderThan;
+    private final KeyFilter keyFilter;
+
+    public InventoryFilter(InventoryGenerator.Config config) {
+        this(config, null);
+    }
+
+    /**
+     * @param keyFilter include/exclude key criteria (may be null)
+     */
+    public InventoryFilter(InventoryGenerator.Config config, KeyFilter keyFilter) {
+        this.filterType = config.getFilterType();
+        this.modifiedAfter = config.getModifiedAfter();
+        this.modifiedBefore = config.getModifiedBefore();
+        this.minSize = config.getMinSize();
+        this.maxSize = config.getMaxSize();
+        this.excludeDeleteMarkers = config.isExcludeDeleteMarkers();
+        this.endBefore = config.getEndBefore();
+        this.pendingOlderThan = config.getPendingOlderThan();
+        this.keyFilter = keyFilter;
+    }
+
+    /**
+     * @return true if the listed version should be HEADed
+     */
+    public boolean testListing(InventoryRow inventoryRow) {
+        // if not listing all versions, filter current version only
+        if (filterType != InventoryGenerator.FilterType.AllVersions && !inventoryRow.getIsLatest()) return false;
+        if (excludeDeleteMarkers && inventoryRow.getIsDeleteMarker()) return false;
+        if (modifiedAfter != null && !inventoryRow.getLastModified().isAfter(modifiedAfter)) return false;
+        if (modifiedBefore != null && !inventoryRow.getLastModified().isBefore(modifiedBefore)) return false;
+        // delete markers have no size, so size criteria don't apply to them
+        if (!inventoryRow.getIsDeleteMarker()) {
+            if (minSize != null && inventoryRow.getSize() < minSize) return false;
+            if (maxSize != null && inventoryRow.getSize() > maxSize) return false;
+        }
+        // key lists and patterns are the most expensive criteria, so check them last
+        return keyFilter == null || keyFilter.test(inventoryRow.getKey());
+    }
+
+    /**
+     * @return true if the listing is past the end of the configured key range, and no more versions need to be listed
+     */
+    public boolean isPastEnd(InventoryRow inventoryRow) {
+        return endBefore != null && inventoryRow.getKey().compareTo(endBefore) >= 0;
+    }
+
+    /**
+     * @return true if the HEADed version should be written to the inventory
+     */
+    public boolean testStatus(InventoryRow inventoryRow) {
+        if (filterType != InventoryGenerator.FilterType.FailedCurrentVersionOnly) return true;
+        return inventoryRow.getReplicationStatus() == ReplicationStatus.FAILED
+                || isStalePending(inventoryRow, pendingOlderThan, System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if the version has been PENDING for longer than <code>pendingOlderThan</code> (which may be null, in
+     * which case no version is considered stale)
+     */
+    static boolean isStalePending(InventoryRow inventoryRow, Duration pendingOlderThan, long nowMillis) {
+        return pendingOlderThan != null
+                && inventoryRow.getReplicationStatus() == ReplicationStatus.PENDING
+                && inventoryRow.getLastModified() != null
+                && nowMillis - inventoryRow.getLastModified().toEpochMilli() > pendingOlderThan.toMillis();
+    }
+}
@@ -1,40 +1,83 @@
 package com.dellemc.objectscale.tool;
 
-import com.dellemc.objectscale.util.EnhancedThreadPoolExecutor;
+import com.dellemc.objectscale.pipeline.Pipeline;
+import com.dellemc.objectscale.pipeline.StageOptions;
+import com.dellemc.objectscale.util.Hedger;
+import com.dellemc.objectscale.util.MemoryBudget;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.experimental.SuperBuilder;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
 import software.amazon.awssdk.services.s3.model.ObjectVersion;
 import software.amazon.awssdk.services.s3.model.ReplicationStatus;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.paginators.ListObjectVersionsIterable;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Files;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class InventoryGenerator extends AbstractReplicationTool {
     private static final Logger log = LogManager.getLogger(InventoryGenerator.class);
 
     public static final String HEADER_AMZ_REPLICATION_STATUS = "x-amz-replication-status";
     public static final int QUEUE_SIZE = 5000;
+    // pipeline queues are sized by the memory budget (see Config.maxInflightMemory); this only caps them
+    public static final int MAX_QUEUED_ROWS = 1000000;
 
     private final Config config;
+    private final InventoryFilter filter;
+    private volatile Pipeline pipeline;
+    private final Hedger hedger;
+    // hedged HEADs go here (may be the same client)
+    private final S3Client hedgeClient;
+    private final boolean createdHedgeClient;
 
     public InventoryGenerator(Config config) {
-        super(config, null);
+        this(config, null);
+    }
+
+    /**
+     * @param s3Client the client to use (i.e. shared with another tool), or null to create one from the config
+     */
+    InventoryGenerator(Config config, S3Client s3Client) {
+        this(config, s3Client, null);
+    }
+
+    /**
+     * @param hedgeClient the client for hedged HEADs to <code>hedgeEndpoint</code> (i.e. shared with another tool), or
+     *                    null to create one from the config
+     */
+    InventoryGenerator(Config config, S3Client s3Client, S3Client hedgeClient) {
+        super(config, s3Client);
         this.config = config;
+        this.filter = new InventoryFilter(config, keyFilter);
+        if (config.hedge) {
+            this.hedger = new Hedger("s3-hedge-pool", config.hedgePercentile, config.hedgeBudget, config.useVirtualThreads());
+            this.createdHedgeClient = hedgeClient == null && config.hedgeEndpoint != null;
+            if (hedgeClient != null) this.hedgeClient = hedgeClient;
+            else this.hedgeClient = createdHedgeClient ? createClient(config.toBuilder().endpoint(config.hedgeEndpoint).build()) : this.s3Client;
+        } else {
+            this.hedger = null;
+            this.hedgeClient = null;
+            this.createdHedgeClient = false;
+        }
     }
 
     @Override
@@ -49,145 +92,241 @@ public class InventoryGenerator extends AbstractReplicationTool {
 
     @Override
     public void run() {
-        final AtomicBoolean stillListing = new AtomicBoolean(true);
-        Thread writerThread = null;
-        try {
-            // use a blocking queue to maintain order and limit memory
-            BlockingQueue<Future<InventoryRow>> futureQueue = new LinkedBlockingQueue<>(QUEUE_SIZE);
+        // configure output
+        final Path rollupFile = InventoryRollup.rollupFileFor(config.getInventoryFile());
+        try (InventoryWriter inventoryWriter = new InventoryWriter(config.getInventoryFile(), config.getIndexInterval());
+             AuditLog auditLog = openAuditLog(false)) {
+            this.auditLog = auditLog;
+            final InventoryRollup rollup = config.rollup ? new InventoryRollup(config.rollupDepth, config.rollupMaxEntries) : null;
 
-            // configure output
-            final CSVPrinter csvPrinter = CSVFormat.DEFAULT.withHeader(InventoryRow.Header.class).print(new FileWriter(config.getInventoryFile().toFile()));
+            // TODO: use alternative query to filter and list all failed versions (and directly submit them to the queue)
 
-            // start thread to write output
-            // futureQueue.take() will block until the main thread submits more tasks to the HEAD thread pool
-            // .get() on the returned future will block until that version's HEAD call returns and repl. status is populated
-            writerThread = new Thread(() -> {
+            generate(rollup, rollupFile, inventoryRow -> {
                 try {
-                    while (stillListing.get()) {
-                        try {
-                            while (true) {
-                                InventoryRow inventoryRow = futureQueue.take().get();
-                                // if configured, only print failed versions
-                                if (config.filterType == FilterType.FailedCurrentVersionOnly
-                                        && inventoryRow.getReplicationStatus() != ReplicationStatus.FAILED)
-                                    continue;
-                                csvPrinter.printRecord(inventoryRow.toFieldArray());
-                                if (filteredRecords != null) filteredRecords.incProcessedObjects();
-                            }
-                        } catch (ExecutionException e) {
-                            if (e.getCause() instanceof ListingCompleteException) {
-                                // this should only happen when the last future is pulled from the queue and all others have been written
-                                log.info("Listing terminator received in CSV writer thread");
-                            } else {
-                                logException(Level.WARN, "Unexpected ERROR", e);
-                                if (filteredRecords != null) filteredRecords.incErrors();
-                            }
-                        } catch (InterruptedException e) {
-                            logException(Level.INFO, "CSV writer thread interrupted", e);
-                        }
-                    }
-                    log.info("CSV writer thread shutting down");
-                    csvPrinter.flush();
+                    inventoryWriter.write(inventoryRow);
                 } catch (IOException e) {
-                    logException(Level.ERROR, "Error writing to inventory file", e);
+                    throw new RuntimeException("Error writing to inventory file", e);
                 }
             });
-            writerThread.start();
 
-            // TODO: use alternative query to filter and list all failed versions (and directly submit them to the queue)
+            if (rollup != null) {
+                rollup.writeReport(rollupFile, true);
+                log.info("Rollup report written to {}", rollupFile);
+            }
+
+            log.info("{} complete; exiting normally", InventoryGenerator.class.getSimpleName());
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } // try-with-resources will close the CSV file and the audit log
+    }
 
-            // configure thread pool for S3 HEADs
-            final EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(
-                    config.getThreadCount(),
-                    new LinkedBlockingDeque<>(QUEUE_SIZE),
-                    "s3-head-pool");
-
-            // list versions
-            log.info("Listing versions in [{}] using prefix [{}]", config.getBucket(), config.getPrefix());
-            ListObjectVersionsIterable versionPages = s3Client.listObjectVersionsPaginator(builder -> builder
-                    .bucket(config.getBucket())
-                    .prefix(config.getPrefix()));
-
-            // use a stream to convert to InventoryRow and filter
-            versionPages.stream()
-                    .flatMap(response -> {
-                        if (grossRecords != null)
-                            grossRecords.incProcessedObjects(response.versions().size() + response.deleteMarkers().size());
-                        return Stream.concat( // merge versions and delete-markers
-                                response.versions().stream().map(InventoryGenerator::inventoryRowFromObjectVersion),
-                                response.deleteMarkers().stream().map(InventoryGenerator::inventoryRowFromDeleteMarker)
-                        ).sorted(); // sort combined versions+deleteMarkers (this is how they are returned, but s3client separates)
-                    })
-                    // if not listing all versions, filter current version only
-                    .filter(inventoryRow -> config.filterType == FilterType.AllVersions || inventoryRow.getIsLatest())
-                    .forEachOrdered(inventoryRow -> {
-                        // this stream can't be parallelized, so submit to a thread pool for HEADing each version to get repl. status
-                        try {
-                            futureQueue.put(executor.blockingSubmit(() -> {
-                                // HEAD each version to get replication status
-                                String replStatus = null;
-                                try {
-                                    replStatus = s3Client.headObject(builder -> builder.bucket(config.getBucket())
-                                            .key(inventoryRow.getKey())
-                                            .versionId(inventoryRow.getVersionId()))
-                                            .replicationStatusAsString();
-                                } catch (S3Exception e) {
-                                    if (e.statusCode() == 405) {
-                                        // we can still pull the replication status from a 405 (method not allowed)
-                                        log.debug("HEAD request for {}:{} returned a 405", inventoryRow.getKey(), inventoryRow.getVersionId());
-                                        replStatus = e.awsErrorDetails().sdkHttpResponse()
-                                                .firstMatchingHeader(HEADER_AMZ_REPLICATION_STATUS).orElse(null);
-                                    } else {
-                                        logException(Level.INFO, "HEAD failed for " + inventoryRow.getKey() + ":" + inventoryRow.getVersionId(), e);
-                                    }
-                                }
-
-                                if (replStatus == null) {
-                                    log.info("No replication status returned for {}:{} (header not present)", inventoryRow.getKey(), inventoryRow.getVersionId());
-                                } else {
-                                    inventoryRow.setReplicationStatus(getReplicationStatusEnum(replStatus));
-                                    if (inventoryRow.getReplicationStatus() == ReplicationStatus.UNKNOWN_TO_SDK_VERSION)
-                                        log.info("Unrecognized replication status ({}) for {}:{}",
-                                                replStatus, inventoryRow.getKey(), inventoryRow.getVersionId());
-                                }
-
-                                return inventoryRow;
-                            }));
-                        } catch (InterruptedException e) { // would come from futureQueue.put()
-                            throw new RuntimeException(e);
+    /**
+     * @return the inventory as a stream of rows, without writing a file (see {@link InventoryPublisher})
+     */
+    public InventoryPublisher publisher() {
+        return new InventoryPublisher(this);
+    }
+
+    /**
+     * Lists versions and HEADs each one (in parallel) to get its replication status, and passes the rows that match the
+     * filter to <code>output</code>, in listing order. <code>output</code> is called from one thread at a time, and
+     * holds up the whole pipeline while it blocks (up to the memory budget)
+     *
+     * @param rollup     if not null, every HEADed version is added to it, and its report is written to
+     *                   <code>rollupFile</code> when due
+     * @param rollupFile where to write the rollup report
+     * @param output     receives the rows to output
+     */
+    void generate(InventoryRollup rollup, Path rollupFile, Consumer<InventoryRow> output) {
+        // list versions and HEAD each one (in parallel) to get its repl. status, then output them in listing order
+        pipeline = Pipeline.from("inventory", listVersions())
+                .memoryBudget(new MemoryBudget(config.getInflightMemoryLimit()), InventoryRow::estimateRetainedBytes)
+                .watchdog(config.getWatchdogOptions())
+                .map("head", this::headReplicationStatus, StageOptions.<InventoryRow>builder()
+                        .concurrency(config.getThreadCount())
+                        .cancellable(true)
+                        .queueSize(MAX_QUEUED_ROWS)
+                        .ordered(true)
+                        .virtualThreads(config.useVirtualThreads())
+                        .throttle(sharedThrottle)
+                        .errorHandler((inventoryRow, e) -> {
+                            logException(Level.WARN, "Unexpected ERROR for " + inventoryRow.getKey() + ":" + inventoryRow.getVersionId(), e);
+                            if (filteredRecords != null) filteredRecords.incErrors();
+                        })
+                        .build())
+                .sink("write", inventoryRow -> {
+                    try {
+                        // the rollup covers every version we HEAD, not just the ones we output
+                        if (rollup != null) {
+                            rollup.add(inventoryRow);
+                            rollup.writeReportIfDue(rollupFile);
                         }
-                    });
-
-            // break the loop in the writer thread
-            stillListing.set(false);
-            log.info("Listing complete; all HEAD operations sent to queue");
-
-            // send terminating Future
-            futureQueue.put(executor.blockingSubmit(() -> {
-                throw new ListingCompleteException();
-            }));
-            log.info("Listing terminator sent to CSV writer thread");
-
-            // wait a long time for heads to complete
-            executor.shutdown();
-            log.info("Waiting for HEAD operations to complete");
-            if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
-                executor.shutdownNow();
-                throw new RuntimeException("last " + QUEUE_SIZE + " HEAD requests taking more than an hour; bailing out");
+                    } catch (IOException e) {
+                        throw new RuntimeException("Error writing rollup report", e);
+                    }
+                    // if configured, only output failed versions
+                    if (!filter.testStatus(inventoryRow)) return;
+                    output.accept(inventoryRow);
+                    if (filteredRecords != null) filteredRecords.incProcessedObjects();
+                }, StageOptions.<InventoryRow>builder().queueSize(MAX_QUEUED_ROWS).build());
+
+        // the watchdog aborts the run if HEADs stop completing
+        pipeline.run();
+    }
+
+    /**
+     * @return the pipeline of the current (or last) run, for per-stage stats
+     */
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return the hedger for HEAD requests, or null if hedging is disabled
+     */
+    public Hedger getHedger() {
+        return hedger;
+    }
+
+    /**
+     * @return the client for hedged HEADs, or null if hedging is disabled
+     */
+    S3Client getHedgeClient() {
+        return hedgeClient;
+    }
+
+    @Override
+    String getSummary() {
+        String summary = super.getSummary();
+        if (hedger == null) return summary;
+        return summary != null ? hedger.getSummary() + "\n" + summary : hedger.getSummary();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (hedger != null) hedger.close();
+        if (createdHedgeClient) hedgeClient.close();
+        super.close();
+    }
+
+    /**
+     * Lists the versions in the bucket as a stream of InventoryRows, in key/versionId order. All filter criteria that
+     * can be evaluated from the listing are applied here, so that filtered versions are never HEADed
+     */
+    Stream<InventoryRow> listVersions() {
+        log.info("Listing versions in [{}] using prefix [{}], starting after [{}], ending before [{}]",
+                config.getBucket(), config.getPrefix(), config.getStartAfter(), config.getEndBefore());
+        ListObjectVersionsIterable versionPages = s3Client.listObjectVersionsPaginator(builder -> builder
+                .bucket(config.getBucket())
+                .prefix(config.getPrefix())
+                .keyMarker(config.getStartAfter()));
+
+        // use a stream to convert to InventoryRow and filter
+        Stream<InventoryRow> rows = versionPages.stream()
+                .flatMap(response -> {
+                    if (grossRecords != null)
+                        grossRecords.incProcessedObjects(response.versions().size() + response.deleteMarkers().size());
+                    return rowsFromPage(response);
+                });
+
+        // stop listing once we pass the end of the key range
+        if (config.getEndBefore() != null) rows = takeWhile(rows, inventoryRow -> !filter.isPastEnd(inventoryRow));
+
+        return rows.filter(filter::testListing);
+    }
+
+    /**
+     * Merges the versions and delete markers of one listing page back into key/versionId order (this is how they are
+     * returned, but the SDK separates them)
+     */
+    static Stream<InventoryRow> rowsFromPage(ListObjectVersionsResponse response) {
+        return Stream.concat(
+                response.versions().stream().map(InventoryGenerator::inventoryRowFromObjectVersion),
+                response.deleteMarkers().stream().map(InventoryGenerator::inventoryRowFromDeleteMarker)
+        ).sorted();
+    }
+
+    /**
+     * Equivalent of Stream.takeWhile() (Java 9+). The source is only advanced as far as needed, so no more listing
+     * pages are requested after the predicate fails
+     */
+    static <T> Stream<T> takeWhile(Stream<T> stream, Predicate<? super T> predicate) {
+        Spliterator<T> source = stream.spliterator();
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            private boolean done = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (done) return false;
+                boolean advanced = source.tryAdvance(t -> {
+                    if (predicate.test(t)) action.accept(t);
+                    else done = true;
+                });
+                return advanced && !done;
             }
-            log.info("All HEAD operations should be complete; waiting for CSV writer thread to finish");
+        }, false).onClose(stream::close);
+    }
 
-            // don't close the CSV file before the writer is done
-            writerThread.join();
+    /**
+     * HEADs the version, hedging the request if configured
+     */
+    HeadObjectResponse headObject(InventoryRow inventoryRow) {
+        if (hedger == null) return headObject(s3Client, inventoryRow);
+        return hedger.call(isHedge -> headObject(isHedge ? hedgeClient : s3Client, inventoryRow));
+    }
 
-            log.info("{} complete; exiting normally", InventoryGenerator.class.getSimpleName());
+    HeadObjectResponse headObject(S3Client client, InventoryRow inventoryRow) {
+        return client.headObject(builder -> builder.bucket(config.getBucket())
+                .key(inventoryRow.getKey())
+                .versionId(inventoryRow.getVersionId()));
+    }
 
-        } catch (IOException | InterruptedException e) {
-            stillListing.set(false);
-            // try to stop the CSV writer thread
-            if (writerThread != null) writerThread.interrupt();
-            throw new RuntimeException(e);
-        } // try-with-resources will close the CSV file
+    /**
+     * HEADs the version to get its replication status, and sets it on the row (if the header is present)
+     *
+     * @return the same row
+     */
+    InventoryRow headReplicationStatus(InventoryRow inventoryRow) {
+        String replStatus = null;
+        String outcome = null;
+        long start = System.nanoTime();
+        try {
+            replStatus = headObject(inventoryRow).replicationStatusAsString();
+        } catch (S3Exception e) {
+            if (e.statusCode() == 405) {
+                // we can still pull the replication status from a 405 (method not allowed)
+                log.debug("HEAD request for {}:{} returned a 405", inventoryRow.getKey(), inventoryRow.getVersionId());
+                replStatus = e.awsErrorDetails().sdkHttpResponse()
+                        .firstMatchingHeader(HEADER_AMZ_REPLICATION_STATUS).orElse(null);
+            } else {
+                outcome = AuditLog.outcomeOf(e);
+                logException(Level.INFO, "HEAD failed for " + inventoryRow.getKey() + ":" + inventoryRow.getVersionId(), e);
+            }
+        }
+        long latency = System.nanoTime() - start;
+
+        if (replStatus == null) {
+            if (outcome == null) {
+                outcome = AuditLog.OUTCOME_NO_REPLICATION_STATUS;
+                logSampler.log(log, Level.INFO, "no-status", "No replication status returned for {}:{} (header not present)",
+                        inventoryRow.getKey(), inventoryRow.getVersionId());
+            }
+        } else {
+            inventoryRow.setReplicationStatus(getReplicationStatusEnum(replStatus));
+            if (inventoryRow.getReplicationStatus() == ReplicationStatus.UNKNOWN_TO_SDK_VERSION) {
+                outcome = AuditLog.OUTCOME_UNKNOWN_REPLICATION_STATUS + "(" + replStatus + ")";
+                logSampler.log(log, Level.INFO, "unknown-status", "Unrecognized replication status ({}) for {}:{}",
+                        replStatus, inventoryRow.getKey(), inventoryRow.getVersionId());
+            }
+        }
+
+        // only HEADs without a usable status are audited; the rest are in the inventory
+        AuditLog auditLog = this.auditLog;
+        if (outcome != null && auditLog != null)
+            auditLog.record(AuditLog.OPERATION_HEAD, inventoryRow, null, false, latency, outcome);
+
+        return inventoryRow;
     }
 
     static ReplicationStatus getReplicationStatusEnum(String replStatusStr) {
@@ -215,11 +354,15 @@ public class InventoryGenerator extends AbstractReplicationTool {
         return value;
     }
 
+    /**
+     * Logs a sample of failed requests (see {@link com.dellemc.objectscale.util.LogSampler}), with a stack trace only
+     * at debug level
+     */
     void logException(Level level, String message, Exception exception) {
         if (log.isDebugEnabled()) {
             log.log(level, message, exception);
         } else {
-            log.log(level, message + " - " + exception);
+            logSampler.log(log, level, "exception-" + level, "{} - {}", message, exception);
         }
     }
 
@@ -232,6 +375,65 @@ public class InventoryGenerator extends AbstractReplicationTool {
         @Builder.Default
         private final FilterType filterType = FilterType.FailedCurrentVersionOnly;
         private final boolean forceOverwrite;
+        /**
+         * If greater than zero, a sparse key index is written next to the inventory file, with an entry every
+         * <code>indexInterval</code> rows (see {@link InventoryIndex})
+         */
+        private final int indexInterval;
+        /**
+         * Whether to keep a rollup of replication status by prefix, owner and PENDING age, which is written next to the
+         * inventory file periodically and at the end of the run (see {@link InventoryRollup})
+         */
+        private final boolean rollup;
+        @Builder.Default
+        private final int rollupDepth = InventoryRollup.DEFAULT_DEPTH;
+        @Builder.Default
+        private final int rollupMaxEntries = InventoryRollup.DEFAULT_MAX_ENTRIES;
+        /**
+         * Only inventory versions modified after this time (evaluated before HEAD)
+         */
+        private final Instant modifiedAfter;
+        /**
+         * Only inventory versions modified before this time (evaluated before HEAD)
+         */
+        private final Instant modifiedBefore;
+        /**
+         * Only inventory objects of at least this size in bytes (evaluated before HEAD; does not apply to delete
+         * markers)
+         */
+        private final Long minSize;
+        /**
+         * Only inventory objects of at most this size in bytes (evaluated before HEAD; does not apply to delete markers)
+         */
+        private final Long maxSize;
+        /**
+         * Do not inventory delete markers (evaluated before HEAD)
+         */
+        private final boolean excludeDeleteMarkers;
+        /**
+         * Only inventory keys after this key (passed to the listing as the key marker)
+         */
+        private final String startAfter;
+        /**
+         * Only inventory keys before this key (listing stops when it is reached)
+         */
+        private final String endBefore;
+        /**
+         * Send a second HEAD for versions whose HEAD has not returned within <code>hedgePercentile</code> of recent
+         * HEAD latency, and use whichever returns first (see {@link Hedger})
+         */
+        private final boolean hedge;
+        @Builder.Default
+        private final double hedgePercentile = Hedger.DEFAULT_PERCENTILE;
+        /**
+         * The most hedged HEADs to send, as a fraction of all HEADs
+         */
+        @Builder.Default
+        private final double hedgeBudget = Hedger.DEFAULT_BUDGET;
+        /**
+         * Send hedged HEADs to this endpoint instead (i.e. a different node), so they avoid the slow node
+         */
+        private final URI hedgeEndpoint;
 
         @Override
         public void validate() {
@@ -240,13 +442,35 @@ public class InventoryGenerator extends AbstractReplicationTool {
             if (Files.exists(getInventoryFile()) && !forceOverwrite) {
                 throw new IllegalArgumentException("inventoryFile already exists (use forceOverwrite to overwrite)");
             }
+
+            if (indexInterval < 0)
+                throw new IllegalArgumentException("indexInterval cannot be negative");
+
+            if (rollup && rollupDepth < 0)
+                throw new IllegalArgumentException("rollupDepth cannot be negative");
+
+            if (rollup && rollupMaxEntries < 1)
+                throw new IllegalArgumentException("rollupMaxEntries must be at least 1");
+
+            if (modifiedAfter != null && modifiedBefore != null && !modifiedAfter.isBefore(modifiedBefore))
+                throw new IllegalArgumentException("modifiedAfter must be before modifiedBefore");
+
+            if (minSize != null && maxSize != null && minSize > maxSize)
+                throw new IllegalArgumentException("minSize cannot be greater than maxSize");
+
+            if (startAfter != null && endBefore != null && startAfter.compareTo(endBefore) >= 0)
+                throw new IllegalArgumentException("startAfter must be before endBefore");
+
+            if (hedge && (hedgePercentile <= 0 || hedgePercentile >= 100))
+                throw new IllegalArgumentException("hedgePercentile must be between 0 and 100");
+
+            if (hedge && (hedgeBudget <= 0 || hedgeBudget > 1))
+                throw new IllegalArgumentException("hedgeBudget must be greater than 0 and at most 1");
         }
     }
 
-    enum FilterType {
+    public enum FilterType {
         AllVersions, CurrentVersionOnly, FailedCurrentVersionOnly
     }
 
-    static class ListingCompleteException extends RuntimeException {
-    }
 }
@@ -0,0 +1,304 @@
+package com.dellemc.objectscale.tool;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sparse index of an inventory file. Inventories are written in key/versionId order, so recording the key and byte
+ * offset of every Nth row allows seeking directly to a key, estimating the number of rows in a key range, and
+ * splitting the inventory into balanced byte ranges, all without scanning the file.
+ * <p>
+ * The index is a CSV sidecar file (inventory file name + {@link #INDEX_FILE_SUFFIX}) with one row per entry, followed
+ * by a trailer row with an empty key, the total size of the inventory file and the total number of data rows.
+ */
+public class InventoryIndex {
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+    public static final int DEFAULT_INTERVAL = 10000;
+
+    public static Path indexFileFor(Path inventoryFile) {
+        return inventoryFile.resolveSibling(inventoryFile.getFileName() + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Loads the index for the given inventory file
+     *
+     * @throws FileNotFoundException if the inventory has no index
+     */
+    public static InventoryIndex load(Path inventoryFile) throws IOException {
+        Path indexFile = indexFileFor(inventoryFile);
+        if (!Files.exists(indexFile)) throw new FileNotFoundException("no index found for inventory (" + indexFile + ")");
+
+        List<String> keys = new ArrayList<>();
+        long[] offsets = new long[1024], rows = new long[1024];
+        long endOffset = -1, totalRows = -1;
+        try (CSVParser parser = CSVFormat.DEFAULT.withHeader(Header.class).withSkipHeaderRecord()
+                .parse(Files.newBufferedReader(indexFile))) {
+            for (CSVRecord record : parser) {
+                String key = record.get(Header.Key);
+                long offset = Long.parseLong(record.get(Header.Offset)), row = Long.parseLong(record.get(Header.Row));
+                if (key.isEmpty()) { // trailer
+                    endOffset = offset;
+                    totalRows = row;
+                    break;
+                }
+                if (keys.size() == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    rows = Arrays.copyOf(rows, rows.length * 2);
+                }
+                offsets[keys.size()] = offset;
+                rows[keys.size()] = row;
+                keys.add(key);
+            }
+        }
+        if (endOffset < 0) throw new IOException("index is incomplete (no trailer) - was the inventory interrupted?");
+
+        return new InventoryIndex(inventoryFile, keys.toArray(new String[0]),
+                Arrays.copyOf(offsets, keys.size()), Arrays.copyOf(rows, keys.size()), endOffset, totalRows);
+    }
+
+    private final Path inventoryFile;
+    private final String[] keys;
+    private final long[] offsets;
+    private final long[] rows;
+    private final long endOffset;
+    private final long totalRows;
+
+    InventoryIndex(Path inventoryFile, String[] keys, long[] offsets, long[] rows, long endOffset, long totalRows) {
+        this.inventoryFile = inventoryFile;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.rows = rows;
+        this.endOffset = endOffset;
+        this.totalRows = totalRows;
+    }
+
+    public Path getInventoryFile() {
+        return inventoryFile;
+    }
+
+    public int getEntryCount() {
+        return keys.length;
+    }
+
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * @return the index of the last entry whose key is strictly less than <code>key</code>, or -1 if there is none.
+     * Versions of the same key can span entries, so this is where a scan for <code>key</code> must start
+     */
+    int floorEntry(String key) {
+        int low = 0, high = keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) low = mid + 1;
+            else high = mid - 1;
+        }
+        return low - 1;
+    }
+
+    /**
+     * @return the index of the first entry whose key is greater than or equal to <code>key</code>, or the entry count
+     * if there is none
+     */
+    int ceilingEntry(String key) {
+        return floorEntry(key) + 1;
+    }
+
+    long offsetOf(int entry) {
+        return entry < keys.length ? offsets[entry] : endOffset;
+    }
+
+    long rowOf(int entry) {
+        return entry < keys.length ? rows[entry] : totalRows;
+    }
+
+    /**
+     * @return the byte offset at which to start scanning for rows with the given key
+     */
+    public long seekOffset(String key) {
+        return offsetOf(Math.max(floorEntry(key), 0));
+    }
+
+    /**
+     * Estimates the number of rows whose keys are in the range [<code>fromKey</code>, <code>toKey</code>). The
+     * result is an upper bound, and is accurate to within two index intervals. Either key may be null to leave that
+     * end of the range open
+     */
+    public long estimateRowCount(String fromKey, String toKey) {
+        long fromRow = fromKey == null ? 0 : rowOf(Math.max(floorEntry(fromKey), 0));
+        long toRow = toKey == null ? totalRows : rowOf(ceilingEntry(toKey));
+        return Math.max(toRow - fromRow, 0);
+    }
+
+    /**
+     * Splits the inventory into <code>parts</code> contiguous byte ranges of roughly equal size. Range boundaries
+     * always fall on index entries, so some ranges may be empty if the index has fewer entries than parts
+     */
+    public List<Range> split(int parts) {
+        if (parts < 1) throw new IllegalArgumentException("parts must be at least 1");
+        int[] boundaries = new int[parts + 1];
+        boundaries[parts] = keys.length;
+        long dataStart = offsetOf(0), dataSize = endOffset - dataStart;
+        for (int part = 1; part < parts; part++) {
+            long target = dataStart + dataSize * part / parts;
+            int entry = Arrays.binarySearch(offsets, target);
+            if (entry < 0) entry = -entry - 1; // first entry at or after target
+            boundaries[part] = Math.max(entry, boundaries[part - 1]);
+        }
+        List<Range> ranges = new ArrayList<>(parts);
+        for (int part = 0; part < parts; part++) {
+            int start = boundaries[part], end = boundaries[part + 1];
+            ranges.add(new Range(offsetOf(start), offsetOf(end), rowOf(start), rowOf(end) - rowOf(start)));
+        }
+        return ranges;
+    }
+
+    /**
+     * Opens a parser for the data rows in the given byte range of the inventory. Offsets must come from this index
+     */
+    public CSVParser openRange(long startOffset, long endOffset) throws IOException {
+        FileChannel channel = FileChannel.open(inventoryFile, StandardOpenOption.READ);
+        try {
+            channel.position(startOffset);
+            InputStream rangeStream = new RangeInputStream(Channels.newInputStream(channel), endOffset - startOffset);
+            return CSVFormat.DEFAULT.withHeader(InventoryRow.Header.class)
+                    .withIgnoreEmptyLines()
+                    .parse(new BufferedReader(new InputStreamReader(rangeStream)));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public CSVParser openRange(Range range) throws IOException {
+        return openRange(range.getStartOffset(), range.getEndOffset());
+    }
+
+    /**
+     * Finds all rows (versions) for the given key. Only the rows between the nearest index entries are read
+     */
+    public List<InventoryRow> lookup(String key) throws IOException {
+        List<InventoryRow> matches = new ArrayList<>();
+        try (CSVParser parser = openRange(seekOffset(key), endOffset)) {
+            for (CSVRecord record : parser) {
+                int result = record.get(InventoryRow.Header.Key).compareTo(key);
+                if (result > 0) break;
+                if (result == 0) matches.add(ReReplicationProcessor.inventoryRowFromCsvRecord(record));
+            }
+        }
+        return matches;
+    }
+
+    @AllArgsConstructor
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    public static class Range {
+        private final long startOffset;
+        private final long endOffset;
+        private final long firstRow;
+        private final long rowCount;
+    }
+
+    enum Header {
+        Key, VersionId, Offset, Row
+    }
+
+    /**
+     * Writes index entries as an inventory is written. {@link #finish(long, long)} must be called before closing,
+     * or the index will be considered incomplete
+     */
+    static class Writer implements Closeable {
+        private final CSVPrinter csvPrinter;
+        private final int interval;
+
+        Writer(Path indexFile, int interval) throws IOException {
+            this.csvPrinter = CSVFormat.DEFAULT.withHeader(Header.class).print(Files.newBufferedWriter(indexFile));
+            this.interval = interval;
+        }
+
+        int getInterval() {
+            return interval;
+        }
+
+        void addEntry(InventoryRow inventoryRow, long offset, long row) throws IOException {
+            csvPrinter.printRecord(inventoryRow.getKey(), inventoryRow.getVersionId(), offset, row);
+        }
+
+        void finish(long endOffset, long totalRows) throws IOException {
+            csvPrinter.printRecord("", "", endOffset, totalRows);
+        }
+
+        @Override
+        public void close() throws IOException {
+            csvPrinter.close();
+        }
+    }
+
+    /**
+     * Stops reading after a fixed number of bytes
+     */
+    static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int count = in.read(b, off, (int) Math.min(len, remaining));
+            if (count > 0) remaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
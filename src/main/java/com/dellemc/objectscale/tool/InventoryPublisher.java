@@ -0,0 +1,146 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.pipeline.Pipeline;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes the rows of an inventory as they are HEADed, in listing order, instead of writing them to a file (see
+ * {@link InventoryGenerator#publisher()}). The inventory runs on its own thread when a subscriber subscribes, and only
+ * as fast as the subscriber requests rows: while it has no demand, the listing and HEADs stop once the memory budget
+ * is full. Cancelling the subscription stops the inventory.
+ * <p>
+ * This is a Reactive Streams publisher, so it can be used with any Reactive Streams library, or as a
+ * <code>java.util.concurrent.Flow.Publisher</code> through <code>org.reactivestreams.FlowAdapters</code> (Java 9+), and
+ * {@link com.dellemc.objectscale.util.BlockingIterator} reads it as a plain iterator. An inventory can only be
+ * published once, to one subscriber.
+ * <p>
+ * Note that a subscriber that requests nothing for longer than the stall timeout looks like a stalled inventory, so
+ * raise <code>stallTimeout</code> if the subscriber may stop for a long time.
+ */
+public class InventoryPublisher implements Publisher<InventoryRow> {
+    private static final Logger log = LogManager.getLogger(InventoryPublisher.class);
+
+    // how often a row waiting for demand checks whether the inventory has failed
+    static final long DEMAND_POLL_MILLIS = 100;
+
+    private final InventoryGenerator generator;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    InventoryPublisher(InventoryGenerator generator) {
+        this.generator = generator;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super InventoryRow> subscriber) {
+        if (subscriber == null) throw new NullPointerException("subscriber cannot be null");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("an inventory can only be published to one subscriber"));
+            return;
+        }
+        RowSubscription subscription = new RowSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        Thread thread = new Thread(subscription::publish, "inventory-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    class RowSubscription implements Subscription {
+        private final Subscriber<? super InventoryRow> subscriber;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition demanded = lock.newCondition();
+        // guarded by lock
+        private long demand;
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        RowSubscription(Subscriber<? super InventoryRow> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void publish() {
+            try {
+                if (!cancelled) generator.generate(null, null, this::onNext);
+            } catch (RuntimeException e) {
+                if (!cancelled) {
+                    subscriber.onError(e);
+                    return;
+                }
+            }
+            if (invalidRequest != null) subscriber.onError(invalidRequest);
+            else if (!cancelled) subscriber.onComplete();
+        }
+
+        // called by the pipeline's sink, one row at a time; waits for demand
+        void onNext(InventoryRow inventoryRow) {
+            lock.lock();
+            try {
+                while (demand == 0 && !cancelled) {
+                    // the pipeline may have failed (i.e. been aborted by its watchdog) while we wait
+                    Pipeline pipeline = generator.getPipeline();
+                    if (pipeline != null && pipeline.isCancelled()) throw new CancellationException("the inventory was cancelled");
+                    demanded.await(DEMAND_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (cancelled) throw new CancellationException("the subscriber cancelled the inventory");
+                demand--;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                lock.unlock();
+            }
+            subscriber.onNext(inventoryRow);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // rule 3.9: the inventory stops with an error
+                invalidRequest = new IllegalArgumentException("request must be positive (was " + n + ")");
+                cancel();
+                return;
+            }
+            lock.lock();
+            try {
+                // rule 3.17: demand beyond Long.MAX_VALUE is unbounded
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                demanded.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            log.debug("inventory cancelled by its subscriber");
+            lock.lock();
+            try {
+                demanded.signal();
+            } finally {
+                lock.unlock();
+            }
+            Pipeline pipeline = generator.getPipeline();
+            if (pipeline != null) pipeline.cancel();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.dellemc.objectscale.tool;
+
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Aggregates inventory rows as they are written, to answer "where are the failures" without post-processing the
+ * inventory. Counts and bytes are kept per replication status for the whole inventory, for each key prefix up to a
+ * configured depth, and for each owner. A histogram of PENDING version age is also kept.
+ * <p>
+ * Memory is bounded: prefixes and owners are tracked exactly until <code>maxEntries</code> distinct values have been
+ * seen, after which the Space-Saving algorithm is used to keep only the heaviest hitters (the reported counts for
+ * those are then upper bounds, with the maximum overcount reported as the entry's error).
+ * <p>
+ * Not thread-safe; all rows should be added from a single thread.
+ */
+public class InventoryRollup {
+    public static final String ROLLUP_FILE_SUFFIX = ".rollup.json";
+    public static final String DELIMITER = "/";
+    public static final int DEFAULT_DEPTH = 2;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long REPORT_INTERVAL_MILLIS = 60_000;
+    // upper bounds of PENDING age buckets (the last bucket is open-ended)
+    static final Duration[] PENDING_AGE_BUCKETS = {
+            Duration.ofMinutes(1), Duration.ofMinutes(10), Duration.ofHours(1), Duration.ofHours(6),
+            Duration.ofDays(1), Duration.ofDays(7), Duration.ofDays(30)
+    };
+    // there is one extra status slot for rows with no replication status
+    static final ReplicationStatus[] STATUSES = ReplicationStatus.values();
+    static final int NO_STATUS = STATUSES.length;
+
+    public static Path rollupFileFor(Path inventoryFile) {
+        return inventoryFile.resolveSibling(inventoryFile.getFileName() + ROLLUP_FILE_SUFFIX);
+    }
+
+    private final int depth;
+    private final int maxEntries;
+    private final Stats totals = new Stats(null);
+    private final SpaceSaving prefixes;
+    private final SpaceSaving owners;
+    private final long[] pendingAgeCounts = new long[PENDING_AGE_BUCKETS.length + 1];
+    private long lastReportTime = System.currentTimeMillis();
+
+    /**
+     * @param depth      number of prefix levels to aggregate (i.e. 2 means "a/" and "a/b/" for key "a/b/c")
+     * @param maxEntries maximum number of distinct prefixes (and owners) to track
+     */
+    public InventoryRollup(int depth, int maxEntries) {
+        this.depth = depth;
+        this.maxEntries = maxEntries;
+        this.prefixes = new SpaceSaving(maxEntries);
+        this.owners = new SpaceSaving(maxEntries);
+    }
+
+    public void add(InventoryRow inventoryRow) {
+        add(inventoryRow, System.currentTimeMillis());
+    }
+
+    void add(InventoryRow inventoryRow, long nowMillis) {
+        int status = inventoryRow.getReplicationStatus() == null ? NO_STATUS : inventoryRow.getReplicationStatus().ordinal();
+        long size = inventoryRow.getSize() == null ? 0 : inventoryRow.getSize();
+
+        totals.add(status, size);
+
+        String key = inventoryRow.getKey();
+        int level = 0, index = 0;
+        while (level < depth && (index = key.indexOf(DELIMITER, index)) >= 0) {
+            index += DELIMITER.length();
+            prefixes.get(key.substring(0, index)).add(status, size);
+            level++;
+        }
+
+        if (inventoryRow.getOwnerId() != null) owners.get(inventoryRow.getOwnerId()).add(status, size);
+
+        if (inventoryRow.getReplicationStatus() == ReplicationStatus.PENDING && inventoryRow.getLastModified() != null) {
+            long ageMillis = nowMillis - inventoryRow.getLastModified().toEpochMilli();
+            int bucket = 0;
+            while (bucket < PENDING_AGE_BUCKETS.length && ageMillis >= PENDING_AGE_BUCKETS[bucket].toMillis()) bucket++;
+            pendingAgeCounts[bucket]++;
+        }
+    }
+
+    public Stats getTotals() {
+        return totals;
+    }
+
+    /**
+     * @return tracked prefixes, ordered by number of FAILED rows, then by total rows (descending)
+     */
+    public List<Stats> getPrefixes() {
+        return prefixes.sorted();
+    }
+
+    /**
+     * @return tracked owners, ordered by number of FAILED rows, then by total rows (descending)
+     */
+    public List<Stats> getOwners() {
+        return owners.sorted();
+    }
+
+    /**
+     * @return true if there were too many distinct prefixes or owners to track exactly
+     */
+    public boolean isApproximate() {
+        return prefixes.isEvicting() || owners.isEvicting();
+    }
+
+    public long[] getPendingAgeCounts() {
+        return pendingAgeCounts.clone();
+    }
+
+    /**
+     * Writes an interim report if {@link #REPORT_INTERVAL_MILLIS} has passed since the last one
+     */
+    public void writeReportIfDue(Path reportFile) throws IOException {
+        if (System.currentTimeMillis() - lastReportTime >= REPORT_INTERVAL_MILLIS) writeReport(reportFile, false);
+    }
+
+    /**
+     * Writes the current summary as JSON. The file is replaced atomically, so readers never see a partial report
+     */
+    public void writeReport(Path reportFile, boolean complete) throws IOException {
+        Path tempFile = reportFile.resolveSibling(reportFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile)) {
+            writer.write("{\n");
+            writer.write("  \"generated\": \"" + Instant.now() + "\",\n");
+            writer.write("  \"complete\": " + complete + ",\n");
+            writer.write("  \"prefixDepth\": " + depth + ",\n");
+            writer.write("  \"maxEntries\": " + maxEntries + ",\n");
+            writer.write("  \"approximate\": " + isApproximate() + ",\n");
+            writer.write("  \"totals\": ");
+            writeStats(writer, totals, null);
+            writer.write(",\n  \"prefixes\": [");
+            writeStatsList(writer, getPrefixes(), "prefix");
+            writer.write("],\n  \"owners\": [");
+            writeStatsList(writer, getOwners(), "owner");
+            writer.write("],\n  \"pendingAge\": [");
+            for (int bucket = 0; bucket < pendingAgeCounts.length; bucket++) {
+                writer.write(bucket == 0 ? "\n" : ",\n");
+                writer.write("    {\"minAge\": \"" + (bucket == 0 ? Duration.ZERO : PENDING_AGE_BUCKETS[bucket - 1]) + "\", ");
+                if (bucket < PENDING_AGE_BUCKETS.length)
+                    writer.write("\"maxAge\": \"" + PENDING_AGE_BUCKETS[bucket] + "\", ");
+                writer.write("\"count\": " + pendingAgeCounts[bucket] + "}");
+            }
+            writer.write("\n  ]\n}\n");
+        }
+        Files.move(tempFile, reportFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastReportTime = System.currentTimeMillis();
+    }
+
+    private void writeStatsList(Writer writer, List<Stats> statsList, String nameField) throws IOException {
+        for (int i = 0; i < statsList.size(); i++) {
+            writer.write(i == 0 ? "\n    " : ",\n    ");
+            writeStats(writer, statsList.get(i), nameField);
+        }
+        if (!statsList.isEmpty()) writer.write("\n  ");
+    }
+
+    private void writeStats(Writer writer, Stats stats, String nameField) throws IOException {
+        writer.write("{");
+        if (nameField != null) {
+            writer.write("\"" + nameField + "\": \"" + jsonEscape(stats.name) + "\", ");
+            writer.write("\"error\": " + stats.error + ", ");
+        }
+        writer.write("\"rows\": " + stats.getRows() + ", \"bytes\": " + stats.getBytes() + ", \"byStatus\": {");
+        boolean first = true;
+        for (int status = 0; status <= NO_STATUS; status++) {
+            if (stats.counts[status] == 0) continue;
+            if (!first) writer.write(", ");
+            writer.write("\"" + (status == NO_STATUS ? "NONE" : STATUSES[status].toString()) + "\": {\"rows\": "
+                    + stats.counts[status] + ", \"bytes\": " + stats.bytes[status] + "}");
+            first = false;
+        }
+        writer.write("}}");
+    }
+
+    static String jsonEscape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) escaped.append(String.format("\\u%04x", (int) c));
+                    else escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Row counts and byte totals by replication status
+     */
+    public static class Stats {
+        private final String name;
+        private final long[] counts = new long[NO_STATUS + 1];
+        private final long[] bytes = new long[NO_STATUS + 1];
+        private long rows;
+        // maximum overcount (inherited from an evicted entry)
+        private long error;
+        // rows at the time this entry was last placed in the eviction queue
+        private long queuedRows;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void add(int status, long size) {
+            counts[status]++;
+            bytes[status] += size;
+            rows++;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            long total = 0;
+            for (long b : bytes) total += b;
+            return total;
+        }
+
+        public long getCount(ReplicationStatus status) {
+            return counts[status == null ? NO_STATUS : status.ordinal()];
+        }
+
+        public long getBytes(ReplicationStatus status) {
+            return bytes[status == null ? NO_STATUS : status.ordinal()];
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Space-Saving heavy-hitter tracking, weighted by row count. When full, a new name replaces the entry with the
+     * fewest rows, and inherits its row count as error. Rows only ever increase, so the eviction queue is updated
+     * lazily: stale queue positions are corrected as they are polled
+     */
+    static class SpaceSaving {
+        private final int capacity;
+        private final Map<String, Stats> entries = new HashMap<>();
+        private final PriorityQueue<Stats> evictionQueue = new PriorityQueue<>(Comparator.comparingLong(stats -> stats.queuedRows));
+        private boolean evicting = false;
+
+        SpaceSaving(int capacity) {
+            this.capacity = capacity;
+        }
+
+        Stats get(String name) {
+            Stats stats = entries.get(name);
+            if (stats == null) {
+                stats = new Stats(name);
+                if (entries.size() >= capacity) {
+                    Stats evicted = pollSmallest();
+                    entries.remove(evicted.name);
+                    stats.rows = evicted.rows;
+                    stats.error = evicted.rows;
+                    evicting = true;
+                }
+                stats.queuedRows = stats.rows;
+                entries.put(name, stats);
+                evictionQueue.add(stats);
+            }
+            return stats;
+        }
+
+        private Stats pollSmallest() {
+            while (true) {
+                Stats stats = evictionQueue.poll();
+                if (stats.queuedRows == stats.rows) return stats;
+                // stale position; re-queue with its current row count
+                stats.queuedRows = stats.rows;
+                evictionQueue.add(stats);
+            }
+        }
+
+        boolean isEvicting() {
+            return evicting;
+        }
+
+        List<Stats> sorted() {
+            List<Stats> sorted = new ArrayList<>(entries.values());
+            sorted.sort(Comparator.comparingLong((Stats stats) -> stats.getCount(ReplicationStatus.FAILED))
+                    .thenComparingLong(Stats::getRows).reversed());
+            return sorted;
+        }
+    }
+}
@@ -21,6 +21,30 @@ public class InventoryRow implements Comparable<InventoryRow> {
     @Setter
     private ReplicationStatus replicationStatus;
 
+    // rough sizes, assuming a 64-bit JVM with compressed oops
+    static final int ROW_OVERHEAD = 56; // header + 9 references
+    static final int STRING_OVERHEAD = 40; // String + byte[] headers
+    static final int INSTANT_SIZE = 24;
+    static final int LONG_SIZE = 16;
+    // the pipeline's wrapper, queued task and any result object
+    static final int PIPELINE_OVERHEAD = 128;
+    // Latin-1 strings take one byte per char (compact strings, Java 9+)
+    private static final int BYTES_PER_CHAR = System.getProperty("java.specification.version").startsWith("1.") ? 2 : 1;
+
+    /**
+     * @return an estimate of the heap retained by this row while it is queued (Boolean and ReplicationStatus values
+     * are shared constants, so they cost nothing)
+     */
+    public long estimateRetainedBytes() {
+        long bytes = ROW_OVERHEAD + PIPELINE_OVERHEAD;
+        for (String value : new String[]{key, versionId, eTag, ownerId}) {
+            if (value != null) bytes += STRING_OVERHEAD + (long) value.length() * BYTES_PER_CHAR;
+        }
+        if (lastModified != null) bytes += INSTANT_SIZE;
+        if (size != null) bytes += LONG_SIZE;
+        return bytes;
+    }
+
     public Object[] toFieldArray() {
         return new Object[]{ // should match Header values below
                 key, versionId, isDeleteMarker, isLatest, lastModified, eTag, size, ownerId, replicationStatus
@@ -0,0 +1,64 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.CountingOutputStream;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+
+/**
+ * Writes inventory rows to a CSV file (with a header row) and, if an index interval is set, a sparse key index
+ * next to it (see {@link InventoryIndex}). Not thread-safe; rows must be written in key order for the index to be
+ * useful
+ */
+public class InventoryWriter implements Closeable, Flushable {
+    private final CountingOutputStream countingStream;
+    private final CSVPrinter csvPrinter;
+    private final InventoryIndex.Writer indexWriter;
+    private long rowCount = 0;
+
+    /**
+     * @param indexInterval write an index entry every <code>indexInterval</code> rows (0 means don't write an index)
+     */
+    public InventoryWriter(Path inventoryFile, int indexInterval) throws IOException {
+        this.countingStream = new CountingOutputStream(new FileOutputStream(inventoryFile.toFile()));
+        this.csvPrinter = CSVFormat.DEFAULT.withHeader(InventoryRow.Header.class).print(new OutputStreamWriter(countingStream));
+        this.indexWriter = indexInterval > 0
+                ? new InventoryIndex.Writer(InventoryIndex.indexFileFor(inventoryFile), indexInterval) : null;
+    }
+
+    public void write(InventoryRow inventoryRow) throws IOException {
+        if (indexWriter != null && rowCount % indexWriter.getInterval() == 0) {
+            // the byte count only includes what has been flushed out of the writer's encoder
+            csvPrinter.flush();
+            indexWriter.addEntry(inventoryRow, countingStream.getCount(), rowCount);
+        }
+        csvPrinter.printRecord(inventoryRow.toFieldArray());
+        rowCount++;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        csvPrinter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            csvPrinter.flush();
+            if (indexWriter != null) indexWriter.finish(countingStream.getCount(), rowCount);
+        } finally {
+            if (indexWriter != null) indexWriter.close();
+            csvPrinter.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.OffHeapKeySet;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Filters object keys by include/exclude key lists and include/exclude key patterns. A key passes if it matches any
+ * include criteria (or there are none), and does not match any exclude criteria.
+ * <p>
+ * Key lists are loaded into {@link OffHeapKeySet}s, so they can hold hundreds of millions of keys. A key list file can
+ * be a flat list of keys (one per line), or any CSV with keys in the first column (including an inventory file).
+ * <p>
+ * Patterns are globs by default (<code>*</code> and <code>?</code> do not match <code>/</code>, while
+ * <code>**</code> matches anything), or regular expressions if prefixed with <code>regex:</code>. All include (and
+ * all exclude) patterns are compiled once into a single regular expression.
+ */
+public class KeyFilter implements Predicate<String>, AutoCloseable {
+    private static final Logger log = LogManager.getLogger(KeyFilter.class);
+
+    public static final String GLOB_PREFIX = "glob:";
+    public static final String REGEX_PREFIX = "regex:";
+
+    private final OffHeapKeySet includeKeys;
+    private final OffHeapKeySet excludeKeys;
+    private final Pattern includePattern;
+    private final Pattern excludePattern;
+
+    /**
+     * @return a filter for the key criteria in <code>config</code>, or null if there are none
+     */
+    public static KeyFilter fromConfig(AbstractReplicationTool.Config config) {
+        if (config.getIncludeKeysFile() == null && config.getExcludeKeysFile() == null
+                && isEmpty(config.getIncludePatterns()) && isEmpty(config.getExcludePatterns())) return null;
+        try {
+            return new KeyFilter(config.getIncludeKeysFile(), config.getExcludeKeysFile(),
+                    config.getIncludePatterns(), config.getExcludePatterns(), config.getTempDir());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public KeyFilter(Path includeKeysFile, Path excludeKeysFile, List<String> includePatterns, List<String> excludePatterns)
+            throws IOException {
+        this(includeKeysFile, excludeKeysFile, includePatterns, excludePatterns, null);
+    }
+
+    /**
+     * @param tempDir where to create the key sets' files, or null for <code>java.io.tmpdir</code>
+     */
+    public KeyFilter(Path includeKeysFile, Path excludeKeysFile, List<String> includePatterns, List<String> excludePatterns,
+                     Path tempDir) throws IOException {
+        this.includePattern = compile(includePatterns);
+        this.excludePattern = compile(excludePatterns);
+        OffHeapKeySet includeKeys = null;
+        try {
+            this.includeKeys = includeKeys = includeKeysFile != null ? loadKeys(includeKeysFile, tempDir) : null;
+            this.excludeKeys = excludeKeysFile != null ? loadKeys(excludeKeysFile, tempDir) : null;
+        } catch (IOException | RuntimeException e) {
+            if (includeKeys != null) includeKeys.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean test(String key) {
+        boolean hasIncludes = includeKeys != null || includePattern != null;
+        if (hasIncludes && !((includeKeys != null && includeKeys.contains(key))
+                || (includePattern != null && includePattern.matcher(key).matches()))) return false;
+        if (excludeKeys != null && excludeKeys.contains(key)) return false;
+        return excludePattern == null || !excludePattern.matcher(key).matches();
+    }
+
+    @Override
+    public void close() {
+        if (includeKeys != null) includeKeys.close();
+        if (excludeKeys != null) excludeKeys.close();
+    }
+
+    static OffHeapKeySet loadKeys(Path keysFile, Path tempDir) throws IOException {
+        long start = System.currentTimeMillis();
+        OffHeapKeySet keySet = new OffHeapKeySet(tempDir, 0);
+        try (CSVParser records = CSVFormat.DEFAULT.withIgnoreEmptyLines().parse(new FileReader(keysFile.toFile()))) {
+            for (CSVRecord record : records) {
+                String key = record.get(0);
+                // skip the header if this is an inventory file
+                if (record.getRecordNumber() == 1 && key.equals(InventoryRow.Header.Key.name())) continue;
+                keySet.add(key);
+            }
+        } catch (IOException | RuntimeException e) {
+            keySet.close();
+            throw e;
+        }
+        log.info("Loaded {} keys from {} in {}ms ({} bytes off-heap)", keySet.size(), keysFile,
+                System.currentTimeMillis() - start, keySet.getStorageBytes());
+        return keySet;
+    }
+
+    /**
+     * Compiles a list of glob/regex patterns into a single pattern that matches any of them
+     *
+     * @return the compiled pattern, or null if there are no patterns
+     */
+    static Pattern compile(List<String> patterns) {
+        if (isEmpty(patterns)) return null;
+        return Pattern.compile(patterns.stream()
+                .map(pattern -> "(?:" + toRegex(pattern) + ")")
+                .collect(Collectors.joining("|")), Pattern.DOTALL);
+    }
+
+    static String toRegex(String pattern) {
+        if (pattern.startsWith(REGEX_PREFIX)) return pattern.substring(REGEX_PREFIX.length());
+        if (pattern.startsWith(GLOB_PREFIX)) pattern = pattern.substring(GLOB_PREFIX.length());
+        return globToRegex(pattern);
+    }
+
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                if ("\\.[]{}()^$|+".indexOf(c) >= 0) regex.append('\\');
+                regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+
+    private static boolean isEmpty(List<String> list) {
+        return list == null || list.isEmpty();
+    }
+}
@@ -0,0 +1,402 @@
+package com.dellemc.objectscale.tool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reorders inventory rows so that the most important versions are re-replicated first. Rows are ordered by prefix
+ * weight (highest first, using the longest matching prefix; unmatched keys have a weight of 0), then by the
+ * {@link Policy}, then by their original position in the input.
+ * <p>
+ * There are two ways to apply the order:
+ * <ul>
+ * <li>{@link #buffered(Stream)} reorders rows within a sliding window of <code>bufferSize</code> rows. This starts
+ * immediately and uses bounded memory, but only orders rows relative to those near them in the input</li>
+ * <li>{@link #sorted(Stream)} reads the whole input first, sorting it in chunks of <code>bufferSize</code> rows that
+ * are spilled to temp files, and then merges the chunks. This gives a total order for inputs of any size, at the cost
+ * of reading the input before the first row is emitted. At most {@link #MAX_MERGE_FILES} files are open at once;
+ * if there are more chunks, they are first merged into larger ones, that many at a time</li>
+ * </ul>
+ */
+public class PriorityOrder {
+    private static final Logger log = LogManager.getLogger(PriorityOrder.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 100000;
+    // the most spill files open at once (each is a file descriptor), well under the usual limit of 1024
+    static final int MAX_MERGE_FILES = 64;
+
+    public enum Policy {
+        /**
+         * Keep the input order (prefix weights may still apply)
+         */
+        None,
+        /**
+         * Most recently modified versions first
+         */
+        Newest,
+        /**
+         * Smallest versions first
+         */
+        Smallest
+    }
+
+    private final Policy policy;
+    // longest prefixes first, so the first match is the most specific
+    private final List<Map.Entry<String, Integer>> prefixWeights;
+    private final int bufferSize;
+    private final int maxMergeFiles;
+    private final Path tempDir;
+    private final Comparator<Entry> comparator;
+
+    public PriorityOrder(Policy policy, Map<String, Integer> prefixWeights, int bufferSize) {
+        this(policy, prefixWeights, bufferSize, null);
+    }
+
+    /**
+     * @param tempDir where {@link #sorted(Stream)} creates its spill files, or null for <code>java.io.tmpdir</code>
+     */
+    public PriorityOrder(Policy policy, Map<String, Integer> prefixWeights, int bufferSize, Path tempDir) {
+        this(policy, prefixWeights, bufferSize, tempDir, MAX_MERGE_FILES);
+    }
+
+    PriorityOrder(Policy policy, Map<String, Integer> prefixWeights, int bufferSize, Path tempDir, int maxMergeFiles) {
+        if (bufferSize < 1) throw new IllegalArgumentException("bufferSize must be at least 1");
+        if (maxMergeFiles < 2) throw new IllegalArgumentException("maxMergeFiles must be at least 2");
+        this.policy = policy == null ? Policy.None : policy;
+        this.prefixWeights = prefixWeights == null ? new ArrayList<>() : prefixWeights.entrySet().stream()
+                .sorted(Comparator.comparingInt((Map.Entry<String, Integer> e) -> e.getKey().length()).reversed())
+                .collect(Collectors.toList());
+        this.bufferSize = bufferSize;
+        this.maxMergeFiles = maxMergeFiles;
+        this.tempDir = tempDir;
+
+        Comparator<Entry> comparator = Comparator.comparingInt((Entry e) -> e.weight).reversed();
+        switch (this.policy) {
+            case Newest:
+                comparator = comparator.thenComparing(e -> e.row.getLastModified(),
+                        Comparator.nullsLast(Comparator.<Instant>reverseOrder()));
+                break;
+            case Smallest:
+                comparator = comparator.thenComparing(e -> e.row.getSize(), Comparator.nullsLast(Comparator.<Long>naturalOrder()));
+                break;
+        }
+        // keep the order stable
+        this.comparator = comparator.thenComparingLong(e -> e.sequence);
+    }
+
+    /**
+     * @return true if this order would change the input order at all
+     */
+    public boolean isEnabled() {
+        return policy != Policy.None || !prefixWeights.isEmpty();
+    }
+
+    int weightOf(String key) {
+        for (Map.Entry<String, Integer> prefixWeight : prefixWeights) {
+            if (key.startsWith(prefixWeight.getKey())) return prefixWeight.getValue();
+        }
+        return 0;
+    }
+
+    /**
+     * Reorders rows within a sliding window (priority buffer) of <code>bufferSize</code> rows
+     */
+    public Stream<InventoryRow> buffered(Stream<InventoryRow> rows) {
+        Iterator<InventoryRow> source = rows.iterator();
+        PriorityQueue<Entry> buffer = new PriorityQueue<>(comparator);
+        long[] sequence = {0};
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<InventoryRow>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super InventoryRow> action) {
+                while (buffer.size() < bufferSize && source.hasNext()) {
+                    InventoryRow row = source.next();
+                    buffer.add(new Entry(row, weightOf(row.getKey()), sequence[0]++));
+                }
+                Entry next = buffer.poll();
+                if (next == null) return false;
+                action.accept(next.row);
+                return true;
+            }
+        }, false).onClose(rows::close);
+    }
+
+    /**
+     * Sorts all rows, using an external merge sort if there are more than <code>bufferSize</code> rows. The whole input
+     * is consumed before this method returns. Close the returned stream to delete any spill files
+     */
+    public Stream<InventoryRow> sorted(Stream<InventoryRow> rows) throws IOException {
+        long start = System.currentTimeMillis();
+        List<SpillFile> spillFiles = new ArrayList<>();
+        List<Entry> chunk = new ArrayList<>();
+        long sequence = 0;
+        int chunkCount = 0;
+        Path spillDir = null;
+        try {
+            for (Iterator<InventoryRow> source = rows.iterator(); source.hasNext(); ) {
+                InventoryRow row = source.next();
+                chunk.add(new Entry(row, weightOf(row.getKey()), sequence++));
+                if (chunk.size() >= bufferSize) {
+                    if (spillDir == null) spillDir = tempDir != null
+                            ? Files.createTempDirectory(tempDir, "rereplication-sort") : Files.createTempDirectory("rereplication-sort");
+                    spillFiles.add(spill(chunk, spillDir.resolve("chunk-" + chunkCount++)));
+                    chunk.clear();
+                }
+            }
+            rows.close();
+            chunk.sort(comparator);
+
+            if (spillFiles.isEmpty()) {
+                log.info("Sorted {} rows in memory in {}ms", sequence, System.currentTimeMillis() - start);
+                return chunk.stream().map(entry -> entry.row);
+            }
+
+            // merge the oldest chunks into larger ones until the rest can be opened at once
+            int passes = 0;
+            while (spillFiles.size() > maxMergeFiles) {
+                List<SpillFile> batch = new ArrayList<>(spillFiles.subList(0, maxMergeFiles));
+                spillFiles.subList(0, maxMergeFiles).clear();
+                spillFiles.add(mergeSpills(batch, spillDir.resolve("chunk-" + chunkCount++)));
+                passes++;
+            }
+
+            // the last chunk can be merged straight from memory
+            List<Iterator<Entry>> runs = new ArrayList<>();
+            for (SpillFile spillFile : spillFiles) runs.add(spillFile.open());
+            runs.add(chunk.iterator());
+            log.info("Sorted {} rows in {} chunks of {} ({} intermediate merges) in {}ms", sequence,
+                    chunkCount - passes + 1, bufferSize, passes, System.currentTimeMillis() - start);
+
+            final Path finalSpillDir = spillDir;
+            return merge(runs).onClose(() -> {
+                spillFiles.forEach(SpillFile::close);
+                deleteQuietly(finalSpillDir);
+            });
+        } catch (IOException | RuntimeException e) {
+            spillFiles.forEach(SpillFile::close);
+            deleteQuietly(spillDir);
+            throw e;
+        }
+    }
+
+    /**
+     * k-way merge of sorted runs
+     */
+    Stream<InventoryRow> merge(List<Iterator<Entry>> runs) {
+        PriorityQueue<Run> heads = new PriorityQueue<>((a, b) -> comparator.compare(a.head, b.head));
+        for (Iterator<Entry> run : runs) {
+            if (run.hasNext()) heads.add(new Run(run.next(), run));
+        }
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<InventoryRow>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super InventoryRow> action) {
+                Run run = heads.poll();
+                if (run == null) return false;
+                action.accept(run.head.row);
+                if (run.iterator.hasNext()) {
+                    run.head = run.iterator.next();
+                    heads.add(run);
+                }
+                return true;
+            }
+        }, false);
+    }
+
+    /**
+     * Merges spill files into one (keeping each entry's weight and sequence), and deletes them
+     */
+    SpillFile mergeSpills(List<SpillFile> spillFiles, Path file) throws IOException {
+        PriorityQueue<Run> heads = new PriorityQueue<>((a, b) -> comparator.compare(a.head, b.head));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile())))) {
+            for (SpillFile spillFile : spillFiles) {
+                Iterator<Entry> run = spillFile.open();
+                if (run.hasNext()) heads.add(new Run(run.next(), run));
+            }
+            for (Run run; (run = heads.poll()) != null; ) {
+                writeEntry(out, run.head);
+                if (run.iterator.hasNext()) {
+                    run.head = run.iterator.next();
+                    heads.add(run);
+                }
+            }
+        } finally {
+            spillFiles.forEach(SpillFile::close);
+        }
+        return new SpillFile(file);
+    }
+
+    SpillFile spill(List<Entry> chunk, Path file) throws IOException {
+        chunk.sort(comparator);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile())))) {
+            for (Entry entry : chunk) {
+                writeEntry(out, entry);
+            }
+        }
+        return new SpillFile(file);
+    }
+
+    static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        InventoryRow row = entry.row;
+        out.writeLong(entry.sequence);
+        out.writeInt(entry.weight);
+        out.writeUTF(row.getKey());
+        writeString(out, row.getVersionId());
+        writeBoolean(out, row.getIsDeleteMarker());
+        writeBoolean(out, row.getIsLatest());
+        out.writeBoolean(row.getLastModified() != null);
+        if (row.getLastModified() != null) {
+            out.writeLong(row.getLastModified().getEpochSecond());
+            out.writeInt(row.getLastModified().getNano());
+        }
+        writeString(out, row.getETag());
+        out.writeBoolean(row.getSize() != null);
+        if (row.getSize() != null) out.writeLong(row.getSize());
+        writeString(out, row.getOwnerId());
+        writeString(out, row.getReplicationStatus() == null ? null : row.getReplicationStatus().toString());
+    }
+
+    static Entry readEntry(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        int weight = in.readInt();
+        InventoryRow row = new InventoryRow(
+                in.readUTF(),
+                readString(in),
+                readBoolean(in),
+                readBoolean(in),
+                in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null,
+                readString(in),
+                in.readBoolean() ? in.readLong() : null,
+                readString(in),
+                null);
+        String status = readString(in);
+        if (status != null) row.setReplicationStatus(ReplicationStatus.fromValue(status));
+        return new Entry(row, weight, sequence);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        byte value = in.readByte();
+        return value < 0 ? null : value == 1;
+    }
+
+    private static void deleteQuietly(Path dir) {
+        if (dir == null) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.collect(Collectors.toList())) Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            log.warn("could not delete sort directory {}", dir, e);
+        }
+    }
+
+    static class Entry {
+        final InventoryRow row;
+        final int weight;
+        final long sequence;
+
+        Entry(InventoryRow row, int weight, long sequence) {
+            this.row = row;
+            this.weight = weight;
+            this.sequence = sequence;
+        }
+    }
+
+    static class Run {
+        Entry head;
+        final Iterator<Entry> iterator;
+
+        Run(Entry head, Iterator<Entry> iterator) {
+            this.head = head;
+            this.iterator = iterator;
+        }
+    }
+
+    /**
+     * A sorted chunk of rows on disk, read back sequentially
+     */
+    static class SpillFile implements Closeable {
+        final Path file;
+        DataInputStream in;
+
+        SpillFile(Path file) {
+            this.file = file;
+        }
+
+        Iterator<Entry> open() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile())));
+            return new Iterator<Entry>() {
+                Entry next = read();
+
+                Entry read() {
+                    try {
+                        return readEntry(in);
+                    } catch (EOFException e) {
+                        close();
+                        return null;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Entry next() {
+                    Entry entry = next;
+                    next = read();
+                    return entry;
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (in != null) in.close();
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
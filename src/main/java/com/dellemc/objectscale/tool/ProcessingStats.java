@@ -4,16 +4,29 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public class ProcessingStats {
     private final AtomicLong processedObjects = new AtomicLong();
+    private final AtomicLong processedBytes = new AtomicLong();
     private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
     private final long startTimeMillis;
     private long endTimeMillis;
+    // also counts everything counted here (i.e. the totals of a multi-bucket run)
+    private final ProcessingStats parent;
 
     public ProcessingStats(long startTimeMillis) {
+        this(startTimeMillis, null);
+    }
+
+    /**
+     * @param parent if not null, every count is also added to these stats
+     */
+    public ProcessingStats(long startTimeMillis, ProcessingStats parent) {
         this.startTimeMillis = startTimeMillis;
+        this.parent = parent;
     }
 
     public void incProcessedObjects(int increment) {
         processedObjects.addAndGet(increment);
+        if (parent != null) parent.incProcessedObjects(increment);
     }
 
     public void incProcessedObjects() {
@@ -24,8 +37,18 @@ public class ProcessingStats {
         return processedObjects.get();
     }
 
+    public void incProcessedBytes(long increment) {
+        processedBytes.addAndGet(increment);
+        if (parent != null) parent.incProcessedBytes(increment);
+    }
+
+    public long getProcessedBytes() {
+        return processedBytes.get();
+    }
+
     public void incErrors(int increment) {
         errors.addAndGet(increment);
+        if (parent != null) parent.incErrors(increment);
     }
 
     public void incErrors() {
@@ -36,6 +59,15 @@ public class ProcessingStats {
         return errors.get();
     }
 
+    public void incDuplicates() {
+        duplicates.incrementAndGet();
+        if (parent != null) parent.incDuplicates();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
     public long getStartTimeMillis() {
         return startTimeMillis;
     }
@@ -49,8 +81,31 @@ public class ProcessingStats {
     }
 
     public long getPerSecondAverage() {
-        long endTime = endTimeMillis > 0 ? endTimeMillis : System.currentTimeMillis();
-        long duration = endTime - startTimeMillis;
+        long duration = getDurationMillis();
         return duration > 0 ? getProcessedObjects() * 1000 / duration : 0;
     }
+
+    public long getBytesPerSecondAverage() {
+        long duration = getDurationMillis();
+        return duration > 0 ? getProcessedBytes() * 1000 / duration : 0;
+    }
+
+    private long getDurationMillis() {
+        long endTime = endTimeMillis > 0 ? endTimeMillis : System.currentTimeMillis();
+        return endTime - startTimeMillis;
+    }
+
+    /**
+     * @return a human-readable rate, i.e. "12.3 MB/s"
+     */
+    public static String formatByteRate(long bytesPerSecond) {
+        String[] units = {"B/s", "KB/s", "MB/s", "GB/s", "TB/s"};
+        double value = bytesPerSecond;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return unit == 0 ? String.format("%d %s", bytesPerSecond, units[0]) : String.format("%.1f %s", value, units[unit]);
+    }
 }
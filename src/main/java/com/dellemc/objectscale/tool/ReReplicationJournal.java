@@ -0,0 +1,140 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.GroupCommitWriter;
+import com.dellemc.objectscale.util.OffHeapKeySet;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * A durable, append-only record of the versions that have been re-replicated (one CSV row per completed copy, with the
+ * key, the source version ID and the new version ID). Rows are group-committed by a background thread, so recording a
+ * completed copy does not wait for disk I/O. If a run is interrupted, the journal can be used to skip keys that were
+ * already re-replicated (see {@link #loadKeys(Path)}).
+ * <p>
+ * A crash can leave a partial row at the end of the journal; it is ignored when loading, and truncated before any rows
+ * are appended.
+ */
+public class ReReplicationJournal implements AutoCloseable {
+    private static final Logger log = LogManager.getLogger(ReReplicationJournal.class);
+
+    public static final String JOURNAL_FILE_SUFFIX = ".journal";
+
+    private final Path journalFile;
+    private final GroupCommitWriter<String[]> writer;
+
+    /**
+     * @param append if true, rows are appended to an existing journal, otherwise it is overwritten
+     */
+    public ReReplicationJournal(Path journalFile, boolean append) throws IOException {
+        this.journalFile = journalFile;
+        if (append) truncatePartialRow(journalFile);
+        this.writer = new GroupCommitWriter<>(journalFile, append, values -> CSVFormat.DEFAULT.format((Object[]) values),
+                "journal-writer");
+    }
+
+    /**
+     * Records a completed re-replication (asynchronously)
+     */
+    public void completed(InventoryRow inventoryRow, String newVersionId) {
+        writer.append(new String[]{inventoryRow.getKey(), inventoryRow.getVersionId(), newVersionId});
+    }
+
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * @return the number of rows committed to the journal by this instance
+     */
+    public long getCommittedCount() {
+        return writer.getCommittedCount();
+    }
+
+    /**
+     * Waits for all recorded rows to be committed, and closes the journal
+     */
+    @Override
+    public void close() {
+        writer.close();
+        log.info("Journal {} closed; {} rows committed in {} batches", journalFile, writer.getCommittedCount(), writer.getBatchCount());
+    }
+
+    /**
+     * Loads the keys recorded in a journal into an off-heap set. The caller must close the set
+     */
+    public static OffHeapKeySet loadKeys(Path journalFile) throws IOException {
+        return loadKeys(journalFile, null);
+    }
+
+    /**
+     * @param tempDir where to create the set's files, or null for <code>java.io.tmpdir</code>
+     */
+    public static OffHeapKeySet loadKeys(Path journalFile, Path tempDir) throws IOException {
+        long start = System.currentTimeMillis();
+        OffHeapKeySet keys = new OffHeapKeySet(tempDir, 0);
+        try (CSVParser records = CSVFormat.DEFAULT.parse(new FileReader(journalFile.toFile()))) {
+            Iterator<CSVRecord> iterator = records.iterator();
+            while (true) {
+                CSVRecord record;
+                try {
+                    if (!iterator.hasNext()) break;
+                    record = iterator.next();
+                } catch (RuntimeException e) {
+                    // a row torn by a crash (i.e. an unterminated quote) can only be at the end
+                    log.warn("ignoring partial row at the end of journal {}", journalFile);
+                    break;
+                }
+                // a row with fewer fields was cut short by a crash; its key may be incomplete
+                if (record.size() < 3) {
+                    log.warn("ignoring partial row at the end of journal {}", journalFile);
+                    continue;
+                }
+                keys.add(record.get(0));
+            }
+        } catch (IOException | RuntimeException e) {
+            keys.close();
+            throw e;
+        }
+        log.info("Loaded {} completed keys from journal {} in {}ms", keys.size(), journalFile, System.currentTimeMillis() - start);
+        return keys;
+    }
+
+    /**
+     * Truncates a partial row left at the end of the journal by a crash, so that appended rows don't run into it. Rows
+     * end with a newline outside quotes; a key can contain newlines, so the last newline in the file may be inside the
+     * torn row's quoted key
+     */
+    static void truncatePartialRow(Path journalFile) throws IOException {
+        if (!Files.exists(journalFile) || Files.size(journalFile) == 0) return;
+        // the byte offset just after the last complete row. Quotes are escaped by doubling them, so a newline ends a
+        // row if an even number of quotes precede it in the row (neither byte occurs within a multi-byte character)
+        long end = 0, position = 0;
+        boolean quoted = false;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(journalFile))) {
+            for (int b; (b = in.read()) >= 0; ) {
+                position++;
+                if (b == '"') quoted = !quoted;
+                else if (b == '\n' && !quoted) end = position;
+            }
+        }
+        if (end < position) {
+            log.warn("truncating partial row at the end of journal {}", journalFile);
+            try (RandomAccessFile file = new RandomAccessFile(journalFile.toFile(), "rw")) {
+                file.setLength(end);
+                file.getFD().sync();
+            }
+        }
+    }
+}
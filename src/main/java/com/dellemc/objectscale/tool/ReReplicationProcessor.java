@@ -1,6 +1,13 @@
 package com.dellemc.objectscale.tool;
 
-import com.dellemc.objectscale.util.EnhancedThreadPoolExecutor;
+import com.dellemc.objectscale.jfr.FlightEvents;
+import com.dellemc.objectscale.pipeline.Pipeline;
+import com.dellemc.objectscale.pipeline.StageOptions;
+import com.dellemc.objectscale.util.LanedExecutor;
+import com.dellemc.objectscale.util.MemoryBudget;
+import com.dellemc.objectscale.util.OffHeapKeySet;
+import com.dellemc.objectscale.util.Throttle;
+import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
@@ -8,8 +15,10 @@ import lombok.experimental.SuperBuilder;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.AccessControlPolicy;
 import software.amazon.awssdk.services.s3.model.GetObjectAclResponse;
 import software.amazon.awssdk.services.s3.model.MetadataDirective;
@@ -17,22 +26,57 @@ import software.amazon.awssdk.services.s3.model.ReplicationStatus;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class ReReplicationProcessor extends AbstractReplicationTool {
     private static final Logger log = LogManager.getLogger(ReReplicationProcessor.class);
 
-    public static final int QUEUE_SIZE = 500;
+    // queues are sized by the memory budget (see Config.maxInflightMemory); this only caps them. Both lanes may queue
+    // deeply, so a run of large objects doesn't stop the reader from feeding the small lane
+    public static final int MAX_QUEUED_ROWS = 1000000;
+    public static final long DEFAULT_LARGE_OBJECT_SIZE = 64L * 1024 * 1024;
+    static final int SMALL_LANE = 0, LARGE_LANE = 1;
 
     private final Config config;
+    // keys completed by a previous run (only used when resuming)
+    private OffHeapKeySet journaledKeys;
+    private volatile long resumedCount;
+    private volatile ReplicationVerifier verifier;
+    private final ProcessingStats[] laneStats;
+    private volatile Pipeline pipeline;
+    // null unless there is a throttle schedule
+    private volatile Throttle throttle;
+    // rows passed to the copy stage (only counted against maxObjects); the buckets of a batch share one count
+    volatile AtomicLong admittedCount = new AtomicLong();
+    // why the run stopped before the end of the inventory, if it did
+    private volatile String stopReason;
 
     public ReReplicationProcessor(Config config) {
-        super(config, null);
+        this(config, null);
+    }
+
+    /**
+     * @param s3Client the client to use (i.e. shared with another tool), or null to create one from the config
+     */
+    ReReplicationProcessor(Config config, S3Client s3Client) {
+        super(config, s3Client);
         this.config = config;
+        long now = System.currentTimeMillis();
+        this.laneStats = new ProcessingStats[]{new ProcessingStats(now), new ProcessingStats(now)};
     }
 
     @Override
@@ -50,50 +94,311 @@ public class ReReplicationProcessor extends AbstractReplicationTool {
 
         // read from inventory file
         log.info("Reading object list from file {}", config.getInventoryFile());
-        try (FileReader csvReader = new FileReader(config.getInventoryFile().toFile())) {
-            CSVParser records = CSVFormat.DEFAULT
-                    .withHeader(InventoryRow.Header.class)
-                    .withIgnoreEmptyLines() // or else the last (empty) line will be parsed
-                    .parse(csvReader);
-
+        Path journalFile = sidecarFile(ReReplicationJournal.JOURNAL_FILE_SUFFIX);
+        if (!config.resume && Files.exists(journalFile))
+            throw new IllegalStateException("journal " + journalFile + " already exists; use --resume to skip keys that were"
+                    + " already re-replicated, or delete it to start over");
+        try (CSVParser records = openInventory(); OffHeapKeySet seenKeys = createSeenKeySet();
+             OffHeapKeySet journaledKeys = config.resume && Files.exists(journalFile)
+                     ? ReReplicationJournal.loadKeys(journalFile, config.getTempDir()) : null;
+             ReReplicationJournal journal = new ReReplicationJournal(journalFile, config.resume);
+             AuditLog auditLog = openAuditLog(config.resume);
+             ReplicationVerifier verifier = config.verify ? new ReplicationVerifier(s3Client, config.getBucket(),
+                     config.getThreadCount(), config.useVirtualThreads(), config.verifyInitialDelay, config.verifyTimeout) : null) {
+            this.auditLog = auditLog;
+            this.verifier = verifier;
+            this.journaledKeys = journaledKeys;
             // build the InventoryRow stream
             Stream<InventoryRow> inventoryStream = StreamSupport.stream(records.spliterator(), false)
                     // filter out the header if present (determined by checking if the first column value is "Key")
                     .filter(record -> record.getRecordNumber() > 1 || !record.get(InventoryRow.Header.Key).equals(InventoryRow.Header.Key.name()))
                     .map(ReReplicationProcessor::inventoryRowFromCsvRecord);
+            inventoryStream = prioritize(inventoryStream);
 
-            // configure thread pool for S3 updates
-            final EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(
-                    config.getThreadCount(),
-                    new LinkedBlockingDeque<>(QUEUE_SIZE),
-                    "s3-update-pool");
-
-            inventoryStream.forEach(inventoryRow -> executor.blockingSubmit(() -> {
-                // sanity check - if we've been given a full inventory, make sure we don't re-replicate versions that are
-                // non-current or have already been successfully replicated
-                if (inventoryRow.getIsLatest() != null && !inventoryRow.getIsLatest()) {
-                    log.info("object [{}:{}] is not the latest version; skipping", inventoryRow.getKey(), inventoryRow.getVersionId());
-                } else if (inventoryRow.getReplicationStatus() != null && inventoryRow.getReplicationStatus() != ReplicationStatus.FAILED) {
-                    log.info("object [{}:{}] has not failed replication; skipping", inventoryRow.getKey(), inventoryRow.getVersionId());
-                } else {
-                    // update mtime of the object key by writing a new version
-                    touchObject(inventoryRow);
-                }
-            }));
-
-            // wait a long time for updates to complete
-            executor.shutdown();
-            log.info("Finished processing source file; waiting for re-replication jobs to complete");
-            if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
-                executor.shutdownNow();
-                throw new RuntimeException("last " + QUEUE_SIZE + " HEAD requests taking more than an hour; bailing out");
+            // the pipeline closes the inventory stream, which deletes any sort spill files
+            reReplicate(inventoryStream, seenKeys, journal, null);
+            if (stopReason != null)
+                log.info("Stopped before the end of the inventory ({}); run again with --resume to continue", stopReason);
+            long endTime = System.currentTimeMillis();
+            for (ProcessingStats stats : laneStats) stats.setEndTimeMillis(endTime);
+
+            if (verifier != null) {
+                log.info("Waiting for {} re-replicated versions to be verified (timeout: {})", verifier.getOutstanding(), config.verifyTimeout);
+                verifier.awaitCompletion();
+                Path retryFile = sidecarFile(ReplicationVerifier.RETRY_FILE_SUFFIX);
+                verifier.writeRetryFile(retryFile);
+                log.info("{}; versions to retry were written to {}", verifier.getSummary(), retryFile);
             }
 
             log.info("{} complete; exiting normally", ReReplicationProcessor.class.getSimpleName());
 
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
-        } // try-with-resources will close the inventory file
+        } // try-with-resources will close the inventory file, and commit the rest of the journal and audit log
+    }
+
+    /**
+     * @return a sink that re-replicates rows as they are submitted, instead of reading them from the inventory file
+     * (see {@link ReReplicationSink})
+     */
+    public ReReplicationSink openSink() {
+        return openSink(ReReplicationSink.DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param queueSize the most rows that may wait to be read into the pipeline before {@link ReReplicationSink#submit}
+     *                  blocks
+     */
+    public ReReplicationSink openSink(int queueSize) {
+        return new ReReplicationSink(this, queueSize);
+    }
+
+    /**
+     * @return an empty set for the keys seen by a run (or sink), so each key is only re-replicated once
+     */
+    OffHeapKeySet createSeenKeySet() throws IOException {
+        return new OffHeapKeySet(config.getTempDir(), 0);
+    }
+
+    /**
+     * Re-replicates rows: check -> copy (in lanes for small and large objects) -> journal. The throttle schedule and
+     * budgets apply, and the watchdog aborts the run if copies stop completing
+     *
+     * @param seenKeys the keys already re-replicated (by this run)
+     * @param journal  if not null, each completed copy is recorded in it
+     * @param outcomes if not null, it is told what happens to each row
+     */
+    void reReplicate(Stream<InventoryRow> rows, OffHeapKeySet seenKeys, ReReplicationJournal journal, Outcomes outcomes) {
+        if (config.throttleSchedule != null) {
+            throttle = new Throttle("re-replication-throttle", Throttle.Limits.UNLIMITED);
+            config.throttleSchedule.apply(throttle);
+        }
+
+        pipeline = Pipeline.from("re-replication", rows)
+                .memoryBudget(new MemoryBudget(config.getInflightMemoryLimit()), InventoryRow::estimateRetainedBytes)
+                .watchdog(config.getWatchdogOptions())
+                // checks are done in a single thread, so the seen-key set needs no synchronization
+                .filter("check", inventoryRow -> {
+                    if (grossRecords != null) grossRecords.incProcessedObjects();
+                    boolean reReplicate = shouldReReplicate(inventoryRow, seenKeys) && admit();
+                    if (!reReplicate && outcomes != null) outcomes.skipped(inventoryRow);
+                    return reReplicate;
+                }, StageOptions.<InventoryRow>builder().queueSize(MAX_QUEUED_ROWS).build())
+                // update mtime of the object key by writing a new version
+                .map("copy", inventoryRow -> new Copy(inventoryRow, touchObject(inventoryRow)),
+                        StageOptions.<InventoryRow>builder()
+                                .lanes(createLanes())
+                                .laneSelector(this::laneFor)
+                                // not cancellable: an interrupted COPY may still complete on the server, so a retry
+                                // could write a second new version
+                                .throttle(throttle != null ? throttle : sharedThrottle)
+                                .throttleWeigher(inventoryRow -> inventoryRow.getSize() == null ? 0 : inventoryRow.getSize())
+                                .virtualThreads(config.useVirtualThreads())
+                                .errorHandler((inventoryRow, e) -> {
+                                    logSampler.log(log, Level.WARN, "copy-error", "failed to re-replicate object version [{}:{}]",
+                                            inventoryRow.getKey(), inventoryRow.getVersionId(), e);
+                                    laneStats[laneFor(inventoryRow)].incErrors();
+                                    if (filteredRecords != null) filteredRecords.incErrors();
+                                    if (outcomes != null) outcomes.failed(inventoryRow, e);
+                                })
+                                .build())
+                .sink("journal", copy -> {
+                    InventoryRow inventoryRow = copy.inventoryRow;
+                    if (journal != null) journal.completed(inventoryRow, copy.newVersionId);
+                    if (verifier != null) verifier.schedule(inventoryRow.getKey(), copy.newVersionId);
+                    long size = inventoryRow.getSize() == null ? 0 : inventoryRow.getSize();
+                    int lane = laneFor(inventoryRow);
+                    laneStats[lane].incProcessedObjects();
+                    laneStats[lane].incProcessedBytes(size);
+                    if (filteredRecords != null) {
+                        filteredRecords.incProcessedObjects();
+                        filteredRecords.incProcessedBytes(size);
+                    }
+                    if (outcomes != null) outcomes.copied(inventoryRow, copy.newVersionId);
+                }, StageOptions.<Copy>builder().queueSize(MAX_QUEUED_ROWS).build());
+
+        ScheduledExecutorService scheduler = startScheduler();
+        try {
+            pipeline.run();
+        } finally {
+            if (scheduler != null) scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts applying the throttle schedule, and the time budget, if there are any
+     *
+     * @return the scheduler to shut down at the end of the run, or null if it isn't needed
+     */
+    ScheduledExecutorService startScheduler() {
+        if (throttle == null && config.maxDuration == null) return null;
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "re-replication-schedule");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (throttle != null) {
+            long interval = ThrottleSchedule.CHECK_INTERVAL.toMillis();
+            scheduler.scheduleWithFixedDelay(() -> config.throttleSchedule.apply(throttle), interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (config.maxDuration != null) {
+            // copies in progress complete and are journaled; the rest are left for the next run
+            scheduler.schedule(() -> stop("reached the maximum duration of " + config.maxDuration, true),
+                    config.maxDuration.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Counts a row against the object budget
+     *
+     * @return false if the budget is used up
+     */
+    boolean admit() {
+        if (config.maxObjects == null) return true;
+        long admitted = admittedCount.incrementAndGet();
+        if (admitted <= config.maxObjects) return true;
+        // the rows already admitted are still copied (in a batch, another bucket may have used up the budget first)
+        if (stopReason == null) stop("reached the maximum of " + config.maxObjects + " objects", false);
+        return false;
+    }
+
+    private void stop(String reason, boolean dropQueued) {
+        if (stopReason == null) stopReason = reason;
+        log.info("Stopping re-replication: {}", reason);
+        if (dropQueued) pipeline.stopEarly();
+        else pipeline.stopReading();
+    }
+
+    /**
+     * Applies the configured priority order (if any) to the inventory rows
+     */
+    Stream<InventoryRow> prioritize(Stream<InventoryRow> inventoryStream) throws IOException {
+        PriorityOrder priorityOrder = new PriorityOrder(config.priorityPolicy, config.priorityPrefixWeights, config.priorityBufferSize,
+                config.getTempDir());
+        if (!priorityOrder.isEnabled()) return inventoryStream;
+        if (config.prioritySort) {
+            log.info("Sorting inventory by priority ({}, prefix weights: {})", config.priorityPolicy, config.priorityPrefixWeights);
+            return priorityOrder.sorted(inventoryStream);
+        }
+        log.info("Ordering inventory by priority within a buffer of {} rows ({}, prefix weights: {})",
+                config.priorityBufferSize, config.priorityPolicy, config.priorityPrefixWeights);
+        return priorityOrder.buffered(inventoryStream);
+    }
+
+    List<LanedExecutor.Lane> createLanes() {
+        int threadCount = config.getThreadCount();
+        int largeThreads = config.getLargeObjectThreadCount();
+        // small objects may borrow every thread, but large objects may only borrow up to half of them, so there is
+        // always capacity left for small objects
+        return Arrays.asList(
+                new LanedExecutor.Lane("small", threadCount - largeThreads, threadCount, MAX_QUEUED_ROWS),
+                new LanedExecutor.Lane("large", largeThreads, Math.max(1, Math.max(largeThreads, threadCount / 2)), MAX_QUEUED_ROWS));
+    }
+
+    /**
+     * @return the executor lane for the row (rows with no size are treated as small)
+     */
+    int laneFor(InventoryRow inventoryRow) {
+        return inventoryRow.getSize() != null && inventoryRow.getSize() >= config.largeObjectSize ? LARGE_LANE : SMALL_LANE;
+    }
+
+    /**
+     * @return a file next to the inventory file, with the given suffix. Each partition of an inventory gets its own
+     * files, so that instances of the tool working on different partitions never share one
+     */
+    Path sidecarFile(String suffix) {
+        return sidecarFile(config.getInventoryFile(), config.partitionIndex, config.partitionCount, suffix);
+    }
+
+    static Path sidecarFile(Path inventoryFile, int partitionIndex, int partitionCount, String suffix) {
+        String partition = partitionCount > 0 ? String.format(".%d-of-%d", partitionIndex + 1, partitionCount) : "";
+        return Paths.get(inventoryFile.toString() + partition + suffix);
+    }
+
+    /**
+     * @return the pipeline of the current (or last) run, for per-stage stats
+     */
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    @Override
+    String getSummary() {
+        List<String> summary = new ArrayList<>();
+        if (resumedCount > 0) summary.add(String.format("Skipped %d keys already re-replicated by a previous run", resumedCount));
+        String[] laneNames = {"Small objects", "Large objects"};
+        for (int lane = 0; lane < laneStats.length; lane++) {
+            ProcessingStats stats = laneStats[lane];
+            if (stats.getProcessedObjects() == 0 && stats.getErrors() == 0) continue;
+            summary.add(String.format("%s: %d (%d/s, %s) [%d errors]", laneNames[lane], stats.getProcessedObjects(),
+                    stats.getPerSecondAverage(), ProcessingStats.formatByteRate(stats.getBytesPerSecondAverage()), stats.getErrors()));
+        }
+        if (throttle != null)
+            summary.add(String.format("Throttle: copies waited %ds in total (%ds while paused)",
+                    TimeUnit.NANOSECONDS.toSeconds(throttle.getWaitNanos()), TimeUnit.NANOSECONDS.toSeconds(throttle.getPausedNanos())));
+        if (stopReason != null) summary.add(String.format("Stopped early (%s); run again with --resume to continue", stopReason));
+        if (verifier != null) summary.add(verifier.getSummary());
+        if (super.getSummary() != null) summary.add(super.getSummary());
+        return summary.isEmpty() ? null : String.join("\n", summary);
+    }
+
+    /**
+     * @return true if replication should be re-triggered for this row. Each key is only re-replicated once, no matter
+     * how many times it appears in the input (copying it again would just create another version and another
+     * replication job)
+     */
+    boolean shouldReReplicate(InventoryRow inventoryRow, OffHeapKeySet seenKeys) {
+        if (keyFilter != null && !testKey(inventoryRow)) return false;
+        // sanity check - if we've been given a full inventory, make sure we don't re-replicate versions that are
+        // non-current or have already been successfully replicated
+        if (inventoryRow.getIsLatest() != null && !inventoryRow.getIsLatest()) {
+            logSampler.log(log, Level.INFO, "not-latest", "object [{}:{}] is not the latest version; skipping",
+                    inventoryRow.getKey(), inventoryRow.getVersionId());
+            return false;
+        } else if (inventoryRow.getReplicationStatus() != null && inventoryRow.getReplicationStatus() != ReplicationStatus.FAILED
+                && !InventoryFilter.isStalePending(inventoryRow, config.getPendingOlderThan(), System.currentTimeMillis())) {
+            logSampler.log(log, Level.INFO, "not-failed", "object [{}:{}] has not failed replication; skipping",
+                    inventoryRow.getKey(), inventoryRow.getVersionId());
+            return false;
+        }
+        if (journaledKeys != null && journaledKeys.contains(inventoryRow.getKey())) {
+            log.debug("object [{}:{}] was re-replicated by a previous run; skipping", inventoryRow.getKey(), inventoryRow.getVersionId());
+            resumedCount++;
+            return false;
+        }
+        try {
+            if (!seenKeys.add(inventoryRow.getKey())) {
+                log.debug("object [{}:{}] has already been re-replicated; skipping duplicate", inventoryRow.getKey(), inventoryRow.getVersionId());
+                if (grossRecords != null) grossRecords.incDuplicates();
+                return false;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    boolean testKey(InventoryRow inventoryRow) {
+        if (keyFilter.test(inventoryRow.getKey())) return true;
+        // there could be millions of these, so don't log them at info level
+        log.debug("object [{}:{}] does not pass key filters; skipping", inventoryRow.getKey(), inventoryRow.getVersionId());
+        return false;
+    }
+
+    CSVParser openInventory() throws IOException {
+        if (config.partitionCount > 0) {
+            // use the inventory index to jump straight to our slice of the file
+            InventoryIndex index = InventoryIndex.load(config.getInventoryFile());
+            InventoryIndex.Range range = index.split(config.partitionCount).get(config.partitionIndex);
+            log.info("Processing partition {} of {} ({} rows, bytes {}-{})", config.partitionIndex + 1,
+                    config.partitionCount, range.getRowCount(), range.getStartOffset(), range.getEndOffset());
+            return index.openRange(range);
+        }
+        return CSVFormat.DEFAULT
+                .withHeader(InventoryRow.Header.class)
+                .withIgnoreEmptyLines() // or else the last (empty) line will be parsed
+                .parse(new FileReader(config.getInventoryFile().toFile()));
     }
 
     static InventoryRow inventoryRowFromCsvRecord(CSVRecord record) {
@@ -111,39 +416,65 @@ public class ReReplicationProcessor extends AbstractReplicationTool {
                 record.isSet(InventoryRow.Header.ReplicationStatus.name()) ? ReplicationStatus.fromValue(record.get(InventoryRow.Header.ReplicationStatus)) : null);
     }
 
-    void touchObject(InventoryRow inventoryRow) {
-        final AccessControlPolicy acl;
-        if (config.reReplicateCustomAcls) {
-            // no other way to deal with custom ACLs then to GET and PUT them
-            // and we don't know who the default owner would be, so can't infer a canned ACL either
-            log.info("retrieving ACL for object version [{}:{}]", inventoryRow.getKey(), inventoryRow.getVersionId());
-            acl = aclFromResponse(s3Client.getObjectAcl(builder -> builder
-                    .bucket(config.getBucket())
-                    .key(inventoryRow.getKey())
-                    .versionId(inventoryRow.getVersionId())));
-        } else {
-            acl = null;
-        }
+    /**
+     * @return the version ID of the new version
+     */
+    String touchObject(InventoryRow inventoryRow) {
+        Object flightEvent = FlightEvents.beginReReplicate();
+        long start = System.nanoTime();
+        String newVersionId = null;
+        boolean aclApplied = false;
+        try {
+            final AccessControlPolicy acl;
+            if (config.reReplicateCustomAcls) {
+                // no other way to deal with custom ACLs then to GET and PUT them
+                // and we don't know who the default owner would be, so can't infer a canned ACL either
+                log.debug("retrieving ACL for object version [{}:{}]", inventoryRow.getKey(), inventoryRow.getVersionId());
+                acl = aclFromResponse(s3Client.getObjectAcl(builder -> builder
+                        .bucket(config.getBucket())
+                        .key(inventoryRow.getKey())
+                        .versionId(inventoryRow.getVersionId())));
+            } else {
+                acl = null;
+            }
 
-        // TODO: do we need to support MPU copy on ObjectScale?  (ECS doesn't require it)
-        log.info("re-replicating object version [{}:{}] by issuing a PUT+COPY call", inventoryRow.getKey(), inventoryRow.getVersionId());
-        String versionIdStr = inventoryRow.getVersionId() != null ? "?versionId=" + inventoryRow.getVersionId() : "";
-        String newVersionId = s3Client.copyObject(builder -> builder
-                .copySource(String.format("%s/%s%s", config.getBucket(), inventoryRow.getKey(), versionIdStr))
-                .destinationBucket(config.getBucket())
-                .destinationKey(inventoryRow.getKey())
-                .metadataDirective(MetadataDirective.COPY)
-        ).versionId();
-
-        if (config.reReplicateCustomAcls) {
-            // set ACL on the new version
-            log.info("replicating ACL for new object version [{}:{}]", inventoryRow.getKey(), newVersionId);
-            s3Client.putObjectAcl(builder -> builder
-                    .bucket(config.getBucket())
-                    .key(inventoryRow.getKey())
-                    .versionId(newVersionId)
-                    .accessControlPolicy(acl));
+            // TODO: do we need to support MPU copy on ObjectScale?  (ECS doesn't require it)
+            log.debug("re-replicating object version [{}:{}] by issuing a PUT+COPY call", inventoryRow.getKey(), inventoryRow.getVersionId());
+            newVersionId = s3Client.copyObject(builder -> builder
+                    .sourceBucket(config.getBucket())
+                    .sourceKey(inventoryRow.getKey())
+                    .sourceVersionId(inventoryRow.getVersionId())
+                    .destinationBucket(config.getBucket())
+                    .destinationKey(inventoryRow.getKey())
+                    .metadataDirective(MetadataDirective.COPY)
+            ).versionId();
+
+            if (config.reReplicateCustomAcls) {
+                // set ACL on the new version
+                String aclVersionId = newVersionId;
+                log.debug("replicating ACL for new object version [{}:{}]", inventoryRow.getKey(), aclVersionId);
+                s3Client.putObjectAcl(builder -> builder
+                        .bucket(config.getBucket())
+                        .key(inventoryRow.getKey())
+                        .versionId(aclVersionId)
+                        .accessControlPolicy(acl));
+                aclApplied = true;
+            }
+            audit(inventoryRow, newVersionId, aclApplied, start, AuditLog.OUTCOME_OK);
+        } catch (RuntimeException e) {
+            // a failed ACL write still leaves a new version, which the audit log records
+            audit(inventoryRow, newVersionId, aclApplied, start, AuditLog.outcomeOf(e));
+            throw e;
         }
+        FlightEvents.commitReReplicate(flightEvent, inventoryRow.getKey(), inventoryRow.getVersionId(),
+                inventoryRow.getSize() != null ? inventoryRow.getSize() : -1, newVersionId);
+        return newVersionId;
+    }
+
+    private void audit(InventoryRow inventoryRow, String newVersionId, boolean aclApplied, long startNanos, String outcome) {
+        AuditLog auditLog = this.auditLog;
+        if (auditLog != null)
+            auditLog.record(AuditLog.OPERATION_COPY, inventoryRow, newVersionId, aclApplied, System.nanoTime() - startNanos, outcome);
     }
 
     AccessControlPolicy aclFromResponse(GetObjectAclResponse response) {
@@ -152,11 +483,146 @@ public class ReReplicationProcessor extends AbstractReplicationTool {
                 .grants(response.grants()).build();
     }
 
+    /**
+     * Told what happens to each row (i.e. to complete the futures of a {@link ReReplicationSink})
+     */
+    interface Outcomes {
+        /**
+         * The row does not need to be re-replicated (or is over the object budget)
+         */
+        void skipped(InventoryRow inventoryRow);
+
+        void copied(InventoryRow inventoryRow, String newVersionId);
+
+        void failed(InventoryRow inventoryRow, Throwable error);
+    }
+
+    /**
+     * A completed copy, on its way to the journal
+     */
+    static class Copy {
+        final InventoryRow inventoryRow;
+        final String newVersionId;
+
+        Copy(InventoryRow inventoryRow, String newVersionId) {
+            this.inventoryRow = inventoryRow;
+            this.newVersionId = newVersionId;
+        }
+    }
+
     @SuperBuilder(toBuilder = true)
     @Getter
     @EqualsAndHashCode(callSuper = true)
     @ToString(callSuper = true)
     public static class Config extends AbstractReplicationTool.Config {
         private final boolean reReplicateCustomAcls;
+        /**
+         * If greater than zero, the inventory is split into this many balanced partitions using its index (see
+         * {@link InventoryIndex#split(int)}), and only the partition at <code>partitionIndex</code> is processed.
+         * This allows several instances of the tool to re-replicate one inventory in parallel
+         */
+        private final int partitionCount;
+        /**
+         * Zero-based index of the partition to process (only used if <code>partitionCount</code> is set)
+         */
+        private final int partitionIndex;
+        /**
+         * Every completed re-replication is recorded in a journal next to the inventory file (see
+         * {@link ReReplicationJournal}). If true, keys already recorded in the journal are skipped, so an interrupted
+         * run can be restarted without copying those keys again. If false, the journal must not already exist
+         */
+        private final boolean resume;
+        /**
+         * If true, each new version is HEADed (with backoff) until its replication status is COMPLETE or FAILED, or
+         * <code>verifyTimeout</code> expires (see {@link ReplicationVerifier}). Versions that did not replicate are
+         * written to a retry file next to the inventory file
+         */
+        private final boolean verify;
+        /**
+         * Objects of at least this size are copied in a separate executor lane, with its own threads, so that a burst
+         * of large copies can't occupy every thread
+         */
+        @Builder.Default
+        private final long largeObjectSize = DEFAULT_LARGE_OBJECT_SIZE;
+        /**
+         * The number of threads dedicated to large objects (defaults to a quarter of <code>threadCount</code>). Each
+         * lane can borrow idle threads from the other, but large objects never use more than half of all threads
+         */
+        private final Integer largeObjectThreads;
+        /**
+         * The order in which to re-replicate rows (see {@link PriorityOrder})
+         */
+        @Builder.Default
+        private final PriorityOrder.Policy priorityPolicy = PriorityOrder.Policy.None;
+        /**
+         * Rows with keys under these prefixes are re-replicated first (highest weight first)
+         */
+        private final Map<String, Integer> priorityPrefixWeights;
+        /**
+         * The number of rows to reorder at once (or the sort chunk size, if <code>prioritySort</code> is set)
+         */
+        @Builder.Default
+        private final int priorityBufferSize = PriorityOrder.DEFAULT_BUFFER_SIZE;
+        /**
+         * If true, the entire inventory is sorted by priority (with an external merge sort) before any rows are
+         * re-replicated, instead of reordering rows within a buffer
+         */
+        private final boolean prioritySort;
+        @Builder.Default
+        private final Duration verifyInitialDelay = ReplicationVerifier.DEFAULT_INITIAL_DELAY;
+        @Builder.Default
+        private final Duration verifyTimeout = ReplicationVerifier.DEFAULT_TIMEOUT;
+        /**
+         * Limits copies by time of day (i.e. full speed at night, and a reduced rate during the day). The limits are
+         * applied while the run is in progress, so a run can span several maintenance windows
+         */
+        private final ThrottleSchedule throttleSchedule;
+        /**
+         * If set, the run stops after this long: copies in progress complete and are journaled, and the rest of the
+         * inventory is left for a run with <code>resume</code>. In a batch, this is the time for the whole batch
+         */
+        private final Duration maxDuration;
+        /**
+         * If set, the run stops reading the inventory after this many rows have been passed on to be copied (they are
+         * all still copied), and the rest of the inventory is left for a run with <code>resume</code>. In a batch, this
+         * counts the rows of every bucket
+         */
+        private final Long maxObjects;
+
+        public int getLargeObjectThreadCount() {
+            return largeObjectThreads != null ? largeObjectThreads : getThreadCount() / 4;
+        }
+
+        @Override
+        public void validate() {
+            super.validate();
+
+            if (partitionCount < 0)
+                throw new IllegalArgumentException("partitionCount cannot be negative");
+
+            if (verifyInitialDelay == null || verifyInitialDelay.isNegative())
+                throw new IllegalArgumentException("verifyInitialDelay cannot be negative");
+
+            if (verifyTimeout == null || verifyTimeout.isNegative())
+                throw new IllegalArgumentException("verifyTimeout cannot be negative");
+
+            if (maxDuration != null && (maxDuration.isNegative() || maxDuration.isZero()))
+                throw new IllegalArgumentException("maxDuration must be positive");
+
+            if (maxObjects != null && maxObjects < 1)
+                throw new IllegalArgumentException("maxObjects must be at least 1");
+
+            if (priorityBufferSize < 1)
+                throw new IllegalArgumentException("priorityBufferSize must be at least 1");
+
+            if (largeObjectSize < 1)
+                throw new IllegalArgumentException("largeObjectSize must be positive");
+
+            if (largeObjectThreads != null && (largeObjectThreads < 0 || largeObjectThreads >= getThreadCount()))
+                throw new IllegalArgumentException("largeObjectThreads must be between 0 and threadCount - 1");
+
+            if (partitionCount > 0 && (partitionIndex < 0 || partitionIndex >= partitionCount))
+                throw new IllegalArgumentException("partitionIndex must be between 0 and partitionCount - 1");
+        }
     }
 }
@@ -0,0 +1,213 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.pipeline.Pipeline;
+import com.dellemc.objectscale.util.OffHeapKeySet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+/**
+ * Re-replicates rows as they are submitted, instead of reading them from an inventory file (see
+ * {@link ReReplicationProcessor#openSink()}). Rows go through the same pipeline as a re-replication run: the same
+ * checks (each key is only re-replicated once), copy lanes, throttle schedule, budgets and memory limit, so
+ * {@link #submit(InventoryRow)} blocks while the pipeline is full.
+ * <p>
+ * Each row's future completes with the ID of the new version, or with null if the row was not re-replicated (it is not
+ * the latest version, has not failed replication, is a duplicate, does not pass the key filters or is over the object
+ * budget). It completes exceptionally if the copy failed, or with a {@link CancellationException} if the sink stopped
+ * before the row was processed. Futures are completed on the tool's threads, so work done in their callbacks holds up
+ * the pipeline.
+ * <p>
+ * Rows are not journaled, verified or reordered by priority; those only apply to {@link ReReplicationProcessor#run()}.
+ * As with {@link InventoryPublisher}, a sink that is given no rows for longer than the stall timeout looks like a
+ * stalled run, so raise <code>stallTimeout</code> if rows may stop arriving for a long time. A processor can only
+ * have one sink (or run) at a time.
+ */
+public class ReReplicationSink implements AutoCloseable {
+    private static final Logger log = LogManager.getLogger(ReReplicationSink.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    // how often a blocked reader or submitter checks whether the pipeline has stopped
+    static final long POLL_MILLIS = 100;
+    // marks the end of the rows
+    private static final Object END = new Object();
+
+    private final ReReplicationProcessor processor;
+    private final BlockingQueue<Object> queue;
+    // rows submitted and not yet completed (by identity, since rows are mutable)
+    private final Map<InventoryRow, CompletableFuture<String>> pending = new IdentityHashMap<>();
+    private final Thread thread;
+    private volatile boolean closed, finished;
+    private volatile RuntimeException failure;
+
+    ReReplicationSink(ReReplicationProcessor processor, int queueSize) {
+        if (queueSize < 1) throw new IllegalArgumentException("queueSize must be at least 1");
+        this.processor = processor;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.thread = new Thread(this::process, "re-replication-sink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Submits a row to re-replicate, waiting while the pipeline is full
+     *
+     * @return a future that completes when the row has been processed (see above)
+     * @throws IllegalStateException if the sink is closed, or the row has already been submitted and is not complete
+     */
+    public CompletableFuture<String> submit(InventoryRow inventoryRow) throws InterruptedException {
+        if (closed) throw new IllegalStateException("the sink is closed");
+        CompletableFuture<String> future = new CompletableFuture<>();
+        synchronized (pending) {
+            if (pending.containsKey(inventoryRow))
+                throw new IllegalStateException("row [" + inventoryRow.getKey() + "] has already been submitted");
+            pending.put(inventoryRow, future);
+        }
+        while (!queue.offer(inventoryRow, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (finished) break;
+        }
+        // the pipeline may have stopped before it read the row
+        if (finished) cancelRemaining();
+        return future;
+    }
+
+    /**
+     * Stops accepting rows, and waits for the rows already submitted to complete
+     *
+     * @throws RuntimeException if the pipeline failed (the futures of the rows it did not process are cancelled), or
+     *                          if interrupted while waiting
+     */
+    @Override
+    public void close() {
+        try {
+            if (!closed) {
+                closed = true;
+                while (!finished && !queue.offer(END, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // the pipeline is full; wait
+                }
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Stops the pipeline. Copies in progress are abandoned, and the futures of rows not yet processed are cancelled
+     */
+    public void cancel() {
+        closed = true;
+        Pipeline pipeline = processor.getPipeline();
+        if (pipeline != null) pipeline.cancel();
+    }
+
+    /**
+     * @return a summary of the results so far, as printed at the end of a re-replication run
+     */
+    public String getSummary() {
+        return processor.getSummary();
+    }
+
+    void process() {
+        ReReplicationProcessor.Outcomes outcomes = new ReReplicationProcessor.Outcomes() {
+            @Override
+            public void skipped(InventoryRow inventoryRow) {
+                CompletableFuture<String> future = remove(inventoryRow);
+                if (future != null) future.complete(null);
+            }
+
+            @Override
+            public void copied(InventoryRow inventoryRow, String newVersionId) {
+                CompletableFuture<String> future = remove(inventoryRow);
+                if (future != null) future.complete(newVersionId);
+            }
+
+            @Override
+            public void failed(InventoryRow inventoryRow, Throwable error) {
+                CompletableFuture<String> future = remove(inventoryRow);
+                if (future != null) future.completeExceptionally(error);
+            }
+        };
+        try (OffHeapKeySet seenKeys = processor.createSeenKeySet(); AuditLog auditLog = processor.openAuditLog(true)) {
+            processor.auditLog = auditLog;
+            processor.reReplicate(StreamSupport.stream(Spliterators.spliteratorUnknownSize(new QueueIterator(),
+                    Spliterator.ORDERED | Spliterator.NONNULL), false), seenKeys, null, outcomes);
+        } catch (CancellationException e) {
+            log.info("re-replication sink cancelled");
+        } catch (IOException e) {
+            failure = new RuntimeException(e);
+        } catch (RuntimeException e) {
+            failure = e;
+            log.error("re-replication sink failed", e);
+        } finally {
+            finished = true;
+            cancelRemaining();
+        }
+    }
+
+    private CompletableFuture<String> remove(InventoryRow inventoryRow) {
+        synchronized (pending) {
+            return pending.remove(inventoryRow);
+        }
+    }
+
+    // cancels every row that has not completed (the pipeline has stopped, so none of them will)
+    private void cancelRemaining() {
+        List<CompletableFuture<String>> futures;
+        synchronized (pending) {
+            futures = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        queue.clear();
+        for (CompletableFuture<String> future : futures) {
+            future.completeExceptionally(new CancellationException("the re-replication sink stopped before this row was processed"));
+        }
+    }
+
+    /**
+     * The pipeline's source: takes rows from the queue until the end, or until the pipeline stops
+     */
+    class QueueIterator implements Iterator<InventoryRow> {
+        private Object next;
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    Pipeline pipeline = processor.getPipeline();
+                    if (next == null && pipeline != null && (pipeline.isCancelled() || pipeline.isStopping())) return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            return next != END;
+        }
+
+        @Override
+        public InventoryRow next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            InventoryRow inventoryRow = (InventoryRow) next;
+            next = null;
+            return inventoryRow;
+        }
+    }
+}
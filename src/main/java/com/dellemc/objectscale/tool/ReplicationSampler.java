@@ -0,0 +1,184 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.EnhancedThreadPoolExecutor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the replication health of a bucket by HEADing a random sample of its versions instead of all of them.
+ * <p>
+ * The listing is reservoir-sampled, so every listed version has the same chance of being in the sample. The sample is
+ * then HEADed in random order, and estimates are updated as each result comes in. Since any prefix of a random
+ * ordering is itself a random sample, HEADing stops as soon as the confidence intervals for FAILED and PENDING
+ * fractions are narrower than the target precision. Listing is still required to draw the sample, but that is
+ * roughly 1000 times cheaper than a full inventory, which needs a HEAD per version.
+ * <p>
+ * The sampled versions (with their replication status) are written to the inventory file.
+ */
+public class ReplicationSampler extends InventoryGenerator {
+    private static final Logger log = LogManager.getLogger(ReplicationSampler.class);
+
+    public static final int DEFAULT_SAMPLE_SIZE = 10000;
+    public static final double DEFAULT_PRECISION = 0.01;
+    // don't trust the normal approximations below this many samples
+    public static final int MIN_SAMPLE_COUNT = 100;
+
+    private final Config config;
+    private final Random random;
+    private volatile SampleEstimator estimator;
+
+    public ReplicationSampler(Config config) {
+        super(config);
+        this.config = config;
+        this.random = config.getSampleSeed() != null ? new Random(config.getSampleSeed()) : new Random();
+    }
+
+    @Override
+    String getGrossRecordsLabel() {
+        return "Listed versions";
+    }
+
+    @Override
+    String getFilteredRecordsLabel() {
+        return "Sampled versions";
+    }
+
+    @Override
+    public void run() {
+        // reservoir-sample the listing (algorithm R)
+        final List<InventoryRow> reservoir = new ArrayList<>();
+        final long[] population = new long[2]; // count, bytes
+        listVersions().forEachOrdered(inventoryRow -> {
+            long seen = ++population[0];
+            population[1] += inventoryRow.getSize() == null ? 0 : inventoryRow.getSize();
+            if (reservoir.size() < config.sampleSize) {
+                reservoir.add(inventoryRow);
+            } else {
+                long slot = (long) (random.nextDouble() * seen);
+                if (slot < config.sampleSize) reservoir.set((int) slot, inventoryRow);
+            }
+        });
+        log.info("Listing complete; sampling up to {} of {} versions", reservoir.size(), population[0]);
+
+        // any prefix of a random permutation is also a random sample, which is what lets us stop early
+        Collections.shuffle(reservoir, random);
+        estimator = new SampleEstimator(population[0], population[1]);
+
+        final EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(
+                config.getThreadCount(),
+                new LinkedBlockingDeque<>(QUEUE_SIZE),
+                "s3-sample-pool",
+                config.useVirtualThreads());
+        try (InventoryWriter inventoryWriter = new InventoryWriter(config.getInventoryFile(), 0)) {
+            // keep enough HEADs in flight to saturate the pool, but collect results in (random) order
+            Deque<Future<InventoryRow>> inFlight = new ArrayDeque<>();
+            int window = Math.min(config.getThreadCount() * 2, QUEUE_SIZE), next = 0;
+            while (next < reservoir.size() || !inFlight.isEmpty()) {
+                while (next < reservoir.size() && inFlight.size() < window) {
+                    InventoryRow inventoryRow = reservoir.get(next++);
+                    inFlight.add(executor.submit(() -> headReplicationStatus(inventoryRow)));
+                }
+                InventoryRow inventoryRow = inFlight.remove().get();
+                estimator.add(inventoryRow);
+                inventoryWriter.write(inventoryRow);
+                if (filteredRecords != null) filteredRecords.incProcessedObjects();
+
+                if (isPrecise()) {
+                    log.info("Target precision reached after {} samples", estimator.getSampleCount());
+                    break;
+                }
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // any remaining HEADs are no longer needed
+            executor.stop();
+        }
+
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                log.warn("sample HEAD requests still running after a minute; abandoning them");
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        log.info("{} complete; exiting normally\n{}", ReplicationSampler.class.getSimpleName(), getSummary());
+    }
+
+    boolean isPrecise() {
+        return estimator.getSampleCount() >= Math.min(MIN_SAMPLE_COUNT, estimator.getPopulation())
+                && estimator.getHalfWidth(ReplicationStatus.FAILED) <= config.samplePrecision
+                && estimator.getHalfWidth(ReplicationStatus.PENDING) <= config.samplePrecision;
+    }
+
+    public SampleEstimator getEstimator() {
+        return estimator;
+    }
+
+    @Override
+    String getSummary() {
+        if (estimator == null) return null;
+        StringBuilder summary = new StringBuilder(String.format("Sampled %d of %d versions (%d bytes); estimates at 95%% confidence:%n",
+                estimator.getSampleCount(), estimator.getPopulation(), estimator.getPopulationBytes()));
+        for (ReplicationStatus status : new ReplicationStatus[]{ReplicationStatus.FAILED, ReplicationStatus.PENDING, ReplicationStatus.COMPLETE}) {
+            SampleEstimator.Estimate estimate = estimator.estimate(status);
+            summary.append(String.format("  %-8s %6.2f%% (%.2f%% - %.2f%%), %d versions (%d - %d), %d bytes (%d - %d)%n",
+                    status, estimate.getFraction() * 100, estimate.getFractionLow() * 100, estimate.getFractionHigh() * 100,
+                    estimate.getCount(), estimate.getCountLow(), estimate.getCountHigh(),
+                    estimate.getBytes(), estimate.getBytesLow(), estimate.getBytesHigh()));
+        }
+        if (super.getSummary() != null) summary.append(super.getSummary()).append(String.format("%n"));
+        return summary.toString();
+    }
+
+    @SuperBuilder(toBuilder = true)
+    @Getter
+    @EqualsAndHashCode(callSuper = true)
+    @ToString(callSuper = true)
+    public static class Config extends InventoryGenerator.Config {
+        /**
+         * The maximum number of versions to HEAD
+         */
+        @Builder.Default
+        private final int sampleSize = DEFAULT_SAMPLE_SIZE;
+        /**
+         * Stop sampling once the 95% confidence intervals for the FAILED and PENDING fractions are within +/- this
+         * value (i.e. 0.01 is +/- 1 percentage point)
+         */
+        @Builder.Default
+        private final double samplePrecision = DEFAULT_PRECISION;
+        /**
+         * Seed for the random sample (for repeatable samples)
+         */
+        private final Long sampleSeed;
+
+        @Override
+        public void validate() {
+            super.validate();
+
+            if (sampleSize < 1)
+                throw new IllegalArgumentException("sampleSize must be at least 1");
+
+            if (samplePrecision <= 0 || samplePrecision >= 1)
+                throw new IllegalArgumentException("samplePrecision must be between 0 and 1");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.EnhancedThreadPoolExecutor;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies that re-replicated versions actually replicate, by HEADing each new version until its replication status
+ * is COMPLETE or FAILED, or until a timeout expires. Checks are spaced out with exponential backoff (starting at
+ * <code>initialDelay</code>, doubling up to {@link #MAX_INTERVAL}).
+ * <p>
+ * Waiting checks are held in a {@link DelayQueue}, and a single scheduler thread hands each one to a HEAD thread pool
+ * when it comes due, so millions of outstanding checks cost only memory (one small object each), not threads.
+ * <p>
+ * Versions that FAILED or timed out are collected, and can be written to a retry file with
+ * {@link #writeRetryFile(Path)}.
+ */
+public class ReplicationVerifier implements AutoCloseable {
+    private static final Logger log = LogManager.getLogger(ReplicationVerifier.class);
+
+    public static final String RETRY_FILE_SUFFIX = ".retry.csv";
+    public static final Duration DEFAULT_INITIAL_DELAY = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofHours(1);
+    public static final Duration MAX_INTERVAL = Duration.ofMinutes(10);
+    public static final int QUEUE_SIZE = 500;
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final long initialDelayNanos;
+    private final long maxIntervalNanos;
+    private final long timeoutNanos;
+    private final DelayQueue<Check> checkQueue = new DelayQueue<>();
+    private final EnhancedThreadPoolExecutor executor;
+    private final Thread schedulerThread;
+    private final ConcurrentLinkedQueue<Check> unverified = new ConcurrentLinkedQueue<>();
+    private final Object outstandingLock = new Object();
+    private long outstanding;
+
+    private final AtomicLong completeCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+    private final AtomicLong headCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * @param virtualThreads if true, HEADs are run on virtual threads
+     */
+    public ReplicationVerifier(S3Client s3Client, String bucket, int threadCount, boolean virtualThreads,
+                               Duration initialDelay, Duration timeout) {
+        this(s3Client, bucket, threadCount, virtualThreads, initialDelay, MAX_INTERVAL, timeout);
+    }
+
+    ReplicationVerifier(S3Client s3Client, String bucket, int threadCount,
+                        Duration initialDelay, Duration maxInterval, Duration timeout) {
+        this(s3Client, bucket, threadCount, false, initialDelay, maxInterval, timeout);
+    }
+
+    ReplicationVerifier(S3Client s3Client, String bucket, int threadCount, boolean virtualThreads,
+                        Duration initialDelay, Duration maxInterval, Duration timeout) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.initialDelayNanos = initialDelay.toNanos();
+        this.maxIntervalNanos = maxInterval.toNanos();
+        this.timeoutNanos = timeout.toNanos();
+        this.executor = new EnhancedThreadPoolExecutor(threadCount, new LinkedBlockingDeque<>(QUEUE_SIZE), "s3-verify-pool",
+                virtualThreads);
+        this.schedulerThread = new Thread(this::scheduleLoop, "verify-scheduler");
+        this.schedulerThread.setDaemon(true);
+        this.schedulerThread.start();
+    }
+
+    /**
+     * Schedules verification of a new version
+     */
+    public void schedule(String key, String versionId) {
+        synchronized (outstandingLock) {
+            outstanding++;
+        }
+        long now = System.nanoTime();
+        checkQueue.put(new Check(key, versionId, now + timeoutNanos, now + initialDelayNanos, initialDelayNanos));
+    }
+
+    /**
+     * Waits for all scheduled versions to be verified (or time out)
+     */
+    public void awaitCompletion() throws InterruptedException {
+        synchronized (outstandingLock) {
+            while (outstanding > 0) {
+                outstandingLock.wait();
+            }
+        }
+    }
+
+    public long getOutstanding() {
+        synchronized (outstandingLock) {
+            return outstanding;
+        }
+    }
+
+    /**
+     * Writes the versions that FAILED or timed out as a 2-column CSV (key and version ID), which can be used as the
+     * input of another re-replication run
+     */
+    public void writeRetryFile(Path retryFile) throws IOException {
+        try (CSVPrinter printer = CSVFormat.DEFAULT.print(new FileWriter(retryFile.toFile()))) {
+            for (Check check : unverified) {
+                printer.printRecord(check.key, check.versionId);
+            }
+        }
+    }
+
+    public String getSummary() {
+        return String.format("Verified replication: %d COMPLETE, %d FAILED, %d still PENDING after timeout (%d HEADs, %d errors)",
+                completeCount.get(), failedCount.get(), timedOutCount.get(), headCount.get(), errorCount.get());
+    }
+
+    public long getCompleteCount() {
+        return completeCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    @Override
+    public void close() {
+        schedulerThread.interrupt();
+        executor.shutdownNow();
+    }
+
+    private void scheduleLoop() {
+        try {
+            while (true) {
+                Check check = checkQueue.take();
+                executor.blockingSubmit(() -> check(check));
+            }
+        } catch (InterruptedException | IllegalStateException e) {
+            log.debug("verify scheduler stopped");
+        }
+    }
+
+    void check(Check check) {
+        boolean requeued = false, resolved = false;
+        try {
+            ReplicationStatus status = null;
+            try {
+                headCount.incrementAndGet();
+                status = headReplicationStatus(check.key, check.versionId);
+            } catch (RuntimeException e) {
+                // treat like PENDING, and try again later
+                log.warn("verification HEAD of [{}:{}] failed", check.key, check.versionId, e);
+                errorCount.incrementAndGet();
+            }
+            check.lastStatus = status;
+            check.attempts++;
+
+            if (status == ReplicationStatus.COMPLETE) {
+                log.debug("object version [{}:{}] replicated after {} checks", check.key, check.versionId, check.attempts);
+                completeCount.incrementAndGet();
+            } else if (status == ReplicationStatus.FAILED) {
+                log.warn("object version [{}:{}] FAILED replication again", check.key, check.versionId);
+                failedCount.incrementAndGet();
+                unverified.add(check);
+            } else {
+                long now = System.nanoTime();
+                if (now - check.deadline >= 0) {
+                    log.warn("object version [{}:{}] is still {} after timeout", check.key, check.versionId, status);
+                    timedOutCount.incrementAndGet();
+                    unverified.add(check);
+                } else {
+                    // back off, but don't wait past the deadline
+                    check.interval = Math.min(check.interval * 2, maxIntervalNanos);
+                    check.dueTime = Math.min(now + check.interval, check.deadline);
+                    checkQueue.put(check);
+                    requeued = true;
+                }
+            }
+            resolved = true;
+        } finally {
+            // every check that is not re-queued is done, however it ended, or awaitCompletion() would never return
+            if (!requeued) {
+                if (!resolved) {
+                    // an Error (e.g. OOM) escaped the check, so the version was not verified
+                    errorCount.incrementAndGet();
+                    unverified.add(check);
+                }
+                synchronized (outstandingLock) {
+                    if (--outstanding == 0) outstandingLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    ReplicationStatus headReplicationStatus(String key, String versionId) {
+        // ObjectScale's COMPLETED is not in the SDK's enum
+        return InventoryGenerator.getReplicationStatusEnum(
+                s3Client.headObject(builder -> builder.bucket(bucket).key(key).versionId(versionId)).replicationStatusAsString());
+    }
+
+    @Getter
+    @ToString
+    static class Check implements Delayed {
+        private final String key;
+        private final String versionId;
+        private final long deadline;
+        private volatile long dueTime;
+        private volatile long interval;
+        private volatile int attempts;
+        private volatile ReplicationStatus lastStatus;
+
+        Check(String key, String versionId, long deadline, long dueTime, long interval) {
+            this.key = key;
+            this.versionId = versionId;
+            this.deadline = deadline;
+            this.dueTime = dueTime;
+            this.interval = interval;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueTime, ((Check) other).dueTime);
+        }
+    }
+}
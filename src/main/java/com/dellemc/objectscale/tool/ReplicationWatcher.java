@@ -0,0 +1,550 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.pipeline.Pipeline;
+import com.dellemc.objectscale.pipeline.StageOptions;
+import com.dellemc.objectscale.util.MemoryBudget;
+import com.dellemc.objectscale.util.RateLimiter;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps replication repaired in one or more buckets, as a long-running process. Each pass lists the current versions of
+ * a bucket, HEADs those not already known to have replicated, and re-replicates the ones that FAILED (or have been
+ * PENDING for longer than <code>pendingOlderThan</code>). Passes over every bucket are repeated every
+ * <code>passInterval</code>.
+ * <p>
+ * What the watcher learns is kept warm between passes (see {@link WatchState}): versions seen with replication COMPLETE
+ * are not HEADed again while they are current, and each re-replicated version is checked on the next pass, and
+ * re-replicated again (up to <code>maxRepairs</code> times) if it failed too. The state is snapshotted to the
+ * inventory file every <code>snapshotInterval</code> and after each pass, so a restarted watcher resumes an interrupted
+ * pass where it left off.
+ * <p>
+ * HEAD and COPY requests share an optional rate limit, and a local HTTP endpoint can report each bucket's progress,
+ * backlog and throughput (see {@link #getStatus()}).
+ */
+public class ReplicationWatcher extends AbstractReplicationTool {
+    private static final Logger log = LogManager.getLogger(ReplicationWatcher.class);
+
+    public static final Duration DEFAULT_PASS_INTERVAL = Duration.ofMinutes(15);
+    public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(5);
+    public static final int DEFAULT_MAX_REPAIRS = 3;
+    public static final String STATUS_PATH = "/status";
+    // pipeline queues are sized by the memory budget; this only caps them
+    static final int MAX_QUEUED_ROWS = 1000000;
+
+    private final Config config;
+    private final WatchState state;
+    private final RateLimiter rateLimiter;
+    // requests for each bucket go through these, so HEADs and COPYs are made exactly as the other tools make them
+    private final Map<String, InventoryGenerator> headTools = new LinkedHashMap<>();
+    private final Map<String, ReReplicationProcessor> copyTools = new LinkedHashMap<>();
+    private final Map<String, PassStats> passStats = new LinkedHashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1), finished = new CountDownLatch(1);
+    private volatile Pipeline pipeline;
+    private volatile String activeBucket;
+    private volatile long nextPassMillis;
+    private HttpServer statusServer;
+
+    public ReplicationWatcher(Config config) {
+        super(config, null);
+        this.config = config;
+        this.state = new WatchState(config.getWatchedBuckets());
+        this.rateLimiter = config.maxRequestsPerSecond != null ? new RateLimiter(config.maxRequestsPerSecond) : null;
+        for (String bucket : config.getWatchedBuckets()) {
+            headTools.put(bucket, new InventoryGenerator(InventoryGenerator.Config.builder()
+                    .bucket(bucket)
+                    .inventoryFile(config.getInventoryFile())
+                    .pendingOlderThan(config.getPendingOlderThan())
+                    .build(), s3Client));
+            copyTools.put(bucket, new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
+                    .bucket(bucket)
+                    .inventoryFile(config.getInventoryFile())
+                    .reReplicateCustomAcls(config.reReplicateCustomAcls)
+                    .build(), s3Client));
+            passStats.put(bucket, new PassStats());
+        }
+    }
+
+    @Override
+    String getGrossRecordsLabel() {
+        return "Listed versions";
+    }
+
+    @Override
+    String getFilteredRecordsLabel() {
+        return "Re-replicated versions";
+    }
+
+    @Override
+    public void run() {
+        ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "watch-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // on Ctrl-C, stop the current pass and wait for the final snapshot
+        Thread shutdownHook = new Thread(() -> {
+            stop();
+            try {
+                finished.await(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ignored) {
+            }
+        }, "watch-shutdown");
+        boolean loaded = false;
+        try (AuditLog auditLog = openAuditLog(true)) {
+            if (Files.exists(config.getInventoryFile())) state.load(config.getInventoryFile());
+            loaded = true;
+            this.auditLog = auditLog;
+            for (AbstractReplicationTool tool : headTools.values()) tool.auditLog = auditLog;
+            for (AbstractReplicationTool tool : copyTools.values()) tool.auditLog = auditLog;
+            if (config.statusPort != null) startStatusServer();
+            long snapshotMillis = config.snapshotInterval.toMillis();
+            snapshotter.scheduleWithFixedDelay(this::snapshot, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+            for (int cycle = 1; !isStopped(); cycle++) {
+                long cycleStart = System.currentTimeMillis();
+                for (WatchState.Bucket bucket : state.getBuckets()) {
+                    if (isStopped()) break;
+                    runPass(bucket);
+                    snapshot();
+                }
+                if (config.maxPasses > 0 && cycle >= config.maxPasses) break;
+                nextPassMillis = cycleStart + config.passInterval.toMillis();
+                long wait = nextPassMillis - System.currentTimeMillis();
+                if (wait > 0) {
+                    log.info("All buckets checked; next pass at {}", Instant.ofEpochMilli(nextPassMillis));
+                    stopped.await(wait, TimeUnit.MILLISECONDS);
+                }
+            }
+            log.info("{} stopped", ReplicationWatcher.class.getSimpleName());
+
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            snapshotter.shutdownNow();
+            // never overwrite a state file that could not be read
+            if (loaded) snapshot();
+            if (statusServer != null) statusServer.stop(0);
+            finished.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // the JVM is already shutting down
+            }
+        }
+    }
+
+    /**
+     * Makes one pass over a bucket, starting where the last pass was interrupted (if it was)
+     */
+    void runPass(WatchState.Bucket bucket) {
+        String bucketName = bucket.getName();
+        PassStats stats = passStats.get(bucketName);
+        stats.start();
+        activeBucket = bucketName;
+        InventoryGenerator headTool = headTools.get(bucketName);
+        ReReplicationProcessor copyTool = copyTools.get(bucketName);
+        log.info("Pass {} over bucket [{}] starting{}", bucket.getPasses() + 1, bucketName,
+                bucket.position != null ? " after key [" + bucket.position + "]" : "");
+        try {
+            pipeline = Pipeline.from("watch-" + bucketName, listCurrentVersions(bucket, stats))
+                    .memoryBudget(new MemoryBudget(config.getInflightMemoryLimit()), InventoryRow::estimateRetainedBytes)
+                    .watchdog(config.getWatchdogOptions())
+                    .filter("check", inventoryRow -> {
+                        if (!bucket.isReplicated(inventoryRow.getKey(), inventoryRow.getVersionId())) return true;
+                        stats.skipped.incrementAndGet();
+                        return false;
+                    }, StageOptions.<InventoryRow>builder().queueSize(MAX_QUEUED_ROWS).build())
+                    .map("head", inventoryRow -> {
+                        acquire(1);
+                        stats.headed.incrementAndGet();
+                        return headTool.headReplicationStatus(inventoryRow);
+                    }, StageOptions.<InventoryRow>builder()
+                            .concurrency(config.getThreadCount())
+                            .queueSize(MAX_QUEUED_ROWS)
+                            .ordered(true)
+                            .cancellable(true)
+                            .virtualThreads(config.useVirtualThreads())
+                            .errorHandler((inventoryRow, e) -> {
+                                stats.errors.incrementAndGet();
+                                logSampler.log(log, Level.WARN, "head-error", "HEAD failed for [{}:{}] in bucket [{}] - {}",
+                                        inventoryRow.getKey(), inventoryRow.getVersionId(), bucketName, e.toString());
+                            })
+                            .build())
+                    .map("repair", inventoryRow -> repair(bucket, stats, copyTool, inventoryRow), StageOptions.<InventoryRow>builder()
+                            .concurrency(config.getThreadCount())
+                            .queueSize(MAX_QUEUED_ROWS)
+                            .ordered(true)
+                            // not cancellable: an interrupted COPY may still complete on the server, so a retry
+                            // could write a second new version
+                            .virtualThreads(config.useVirtualThreads())
+                            .errorHandler((inventoryRow, e) -> {
+                                stats.errors.incrementAndGet();
+                                if (filteredRecords != null) filteredRecords.incErrors();
+                                logSampler.log(log, Level.WARN, "copy-error", "failed to re-replicate [{}:{}] in bucket [{}]",
+                                        inventoryRow.getKey(), inventoryRow.getVersionId(), bucketName, e);
+                            })
+                            .build())
+                    .sink("record", checked -> record(bucket, stats, checked),
+                            StageOptions.<Checked>builder().queueSize(MAX_QUEUED_ROWS).build());
+            pipeline.run();
+            // the listing reached the end, so any keys after the last one listed have been deleted
+            bucket.listingComplete();
+            bucket.position = null;
+            bucket.passes.incrementAndGet();
+            stats.finish();
+            log.info("Pass {} over bucket [{}] complete in {}s: {}", bucket.getPasses(), bucketName,
+                    TimeUnit.MILLISECONDS.toSeconds(stats.lastPassMillis), stats.getSummary());
+        } catch (CancellationException e) {
+            log.info("Pass over bucket [{}] stopped after key [{}]", bucketName, bucket.position);
+        } catch (RuntimeException e) {
+            // keep watching; the next pass resumes from the last key recorded
+            log.error("Pass over bucket [{}] failed after key [{}]; will resume on the next pass", bucketName, bucket.position, e);
+        } finally {
+            activeBucket = null;
+        }
+    }
+
+    /**
+     * Lists the current versions in a bucket (not delete markers), starting after the bucket's position
+     */
+    Stream<InventoryRow> listCurrentVersions(WatchState.Bucket bucket, PassStats stats) {
+        String startAfter = bucket.position;
+        bucket.startListing(startAfter);
+        Stream<InventoryRow> rows = s3Client.listObjectVersionsPaginator(builder -> builder
+                        .bucket(bucket.getName())
+                        .prefix(config.prefix)
+                        .keyMarker(startAfter))
+                .stream()
+                .flatMap(response -> {
+                    int count = response.versions().size() + response.deleteMarkers().size();
+                    stats.listed.addAndGet(count);
+                    if (grossRecords != null) grossRecords.incProcessedObjects(count);
+                    return InventoryGenerator.rowsFromPage(response);
+                })
+                .filter(inventoryRow -> Boolean.TRUE.equals(inventoryRow.getIsLatest())
+                        && !Boolean.TRUE.equals(inventoryRow.getIsDeleteMarker()));
+        if (keyFilter != null) rows = rows.filter(inventoryRow -> keyFilter.test(inventoryRow.getKey()));
+        return rows.peek(inventoryRow -> bucket.listed(inventoryRow.getKey()));
+    }
+
+    /**
+     * Re-replicates the version if it FAILED (or is stuck PENDING), unless the key has already been re-replicated
+     * <code>maxRepairs</code> times without replicating
+     */
+    Checked repair(WatchState.Bucket bucket, PassStats stats, ReReplicationProcessor copyTool, InventoryRow inventoryRow) {
+        ReplicationStatus status = inventoryRow.getReplicationStatus();
+        if (status != ReplicationStatus.FAILED
+                && !InventoryFilter.isStalePending(inventoryRow, config.getPendingOlderThan(), System.currentTimeMillis()))
+            return new Checked(inventoryRow, null);
+        stats.failed.incrementAndGet();
+        WatchState.Repair previous = bucket.getRepair(inventoryRow.getKey());
+        int attempts = previous != null ? previous.getAttempts() : 0;
+        if (attempts >= config.maxRepairs) {
+            stats.abandoned.incrementAndGet();
+            logSampler.log(log, Level.WARN, "abandoned", "[{}:{}] in bucket [{}] still has not replicated after {} re-replications; leaving it",
+                    inventoryRow.getKey(), inventoryRow.getVersionId(), bucket.getName(), attempts);
+            return new Checked(inventoryRow, null);
+        }
+        // the ACL is read and written as well as the COPY
+        acquire(config.reReplicateCustomAcls ? 3 : 1);
+        return new Checked(inventoryRow, copyTool.touchObject(inventoryRow));
+    }
+
+    void record(WatchState.Bucket bucket, PassStats stats, Checked checked) {
+        InventoryRow inventoryRow = checked.inventoryRow;
+        String key = inventoryRow.getKey();
+        if (checked.newVersionId != null) {
+            WatchState.Repair previous = bucket.repairs.get(key);
+            bucket.repairs.put(key, new WatchState.Repair(checked.newVersionId, previous != null ? previous.getAttempts() + 1 : 1));
+            stats.repaired.incrementAndGet();
+            if (filteredRecords != null) {
+                filteredRecords.incProcessedObjects();
+                if (inventoryRow.getSize() != null) filteredRecords.incProcessedBytes(inventoryRow.getSize());
+            }
+        } else if (inventoryRow.getReplicationStatus() == ReplicationStatus.COMPLETE) {
+            bucket.putReplicated(key, inventoryRow.getVersionId());
+            if (bucket.repairs.remove(key) != null) stats.confirmed.incrementAndGet();
+        }
+        // output is in listing order, so every key up to here has been handled
+        bucket.position = key;
+    }
+
+    void acquire(int permits) {
+        if (rateLimiter == null) return;
+        try {
+            rateLimiter.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    void snapshot() {
+        try {
+            state.save(config.getInventoryFile());
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not save watch state to {}", config.getInventoryFile(), e);
+        }
+    }
+
+    void startStatusServer() throws IOException {
+        statusServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.statusPort), 0);
+        statusServer.createContext(STATUS_PATH, exchange -> {
+            byte[] body = getStatus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        statusServer.start();
+        log.info("Status available at http://{}:{}{}", statusServer.getAddress().getHostString(),
+                statusServer.getAddress().getPort(), STATUS_PATH);
+    }
+
+    /**
+     * @return the address of the status endpoint, or null if it is not running
+     */
+    public InetSocketAddress getStatusAddress() {
+        return statusServer != null ? statusServer.getAddress() : null;
+    }
+
+    /**
+     * Stops watching: the current pass is cancelled (its position is kept for the next run), and {@link #run()}
+     * returns after saving a final snapshot
+     */
+    public void stop() {
+        stopped.countDown();
+        Pipeline pipeline = this.pipeline;
+        if (pipeline != null) pipeline.cancel();
+    }
+
+    boolean isStopped() {
+        return stopped.getCount() == 0;
+    }
+
+    public WatchState getState() {
+        return state;
+    }
+
+    /**
+     * @return each bucket's progress, backlog (versions that failed and have not been seen to replicate since) and
+     * throughput, as JSON
+     */
+    public String getStatus() {
+        List<String> buckets = new ArrayList<>();
+        for (WatchState.Bucket bucket : state.getBuckets()) {
+            PassStats stats = passStats.get(bucket.getName());
+            buckets.add(String.format("{\"bucket\": %s, \"passes\": %d, \"inPass\": %b, \"position\": %s, "
+                            + "\"knownReplicated\": %d, \"awaitingReplication\": %d, \"backlog\": %d, "
+                            + "\"pass\": {\"startedAt\": %s, \"listed\": %d, \"skipped\": %d, \"headed\": %d, \"failed\": %d, "
+                            + "\"reReplicated\": %d, \"confirmed\": %d, \"abandoned\": %d, \"errors\": %d, \"headsPerSecond\": %.1f}, "
+                            + "\"lastPassSeconds\": %d}",
+                    json(bucket.getName()), bucket.getPasses(), bucket.getName().equals(activeBucket), json(bucket.position),
+                    bucket.getReplicatedCount(), bucket.getRepairCount(), stats.getBacklog(bucket),
+                    json(stats.startMillis > 0 ? Instant.ofEpochMilli(stats.startMillis).toString() : null),
+                    stats.listed.get(), stats.skipped.get(), stats.headed.get(), stats.failed.get(), stats.repaired.get(),
+                    stats.confirmed.get(), stats.abandoned.get(), stats.errors.get(), stats.getHeadsPerSecond(),
+                    TimeUnit.MILLISECONDS.toSeconds(stats.lastPassMillis)));
+        }
+        return String.format("{\"state\": %s, \"nextPassAt\": %s, \"maxRequestsPerSecond\": %s, \"rateLimitWaitSeconds\": %d, "
+                        + "\"buckets\": [%s]}",
+                json(isStopped() ? "stopped" : activeBucket != null ? "checking" : "waiting"),
+                json(activeBucket == null && nextPassMillis > 0 ? Instant.ofEpochMilli(nextPassMillis).toString() : null),
+                rateLimiter != null ? String.format("%.1f", rateLimiter.getRate()) : "null",
+                rateLimiter != null ? TimeUnit.NANOSECONDS.toSeconds(rateLimiter.getWaitNanos()) : 0,
+                String.join(", ", buckets));
+    }
+
+    static String json(String value) {
+        if (value == null) return "null";
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+            else json.append(c);
+        }
+        return json.append('"').toString();
+    }
+
+    @Override
+    String getSummary() {
+        List<String> summary = new ArrayList<>();
+        for (WatchState.Bucket bucket : state.getBuckets()) {
+            summary.add(String.format("Bucket [%s]: %d passes, %d versions known replicated, %d re-replicated versions awaiting replication",
+                    bucket.getName(), bucket.getPasses(), bucket.getReplicatedCount(), bucket.getRepairCount()));
+        }
+        if (super.getSummary() != null) summary.add(super.getSummary());
+        return String.join("\n", summary);
+    }
+
+    @Override
+    public synchronized void close() {
+        stop();
+        for (AbstractReplicationTool tool : headTools.values()) tool.close();
+        for (AbstractReplicationTool tool : copyTools.values()) tool.close();
+        super.close();
+    }
+
+    /**
+     * A HEADed version, and the version created by re-replicating it (if it was)
+     */
+    static class Checked {
+        final InventoryRow inventoryRow;
+        final String newVersionId;
+
+        Checked(InventoryRow inventoryRow, String newVersionId) {
+            this.inventoryRow = inventoryRow;
+            this.newVersionId = newVersionId;
+        }
+    }
+
+    /**
+     * Counts for the current (or last) pass over a bucket
+     */
+    static class PassStats {
+        final AtomicLong listed = new AtomicLong(), skipped = new AtomicLong(), headed = new AtomicLong(),
+                failed = new AtomicLong(), repaired = new AtomicLong(), confirmed = new AtomicLong(),
+                abandoned = new AtomicLong(), errors = new AtomicLong();
+        volatile long startMillis, lastPassMillis;
+
+        void start() {
+            for (AtomicLong counter : new AtomicLong[]{listed, skipped, headed, failed, repaired, confirmed, abandoned, errors}) {
+                counter.set(0);
+            }
+            startMillis = System.currentTimeMillis();
+        }
+
+        void finish() {
+            lastPassMillis = System.currentTimeMillis() - startMillis;
+        }
+
+        double getHeadsPerSecond() {
+            long elapsed = System.currentTimeMillis() - startMillis;
+            return startMillis > 0 && elapsed > 0 ? headed.get() * 1000.0 / elapsed : 0;
+        }
+
+        /**
+         * @return failed versions found this pass and not yet re-replicated, plus re-replicated versions not yet seen
+         * to replicate
+         */
+        long getBacklog(WatchState.Bucket bucket) {
+            return Math.max(0, failed.get() - repaired.get() - abandoned.get()) + bucket.getRepairCount();
+        }
+
+        String getSummary() {
+            return String.format("%d listed, %d already replicated, %d HEADed, %d failed, %d re-replicated, "
+                            + "%d earlier re-replications confirmed, %d abandoned, %d errors",
+                    listed.get(), skipped.get(), headed.get(), failed.get(), repaired.get(), confirmed.get(),
+                    abandoned.get(), errors.get());
+        }
+    }
+
+    @SuperBuilder(toBuilder = true)
+    @Getter
+    @EqualsAndHashCode(callSuper = true)
+    @ToString(callSuper = true)
+    public static class Config extends AbstractReplicationTool.Config {
+        /**
+         * All of the buckets to watch (if not set, just <code>bucket</code>)
+         */
+        private final List<String> buckets;
+        /**
+         * Only watch keys under this prefix (in every bucket)
+         */
+        private final String prefix;
+        private final boolean reReplicateCustomAcls;
+        /**
+         * How often to start a pass over every bucket. If a pass takes longer, the next one starts right away
+         */
+        @Builder.Default
+        private final Duration passInterval = DEFAULT_PASS_INTERVAL;
+        /**
+         * The most HEAD and COPY requests to make per second, across all threads and buckets (null for no limit).
+         * Re-replicating with custom ACLs counts as 3 requests
+         */
+        private final Double maxRequestsPerSecond;
+        /**
+         * How often to snapshot the watch state to the inventory file (it is also saved after each pass)
+         */
+        @Builder.Default
+        private final Duration snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+        /**
+         * Serve status as JSON on this port of the loopback interface, at {@link #STATUS_PATH} (0 for any free port)
+         */
+        private final Integer statusPort;
+        /**
+         * Stop re-replicating a key after this many re-replications that did not replicate either
+         */
+        @Builder.Default
+        private final int maxRepairs = DEFAULT_MAX_REPAIRS;
+        /**
+         * Stop after this many passes over every bucket (0 to watch until stopped)
+         */
+        private final int maxPasses;
+
+        /**
+         * @return <code>buckets</code>, or just <code>bucket</code> if not set
+         */
+        public List<String> getWatchedBuckets() {
+            return buckets != null && !buckets.isEmpty() ? buckets : Collections.singletonList(getBucket());
+        }
+
+        @Override
+        public void validate() {
+            super.validate();
+
+            if (getWatchedBuckets().stream().distinct().count() < getWatchedBuckets().size())
+                throw new IllegalArgumentException("each bucket can only be watched once");
+
+            if (passInterval == null || passInterval.isNegative())
+                throw new IllegalArgumentException("passInterval cannot be negative");
+
+            if (snapshotInterval == null || snapshotInterval.isNegative() || snapshotInterval.isZero())
+                throw new IllegalArgumentException("snapshotInterval must be positive");
+
+            if (maxRequestsPerSecond != null && !(maxRequestsPerSecond > 0))
+                throw new IllegalArgumentException("maxRequestsPerSecond must be positive");
+
+            if (statusPort != null && (statusPort < 0 || statusPort > 65535))
+                throw new IllegalArgumentException("statusPort must be between 0 and 65535");
+
+            if (maxRepairs < 1)
+                throw new IllegalArgumentException("maxRepairs must be at least 1");
+
+            if (maxPasses < 0)
+                throw new IllegalArgumentException("maxPasses cannot be negative");
+        }
+    }
+}
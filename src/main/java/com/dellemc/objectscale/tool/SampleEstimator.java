@@ -0,0 +1,117 @@
+package com.dellemc.objectscale.tool;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+/**
+ * Estimates replication status counts and bytes for a population of versions from a simple random sample of it.
+ * Fractions use the Wilson score interval, and byte totals use a normal approximation; both apply a finite population
+ * correction, so a sample of the whole population gives exact results.
+ * <p>
+ * Not thread-safe.
+ */
+public class SampleEstimator {
+    public static final double Z_95 = 1.959964; // 95% confidence
+
+    // there is one extra status slot for versions with no replication status
+    static final ReplicationStatus[] STATUSES = ReplicationStatus.values();
+    static final int NO_STATUS = STATUSES.length;
+
+    private final long population;
+    private final long populationBytes;
+    private long sampleCount;
+    private final long[] counts = new long[NO_STATUS + 1];
+    private final double[] bytes = new double[NO_STATUS + 1];
+    private final double[] bytesSquared = new double[NO_STATUS + 1];
+
+    /**
+     * @param population      the number of versions the sample was drawn from
+     * @param populationBytes the total size of those versions
+     */
+    public SampleEstimator(long population, long populationBytes) {
+        this.population = population;
+        this.populationBytes = populationBytes;
+    }
+
+    public void add(InventoryRow inventoryRow) {
+        int status = inventoryRow.getReplicationStatus() == null ? NO_STATUS : inventoryRow.getReplicationStatus().ordinal();
+        double size = inventoryRow.getSize() == null ? 0 : inventoryRow.getSize();
+        sampleCount++;
+        counts[status]++;
+        bytes[status] += size;
+        bytesSquared[status] += size * size;
+    }
+
+    public long getPopulation() {
+        return population;
+    }
+
+    public long getPopulationBytes() {
+        return populationBytes;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    double finitePopulationCorrection() {
+        if (population <= 1) return 0;
+        return Math.sqrt(Math.max(population - sampleCount, 0) / (double) (population - 1));
+    }
+
+    /**
+     * @return the half-width of the confidence interval for the fraction of versions with the given status
+     */
+    public double getHalfWidth(ReplicationStatus status) {
+        Estimate estimate = estimate(status);
+        return (estimate.getFractionHigh() - estimate.getFractionLow()) / 2;
+    }
+
+    public Estimate estimate(ReplicationStatus status) {
+        int index = status == null ? NO_STATUS : status.ordinal();
+        long n = sampleCount;
+        if (n == 0) return new Estimate(status, 0, 0, 0, 1, 0, 0, population, 0, 0, populationBytes);
+
+        double z = Z_95, fpc = finitePopulationCorrection();
+        double p = counts[index] / (double) n;
+        // Wilson score interval
+        double denominator = 1 + z * z / n;
+        double center = (p + z * z / (2 * n)) / denominator;
+        double halfWidth = z / denominator * Math.sqrt(p * (1 - p) / n + z * z / (4.0 * n * n)) * fpc;
+        double low = Math.max(0, center - halfWidth), high = Math.min(1, center + halfWidth);
+        if (fpc == 0) low = high = p; // census
+
+        // bytes are the population total of (size if status matches, else 0)
+        double mean = bytes[index] / n;
+        double variance = n > 1 ? (bytesSquared[index] - n * mean * mean) / (n - 1) : 0;
+        double bytesEstimate = population * mean;
+        double bytesHalfWidth = z * population * Math.sqrt(Math.max(variance, 0) / n) * fpc;
+
+        return new Estimate(status, counts[index], p, low, high,
+                Math.round(p * population), Math.round(low * population), Math.round(high * population),
+                Math.round(bytesEstimate), Math.round(Math.max(bytesEstimate - bytesHalfWidth, 0)),
+                Math.round(Math.min(bytesEstimate + bytesHalfWidth, populationBytes)));
+    }
+
+    /**
+     * Estimates for one replication status, with 95% confidence intervals
+     */
+    @AllArgsConstructor
+    @Getter
+    @ToString
+    public static class Estimate {
+        private final ReplicationStatus status;
+        private final long sampleCount;
+        private final double fraction;
+        private final double fractionLow;
+        private final double fractionHigh;
+        private final long count;
+        private final long countLow;
+        private final long countHigh;
+        private final long bytes;
+        private final long bytesLow;
+        private final long bytesHigh;
+    }
+}
@@ -0,0 +1,132 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.Throttle;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Throttle limits by time of day, i.e. full speed from 22:00 to 06:00 and a reduced budget during the day. Each
+ * {@link Window} has a start and end time (a window that ends before it starts wraps around midnight) and the limits
+ * that apply during it; the first window that contains the current time applies, and outside every window work is
+ * unlimited.
+ * <p>
+ * The schedule is applied to a {@link Throttle} every {@link #CHECK_INTERVAL}, so a run that spans several days follows
+ * the schedule without being restarted.
+ */
+@EqualsAndHashCode
+@ToString
+public class ThrottleSchedule {
+    private static final Logger log = LogManager.getLogger(ThrottleSchedule.class);
+
+    public static final Duration CHECK_INTERVAL = Duration.ofSeconds(30);
+
+    private final List<Window> windows;
+    @Getter
+    private final ZoneId zone;
+
+    public ThrottleSchedule(List<Window> windows) {
+        this(windows, ZoneId.systemDefault());
+    }
+
+    public ThrottleSchedule(List<Window> windows, ZoneId zone) {
+        this.windows = Collections.unmodifiableList(new ArrayList<>(windows));
+        this.zone = zone;
+    }
+
+    public List<Window> getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return the window that applies at the given time of day, or null if none does
+     */
+    public Window windowAt(LocalTime time) {
+        for (Window window : windows) {
+            if (window.contains(time)) return window;
+        }
+        return null;
+    }
+
+    /**
+     * @return the limits that apply at the given time of day
+     */
+    public Throttle.Limits limitsAt(LocalTime time) {
+        Window window = windowAt(time);
+        return window == null ? Throttle.Limits.UNLIMITED : window.limits;
+    }
+
+    /**
+     * Applies the limits for the current time of day, if they have changed
+     *
+     * @return true if the throttle's limits were changed
+     */
+    public boolean apply(Throttle throttle) {
+        return apply(throttle, null, LocalTime.now(zone));
+    }
+
+    /**
+     * Applies the limits for the current time of day, with no more than <code>maxConcurrent</code> operations at once
+     * (i.e. when the throttle is also what shares threads between buckets), if they have changed
+     *
+     * @return true if the throttle's limits were changed
+     */
+    public boolean apply(Throttle throttle, int maxConcurrent) {
+        return apply(throttle, maxConcurrent, LocalTime.now(zone));
+    }
+
+    boolean apply(Throttle throttle, Integer maxConcurrent, LocalTime time) {
+        Window window = windowAt(time);
+        Throttle.Limits limits = window == null ? Throttle.Limits.UNLIMITED : window.limits;
+        if (maxConcurrent != null) limits = limits.capConcurrency(maxConcurrent);
+        if (limits.equals(throttle.getLimits())) return false;
+        log.info("{}; throttle is now {} (was {})", window == null ? "outside every throttle window" : "entering throttle window " + window,
+                limits, throttle.getLimits());
+        throttle.setLimits(limits);
+        return true;
+    }
+
+    /**
+     * A time of day, and the limits that apply during it
+     */
+    @Getter
+    @EqualsAndHashCode
+    public static class Window {
+        private final LocalTime start;
+        private final LocalTime end;
+        private final Throttle.Limits limits;
+
+        /**
+         * @param start  the start of the window (inclusive)
+         * @param end    the end of the window (exclusive); if it is not after <code>start</code>, the window wraps
+         *               around midnight (and if it equals <code>start</code>, the window is all day)
+         * @param limits the limits that apply during the window
+         */
+        public Window(LocalTime start, LocalTime end, Throttle.Limits limits) {
+            if (start == null || end == null || limits == null)
+                throw new IllegalArgumentException("a throttle window needs a start, an end and limits");
+            this.start = start;
+            this.end = end;
+            this.limits = limits;
+        }
+
+        boolean contains(LocalTime time) {
+            if (start.isBefore(end)) return !time.isBefore(start) && time.isBefore(end);
+            return !time.isBefore(start) || time.isBefore(end);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s-%s (%s)", start, end, limits);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.dellemc.objectscale.tool;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What a {@link ReplicationWatcher} knows about each bucket it watches: which current versions have already replicated
+ * (so they are not HEADed again while they are current), which versions it created by re-replicating and has not yet
+ * seen replicate, and how far through its current pass it got. The state is kept in memory, and snapshotted to a
+ * gzipped CSV file so a restarted watcher picks up where it left off.
+ * <p>
+ * Keys are kept in key order, so a pass can forget the keys it did not list (they were deleted) as it goes: the state
+ * only ever holds the bucket's current keys.
+ * <p>
+ * Each snapshot is written to a temp file and moved into place, so a crash during a snapshot leaves the previous one.
+ */
+public class WatchState {
+    private static final Logger log = LogManager.getLogger(WatchState.class);
+
+    // snapshot record types
+    static final String BUCKET = "B", REPLICATED = "C", REPAIR = "R";
+
+    private final Map<String, Bucket> buckets = new LinkedHashMap<>();
+
+    public WatchState(Collection<String> bucketNames) {
+        for (String bucketName : bucketNames) buckets.put(bucketName, new Bucket(bucketName));
+    }
+
+    public Bucket getBucket(String bucketName) {
+        return buckets.get(bucketName);
+    }
+
+    public Collection<Bucket> getBuckets() {
+        return buckets.values();
+    }
+
+    /**
+     * Loads a snapshot into this state. Buckets in the snapshot that are no longer watched are ignored
+     */
+    public void load(Path file) throws IOException {
+        long start = System.currentTimeMillis(), records = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8));
+             CSVParser parser = CSVFormat.DEFAULT.parse(reader)) {
+            for (CSVRecord record : parser) {
+                Bucket bucket = buckets.get(record.get(1));
+                if (bucket == null) continue;
+                switch (record.get(0)) {
+                    case BUCKET:
+                        bucket.passes.set(Long.parseLong(record.get(2)));
+                        bucket.position = emptyToNull(record.get(3));
+                        break;
+                    case REPLICATED:
+                        bucket.putReplicated(record.get(2), record.get(3));
+                        break;
+                    case REPAIR:
+                        bucket.repairs.put(record.get(2), new Repair(record.get(3), Integer.parseInt(record.get(4))));
+                        break;
+                    default:
+                        throw new IOException("unrecognized record in watch state " + file + ": " + record);
+                }
+                records++;
+            }
+        }
+        log.info("Loaded {} records from watch state {} in {}ms", records, file, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Writes a snapshot of this state. Only one snapshot is written at a time; updates made while it is being written
+     * may or may not be included
+     */
+    public synchronized void save(Path file) throws IOException {
+        long start = System.currentTimeMillis(), records = 0;
+        Path tempFile = Paths.get(file.toString() + ".tmp");
+        try (CSVPrinter printer = new CSVPrinter(new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(tempFile)), StandardCharsets.UTF_8)), CSVFormat.DEFAULT)) {
+            for (Bucket bucket : buckets.values()) {
+                printer.printRecord(BUCKET, bucket.name, bucket.passes.get(), bucket.position);
+                for (Map.Entry<String, String> entry : bucket.replicated.entrySet()) {
+                    printer.printRecord(REPLICATED, bucket.name, entry.getKey(), entry.getValue());
+                }
+                for (Map.Entry<String, Repair> entry : bucket.repairs.entrySet()) {
+                    printer.printRecord(REPAIR, bucket.name, entry.getKey(), entry.getValue().versionId, entry.getValue().attempts);
+                }
+                records += 1 + bucket.getReplicatedCount() + bucket.repairs.size();
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Saved {} records to watch state {} in {}ms", records, file, System.currentTimeMillis() - start);
+    }
+
+    static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * The state of one watched bucket
+     */
+    public static class Bucket {
+        private final String name;
+        // key -> current version ID seen with replication COMPLETE
+        final NavigableMap<String, String> replicated = new ConcurrentSkipListMap<>();
+        // the skip list's size() counts every entry
+        private final AtomicLong replicatedCount = new AtomicLong();
+        // key -> version created by re-replicating, not yet seen COMPLETE
+        final NavigableMap<String, Repair> repairs = new ConcurrentSkipListMap<>();
+        final AtomicLong passes = new AtomicLong();
+        // the last key handled in an unfinished pass (null if the next pass starts at the beginning)
+        volatile String position;
+        // the last key listed in this pass (only used by the listing thread)
+        private String lastListed;
+
+        Bucket(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of completed passes
+         */
+        public long getPasses() {
+            return passes.get();
+        }
+
+        public String getPosition() {
+            return position;
+        }
+
+        /**
+         * @return true if this version is current and was already seen with replication COMPLETE
+         */
+        public boolean isReplicated(String key, String versionId) {
+            return versionId != null && versionId.equals(replicated.get(key));
+        }
+
+        /**
+         * @return the number of current versions known to have replicated
+         */
+        public long getReplicatedCount() {
+            return replicatedCount.get();
+        }
+
+        void putReplicated(String key, String versionId) {
+            if (replicated.put(key, versionId) == null) replicatedCount.incrementAndGet();
+        }
+
+        /**
+         * Starts listing a pass after this key (or from the beginning if null)
+         */
+        void startListing(String startAfter) {
+            lastListed = startAfter;
+        }
+
+        /**
+         * Forgets the keys between the last key listed and this one; they were not listed, so they have been deleted
+         */
+        void listed(String key) {
+            // S3 lists in UTF-8 byte order, which differs from String order for some characters; forgetting too little
+            // only means a key is HEADed again
+            if (lastListed == null) forget(replicated.headMap(key, false), repairs.headMap(key, false));
+            else if (lastListed.compareTo(key) < 0)
+                forget(replicated.subMap(lastListed, false, key, false), repairs.subMap(lastListed, false, key, false));
+            lastListed = key;
+        }
+
+        /**
+         * Forgets the keys after the last key listed. Only call this when the listing reached the end of the bucket
+         */
+        void listingComplete() {
+            if (lastListed == null) forget(replicated, repairs);
+            else forget(replicated.tailMap(lastListed, false), repairs.tailMap(lastListed, false));
+            lastListed = null;
+        }
+
+        private void forget(Map<String, String> replicatedRange, Map<String, Repair> repairRange) {
+            for (Iterator<String> keys = replicatedRange.keySet().iterator(); keys.hasNext(); ) {
+                keys.next();
+                keys.remove();
+                replicatedCount.decrementAndGet();
+            }
+            repairRange.clear();
+        }
+
+        /**
+         * @return the re-replication of this key that has not been seen to replicate yet, or null
+         */
+        public Repair getRepair(String key) {
+            return repairs.get(key);
+        }
+
+        /**
+         * @return the number of re-replicated versions that have not been seen to replicate yet
+         */
+        public int getRepairCount() {
+            return repairs.size();
+        }
+    }
+
+    /**
+     * A version created by re-replicating a key, and how many times the key has been re-replicated without
+     * replicating
+     */
+    public static class Repair {
+        private final String versionId;
+        private final int attempts;
+
+        Repair(String versionId, int attempts) {
+            this.versionId = versionId;
+            this.attempts = attempts;
+        }
+
+        public String getVersionId() {
+            return versionId;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.dellemc.objectscale.trace;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectAclRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectAclResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectAclRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectAclResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.paginators.ListObjectVersionsIterable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An S3 client that answers from a recorded trace (see {@link TraceRecorder}) instead of a cluster. Each call is
+ * matched to a recorded call of the same operation, key and version ID (key/version markers for listings), waits for
+ * the recorded duration (divided by <code>speed</code>), and then returns the recorded response or throws the
+ * recorded error. When a call was recorded more than once (i.e. retried by the tool, hedged, or verified), the
+ * recordings are used in order and the last one is repeated.
+ * <p>
+ * This reproduces the cluster's latencies and errors as the tool sees them (SDK retries are included in the recorded
+ * duration), so thread counts, queue sizes and execution modes can be tuned offline. Calls that were not recorded fail
+ * with a 404 (<code>NotInTrace</code>) without delay; they are counted in {@link #getMissCount()}.
+ */
+public class ReplayS3Client implements S3Client {
+    private static final Logger log = LogManager.getLogger(ReplayS3Client.class);
+
+    static final String ERROR_NOT_IN_TRACE = "NotInTrace";
+
+    private final Map<TraceEvent.Operation, Map<String, Deque<TraceEvent>>> events = new EnumMap<>(TraceEvent.Operation.class);
+    private final double speed;
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param speed 1 replays recorded latencies as they were, 10 replays them 10x faster
+     */
+    public ReplayS3Client(Path traceFile, double speed) {
+        this(read(traceFile), speed);
+        log.info("replaying {} recorded calls from {} at {}x speed", eventCount(), traceFile, speed);
+    }
+
+    ReplayS3Client(List<TraceEvent> trace, double speed) {
+        if (speed <= 0) throw new IllegalArgumentException("speed must be positive");
+        this.speed = speed;
+        for (TraceEvent event : trace) {
+            events.computeIfAbsent(event.getOperation(), k -> new HashMap<>())
+                    .computeIfAbsent(matchKey(event.getKey(), event.getVersionId()), k -> new ArrayDeque<>(1))
+                    .add(event);
+        }
+    }
+
+    private static List<TraceEvent> read(Path traceFile) {
+        try {
+            return TraceFile.read(traceFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long eventCount() {
+        return events.values().stream().flatMap(byKey -> byKey.values().stream()).mapToLong(Deque::size).sum();
+    }
+
+    static String matchKey(String key, String versionId) {
+        return key + '\u0000' + versionId;
+    }
+
+    /**
+     * Finds the recorded call, waits for its recorded duration, and throws its error if it failed
+     */
+    TraceEvent replay(TraceEvent.Operation operation, String key, String versionId) {
+        callCount.incrementAndGet();
+        TraceEvent event = null;
+        Map<String, Deque<TraceEvent>> byKey = events.get(operation);
+        if (byKey != null) {
+            Deque<TraceEvent> recorded = byKey.get(matchKey(key, versionId));
+            if (recorded != null) {
+                synchronized (recorded) {
+                    event = recorded.size() > 1 ? recorded.poll() : recorded.peek();
+                }
+            }
+        }
+        if (event == null) {
+            missCount.incrementAndGet();
+            log.debug("{} {}:{} is not in the trace", operation, key, versionId);
+            throw error(404, ERROR_NOT_IN_TRACE, operation + " " + key + ":" + versionId + " is not in the trace", null);
+        }
+
+        long delayNanos = (long) (event.getDurationNanos() / speed);
+        if (delayNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw SdkClientException.create("interrupted", e);
+            }
+        }
+
+        if (event.getStatusCode() == 0)
+            throw SdkClientException.create(event.getErrorCode());
+        if (!event.isSuccessful())
+            throw error(event.getStatusCode(), event.getErrorCode(), "recorded " + event.getStatusCode(),
+                    event.getReplicationStatus());
+        return event;
+    }
+
+    static S3Exception error(int statusCode, String errorCode, String message, String replicationStatus) {
+        SdkHttpResponse.Builder httpResponse = SdkHttpResponse.builder().statusCode(statusCode);
+        if (replicationStatus != null)
+            httpResponse.putHeader(TraceRecorder.HEADER_REPLICATION_STATUS, replicationStatus);
+        return (S3Exception) S3Exception.builder()
+                .statusCode(statusCode)
+                .message(message)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .serviceName(SERVICE_NAME)
+                        .errorCode(errorCode)
+                        .errorMessage(message)
+                        .sdkHttpResponse(httpResponse.build())
+                        .build())
+                .build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        TraceEvent event = replay(TraceEvent.Operation.HeadObject, request.key(), request.versionId());
+        return HeadObjectResponse.builder()
+                .replicationStatus(event.getReplicationStatus())
+                .contentLength(event.getContentLength())
+                .eTag(event.getETag())
+                .deleteMarker(event.getDeleteMarker())
+                .lastModified(event.getLastModified())
+                .versionId(event.getResponseVersionId())
+                .build();
+    }
+
+    @Override
+    public ListObjectVersionsResponse listObjectVersions(ListObjectVersionsRequest request) {
+        TraceEvent event = replay(TraceEvent.Operation.ListObjectVersions, request.keyMarker(), request.versionIdMarker());
+        return ListObjectVersionsResponse.builder()
+                .name(request.bucket())
+                .prefix(request.prefix())
+                .keyMarker(request.keyMarker())
+                .versionIdMarker(request.versionIdMarker())
+                .isTruncated(event.isTruncated())
+                .nextKeyMarker(event.getNextKeyMarker())
+                .nextVersionIdMarker(event.getNextVersionIdMarker())
+                .versions(event.getVersions())
+                .deleteMarkers(event.getDeleteMarkers())
+                .build();
+    }
+
+    @Override
+    public ListObjectVersionsIterable listObjectVersionsPaginator(ListObjectVersionsRequest request) {
+        return new ListObjectVersionsIterable(this, request);
+    }
+
+    @Override
+    public CopyObjectResponse copyObject(CopyObjectRequest request) {
+        TraceEvent event = replay(TraceEvent.Operation.CopyObject, request.destinationKey(),
+                request.sourceVersionId());
+        return CopyObjectResponse.builder().versionId(event.getResponseVersionId()).build();
+    }
+
+    @Override
+    public GetObjectAclResponse getObjectAcl(GetObjectAclRequest request) {
+        TraceEvent event = replay(TraceEvent.Operation.GetObjectAcl, request.key(), request.versionId());
+        return GetObjectAclResponse.builder()
+                .owner(owner -> owner.id(event.getOwnerId()))
+                .grants(event.getGrants())
+                .build();
+    }
+
+    @Override
+    public PutObjectAclResponse putObjectAcl(PutObjectAclRequest request) {
+        replay(TraceEvent.Operation.PutObjectAcl, request.key(), request.versionId());
+        return PutObjectAclResponse.builder().build();
+    }
+
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * @return the number of calls that were not in the trace
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        if (missCount.get() > 0)
+            log.warn("{} of {} replayed calls were not in the trace (was it recorded with different options?)",
+                    missCount.get(), callCount.get());
+    }
+}
@@ -0,0 +1,82 @@
+package com.dellemc.objectscale.trace;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
+import software.amazon.awssdk.services.s3.model.Grant;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One recorded S3 call: what was asked for, how long it took (including SDK retries), how it ended, and the response
+ * fields the tools use. Request payloads, credentials and signatures are never recorded
+ */
+@Builder(toBuilder = true)
+@Getter
+@ToString
+public class TraceEvent {
+    public enum Operation {
+        ListObjectVersions, HeadObject, CopyObject, GetObjectAcl, PutObjectAcl, Other
+    }
+
+    private final Operation operation;
+    /**
+     * When the call started, relative to the start of the trace
+     */
+    private final long startNanos;
+    private final long durationNanos;
+    /**
+     * HTTP attempts made (more than 1 if the SDK retried)
+     */
+    private final int attempts;
+    /**
+     * The final HTTP status, or 0 if the call failed without a response (i.e. a timeout)
+     */
+    private final int statusCode;
+    /**
+     * The S3 error code (or exception message, if there was no response) of a failed call
+     */
+    private final String errorCode;
+    /**
+     * The object key (destination key for a copy, key marker for a listing)
+     */
+    private final String key;
+    /**
+     * The requested version ID (source version for a copy, version ID marker for a listing)
+     */
+    private final String versionId;
+
+    // HeadObject (replicationStatus is also kept from a failed HEAD, i.e. the 405 for a delete marker)
+    private final String replicationStatus;
+    private final Long contentLength;
+    private final String eTag;
+    private final Boolean deleteMarker;
+    private final Instant lastModified;
+
+    /**
+     * The version ID returned by HeadObject or created by CopyObject
+     */
+    private final String responseVersionId;
+
+    // ListObjectVersions
+    private final boolean truncated;
+    private final String nextKeyMarker;
+    private final String nextVersionIdMarker;
+    @Builder.Default
+    private final List<ObjectVersion> versions = Collections.emptyList();
+    @Builder.Default
+    private final List<DeleteMarkerEntry> deleteMarkers = Collections.emptyList();
+
+    // GetObjectAcl
+    private final String ownerId;
+    @Builder.Default
+    private final List<Grant> grants = Collections.emptyList();
+
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+}
@@ -0,0 +1,247 @@
+package com.dellemc.objectscale.trace;
+
+import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
+import software.amazon.awssdk.services.s3.model.Grant;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The binary trace format: a gzipped stream of {@link TraceEvent}s written with {@link DataOutputStream}, after a
+ * magic number and format version. Only the fields relevant to each operation are written. A trace cut short (i.e.
+ * the tool was killed) can still be read up to the last complete event
+ */
+public final class TraceFile {
+    static final int MAGIC = 0x53335452; // "S3TR"
+    static final int FORMAT_VERSION = 1;
+    static final int END = 0xFF;
+
+    private TraceFile() {
+    }
+
+    /**
+     * Appends events to a new trace file. Thread-safe
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private long eventCount = 0;
+
+        public Writer(Path traceFile) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(traceFile))));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+        }
+
+        public synchronized void write(TraceEvent event) throws IOException {
+            out.writeByte(event.getOperation().ordinal());
+            out.writeLong(event.getStartNanos());
+            out.writeLong(event.getDurationNanos());
+            out.writeByte(Math.min(event.getAttempts(), 255));
+            out.writeShort(event.getStatusCode());
+            writeString(event.getErrorCode());
+            writeString(event.getKey());
+            writeString(event.getVersionId());
+            switch (event.getOperation()) {
+                case HeadObject:
+                    writeString(event.getReplicationStatus());
+                    writeLong(event.getContentLength());
+                    writeString(event.getETag());
+                    writeBoolean(event.getDeleteMarker());
+                    writeInstant(event.getLastModified());
+                    writeString(event.getResponseVersionId());
+                    break;
+                case CopyObject:
+                    writeString(event.getResponseVersionId());
+                    break;
+                case ListObjectVersions:
+                    out.writeBoolean(event.isTruncated());
+                    writeString(event.getNextKeyMarker());
+                    writeString(event.getNextVersionIdMarker());
+                    out.writeInt(event.getVersions().size());
+                    for (ObjectVersion version : event.getVersions()) {
+                        writeString(version.key());
+                        writeString(version.versionId());
+                        writeBoolean(version.isLatest());
+                        writeInstant(version.lastModified());
+                        writeString(version.eTag());
+                        writeLong(version.size());
+                        writeString(version.owner() != null ? version.owner().id() : null);
+                    }
+                    out.writeInt(event.getDeleteMarkers().size());
+                    for (DeleteMarkerEntry marker : event.getDeleteMarkers()) {
+                        writeString(marker.key());
+                        writeString(marker.versionId());
+                        writeBoolean(marker.isLatest());
+                        writeInstant(marker.lastModified());
+                        writeString(marker.owner() != null ? marker.owner().id() : null);
+                    }
+                    break;
+                case GetObjectAcl:
+                    writeString(event.getOwnerId());
+                    out.writeInt(event.getGrants().size());
+                    for (Grant grant : event.getGrants()) {
+                        writeString(grant.grantee() != null ? grant.grantee().typeAsString() : null);
+                        writeString(grant.grantee() != null ? grant.grantee().id() : null);
+                        writeString(grant.grantee() != null ? grant.grantee().uri() : null);
+                        writeString(grant.grantee() != null ? grant.grantee().emailAddress() : null);
+                        writeString(grant.permissionAsString());
+                    }
+                    break;
+            }
+            eventCount++;
+        }
+
+        public synchronized long getEventCount() {
+            return eventCount;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.writeByte(END);
+            out.close();
+        }
+
+        private void writeString(String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) out.writeUTF(value);
+        }
+
+        private void writeLong(Long value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) out.writeLong(value);
+        }
+
+        private void writeBoolean(Boolean value) throws IOException {
+            out.writeByte(value == null ? -1 : value ? 1 : 0);
+        }
+
+        private void writeInstant(Instant value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeLong(value.getEpochSecond());
+                out.writeInt(value.getNano());
+            }
+        }
+    }
+
+    /**
+     * Reads all events from a trace file, in the order they were written
+     */
+    public static List<TraceEvent> read(Path traceFile) throws IOException {
+        List<TraceEvent> events = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(traceFile))))) {
+            if (in.readInt() != MAGIC) throw new IOException(traceFile + " is not a trace file");
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) throw new IOException("unsupported trace format version " + version);
+            while (true) {
+                int operation = in.readUnsignedByte();
+                if (operation == END) break;
+                events.add(readEvent(in, TraceEvent.Operation.values()[operation]));
+            }
+        } catch (EOFException e) {
+            // the trace was not closed; keep what was completely written
+        }
+        return events;
+    }
+
+    private static TraceEvent readEvent(DataInputStream in, TraceEvent.Operation operation) throws IOException {
+        TraceEvent.TraceEventBuilder event = TraceEvent.builder()
+                .operation(operation)
+                .startNanos(in.readLong())
+                .durationNanos(in.readLong())
+                .attempts(in.readUnsignedByte())
+                .statusCode(in.readShort())
+                .errorCode(readString(in))
+                .key(readString(in))
+                .versionId(readString(in));
+        switch (operation) {
+            case HeadObject:
+                event.replicationStatus(readString(in))
+                        .contentLength(readLong(in))
+                        .eTag(readString(in))
+                        .deleteMarker(readBoolean(in))
+                        .lastModified(readInstant(in))
+                        .responseVersionId(readString(in));
+                break;
+            case CopyObject:
+                event.responseVersionId(readString(in));
+                break;
+            case ListObjectVersions:
+                event.truncated(in.readBoolean())
+                        .nextKeyMarker(readString(in))
+                        .nextVersionIdMarker(readString(in));
+                int versionCount = in.readInt();
+                List<ObjectVersion> versions = new ArrayList<>(versionCount);
+                for (int i = 0; i < versionCount; i++) {
+                    ObjectVersion.Builder version = ObjectVersion.builder()
+                            .key(readString(in))
+                            .versionId(readString(in))
+                            .isLatest(readBoolean(in))
+                            .lastModified(readInstant(in))
+                            .eTag(readString(in))
+                            .size(readLong(in));
+                    String ownerId = readString(in);
+                    if (ownerId != null) version.owner(owner -> owner.id(ownerId));
+                    versions.add(version.build());
+                }
+                int markerCount = in.readInt();
+                List<DeleteMarkerEntry> markers = new ArrayList<>(markerCount);
+                for (int i = 0; i < markerCount; i++) {
+                    DeleteMarkerEntry.Builder marker = DeleteMarkerEntry.builder()
+                            .key(readString(in))
+                            .versionId(readString(in))
+                            .isLatest(readBoolean(in))
+                            .lastModified(readInstant(in));
+                    String ownerId = readString(in);
+                    if (ownerId != null) marker.owner(owner -> owner.id(ownerId));
+                    markers.add(marker.build());
+                }
+                event.versions(versions).deleteMarkers(markers);
+                break;
+            case GetObjectAcl:
+                event.ownerId(readString(in));
+                int grantCount = in.readInt();
+                List<Grant> grants = new ArrayList<>(grantCount);
+                for (int i = 0; i < grantCount; i++) {
+                    String type = readString(in), id = readString(in), uri = readString(in), email = readString(in);
+                    grants.add(Grant.builder()
+                            .grantee(grantee -> grantee.type(type).id(id).uri(uri).emailAddress(email))
+                            .permission(readString(in))
+                            .build());
+                }
+                event.grants(grants);
+                break;
+        }
+        return event.build();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        byte value = in.readByte();
+        return value < 0 ? null : value == 1;
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+}
@@ -0,0 +1,179 @@
+package com.dellemc.objectscale.trace;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectAclRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectAclResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectAclRequest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records every call made by an S3 client to a {@link TraceFile}, so a slow production run can be replayed offline
+ * (see {@link ReplayS3Client}). Add it to the client with
+ * <code>overrideConfiguration(builder -> builder.addExecutionInterceptor(recorder))</code>; one recorder can be shared
+ * by several clients. Only the operation, key/version, timing, status and the response fields the tools use are kept;
+ * never payloads, headers or credentials.
+ */
+public class TraceRecorder implements ExecutionInterceptor, AutoCloseable {
+    private static final Logger log = LogManager.getLogger(TraceRecorder.class);
+
+    static final String HEADER_REPLICATION_STATUS = "x-amz-replication-status";
+    private static final ExecutionAttribute<Long> START_NANOS = new ExecutionAttribute<>("TraceStartNanos");
+    private static final ExecutionAttribute<AtomicInteger> ATTEMPTS = new ExecutionAttribute<>("TraceAttempts");
+    // the request as the tool made it; the SDK rewrites some before they are sent (i.e. a copy's source fields)
+    private static final ExecutionAttribute<SdkRequest> REQUEST = new ExecutionAttribute<>("TraceRequest");
+
+    private final TraceFile.Writer writer;
+    private final long traceStartNanos = System.nanoTime();
+    private volatile boolean failed = false;
+
+    public TraceRecorder(Path traceFile) {
+        try {
+            this.writer = new TraceFile.Writer(traceFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_NANOS, System.nanoTime());
+        executionAttributes.putAttribute(ATTEMPTS, new AtomicInteger());
+        executionAttributes.putAttribute(REQUEST, context.request());
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        AtomicInteger attempts = executionAttributes.getAttribute(ATTEMPTS);
+        if (attempts != null) attempts.incrementAndGet();
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        TraceEvent.TraceEventBuilder event = start(context.request(), executionAttributes)
+                .statusCode(context.httpResponse().statusCode());
+        addResponse(event, context.response());
+        record(event.build());
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        TraceEvent.TraceEventBuilder event = start(context.request(), executionAttributes);
+        Throwable exception = context.exception();
+        SdkHttpResponse httpResponse = context.httpResponse().orElse(null);
+        if (exception instanceof AwsServiceException && ((AwsServiceException) exception).awsErrorDetails() != null) {
+            AwsServiceException serviceException = (AwsServiceException) exception;
+            event.statusCode(serviceException.statusCode())
+                    .errorCode(serviceException.awsErrorDetails().errorCode());
+            if (serviceException.awsErrorDetails().sdkHttpResponse() != null)
+                httpResponse = serviceException.awsErrorDetails().sdkHttpResponse();
+        } else if (exception instanceof SdkServiceException) {
+            event.statusCode(((SdkServiceException) exception).statusCode());
+        } else {
+            // no response (i.e. a timeout or connection failure)
+            event.statusCode(0).errorCode(String.valueOf(exception.getMessage()));
+        }
+        // the tools read the replication status from a 405 HEAD (delete marker)
+        if (httpResponse != null)
+            event.replicationStatus(httpResponse.firstMatchingHeader(HEADER_REPLICATION_STATUS).orElse(null));
+        record(event.build());
+    }
+
+    private TraceEvent.TraceEventBuilder start(SdkRequest request, ExecutionAttributes executionAttributes) {
+        long now = System.nanoTime();
+        Long startNanos = executionAttributes.getAttribute(START_NANOS);
+        AtomicInteger attempts = executionAttributes.getAttribute(ATTEMPTS);
+        if (startNanos == null) startNanos = now;
+        if (executionAttributes.getAttribute(REQUEST) != null) request = executionAttributes.getAttribute(REQUEST);
+        TraceEvent.TraceEventBuilder event = TraceEvent.builder()
+                .startNanos(startNanos - traceStartNanos)
+                .durationNanos(now - startNanos)
+                .attempts(attempts != null ? attempts.get() : 1);
+        if (request instanceof HeadObjectRequest) {
+            HeadObjectRequest head = (HeadObjectRequest) request;
+            event.operation(TraceEvent.Operation.HeadObject).key(head.key()).versionId(head.versionId());
+        } else if (request instanceof ListObjectVersionsRequest) {
+            ListObjectVersionsRequest list = (ListObjectVersionsRequest) request;
+            event.operation(TraceEvent.Operation.ListObjectVersions).key(list.keyMarker()).versionId(list.versionIdMarker());
+        } else if (request instanceof CopyObjectRequest) {
+            CopyObjectRequest copy = (CopyObjectRequest) request;
+            event.operation(TraceEvent.Operation.CopyObject).key(copy.destinationKey())
+                    .versionId(copy.sourceVersionId());
+        } else if (request instanceof GetObjectAclRequest) {
+            GetObjectAclRequest getAcl = (GetObjectAclRequest) request;
+            event.operation(TraceEvent.Operation.GetObjectAcl).key(getAcl.key()).versionId(getAcl.versionId());
+        } else if (request instanceof PutObjectAclRequest) {
+            PutObjectAclRequest putAcl = (PutObjectAclRequest) request;
+            event.operation(TraceEvent.Operation.PutObjectAcl).key(putAcl.key()).versionId(putAcl.versionId());
+        } else {
+            event.operation(TraceEvent.Operation.Other);
+        }
+        return event;
+    }
+
+    private void addResponse(TraceEvent.TraceEventBuilder event, SdkResponse response) {
+        if (response instanceof HeadObjectResponse) {
+            HeadObjectResponse head = (HeadObjectResponse) response;
+            event.replicationStatus(head.replicationStatusAsString())
+                    .contentLength(head.contentLength())
+                    .eTag(head.eTag())
+                    .deleteMarker(head.deleteMarker())
+                    .lastModified(head.lastModified())
+                    .responseVersionId(head.versionId());
+        } else if (response instanceof ListObjectVersionsResponse) {
+            ListObjectVersionsResponse list = (ListObjectVersionsResponse) response;
+            event.truncated(Boolean.TRUE.equals(list.isTruncated()))
+                    .nextKeyMarker(list.nextKeyMarker())
+                    .nextVersionIdMarker(list.nextVersionIdMarker())
+                    .versions(list.versions())
+                    .deleteMarkers(list.deleteMarkers());
+        } else if (response instanceof CopyObjectResponse) {
+            event.responseVersionId(((CopyObjectResponse) response).versionId());
+        } else if (response instanceof GetObjectAclResponse) {
+            GetObjectAclResponse acl = (GetObjectAclResponse) response;
+            event.ownerId(acl.owner() != null ? acl.owner().id() : null).grants(acl.grants());
+        }
+    }
+
+    private void record(TraceEvent event) {
+        if (failed) return;
+        try {
+            writer.write(event);
+        } catch (IOException e) {
+            // don't fail the run because of the trace
+            failed = true;
+            log.warn("could not write to the trace; no more calls will be recorded", e);
+        }
+    }
+
+    public long getEventCount() {
+        return writer.getEventCount();
+    }
+
+    @Override
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.dellemc.objectscale.util;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a {@link Publisher} as an iterator: {@link #hasNext()} blocks until the next item arrives. Items are requested
+ * <code>batchSize</code> at a time, and the next batch is only requested once the last one has been read, so the
+ * publisher never gets more than <code>batchSize</code> items ahead of the reader. A failure of the publisher is
+ * thrown from {@link #hasNext()}, and {@link #close()} cancels the subscription.
+ */
+public class BlockingIterator<T> implements Iterator<T>, Subscriber<T>, AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // marks the end of the items
+    private static final Object END = new Object();
+
+    private final int batchSize;
+    private final BlockingQueue<Object> queue;
+    private volatile Subscription subscription;
+    private volatile Throwable failure;
+    private Object next;
+    // items read since the last request
+    private int read;
+
+    public static <T> BlockingIterator<T> of(Publisher<T> publisher) {
+        return of(publisher, DEFAULT_BATCH_SIZE);
+    }
+
+    public static <T> BlockingIterator<T> of(Publisher<T> publisher, int batchSize) {
+        BlockingIterator<T> iterator = new BlockingIterator<>(batchSize);
+        publisher.subscribe(iterator);
+        return iterator;
+    }
+
+    public BlockingIterator(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1");
+        this.batchSize = batchSize;
+        // room for a batch, and the end
+        this.queue = new ArrayBlockingQueue<>(batchSize + 1);
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (!queue.offer(item)) {
+            subscription.cancel();
+            onError(new IllegalStateException("the publisher sent more items than were requested"));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = throwable;
+        queue.offer(END);
+    }
+
+    @Override
+    public void onComplete() {
+        queue.offer(END);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            if (next != END && ++read == batchSize) {
+                read = 0;
+                subscription.request(batchSize);
+            }
+        }
+        if (next == END) {
+            Throwable failure = this.failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure != null) throw new RuntimeException(failure);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        T item = (T) next;
+        next = null;
+        return item;
+    }
+
+    /**
+     * Cancels the subscription, if the items have not all been read
+     */
+    @Override
+    public void close() {
+        Subscription subscription = this.subscription;
+        if (subscription != null) subscription.cancel();
+    }
+}
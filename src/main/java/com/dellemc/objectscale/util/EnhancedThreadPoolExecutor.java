@@ -14,28 +14,42 @@
  */
 package com.dellemc.objectscale.util;
 
+import com.dellemc.objectscale.jfr.FlightEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A fixed-size thread pool that can be paused, resumed and resized while running, and that supports blocking submission
+ * (waiting for space in a bounded queue instead of rejecting tasks).
+ * <p>
+ * Admission to the queue is controlled by a semaphore with one permit per queue slot. A permit is taken when a task is
+ * submitted and given back when a worker starts the task, so submitters only contend on the semaphore, and workers
+ * never need to wake them explicitly. Pausing is checked with a volatile read, so running workers only take a lock
+ * while the pool is actually paused.
+ */
 public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
     private static final Logger log = LoggerFactory.getLogger(EnhancedThreadPoolExecutor.class);
 
     public static final String DEFAULT_POOL_NAME = "x-pool";
-
-    private BlockingDeque<Runnable> workDeque;
-    private boolean shutdownWhenIdle = false;
-    private Semaphore threadsToKill = new Semaphore(0);
+    // how often a blocked submitter checks for shutdown (it is normally woken immediately)
+    static final long SUBMIT_POLL_MILLIS = 100;
+
+    private final String name;
+    private final BlockingDeque<Runnable> workDeque;
+    private final Semaphore queueSlots;
+    private volatile boolean shutdownWhenIdle = false;
+    private final Semaphore threadsToKill = new Semaphore(0);
     private final Object pauseLock = new Object();
-    private boolean paused = false;
-    private final Object submitLock = new Object();
-    private AtomicLong unfinishedTasks = new AtomicLong();
-    private AtomicInteger activeTasks = new AtomicInteger();
+    private volatile boolean paused = false;
+    private final AtomicLong unfinishedTasks = new AtomicLong();
+    private final AtomicInteger activeTasks = new AtomicInteger();
 
     public EnhancedThreadPoolExecutor(int poolSize, BlockingDeque<Runnable> workDeque) {
         this(poolSize, workDeque, DEFAULT_POOL_NAME);
@@ -45,9 +59,19 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
         this(poolSize, workDeque, new NamedThreadFactory(poolName));
     }
 
+    /**
+     * @param virtualThreads if true, the pool's threads are virtual threads (see {@link VirtualThreads}), so the pool
+     *                       size only limits how many tasks run at once, and large pools are cheap
+     */
+    public EnhancedThreadPoolExecutor(int poolSize, BlockingDeque<Runnable> workDeque, String poolName, boolean virtualThreads) {
+        this(poolSize, workDeque, new NamedThreadFactory(poolName, virtualThreads));
+    }
+
     public EnhancedThreadPoolExecutor(int poolSize, BlockingDeque<Runnable> workDeque, ThreadFactory threadFactory) {
         super(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, workDeque, threadFactory);
+        this.name = threadFactory instanceof NamedThreadFactory ? ((NamedThreadFactory) threadFactory).poolName : DEFAULT_POOL_NAME;
         this.workDeque = workDeque;
+        this.queueSlots = new Semaphore(workDeque.remainingCapacity());
     }
 
     @Override
@@ -55,7 +79,8 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
         if (threadsToKill.tryAcquire()) {
             log.debug("terminating thread due to shrinking pool");
 
-            // we need a Deque here so the job order isn't disturbed
+            // we need a Deque here so the job order isn't disturbed. the task still holds its queue slot, so there is
+            // always room to put it back
             workDeque.addFirst(r);
 
             // throwing an exception is the only way to immediately kill a thread in the pool. otherwise, the entire
@@ -63,35 +88,39 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
             throw new PoolTooLargeException("killing thread to shrink pool");
         }
 
-        synchronized (pauseLock) {
-            if (paused) {
-                log.debug("thread has been paused");
-                try {
-                    pauseLock.wait();
-                    if (isShutdown()) {
-                        log.debug("shut down while paused");
-                        throw new RuntimeException("Shut down while paused");
-                    } else {
-                        log.debug("thread has been resumed");
-                    }
-                } catch (InterruptedException e) {
-                    log.warn("interrupted while paused; might be shutting down");
-                    workDeque.addFirst(r);
-                    throw new RuntimeException(e);
-                }
-            }
-        }
+        // only lock if we might be paused
+        if (paused) waitWhilePaused(r);
 
-        // a new task started, so the queue should be smaller.
-        synchronized (submitLock) {
-            submitLock.notify();
-        }
+        // the task has left the queue, so its slot can be used by a submitter
+        queueSlots.release();
 
         activeTasks.incrementAndGet();
 
         super.beforeExecute(t, r);
     }
 
+    private void waitWhilePaused(Runnable r) {
+        synchronized (pauseLock) {
+            if (!paused) return;
+            log.debug("thread has been paused");
+            try {
+                while (paused) {
+                    pauseLock.wait();
+                }
+                if (isShutdown()) {
+                    log.debug("shut down while paused");
+                    throw new RuntimeException("Shut down while paused");
+                } else {
+                    log.debug("thread has been resumed");
+                }
+            } catch (InterruptedException e) {
+                log.warn("interrupted while paused; might be shutting down");
+                workDeque.addFirst(r);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
         long aTasks = activeTasks.decrementAndGet();
@@ -116,6 +145,20 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
         return new EnhancedFutureTask<>(callable);
     }
 
+    /**
+     * Executes the task if there is space in the queue, otherwise the task is rejected. All of the
+     * <code>submit</code> methods use this
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) throw new NullPointerException();
+        if (!queueSlots.tryAcquire()) {
+            getRejectedExecutionHandler().rejectedExecution(command, this);
+            return;
+        }
+        admit(command);
+    }
+
     /**
      * This will attempt to submit the task to the pool and, in the case where the queue is full, block until space is
      * available
@@ -123,47 +166,7 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
      * @throws IllegalStateException if the executor is shutting down or terminated
      */
     public void blockingSubmit(Runnable task) {
-        while (true) {
-            if (this.isShutdown()) throw new IllegalStateException("executor is shut down");
-
-            synchronized (submitLock) {
-                try {
-                    this.submit(task);
-                    return;
-                } catch (RejectedExecutionException e) {
-                    // ignore
-                }
-                if (this.isShutdown()) throw new IllegalStateException("executor is shut down");
-                try {
-                    log.debug("task queue is full; waiting until space is available");
-                    submitLock.wait();
-                    log.debug("task queue has space; resubmitting task");
-                } catch (InterruptedException e) {
-                    log.warn("interrupted while waiting to submit a task", e);
-                }
-            }
-        }
-    }
-
-    @Override
-    public Future<?> submit(Runnable task) {
-        Future<?> future = super.submit(task);
-        unfinishedTasks.incrementAndGet();
-        return future;
-    }
-
-    @Override
-    public <T> Future<T> submit(Runnable task, T result) {
-        Future<T> future = super.submit(task, result);
-        unfinishedTasks.incrementAndGet();
-        return future;
-    }
-
-    @Override
-    public <T> Future<T> submit(Callable<T> task) {
-        Future<T> future = super.submit(task);
-        unfinishedTasks.incrementAndGet();
-        return future;
+        blockingExecute(newTaskFor(task, null));
     }
 
     /**
@@ -173,9 +176,46 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
      * @throws IllegalStateException if the executor is shutting down or terminated
      */
     public <T> Future<T> blockingSubmit(Callable<T> task) {
-        FutureTask<T> futureTask = new FutureTask<>(task);
-        blockingSubmit(futureTask);
-        return futureTask;
+        RunnableFuture<T> future = newTaskFor(task);
+        blockingExecute(future);
+        return future;
+    }
+
+    private void blockingExecute(Runnable command) {
+        if (!queueSlots.tryAcquire()) {
+            Object queueFull = FlightEvents.beginQueueFull();
+            try {
+                while (true) {
+                    if (isShutdown()) throw new IllegalStateException("executor is shut down");
+                    try {
+                        if (queueSlots.tryAcquire(SUBMIT_POLL_MILLIS, TimeUnit.MILLISECONDS)) break;
+                        log.debug("task queue is full; waiting until space is available");
+                    } catch (InterruptedException e) {
+                        log.warn("interrupted while waiting to submit a task", e);
+                    }
+                }
+            } finally {
+                FlightEvents.commitQueueFull(queueFull, name, workDeque.size());
+            }
+        }
+        try {
+            admit(command);
+        } catch (RejectedExecutionException e) {
+            if (isShutdown()) throw new IllegalStateException("executor is shut down", e);
+            throw e;
+        }
+    }
+
+    // caller must hold a queue slot
+    private void admit(Runnable command) {
+        unfinishedTasks.incrementAndGet();
+        try {
+            super.execute(command);
+        } catch (RuntimeException e) {
+            unfinishedTasks.decrementAndGet();
+            queueSlots.release();
+            throw e;
+        }
     }
 
     /**
@@ -183,6 +223,7 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
      */
     public synchronized void resizeThreadPool(int newPoolSize) {
 
+        FlightEvents.executorAction(name, "resize", getCorePoolSize(), newPoolSize);
         // negate any last resize attempts
         threadsToKill.drainPermits();
         int diff = getActiveCount() - newPoolSize;
@@ -205,6 +246,7 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
             if (isShutdown()) throw new IllegalStateException("executor is shut down");
             boolean wasPaused = paused;
             paused = true;
+            if (!wasPaused) FlightEvents.executorAction(name, "pause", getCorePoolSize(), getCorePoolSize());
             return !wasPaused;
         }
     }
@@ -214,9 +256,7 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
      * completing, but no new jobs will be started.
      */
     public boolean isPaused() {
-        synchronized (pauseLock) {
-            return paused;
-        }
+        return paused;
     }
 
     /**
@@ -232,6 +272,7 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
             boolean wasPaused = paused;
             paused = false;
             pauseLock.notifyAll();
+            if (wasPaused) FlightEvents.executorAction(name, "resume", getCorePoolSize(), getCorePoolSize());
             return wasPaused;
         }
     }
@@ -244,13 +285,25 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
         workDeque.clear();
         shutdown();
         synchronized (pauseLock) {
-            pauseLock.notifyAll();
             paused = false;
+            pauseLock.notifyAll();
         }
-        // must also release threads waiting on submit (this will generate IllegalStateException on those threads)
-        synchronized (submitLock) {
-            submitLock.notifyAll();
-        }
+    }
+
+    /**
+     * Also wakes any threads waiting in {@link #blockingSubmit(Runnable)} (they will get an IllegalStateException)
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        queueSlots.release(queueSlots.getQueueLength());
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        queueSlots.release(queueSlots.getQueueLength());
+        return tasks;
     }
 
     @Override
@@ -310,16 +363,25 @@ public class EnhancedThreadPoolExecutor extends ThreadPoolExecutor {
         }
 
         private AtomicInteger threadNumber = new AtomicInteger();
+        private final String poolName;
         private String threadPrefix;
+        private boolean virtual;
 
         public NamedThreadFactory(String poolName) {
+            this(poolName, false);
+        }
+
+        public NamedThreadFactory(String poolName, boolean virtual) {
             if (poolName == null) poolName = DEFAULT_POOL_NAME;
-            threadPrefix = poolName + "-" + getPoolCount(poolName) + "-t-";
+            this.poolName = poolName;
+            threadPrefix = poolName + "-" + getPoolCount(poolName) + (virtual ? "-vt-" : "-t-");
+            this.virtual = virtual;
         }
 
         @Override
         public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, threadPrefix + threadNumber.incrementAndGet());
+            Thread t = virtual ? VirtualThreads.newThread(r) : new Thread(r);
+            t.setName(threadPrefix + threadNumber.incrementAndGet());
             t.setUncaughtExceptionHandler(new ExceptionHandler(t.getUncaughtExceptionHandler()));
             log.debug("created thread {}", t.getName());
             return t;
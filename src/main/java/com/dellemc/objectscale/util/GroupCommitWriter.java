@@ -0,0 +1,137 @@
+package com.dellemc.objectscale.util;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * An append-only file of text records (one per line), written by a background thread. Records are queued by
+ * {@link #append(Object)} and written in batches. Each batch is flushed and synced to disk with a single fsync (group
+ * commit), so callers never wait for I/O, and the cost of the sync is shared by every record in the batch. If the queue
+ * fills up, appends block until the writer thread catches up.
+ * <p>
+ * {@link #close()} waits for all queued records to be committed.
+ */
+public class GroupCommitWriter<T> implements AutoCloseable {
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int MAX_BATCH_SIZE = 1000;
+    static final long POLL_MILLIS = 100;
+
+    private final Function<T, String> formatter;
+    private final BlockingQueue<T> queue;
+    private final FileOutputStream fileStream;
+    private final Writer writer;
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private volatile long committedCount;
+    private volatile long batchCount;
+
+    /**
+     * @param formatter converts a record to a single line of text (without a line separator)
+     */
+    public GroupCommitWriter(Path file, boolean append, Function<T, String> formatter, String threadName) throws IOException {
+        this(file, append, formatter, threadName, DEFAULT_QUEUE_SIZE);
+    }
+
+    public GroupCommitWriter(Path file, boolean append, Function<T, String> formatter, String threadName, int queueSize)
+            throws IOException {
+        this.formatter = formatter;
+        this.queue = new LinkedBlockingQueue<>(queueSize);
+        this.fileStream = new FileOutputStream(file.toFile(), append);
+        this.writer = new BufferedWriter(new OutputStreamWriter(fileStream));
+        this.writerThread = new Thread(this::writeLoop, threadName);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a record to be written. Blocks if the queue is full
+     *
+     * @throws IllegalStateException if this writer is closed
+     * @throws RuntimeException      if the writer thread has failed (wrapping the cause)
+     */
+    public void append(T record) {
+        checkFailure();
+        if (closed) throw new IllegalStateException("writer is closed");
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the number of records written and synced to disk
+     */
+    public long getCommittedCount() {
+        return committedCount;
+    }
+
+    /**
+     * @return the number of batches (and fsyncs) so far
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+        }
+        checkFailure();
+    }
+
+    private void writeLoop() {
+        List<T> batch = new ArrayList<>();
+        try {
+            while (true) {
+                T first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // only exit once the queue is drained
+                    if (closed) break;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (T record : batch) {
+                    writer.write(formatter.apply(record));
+                    writer.write('\n');
+                }
+                writer.flush();
+                fileStream.getChannel().force(false);
+                committedCount += batch.size();
+                batchCount++;
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            failure = t;
+            // unblock any appenders; nothing more will be written
+            queue.clear();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) throw new RuntimeException("failed to write records", failure);
+    }
+}
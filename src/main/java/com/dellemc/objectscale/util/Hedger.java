@@ -0,0 +1,255 @@
+package com.dellemc.objectscale.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Sends hedged requests: if a request has not completed within a percentile of recent latencies (see
+ * {@link LatencyTracker}), a second, identical request is sent, and whichever completes first wins. The loser is
+ * interrupted and its result discarded. This cuts the tail latency caused by the occasional request that lands on a
+ * slow node, and is only safe for idempotent requests (i.e. HEAD). The latency of every attempt is recorded, including
+ * attempts that fail and requests interrupted because their hedge won (how long they ran before that), so slow requests
+ * keep counting towards the percentile even when their hedges win.
+ * <p>
+ * Hedges are limited by a budget: each request earns <code>budget</code> hedge tokens (i.e. 0.05), up to
+ * {@link #MAX_TOKENS}, and each hedge spends one, so hedging adds at most that fraction of extra requests, even when
+ * every request is slow. No requests are hedged until the tracker has enough samples.
+ * <p>
+ * The request runs on the calling thread, so a request that is never hedged costs no extra thread or hand-off; only
+ * hedges run on this hedger's own threads. When a hedge wins, the calling thread is interrupted to stop the request,
+ * and the call returns once the request stops, so requests should stop promptly when interrupted.
+ */
+public class Hedger implements AutoCloseable {
+    private static final Logger log = LogManager.getLogger(Hedger.class);
+
+    public static final double DEFAULT_PERCENTILE = 95;
+    public static final double DEFAULT_BUDGET = 0.05;
+    // the most hedges that can be saved up for a burst of slow requests
+    static final int MAX_TOKENS = 10;
+    // tokens are counted in thousandths, so fractions add up exactly
+    private static final long TOKEN = 1000;
+
+    private final String name;
+    private final LatencyTracker latencyTracker;
+    private final long tokensPerRequest;
+    private final ThreadPoolExecutor executor;
+    // sends the hedge when a request reaches the threshold
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicInteger threadIndex = new AtomicInteger();
+    private final Object tokenLock = new Object();
+    private long tokens;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    /**
+     * @param percentile     the latency percentile after which a request is hedged (i.e. 95)
+     * @param budget         the most hedges to send, as a fraction of requests (i.e. 0.05)
+     * @param virtualThreads if true, requests run on virtual threads (see {@link VirtualThreads})
+     */
+    public Hedger(String name, double percentile, double budget, boolean virtualThreads) {
+        this(name, new LatencyTracker(percentile), budget, virtualThreads);
+    }
+
+    Hedger(String name, LatencyTracker latencyTracker, double budget, boolean virtualThreads) {
+        if (budget <= 0 || budget > 1) throw new IllegalArgumentException("budget must be greater than 0 and at most 1");
+        this.name = name;
+        this.latencyTracker = latencyTracker;
+        this.tokensPerRequest = Math.max(1, Math.round(budget * TOKEN));
+        // threads are created as needed; the callers limit how many requests are in flight
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                task -> VirtualThreads.newThread(task, name + "-" + threadIndex.incrementAndGet(), virtualThreads));
+        this.timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, name + "-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most requests complete before their hedge is due
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Sends a request, and a hedge if the request is slow
+     *
+     * @param request sends the request; its argument is true for the hedge (i.e. to send it to a different endpoint)
+     * @return the result of whichever attempt completed first
+     * @throws RuntimeException the first error, if every attempt failed
+     */
+    public <T> T call(Function<Boolean, T> request) {
+        requestCount.incrementAndGet();
+        synchronized (tokenLock) {
+            tokens = Math.min(MAX_TOKENS * TOKEN, tokens + tokensPerRequest);
+        }
+        Call<T> call = new Call<>(request, Thread.currentThread());
+        long threshold = latencyTracker.getPercentileNanos();
+        ScheduledFuture<?> hedgeTimer = threshold >= 0 ? timer.schedule(() -> call.hedge(threshold), threshold, TimeUnit.NANOSECONDS) : null;
+        try {
+            call.runPrimary();
+            if (hedgeTimer != null) hedgeTimer.cancel(false);
+            // if the request failed, a hedge may still be running
+            T value = call.result.get();
+            if (call.winner.get() == Boolean.TRUE) hedgeWinCount.incrementAndGet();
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (hedgeTimer != null) hedgeTimer.cancel(false);
+            // stop the hedge, if it lost (or we were interrupted)
+            Future<?> hedge = call.getHedge();
+            if (hedge != null) hedge.cancel(true);
+        }
+    }
+
+    private boolean tryTakeToken() {
+        synchronized (tokenLock) {
+            if (tokens < TOKEN) return false;
+            tokens -= TOKEN;
+            return true;
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of requests that were hedged
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return the number of hedges that completed before the request they hedged
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    public String getSummary() {
+        long requests = requestCount.get(), hedges = hedgeCount.get();
+        return String.format("Hedged %d of %d requests (%.2f%%) after p%s latency (currently %dms); %d hedges won",
+                hedges, requests, requests == 0 ? 0 : hedges * 100.0 / requests, formatPercentile(latencyTracker.getPercentile()),
+                TimeUnit.NANOSECONDS.toMillis(Math.max(0, latencyTracker.getPercentileNanos())), hedgeWinCount.get());
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? "" + (long) percentile : "" + percentile;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * The attempts of one request, racing to complete its result
+     */
+    private class Call<T> {
+        final Function<Boolean, T> request;
+        // runs the primary attempt
+        final Thread caller;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger running = new AtomicInteger(1);
+        final AtomicReference<Throwable> firstError = new AtomicReference<>();
+        // true if the hedge won; set before the result is completed
+        final AtomicReference<Boolean> winner = new AtomicReference<>();
+        // guarded by this
+        private boolean primaryRunning = true, interruptedByHedge;
+        private Future<?> hedge;
+
+        Call(Function<Boolean, T> request, Thread caller) {
+            this.request = request;
+            this.caller = caller;
+        }
+
+        void runPrimary() {
+            long start = System.nanoTime();
+            try {
+                T value = request.apply(false);
+                if (winner.compareAndSet(null, false)) result.complete(value);
+            } catch (Throwable e) {
+                firstError.compareAndSet(null, e);
+            } finally {
+                // failed and interrupted requests count too, or the slowest requests would never be recorded
+                latencyTracker.record(System.nanoTime() - start);
+                boolean clearInterrupt;
+                synchronized (this) {
+                    primaryRunning = false;
+                    clearInterrupt = interruptedByHedge;
+                }
+                // the interrupt was only meant for the request
+                if (clearInterrupt) Thread.interrupted();
+                finish();
+            }
+        }
+
+        // called by the timer when the request reaches the threshold
+        void hedge(long threshold) {
+            synchronized (this) {
+                if (!primaryRunning || !tryTakeToken()) return;
+                running.incrementAndGet();
+                hedgeCount.incrementAndGet();
+                log.debug("{}: request still running after {}ms; sending a hedge", name, TimeUnit.NANOSECONDS.toMillis(threshold));
+                hedge = executor.submit(this::runHedge);
+            }
+        }
+
+        void runHedge() {
+            long start = System.nanoTime();
+            try {
+                T value = request.apply(true);
+                latencyTracker.record(System.nanoTime() - start);
+                if (winner.compareAndSet(null, true)) {
+                    result.complete(value);
+                    stopPrimary();
+                }
+            } catch (Throwable e) {
+                // a hedge stopped because the request won only shows how long it ran; any other failure counts
+                if (winner.get() != Boolean.FALSE) latencyTracker.record(System.nanoTime() - start);
+                firstError.compareAndSet(null, e);
+            } finally {
+                finish();
+            }
+        }
+
+        synchronized void stopPrimary() {
+            if (primaryRunning) {
+                interruptedByHedge = true;
+                caller.interrupt();
+            }
+        }
+
+        synchronized Future<?> getHedge() {
+            return hedge;
+        }
+
+        // the last attempt to finish reports the first error (if no attempt succeeded)
+        void finish() {
+            if (running.decrementAndGet() == 0 && firstError.get() != null) result.completeExceptionally(firstError.get());
+        }
+    }
+}
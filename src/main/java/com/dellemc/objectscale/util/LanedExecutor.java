@@ -0,0 +1,252 @@
+package com.dellemc.objectscale.util;
+
+import com.dellemc.objectscale.jfr.FlightEvents;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An executor with several lanes, each with its own bounded queue and its own worker threads, so that a backlog of slow
+ * tasks in one lane can't starve the others (i.e. a burst of large object copies can't occupy every thread).
+ * <p>
+ * Each worker thread has a home lane, which it always serves first. When its home lane is empty, a worker may borrow
+ * work from another lane, so idle capacity is never wasted. No lane ever runs more than <code>maxActive</code> tasks at
+ * once, so setting a lane's <code>maxActive</code> to its own thread count disables borrowing for that lane.
+ * <p>
+ * {@link #blockingSubmit(int, Runnable)} blocks while the lane's queue is full.
+ */
+public class LanedExecutor {
+    private static final Logger log = LogManager.getLogger(LanedExecutor.class);
+
+    private final String name;
+    private final Lane[] lanes;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition terminated = lock.newCondition();
+    private int liveWorkers;
+    private boolean shutdown;
+
+    public LanedExecutor(String name, Lane... lanes) {
+        this(name, false, lanes);
+    }
+
+    /**
+     * @param virtualThreads if true, workers are virtual threads (see {@link VirtualThreads})
+     */
+    public LanedExecutor(String name, boolean virtualThreads, Lane... lanes) {
+        this.name = name;
+        this.lanes = lanes;
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].spaceAvailable = lock.newCondition();
+            for (int t = 0; t < lanes[i].threads; t++) {
+                int homeLane = i;
+                workers.add(VirtualThreads.newThread(() -> workLoop(homeLane), name + "-" + lanes[i].name + "-" + t, virtualThreads));
+            }
+        }
+        liveWorkers = workers.size();
+        workers.forEach(Thread::start);
+    }
+
+    /**
+     * Queues a task in the given lane, waiting for space in the lane's queue if necessary
+     *
+     * @throws IllegalStateException if the executor is shut down
+     */
+    public void blockingSubmit(int laneIndex, Runnable task) throws InterruptedException {
+        Lane lane = lanes[laneIndex];
+        Object queueFull = null;
+        lock.lockInterruptibly();
+        try {
+            while (lane.queue.size() >= lane.queueSize && !shutdown) {
+                if (queueFull == null) queueFull = FlightEvents.beginQueueFull();
+                lane.spaceAvailable.await();
+            }
+            if (shutdown) throw new IllegalStateException("executor is shut down");
+            lane.queue.add(task);
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+            FlightEvents.commitQueueFull(queueFull, name + "-" + lane.name, lane.queueSize);
+        }
+    }
+
+    /**
+     * Stops accepting tasks. Queued tasks will still be run
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            workAvailable.signalAll();
+            for (Lane lane : lanes) lane.spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting tasks, discards queued tasks and interrupts running tasks
+     */
+    public void shutdownNow() {
+        lock.lock();
+        try {
+            for (Lane lane : lanes) lane.queue.clear();
+        } finally {
+            lock.unlock();
+        }
+        shutdown();
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * @return true if all tasks completed after shutdown, or false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (liveWorkers > 0) {
+                if (nanos <= 0) return false;
+                nanos = terminated.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of tasks currently running in the given lane (including tasks run by borrowed threads)
+     */
+    public int getActiveCount(int laneIndex) {
+        lock.lock();
+        try {
+            return lanes[laneIndex].active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public int getQueueSize(int laneIndex) {
+        lock.lock();
+        try {
+            return lanes[laneIndex].queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void workLoop(int homeLane) {
+        try {
+            while (true) {
+                Lane lane;
+                Runnable task;
+                lock.lock();
+                try {
+                    while (true) {
+                        lane = nextLane(homeLane);
+                        if (lane != null) break;
+                        if (shutdown && isEmpty()) return;
+                        workAvailable.await();
+                    }
+                    task = lane.queue.poll();
+                    lane.active++;
+                    lane.spaceAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("unexpected error in task", e);
+                } finally {
+                    lock.lock();
+                    try {
+                        lane.active--;
+                        // a lane below its maxActive limit may now be borrowed from
+                        workAvailable.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("worker interrupted; exiting");
+        } finally {
+            lock.lock();
+            try {
+                if (--liveWorkers == 0) terminated.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // must hold lock
+    private Lane nextLane(int homeLane) {
+        Lane home = lanes[homeLane];
+        if (home.isReady()) return home;
+        for (Lane lane : lanes) {
+            if (lane.isReady()) return lane;
+        }
+        return null;
+    }
+
+    // must hold lock
+    private boolean isEmpty() {
+        for (Lane lane : lanes) {
+            if (!lane.queue.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    public static class Lane {
+        private final String name;
+        private final int threads;
+        private final int maxActive;
+        private final int queueSize;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private Condition spaceAvailable;
+        private int active;
+
+        /**
+         * @param threads   the number of threads dedicated to this lane
+         * @param maxActive the maximum number of this lane's tasks that may run at once, including tasks run by threads
+         *                  borrowed from other lanes (must be at least <code>threads</code>, and at least 1)
+         * @param queueSize the maximum number of queued tasks
+         */
+        public Lane(String name, int threads, int maxActive, int queueSize) {
+            if (threads < 0 || maxActive < Math.max(threads, 1) || queueSize < 1)
+                throw new IllegalArgumentException("invalid lane configuration");
+            this.name = name;
+            this.threads = threads;
+            this.maxActive = maxActive;
+            this.queueSize = queueSize;
+        }
+
+        // must hold lock
+        private boolean isReady() {
+            return !queue.isEmpty() && active < maxActive;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.dellemc.objectscale.util;
+
+import java.util.Arrays;
+
+/**
+ * Tracks a percentile of recent request latencies, over a sliding window of the last <code>windowSize</code> samples.
+ * The percentile is recomputed every tenth of a window, so reading it is cheap, and it follows changes in latency
+ * within about one window.
+ */
+public class LatencyTracker {
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+    public static final int DEFAULT_MIN_SAMPLES = 100;
+
+    private final double percentile;
+    private final int minSamples;
+    private final int refreshInterval;
+    private final long[] window;
+    private int next;
+    private long sampleCount;
+    private int sinceRefresh;
+    private volatile long percentileNanos = -1;
+
+    /**
+     * @param percentile the percentile to track (i.e. 95)
+     * @param minSamples the number of samples needed before the percentile is known
+     */
+    public LatencyTracker(double percentile, int windowSize, int minSamples) {
+        if (percentile <= 0 || percentile >= 100) throw new IllegalArgumentException("percentile must be between 0 and 100");
+        if (windowSize < 1 || minSamples < 1 || minSamples > windowSize)
+            throw new IllegalArgumentException("minSamples must be between 1 and windowSize");
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.refreshInterval = Math.max(1, windowSize / 10);
+        this.window = new long[windowSize];
+    }
+
+    public LatencyTracker(double percentile) {
+        this(percentile, DEFAULT_WINDOW_SIZE, DEFAULT_MIN_SAMPLES);
+    }
+
+    public synchronized void record(long nanos) {
+        window[next] = nanos;
+        next = (next + 1) % window.length;
+        sampleCount++;
+        if (sampleCount >= minSamples && (percentileNanos < 0 || ++sinceRefresh >= refreshInterval)) {
+            long[] samples = Arrays.copyOf(window, (int) Math.min(sampleCount, window.length));
+            Arrays.sort(samples);
+            int index = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+            percentileNanos = samples[Math.max(0, index)];
+            sinceRefresh = 0;
+        }
+    }
+
+    /**
+     * @return the tracked percentile of recent latencies, or -1 if there are not enough samples yet
+     */
+    public long getPercentileNanos() {
+        return percentileNanos;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+}
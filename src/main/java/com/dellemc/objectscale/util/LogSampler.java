@@ -0,0 +1,80 @@
+package com.dellemc.objectscale.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often a per-object message is logged. For each kind of message, the first <code>burst</code> messages are
+ * logged, then at most one per <code>interval</code>, noting how many similar messages were suppressed in between.
+ * Suppressed messages are never formatted, so a storm of them costs a counter increment each.
+ */
+public class LogSampler {
+    public static final int DEFAULT_BURST = 10;
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(10);
+
+    private final int burst;
+    private final long intervalNanos;
+    private final Map<String, Kind> kinds = new ConcurrentHashMap<>();
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    public LogSampler(int burst, Duration interval) {
+        if (burst < 0) throw new IllegalArgumentException("burst cannot be negative");
+        this.burst = burst;
+        this.intervalNanos = interval.toNanos();
+    }
+
+    public LogSampler() {
+        this(DEFAULT_BURST, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Logs the message if this kind of message is due to be logged. Parameters are as for
+     * {@link Logger#log(Level, String, Object...)} (a trailing Throwable is logged with its stack trace)
+     *
+     * @param kind identifies similar messages (i.e. the message pattern)
+     */
+    public void log(Logger logger, Level level, String kind, String message, Object... params) {
+        if (!logger.isEnabled(level)) return;
+        long suppressed = kinds.computeIfAbsent(kind, k -> new Kind()).sample(System.nanoTime());
+        if (suppressed < 0) {
+            suppressedCount.incrementAndGet();
+        } else if (suppressed == 0) {
+            logger.log(level, message, params);
+        } else {
+            logger.log(level, message + " (" + suppressed + " similar messages suppressed)", params);
+        }
+    }
+
+    /**
+     * @return the total number of messages suppressed
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    private class Kind {
+        private long count;
+        private long lastLoggedNanos;
+        private long suppressed;
+
+        /**
+         * @return -1 if the message should be suppressed, otherwise the number of messages suppressed since the last
+         * one logged
+         */
+        synchronized long sample(long now) {
+            if (count++ >= burst && now - lastLoggedNanos < intervalNanos) {
+                suppressed++;
+                return -1;
+            }
+            lastLoggedNanos = now;
+            long result = suppressed;
+            suppressed = 0;
+            return result;
+        }
+    }
+}
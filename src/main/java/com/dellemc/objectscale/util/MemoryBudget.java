@@ -0,0 +1,115 @@
+package com.dellemc.objectscale.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A limit on the (estimated) bytes held by in-flight work, i.e. rows waiting in queues. Work is admitted with
+ * {@link #tryAcquire(long, long, TimeUnit)} and given back with {@link #release(long)}, so how many items can be in
+ * flight depends on how big they are: small rows queue deeply, large rows queue shallowly, and memory use stays about
+ * the same.
+ * <p>
+ * A single item larger than the whole budget is still admitted once nothing else is held, so it can't block forever.
+ */
+public class MemoryBudget {
+    /**
+     * The default fraction of the maximum heap to allow for in-flight work
+     */
+    public static final double DEFAULT_HEAP_FRACTION = 0.25;
+
+    private final long limit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long used;
+    private long peakUsed;
+    private long waitCount;
+
+    public MemoryBudget(long limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be positive");
+        this.limit = limit;
+    }
+
+    /**
+     * @return a budget of {@link #DEFAULT_HEAP_FRACTION} of the maximum heap size
+     */
+    public static long defaultLimit() {
+        return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+    }
+
+    /**
+     * Waits up to the given time for <code>bytes</code> to fit in the budget, and takes them
+     *
+     * @return true if the bytes were acquired, false if the timeout elapsed first
+     */
+    public boolean tryAcquire(long bytes, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            if (!fits(bytes)) {
+                waitCount++;
+                while (!fits(bytes)) {
+                    if (nanos <= 0) return false;
+                    nanos = released.awaitNanos(nanos);
+                }
+            }
+            used += bytes;
+            peakUsed = Math.max(peakUsed, used);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes) {
+        lock.lock();
+        try {
+            used -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // must hold lock
+    private boolean fits(long bytes) {
+        return used == 0 || used + bytes <= limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the most bytes held at once
+     */
+    public long getPeakUsed() {
+        lock.lock();
+        try {
+            return peakUsed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times an acquire had to wait for space (i.e. how often the budget applied backpressure)
+     */
+    public long getWaitCount() {
+        lock.lock();
+        try {
+            return waitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.dellemc.objectscale.util;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A set of strings (object keys) that lives off-heap, in memory-mapped temp files, so it can hold hundreds of millions
+ * of keys without touching the Java heap.
+ * <p>
+ * The set is an open-addressing hash table of 16-byte slots, each holding a 64-bit fingerprint of a key and the offset
+ * of the key in an append-only key store. A lookup probes the table by fingerprint (usually a single cache miss), and
+ * only on a fingerprint match is the stored key compared byte-for-byte, so the set is exact, even though nearly all
+ * negative lookups are answered from fingerprints alone. The OS pages both files in and out as needed, so the working
+ * set is bounded by available memory rather than by the heap size.
+ * <p>
+ * The files are created in <code>directory</code> if one is given, or in <code>java.io.tmpdir</code>, which is often a
+ * RAM-backed tmpfs; for very large sets, use a directory on disk. They are deleted when the set is closed (or failing
+ * that, when the JVM exits). When the table grows, the old table is unmapped and deleted straight away.
+ * <p>
+ * {@link #add(String)} is not thread-safe, but {@link #contains(String)} may be called from any number of threads once
+ * all keys have been added.
+ */
+public class OffHeapKeySet implements AutoCloseable {
+    static final int SLOT_BYTES = 16;
+    // table files are mapped in segments of this many slots (1 GiB)
+    static final int SEGMENT_SLOTS = 1 << 26;
+    // the key store is mapped in chunks of this size; keys never span chunks
+    static final int KEY_CHUNK_BYTES = 1 << 26;
+    static final int MAX_KEY_BYTES = 0xffff;
+    static final int MIN_CAPACITY = 1 << 10;
+    static final double MAX_LOAD = 0.7;
+    // releases a mapping without waiting for the buffer to be garbage collected (null if this JVM has no way to)
+    private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+    private final Path directory;
+
+    private final Path keyFile;
+    private final FileChannel keyChannel;
+    private final List<MappedByteBuffer> keyChunks = new ArrayList<>();
+    private long keyEnd;
+
+    private Path tableFile;
+    private MappedByteBuffer[] tableSegments;
+    private long capacity;
+    private long size;
+    private boolean closed;
+
+    public OffHeapKeySet() throws IOException {
+        this(null, 0);
+    }
+
+    /**
+     * @param expectedSize the number of keys expected to be added (to avoid re-hashing the table as it grows)
+     */
+    public OffHeapKeySet(long expectedSize) throws IOException {
+        this(null, expectedSize);
+    }
+
+    /**
+     * @param directory    where to create the set's files, or null for <code>java.io.tmpdir</code>
+     * @param expectedSize the number of keys expected to be added (to avoid re-hashing the table as it grows)
+     */
+    public OffHeapKeySet(Path directory, long expectedSize) throws IOException {
+        this.directory = directory;
+        this.keyFile = createFile("offheap-keys", ".dat");
+        this.keyChannel = FileChannel.open(keyFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) capacity <<= 1;
+        this.tableSegments = createTable(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return true if the key was added, or false if it was already in the set
+     */
+    public boolean add(String key) throws IOException {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_KEY_BYTES)
+            throw new IllegalArgumentException("key is longer than " + MAX_KEY_BYTES + " bytes");
+        long fingerprint = fingerprint(bytes);
+        long mask = capacity - 1;
+        for (long slot = fingerprint & mask; ; slot = (slot + 1) & mask) {
+            long slotFingerprint = getFingerprint(tableSegments, slot);
+            if (slotFingerprint == 0) {
+                putSlot(tableSegments, slot, fingerprint, appendKey(bytes));
+                if (++size > capacity * MAX_LOAD) grow();
+                return true;
+            }
+            if (slotFingerprint == fingerprint && keyEquals(getOffset(tableSegments, slot), bytes)) return false;
+        }
+    }
+
+    public boolean contains(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long fingerprint = fingerprint(bytes);
+        long mask = capacity - 1;
+        for (long slot = fingerprint & mask; ; slot = (slot + 1) & mask) {
+            long slotFingerprint = getFingerprint(tableSegments, slot);
+            if (slotFingerprint == 0) return false;
+            if (slotFingerprint == fingerprint && keyEquals(getOffset(tableSegments, slot), bytes)) return true;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes of off-heap storage (table plus key store) in use
+     */
+    public long getStorageBytes() {
+        return capacity * SLOT_BYTES + keyEnd;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        // mapped buffers are released when they are garbage collected; on most platforms the files can be deleted
+        // before that happens
+        try {
+            keyChannel.close();
+        } catch (IOException ignored) {
+        }
+        deleteQuietly(keyFile);
+        deleteQuietly(tableFile);
+    }
+
+    /**
+     * 64-bit FNV-1a, with a final avalanche step (from MurmurHash3) so the low bits are well distributed. Zero marks an
+     * empty slot, so it is never returned
+     */
+    static long fingerprint(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private void grow() throws IOException {
+        long newCapacity = capacity << 1, newMask = newCapacity - 1;
+        Path oldTableFile = tableFile;
+        MappedByteBuffer[] oldSegments = tableSegments;
+        MappedByteBuffer[] newSegments = createTable(newCapacity);
+        // fingerprints and offsets are all we need to re-hash; the keys themselves are not touched
+        for (long slot = 0; slot < capacity; slot++) {
+            long fingerprint = getFingerprint(tableSegments, slot);
+            if (fingerprint == 0) continue;
+            long newSlot = fingerprint & newMask;
+            while (getFingerprint(newSegments, newSlot) != 0) newSlot = (newSlot + 1) & newMask;
+            putSlot(newSegments, newSlot, fingerprint, getOffset(tableSegments, slot));
+        }
+        tableSegments = newSegments;
+        capacity = newCapacity;
+        // nothing else reads the table while keys are added, so the old one can be released now
+        if (UNMAPPER != null) {
+            for (MappedByteBuffer segment : oldSegments) UNMAPPER.accept(segment);
+        }
+        deleteQuietly(oldTableFile);
+    }
+
+    private MappedByteBuffer[] createTable(long capacity) throws IOException {
+        tableFile = createFile("offheap-keyset", ".tbl");
+        try (FileChannel channel = FileChannel.open(tableFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // new regions of the file read as zeros (empty slots), and are sparse until written
+            int segmentSlots = (int) Math.min(capacity, SEGMENT_SLOTS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) (capacity / segmentSlots)];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) i * segmentSlots * SLOT_BYTES, (long) segmentSlots * SLOT_BYTES);
+            }
+            return segments;
+        }
+    }
+
+    private static long getFingerprint(MappedByteBuffer[] segments, long slot) {
+        return segments[(int) (slot / SEGMENT_SLOTS)].getLong((int) (slot % SEGMENT_SLOTS) * SLOT_BYTES);
+    }
+
+    private static long getOffset(MappedByteBuffer[] segments, long slot) {
+        return segments[(int) (slot / SEGMENT_SLOTS)].getLong((int) (slot % SEGMENT_SLOTS) * SLOT_BYTES + 8);
+    }
+
+    private static void putSlot(MappedByteBuffer[] segments, long slot, long fingerprint, long offset) {
+        MappedByteBuffer segment = segments[(int) (slot / SEGMENT_SLOTS)];
+        int position = (int) (slot % SEGMENT_SLOTS) * SLOT_BYTES;
+        segment.putLong(position + 8, offset);
+        segment.putLong(position, fingerprint);
+    }
+
+    private long appendKey(byte[] bytes) throws IOException {
+        int recordLength = 2 + bytes.length;
+        if (keyEnd % KEY_CHUNK_BYTES + recordLength > KEY_CHUNK_BYTES) {
+            // skip to the next chunk
+            keyEnd += KEY_CHUNK_BYTES - keyEnd % KEY_CHUNK_BYTES;
+        }
+        int chunkIndex = (int) (keyEnd / KEY_CHUNK_BYTES);
+        while (keyChunks.size() <= chunkIndex) {
+            keyChunks.add(keyChannel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) keyChunks.size() * KEY_CHUNK_BYTES, KEY_CHUNK_BYTES));
+        }
+        MappedByteBuffer chunk = keyChunks.get(chunkIndex);
+        int position = (int) (keyEnd % KEY_CHUNK_BYTES);
+        chunk.putShort(position, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            chunk.put(position + 2 + i, bytes[i]);
+        }
+        long offset = keyEnd;
+        keyEnd += recordLength;
+        return offset;
+    }
+
+    private boolean keyEquals(long offset, byte[] bytes) {
+        MappedByteBuffer chunk = keyChunks.get((int) (offset / KEY_CHUNK_BYTES));
+        int position = (int) (offset % KEY_CHUNK_BYTES);
+        if ((chunk.getShort(position) & 0xffff) != bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (chunk.get(position + 2 + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private Path createFile(String prefix, String suffix) throws IOException {
+        Path file = directory != null ? Files.createTempFile(directory, prefix, suffix) : Files.createTempFile(prefix, suffix);
+        // in case the set is never closed
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Unsafe.invokeCleaner(ByteBuffer) on Java 9+, or the buffer's Cleaner on Java 8
+     */
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeQuietly(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError ignored) {
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> invokeQuietly(clean, invokeQuietly(cleaner, buffer));
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError ignored) {
+        }
+        // mappings are released when they are garbage collected
+        return null;
+    }
+
+    private static Object invokeQuietly(Method method, Object target, Object... args) {
+        if (target == null) return null;
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.dellemc.objectscale.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spaces out requests so that no more than <code>permitsPerSecond</code> are started per second, across all threads.
+ * Each permit reserves the next free slot, and the caller sleeps until its slot comes up, so waiting threads are
+ * released in order and evenly spaced. Unused time is not saved up: after an idle period, requests are still spaced
+ * out, rather than released in a burst.
+ * <p>
+ * A permit can stand for anything countable, i.e. one request, or one byte (to limit bandwidth).
+ */
+public class RateLimiter {
+    // fractional, so byte rates of more than one permit per nanosecond stay accurate
+    private final double intervalNanos;
+    private long nextFreeNanos = System.nanoTime();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    public RateLimiter(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("permitsPerSecond must be positive");
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    }
+
+    /**
+     * Waits until <code>permits</code> requests may be started
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) nextFreeNanos = now;
+            wait = nextFreeNanos - now;
+            nextFreeNanos += (long) (intervalNanos * permits);
+        }
+        if (wait > 0) {
+            waitNanos.addAndGet(wait);
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * @return the permitted rate, in permits per second
+     */
+    public double getRate() {
+        return TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    /**
+     * @return the total time callers have waited for permits
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+}
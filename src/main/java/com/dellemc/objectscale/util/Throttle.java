@@ -0,0 +1,222 @@
+package com.dellemc.objectscale.util;
+
+import com.dellemc.objectscale.jfr.FlightEvents;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how fast work is done, with limits that can be changed while work is running (i.e. by a schedule): the number
+ * of operations running at once, operations started per second, and bytes started per second. A limit of zero
+ * concurrent operations pauses the work; operations already running complete, but no more start until the limits are
+ * raised again.
+ * <p>
+ * Each operation calls {@link #acquire(long)} before it starts and {@link #release()} when it is done. Concurrency is
+ * checked first, so operations waiting for a rate do not count against the rate of the others.
+ * <p>
+ * Pausing, resuming and changing the concurrency limit are recorded as flight recorder executor actions (see
+ * {@link FlightEvents#executorAction}), with -1 for an unlimited concurrency.
+ */
+public class Throttle {
+    // how often a waiting operation checks whether it should give up (it is woken immediately when the limits change)
+    static final long ABANDON_POLL_MILLIS = 100;
+
+    // fair, so operations start in the order they asked (i.e. when several buckets share the throttle)
+    private final String name;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition limitsChanged = lock.newCondition();
+    private volatile Limits limits;
+    // guarded by lock
+    private int active;
+    // null if unlimited; replaced when the limits change
+    private volatile RateLimiter opsLimiter, bytesLimiter;
+    private final AtomicLong pausedNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    public Throttle(Limits limits) {
+        this("throttle", limits);
+    }
+
+    /**
+     * @param name identifies this throttle in flight recorder events
+     */
+    public Throttle(String name, Limits limits) {
+        this.name = name;
+        setLimits(limits);
+    }
+
+    /**
+     * Applies new limits. Operations waiting for a concurrency slot are re-checked immediately
+     */
+    public void setLimits(Limits limits) {
+        if (limits == null) throw new IllegalArgumentException("limits cannot be null");
+        Limits oldLimits;
+        lock.lock();
+        try {
+            oldLimits = this.limits;
+            this.limits = limits;
+            this.opsLimiter = limits.opsPerSecond != null ? new RateLimiter(limits.opsPerSecond) : null;
+            this.bytesLimiter = limits.bytesPerSecond != null ? new RateLimiter(limits.bytesPerSecond) : null;
+            limitsChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (oldLimits != null) recordChange(oldLimits, limits);
+    }
+
+    private void recordChange(Limits oldLimits, Limits newLimits) {
+        int oldConcurrency = oldLimits.maxConcurrent == null ? -1 : oldLimits.maxConcurrent;
+        int newConcurrency = newLimits.maxConcurrent == null ? -1 : newLimits.maxConcurrent;
+        if (newLimits.isPaused() && !oldLimits.isPaused()) {
+            FlightEvents.executorAction(name, "pause", oldConcurrency, newConcurrency);
+        } else if (oldLimits.isPaused() && !newLimits.isPaused()) {
+            FlightEvents.executorAction(name, "resume", oldConcurrency, newConcurrency);
+        } else if (oldConcurrency != newConcurrency) {
+            FlightEvents.executorAction(name, "resize", oldConcurrency, newConcurrency);
+        }
+    }
+
+    public Limits getLimits() {
+        return limits;
+    }
+
+    /**
+     * @return true if no operations may start
+     */
+    public boolean isPaused() {
+        return limits.isPaused();
+    }
+
+    /**
+     * Waits until an operation of the given size may start. Every successful call must be followed by a call to
+     * {@link #release()}
+     *
+     * @param bytes the size of the operation (only counted if there is a bytes per second limit)
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        acquire(bytes, () -> false);
+    }
+
+    /**
+     * Waits until an operation of the given size may start, or until <code>abandon</code> returns true (i.e. the work
+     * is being stopped while the throttle is paused)
+     *
+     * @return true if the operation may start (it must then call {@link #release()}), or false if it was abandoned
+     */
+    public boolean acquire(long bytes, BooleanSupplier abandon) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            while (limits.maxConcurrent != null && active >= limits.maxConcurrent) {
+                if (abandon.getAsBoolean()) return false;
+                long pauseStart = isPaused() ? System.nanoTime() : 0;
+                limitsChanged.await(ABANDON_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (pauseStart > 0) pausedNanos.addAndGet(System.nanoTime() - pauseStart);
+            }
+            active++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            RateLimiter opsLimiter = this.opsLimiter, bytesLimiter = this.bytesLimiter;
+            if (opsLimiter != null) opsLimiter.acquire();
+            if (bytesLimiter != null && bytes > 0) bytesLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            release();
+            throw e;
+        }
+        waitNanos.addAndGet(System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Ends an operation started with {@link #acquire(long)}
+     */
+    public void release() {
+        lock.lock();
+        try {
+            active--;
+            limitsChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total time operations have waited to start (across all threads)
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * @return the total time operations have waited while the throttle was paused (across all threads)
+     */
+    public long getPausedNanos() {
+        return pausedNanos.get();
+    }
+
+    /**
+     * Limits for a {@link Throttle}. Null means unlimited
+     */
+    @Getter
+    @EqualsAndHashCode
+    public static final class Limits {
+        public static final Limits UNLIMITED = new Limits(null, null, null);
+        public static final Limits PAUSED = new Limits(0, null, null);
+
+        private final Integer maxConcurrent;
+        private final Double opsPerSecond;
+        private final Long bytesPerSecond;
+
+        /**
+         * @param maxConcurrent  the most operations to run at once (0 to pause)
+         * @param opsPerSecond   the most operations to start per second
+         * @param bytesPerSecond the most bytes to start per second
+         */
+        public Limits(Integer maxConcurrent, Double opsPerSecond, Long bytesPerSecond) {
+            if (maxConcurrent != null && maxConcurrent < 0)
+                throw new IllegalArgumentException("maxConcurrent cannot be negative");
+            if (opsPerSecond != null && !(opsPerSecond > 0))
+                throw new IllegalArgumentException("opsPerSecond must be positive");
+            if (bytesPerSecond != null && bytesPerSecond < 1)
+                throw new IllegalArgumentException("bytesPerSecond must be positive");
+            this.maxConcurrent = maxConcurrent;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        /**
+         * @return true if these limits let no operations start
+         */
+        public boolean isPaused() {
+            return maxConcurrent != null && maxConcurrent == 0;
+        }
+
+        /**
+         * @return these limits, with no more than <code>max</code> operations at once
+         */
+        public Limits capConcurrency(int max) {
+            if (maxConcurrent != null && maxConcurrent <= max) return this;
+            return new Limits(max, opsPerSecond, bytesPerSecond);
+        }
+
+        @Override
+        public String toString() {
+            if (maxConcurrent != null && maxConcurrent == 0) return "paused";
+            if (maxConcurrent == null && opsPerSecond == null && bytesPerSecond == null) return "unlimited";
+            StringBuilder limits = new StringBuilder();
+            if (maxConcurrent != null) limits.append(maxConcurrent).append(" at once");
+            if (opsPerSecond != null)
+                limits.append(limits.length() > 0 ? ", " : "").append(String.format("%.1f/s", opsPerSecond));
+            if (bytesPerSecond != null)
+                limits.append(limits.length() > 0 ? ", " : "").append(bytesPerSecond).append(" bytes/s");
+            return limits.toString();
+        }
+    }
+}
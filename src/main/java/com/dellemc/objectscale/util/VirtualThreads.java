@@ -0,0 +1,89 @@
+package com.dellemc.objectscale.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads (Java 21+) while still compiling and running on Java 8. The virtual thread API is looked up
+ * reflectively once; on older JVMs {@link #isAvailable()} returns false.
+ * <p>
+ * A virtual thread parks instead of blocking its carrier (platform) thread while it waits for I/O, so thousands of
+ * blocking S3 requests can be in flight without a platform thread (and stack) for each one.
+ */
+public final class VirtualThreads {
+    private static final Logger log = LogManager.getLogger(VirtualThreads.class);
+
+    private static final Method OF_VIRTUAL; // Thread.ofVirtual()
+    private static final Method UNSTARTED; // Thread.Builder.unstarted(Runnable)
+    private static final Method IS_VIRTUAL; // Thread.isVirtual()
+
+    static {
+        Method ofVirtual = null, unstarted = null, isVirtual = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            isVirtual = Thread.class.getMethod("isVirtual");
+            // make sure virtual threads are not disabled (i.e. a preview API on this JVM)
+            unstarted.invoke(ofVirtual.invoke(null), (Runnable) () -> {
+            });
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            log.debug("virtual threads are not available in this JVM", e);
+            ofVirtual = unstarted = isVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+        IS_VIRTUAL = isVirtual;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates an unstarted virtual thread
+     *
+     * @throws UnsupportedOperationException if this JVM does not support virtual threads
+     */
+    public static Thread newThread(Runnable task) {
+        if (!isAvailable()) throw new UnsupportedOperationException("virtual threads require Java 21 or later");
+        try {
+            return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Creates an unstarted thread: a virtual thread if <code>virtual</code> is true, otherwise a daemon platform thread
+     */
+    public static Thread newThread(Runnable task, String name, boolean virtual) {
+        Thread thread = virtual ? newThread(task) : new Thread(task);
+        thread.setName(name);
+        // virtual threads are always daemon threads
+        if (!virtual) thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @return true if the thread is a virtual thread
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) return false;
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
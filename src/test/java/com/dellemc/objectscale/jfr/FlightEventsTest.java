@@ -0,0 +1,159 @@
+package com.dellemc.objectscale.jfr;
+
+import com.dellemc.objectscale.s3.LocalS3Server;
+import com.dellemc.objectscale.util.LanedExecutor;
+import com.dellemc.objectscale.util.Throttle;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class FlightEventsTest {
+    @BeforeEach
+    public void checkAvailable() {
+        Assumptions.assumeTrue(FlightEvents.isAvailable(), "JFR is not available");
+    }
+
+    @Test
+    public void testS3Events() throws Exception {
+        Path jfrFile = Files.createTempFile("rereplication-test", ".jfr");
+        jfrFile.toFile().deleteOnExit();
+        String bucket = "jfr-test";
+        try (LocalS3Server server = new LocalS3Server().start();
+             S3Client s3Client = S3Client.builder()
+                     .endpointOverride(server.getEndpoint())
+                     .credentialsProvider(StaticCredentialsProvider.create(
+                             AwsBasicCredentials.create(LocalS3Server.ACCESS_KEY, LocalS3Server.SECRET_KEY)))
+                     .region(Region.US_EAST_1)
+                     .overrideConfiguration(override -> override.addExecutionInterceptor(FlightEvents.s3Interceptor()))
+                     .build()) {
+            s3Client.createBucket(builder -> builder.bucket(bucket));
+            s3Client.putBucketVersioning(builder -> builder.bucket(bucket)
+                    .versioningConfiguration(config -> config.status(BucketVersioningStatus.ENABLED)));
+            String versionId = s3Client.putObject(builder -> builder.bucket(bucket).key("key-1"),
+                    RequestBody.fromString("hello")).versionId();
+
+            AutoCloseable recording = FlightEvents.startRecording(jfrFile, 16 * 1024 * 1024);
+            s3Client.headObject(builder -> builder.bucket(bucket).key("key-1").versionId(versionId));
+            Assertions.assertThrows(S3Exception.class, () -> s3Client.headObject(builder -> builder.bucket(bucket).key("key-2")));
+            s3Client.listObjectVersions(builder -> builder.bucket(bucket));
+            recording.close();
+        }
+
+        List<RecordedEvent> requests = events(jfrFile, "com.dellemc.objectscale.S3Request");
+        Assertions.assertEquals(2, requests.size());
+        RecordedEvent head = requests.get(0);
+        Assertions.assertEquals("HeadObject", head.getString("operation"));
+        Assertions.assertEquals(bucket, head.getString("bucket"));
+        Assertions.assertEquals("key-1", head.getString("key"));
+        Assertions.assertNotNull(head.getString("versionId"));
+        Assertions.assertEquals(200, head.getInt("statusCode"));
+        Assertions.assertEquals(5, head.getLong("bytes"));
+        Assertions.assertEquals(1, head.getInt("attempts"));
+        Assertions.assertEquals(404, requests.get(1).getInt("statusCode"));
+
+        List<RecordedEvent> pages = events(jfrFile, "com.dellemc.objectscale.ListPage");
+        Assertions.assertEquals(1, pages.size());
+        Assertions.assertEquals(1, pages.get(0).getInt("count"));
+        Assertions.assertFalse(pages.get(0).getBoolean("truncated"));
+    }
+
+    @Test
+    public void testStallEvents() throws Exception {
+        Path jfrFile = Files.createTempFile("rereplication-test", ".jfr");
+        jfrFile.toFile().deleteOnExit();
+        AutoCloseable recording = FlightEvents.startRecording(jfrFile, 16 * 1024 * 1024);
+
+        // one thread and a queue of one; the third task waits for the first to finish
+        LanedExecutor executor = new LanedExecutor("jfr-test", new LanedExecutor.Lane("lane", 1, 1, 1));
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        executor.blockingSubmit(0, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // otherwise the second task could find the queue full too
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.blockingSubmit(0, () -> {
+        });
+        // release the first task once the third has been waiting a while
+        Thread submitter = Thread.currentThread();
+        new Thread(() -> {
+            try {
+                while (submitter.getState() != Thread.State.WAITING) Thread.sleep(1);
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            release.countDown();
+        }).start();
+        executor.blockingSubmit(0, () -> {
+        });
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // too short to pass the threshold
+        FlightEvents.commitStageStall(FlightEvents.beginStageStall(), "pipeline", "fast", 1);
+        FlightEvents.executorAction("pool", "resize", 4, 8);
+        recording.close();
+
+        List<RecordedEvent> queueFull = events(jfrFile, "com.dellemc.objectscale.QueueFull");
+        Assertions.assertEquals(1, queueFull.size());
+        Assertions.assertEquals("jfr-test-lane", queueFull.get(0).getString("executor"));
+        Assertions.assertTrue(queueFull.get(0).getDuration().toMillis() >= 10);
+        Assertions.assertTrue(events(jfrFile, "com.dellemc.objectscale.StageStall").isEmpty());
+        List<RecordedEvent> actions = events(jfrFile, "com.dellemc.objectscale.ExecutorAction");
+        Assertions.assertEquals(1, actions.size());
+        Assertions.assertEquals("resize", actions.get(0).getString("action"));
+        Assertions.assertEquals(8, actions.get(0).getInt("newPoolSize"));
+    }
+
+    @Test
+    public void testThrottleEvents() throws Exception {
+        Path jfrFile = Files.createTempFile("rereplication-test", ".jfr");
+        jfrFile.toFile().deleteOnExit();
+        AutoCloseable recording = FlightEvents.startRecording(jfrFile, 16 * 1024 * 1024);
+
+        Throttle throttle = new Throttle("jfr-throttle", new Throttle.Limits(8, null, null));
+        throttle.setLimits(Throttle.Limits.PAUSED);
+        throttle.setLimits(new Throttle.Limits(4, null, null));
+        throttle.setLimits(Throttle.Limits.UNLIMITED);
+        // only the rate changes, so nothing is recorded
+        throttle.setLimits(new Throttle.Limits(null, 10.0, null));
+        recording.close();
+
+        List<RecordedEvent> actions = events(jfrFile, "com.dellemc.objectscale.ExecutorAction");
+        Assertions.assertEquals(3, actions.size());
+        Assertions.assertEquals("jfr-throttle", actions.get(0).getString("executor"));
+        Assertions.assertEquals("pause", actions.get(0).getString("action"));
+        Assertions.assertEquals(8, actions.get(0).getInt("oldPoolSize"));
+        Assertions.assertEquals("resume", actions.get(1).getString("action"));
+        Assertions.assertEquals(4, actions.get(1).getInt("newPoolSize"));
+        Assertions.assertEquals("resize", actions.get(2).getString("action"));
+        Assertions.assertEquals(-1, actions.get(2).getInt("newPoolSize"));
+    }
+
+    private static List<RecordedEvent> events(Path jfrFile, String name) throws Exception {
+        return RecordingFile.readAllEvents(jfrFile).stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,285 @@
+package com.dellemc.objectscale.pipeline;
+
+import com.dellemc.objectscale.util.LanedExecutor;
+import com.dellemc.objectscale.util.MemoryBudget;
+import com.dellemc.objectscale.util.Throttle;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class PipelineTest {
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testOrderedStage() {
+        Random random = new Random();
+        List<Integer> output = new ArrayList<>();
+        Pipeline pipeline = Pipeline.from("test", IntStream.range(0, 500).boxed())
+                .filter("even", i -> i % 2 == 0)
+                .map("remote", i -> {
+                    // finish out of order
+                    sleep(random.nextInt(3));
+                    return i * 10;
+                }, StageOptions.<Integer>builder().concurrency(16).queueSize(10).ordered(true).build())
+                .sink("collect", output::add);
+        pipeline.run();
+
+        Assertions.assertEquals(IntStream.range(0, 250).map(i -> i * 20).boxed().collect(Collectors.toList()), output);
+
+        List<StageStats> stats = pipeline.getStageStats();
+        Assertions.assertEquals(Arrays.asList("test", "even", "remote", "collect"),
+                stats.stream().map(StageStats::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(500, stats.get(1).getReceived());
+        Assertions.assertEquals(250, stats.get(1).getEmitted());
+        Assertions.assertEquals(250, stats.get(3).getEmitted());
+        Assertions.assertEquals(16, stats.get(2).getThreads());
+        Assertions.assertTrue(stats.get(2).getBusyNanos() > 0);
+        Assertions.assertTrue(pipeline.getSummary().contains("remote: 250 in, 250 out, 0 errors, 16 threads"));
+    }
+
+    @Test
+    public void testBatchedSink() {
+        List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        Pipeline.from("test", IntStream.range(0, 25).boxed())
+                .sinkBatches("collect", batches::add, StageOptions.<Integer>builder().batchSize(10).build())
+                .run();
+
+        Assertions.assertEquals(Arrays.asList(10, 10, 5), batches.stream().map(List::size).collect(Collectors.toList()));
+        Assertions.assertEquals(IntStream.range(0, 25).boxed().collect(Collectors.toList()),
+                batches.stream().flatMap(List::stream).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testErrorHandler() {
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> output = Collections.synchronizedList(new ArrayList<>());
+        Pipeline pipeline = Pipeline.from("test", IntStream.range(0, 10).boxed())
+                .map("remote", i -> {
+                    if (i % 3 == 0) throw new IllegalStateException("failed " + i);
+                    return i;
+                }, StageOptions.<Integer>builder().concurrency(4).errorHandler((i, e) -> failed.add(i)).build())
+                .sink("collect", output::add);
+        pipeline.run();
+
+        Collections.sort(failed);
+        Assertions.assertEquals(Arrays.asList(0, 3, 6, 9), failed);
+        Assertions.assertEquals(6, output.size());
+        Assertions.assertEquals(4, pipeline.getStageStats().get(1).getErrors());
+    }
+
+    @Test
+    public void testFailureCancels() {
+        AtomicInteger read = new AtomicInteger();
+        Pipeline pipeline = Pipeline.from("test", Stream.iterate(0, i -> i + 1).peek(i -> read.incrementAndGet()))
+                .map("remote", i -> {
+                    if (i == 100) throw new IllegalStateException("boom");
+                    return i;
+                }, StageOptions.<Integer>builder().concurrency(2).queueSize(5).build())
+                .sink("discard", i -> {
+                });
+
+        RuntimeException e = Assertions.assertThrows(RuntimeException.class, pipeline::run);
+        Assertions.assertEquals("boom", e.getCause().getMessage());
+        Assertions.assertTrue(pipeline.isCancelled());
+        // the (infinite) source should have stopped soon after the failure
+        Assertions.assertTrue(read.get() < 1000);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Pipeline pipeline = Pipeline.from("test", Stream.iterate(0, i -> i + 1))
+                .sink("slow", i -> {
+                    started.countDown();
+                    sleep(10);
+                });
+        Thread canceller = new Thread(() -> {
+            try {
+                started.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            pipeline.cancel();
+        });
+        canceller.start();
+        Assertions.assertThrows(CancellationException.class, pipeline::run);
+        canceller.join();
+    }
+
+    @Test
+    public void testLanes() {
+        AtomicInteger slowRunning = new AtomicInteger(), maxSlowRunning = new AtomicInteger();
+        List<Integer> output = Collections.synchronizedList(new ArrayList<>());
+        Pipeline.from("test", IntStream.range(0, 40).boxed())
+                .map("remote", i -> {
+                    if (i % 4 == 0) {
+                        maxSlowRunning.accumulateAndGet(slowRunning.incrementAndGet(), Math::max);
+                        sleep(5);
+                        slowRunning.decrementAndGet();
+                    }
+                    return i;
+                }, StageOptions.<Integer>builder()
+                        .lanes(Arrays.asList(new LanedExecutor.Lane("fast", 3, 3, 10), new LanedExecutor.Lane("slow", 1, 1, 10)))
+                        .laneSelector(i -> i % 4 == 0 ? 1 : 0)
+                        .build())
+                .sink("collect", output::add)
+                .run();
+
+        Assertions.assertEquals(40, output.size());
+        Assertions.assertEquals(1, maxSlowRunning.get());
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        // each item weighs 100 bytes, so only 10 fit, no matter how deep the queues are
+        MemoryBudget budget = new MemoryBudget(1000);
+        AtomicInteger inFlight = new AtomicInteger(), maxInFlight = new AtomicInteger();
+        List<Integer> output = Collections.synchronizedList(new ArrayList<>());
+        Pipeline pipeline = Pipeline.from("test", IntStream.range(0, 200).boxed().peek(i -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                }))
+                .memoryBudget(budget, i -> 100)
+                .filter("odd", i -> {
+                    if (i % 2 == 0) {
+                        inFlight.decrementAndGet();
+                        return false;
+                    }
+                    return true;
+                }, StageOptions.<Integer>builder().queueSize(10000).build())
+                .map("slow", i -> {
+                    sleep(1);
+                    return i;
+                }, StageOptions.<Integer>builder().concurrency(4).queueSize(10000).build())
+                .sink("collect", i -> {
+                    output.add(i);
+                    inFlight.decrementAndGet();
+                });
+        pipeline.run();
+
+        Assertions.assertEquals(100, output.size());
+        // an item is counted here just before it is weighed, so one more may be in flight while the source waits
+        Assertions.assertTrue(maxInFlight.get() <= 11, "max in flight: " + maxInFlight.get());
+        Assertions.assertEquals(1000, budget.getPeakUsed());
+        Assertions.assertEquals(0, budget.getUsed());
+        Assertions.assertTrue(budget.getWaitCount() > 0);
+        Assertions.assertTrue(pipeline.getSummary().contains("memory budget: peak 1000B of 1000B"));
+    }
+
+    @Test
+    public void testWatchdogRetriesLateItem() {
+        AtomicInteger attempts = new AtomicInteger();
+        List<Integer> output = Collections.synchronizedList(new ArrayList<>());
+        Pipeline pipeline = Pipeline.from("test", IntStream.range(0, 10).boxed())
+                .watchdog(WatchdogOptions.builder()
+                        .stallTimeout(Duration.ofSeconds(10))
+                        .taskDeadline(Duration.ofMillis(200))
+                        .build())
+                .map("remote", i -> {
+                    // the first attempt at 5 hangs until it is interrupted
+                    if (i == 5 && attempts.incrementAndGet() == 1) {
+                        try {
+                            Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return i;
+                }, StageOptions.<Integer>builder().concurrency(4).ordered(true).cancellable(true).build())
+                .sink("collect", output::add);
+        pipeline.run();
+
+        Assertions.assertEquals(2, attempts.get());
+        Assertions.assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), output);
+        Assertions.assertTrue(pipeline.getSummary().contains("watchdog: 0 stalls, 1 items cancelled"));
+    }
+
+    @Test
+    public void testWatchdogAbortsStalledPipeline() {
+        CountDownLatch release = new CountDownLatch(1);
+        Pipeline pipeline = Pipeline.from("test", IntStream.range(0, 10).boxed())
+                .watchdog(WatchdogOptions.builder()
+                        .stallTimeout(Duration.ofMillis(100))
+                        .maxStalls(2)
+                        .build())
+                .map("remote", i -> {
+                    if (i == 3) {
+                        // ignores interrupts, like a blocked socket read
+                        while (release.getCount() > 0) {
+                            try {
+                                release.await();
+                            } catch (InterruptedException ignored) {
+                            }
+                        }
+                    }
+                    return i;
+                }, StageOptions.<Integer>builder().ordered(true).build())
+                .sink("collect", i -> {
+                });
+
+        long start = System.nanoTime();
+        RuntimeException e = Assertions.assertThrows(RuntimeException.class, pipeline::run);
+        Assertions.assertNotNull(e.getCause());
+        Assertions.assertTrue(e.getCause().getMessage().contains("made no progress"), e.getCause().getMessage());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10), "took " + (System.nanoTime() - start));
+        Assertions.assertTrue(pipeline.getSummary().contains("watchdog: 2 stalls"), pipeline.getSummary());
+        release.countDown();
+    }
+
+    @Test
+    public void testThrottlePauseAndStopEarly() throws Exception {
+        Throttle throttle = new Throttle(Throttle.Limits.PAUSED);
+        List<Integer> collected = Collections.synchronizedList(new ArrayList<>());
+        Pipeline pipeline = Pipeline.from("test", IntStream.range(0, 1000).boxed())
+                // a paused throttle is not a stall
+                .watchdog(WatchdogOptions.builder()
+                        .stallTimeout(Duration.ofMillis(100))
+                        .maxStalls(1)
+                        .build())
+                .map("remote", i -> i, StageOptions.<Integer>builder()
+                        .concurrency(4)
+                        .queueSize(100)
+                        .throttle(throttle)
+                        .build())
+                .sink("collect", collected::add);
+        CompletableFuture<Void> run = CompletableFuture.runAsync(pipeline::run);
+
+        Thread.sleep(500);
+        Assertions.assertFalse(run.isDone());
+        Assertions.assertTrue(collected.isEmpty());
+
+        throttle.setLimits(new Throttle.Limits(2, 50.0, null));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (collected.size() < 5 && System.nanoTime() < deadline) Thread.sleep(10);
+        Assertions.assertTrue(collected.size() >= 5);
+
+        // pause again; stopping early must not wait for the throttle
+        throttle.setLimits(Throttle.Limits.PAUSED);
+        pipeline.stopEarly();
+        run.get(10, TimeUnit.SECONDS);
+
+        StageStats remote = pipeline.getStageStats().get(1);
+        Assertions.assertTrue(collected.size() < 1000);
+        Assertions.assertEquals(collected.size(), remote.getEmitted());
+        Assertions.assertEquals(remote.getReceived(), remote.getEmitted() + remote.getSkipped());
+        Assertions.assertTrue(throttle.getPausedNanos() > 0);
+    }
+}
@@ -0,0 +1,28 @@
+package com.dellemc.objectscale.s3;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Latency, errors and throttling injected by {@link LocalS3Server}
+ */
+@Builder
+@Getter
+@ToString
+public class Faults {
+    @Builder.Default
+    private final LatencyModel latency = LatencyModel.none();
+    /**
+     * The fraction of requests that fail with a 500 (InternalError)
+     */
+    private final double errorRate;
+    /**
+     * Requests beyond this rate fail with a 503 (SlowDown); 0 means unlimited
+     */
+    private final int maxRequestsPerSecond;
+
+    public static Faults none() {
+        return builder().build();
+    }
+}
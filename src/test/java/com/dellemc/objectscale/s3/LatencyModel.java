@@ -0,0 +1,38 @@
+package com.dellemc.objectscale.s3;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * The latency injected into each request handled by {@link LocalS3Server}
+ */
+@FunctionalInterface
+public interface LatencyModel {
+    /**
+     * @return the delay for the next request, in microseconds
+     */
+    long nextMicros(Random random);
+
+    static LatencyModel none() {
+        return random -> 0;
+    }
+
+    static LatencyModel fixed(Duration latency) {
+        long micros = latency.toNanos() / 1000;
+        return random -> micros;
+    }
+
+    static LatencyModel uniform(Duration min, Duration max) {
+        long minMicros = min.toNanos() / 1000, range = max.toNanos() / 1000 - minMicros;
+        return random -> minMicros + (long) (random.nextDouble() * range);
+    }
+
+    /**
+     * Most requests take <code>typical</code>, but a fraction land on a slow node and take <code>slow</code> (i.e. a
+     * 2ms typical latency with 1% of requests taking 2s)
+     */
+    static LatencyModel slowTail(Duration typical, double slowFraction, Duration slow) {
+        long typicalMicros = typical.toNanos() / 1000, slowMicros = slow.toNanos() / 1000;
+        return random -> random.nextDouble() < slowFraction ? slowMicros : typicalMicros;
+    }
+}
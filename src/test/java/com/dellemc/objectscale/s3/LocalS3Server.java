@@ -0,0 +1,808 @@
+package com.dellemc.objectscale.s3;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for an S3 (ObjectScale) endpoint, so the tools can be tested and benchmarked without a real
+ * cluster. It implements just what the tools and tests use, over plain HTTP with path-style addressing:
+ * <ul>
+ * <li>CreateBucket, PutBucketVersioning, HeadBucket, DeleteBucket (every bucket is versioned)</li>
+ * <li>ListObjectVersions (with prefix, key/version-id markers and pagination)</li>
+ * <li>PutObject, CopyObject and DeleteObject (with delete markers)</li>
+ * <li>HeadObject, including <code>x-amz-replication-status</code>, and the 405 that ObjectScale returns when a delete
+ * marker is HEADed by version ID</li>
+ * <li>GetObjectAcl and PutObjectAcl</li>
+ * </ul>
+ * Requests are not authenticated, and object data is not kept (only its size and MD5). New versions get the
+ * replication status set by {@link #setNewVersionStatus(ReplicationStatus)}; existing versions can be added directly
+ * (see {@link SyntheticBucket}).
+ * <p>
+ * Latency, errors and throttling can be injected with {@link #setFaults(Faults)}, and every request's service time
+ * (including injected latency) is recorded by operation (see {@link #getLatencies(String)}).
+ */
+public class LocalS3Server implements AutoCloseable {
+    private static final Logger log = LogManager.getLogger(LocalS3Server.class);
+
+    public static final String ACCESS_KEY = "local", SECRET_KEY = "local";
+    public static final String DEFAULT_OWNER = "local-owner";
+    static final String XMLNS = "http://s3.amazonaws.com/doc/2006-03-01/";
+    static final int MAX_KEYS = 1000;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong versionSequence = new AtomicLong();
+    private final AtomicLong requestSequence = new AtomicLong();
+    private final Map<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+    private final ThreadLocal<Timing> currentTiming = new ThreadLocal<>();
+    private volatile Faults faults = Faults.none();
+    private volatile ReplicationStatus newVersionStatus = ReplicationStatus.COMPLETE;
+    private volatile boolean objectScaleStatusNames;
+    private final Object throttleLock = new Object();
+    private long throttleSecond;
+    private int throttleCount;
+
+    static {
+        // otherwise Nagle's algorithm and delayed ACKs add ~40ms to many responses (read once, when the server starts)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public LocalS3Server() {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        // a thread per connection, so injected latency doesn't limit concurrency
+        executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "local-s3-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public LocalS3Server start() {
+        server.start();
+        log.info("local S3 server listening at {}", getEndpoint());
+        return this;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public URI getEndpoint() {
+        return URI.create("http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort());
+    }
+
+    public void setFaults(Faults faults) {
+        this.faults = faults;
+    }
+
+    /**
+     * Sets the replication status of new versions and delete markers (default: COMPLETE; null for none)
+     */
+    public void setNewVersionStatus(ReplicationStatus newVersionStatus) {
+        this.newVersionStatus = newVersionStatus;
+    }
+
+    /**
+     * Reports a COMPLETE replication status as COMPLETED, as ObjectScale does (default: false, as S3 does)
+     */
+    public void setObjectScaleStatusNames(boolean objectScaleStatusNames) {
+        this.objectScaleStatusNames = objectScaleStatusNames;
+    }
+
+    public Bucket createBucket(String name) {
+        return buckets.computeIfAbsent(name, Bucket::new);
+    }
+
+    /**
+     * @return the bucket, or null if it does not exist
+     */
+    public Bucket getBucket(String name) {
+        return buckets.get(name);
+    }
+
+    /**
+     * @return the service times of every request for the operation (i.e. "HeadObject") since the last reset
+     */
+    public LatencyRecorder getLatencies(String operation) {
+        return latencies.computeIfAbsent(operation, k -> new LatencyRecorder());
+    }
+
+    public void resetLatencies() {
+        latencies.clear();
+    }
+
+    String nextVersionId() {
+        // zero-padded, so IDs of one key sort in creation order
+        return String.format("%016x", versionSequence.incrementAndGet());
+    }
+
+    void handle(HttpExchange exchange) {
+        Timing timing = new Timing();
+        currentTiming.set(timing);
+        try {
+            Request request = new Request(exchange);
+            timing.operation = request.operation();
+            // the server closes the connection unless the request body is read to the end before responding
+            request.readBody();
+            Faults faults = this.faults;
+            long delayMicros = faults.getLatency().nextMicros(ThreadLocalRandom.current());
+            if (delayMicros > 0) TimeUnit.MICROSECONDS.sleep(delayMicros);
+            if (isThrottled(faults)) {
+                sendError(exchange, 503, "SlowDown", "Please reduce your request rate.");
+            } else if (faults.getErrorRate() > 0 && ThreadLocalRandom.current().nextDouble() < faults.getErrorRate()) {
+                sendError(exchange, 500, "InternalError", "We encountered an internal error. Please try again.");
+            } else {
+                dispatch(request);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("error handling {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            try {
+                sendError(exchange, 500, "InternalError", String.valueOf(e));
+            } catch (IOException ignored) {
+            }
+        } finally {
+            recordLatency();
+            currentTiming.remove();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Records the request's latency once, before the response is sent (the client may send its next request as soon as
+     * it has the response, so recording afterward could miss it)
+     */
+    private void recordLatency() {
+        Timing timing = currentTiming.get();
+        if (timing == null || timing.recorded) return;
+        timing.recorded = true;
+        getLatencies(timing.operation).record(System.nanoTime() - timing.start);
+    }
+
+    /**
+     * The request being handled by the current thread (each request is handled entirely on one thread)
+     */
+    private static class Timing {
+        final long start = System.nanoTime();
+        String operation = "Unknown";
+        boolean recorded = false;
+    }
+
+    private boolean isThrottled(Faults faults) {
+        if (faults.getMaxRequestsPerSecond() <= 0) return false;
+        long second = System.currentTimeMillis() / 1000;
+        synchronized (throttleLock) {
+            if (second != throttleSecond) {
+                throttleSecond = second;
+                throttleCount = 0;
+            }
+            return ++throttleCount > faults.getMaxRequestsPerSecond();
+        }
+    }
+
+    private void dispatch(Request request) throws IOException {
+        HttpExchange exchange = request.exchange;
+        Bucket bucket = buckets.get(request.bucket);
+        switch (request.operation()) {
+            case "CreateBucket":
+                createBucket(request.bucket);
+                send(exchange, 200, null);
+                return;
+            case "ListBuckets":
+                sendError(exchange, 501, "NotImplemented", "ListBuckets is not implemented");
+                return;
+        }
+        if (bucket == null) {
+            sendError(exchange, 404, "NoSuchBucket", "The specified bucket does not exist");
+            return;
+        }
+        switch (request.operation()) {
+            case "PutBucketVersioning":
+                send(exchange, 200, null);
+                break;
+            case "HeadBucket":
+                send(exchange, 200, null);
+                break;
+            case "DeleteBucket":
+                buckets.remove(request.bucket);
+                send(exchange, 204, null);
+                break;
+            case "ListObjectVersions":
+                listObjectVersions(request, bucket);
+                break;
+            case "PutObject":
+                putObject(request, bucket);
+                break;
+            case "CopyObject":
+                copyObject(request, bucket);
+                break;
+            case "HeadObject":
+                headObject(request, bucket);
+                break;
+            case "DeleteObject":
+                deleteObject(request, bucket);
+                break;
+            case "GetObjectAcl":
+                getObjectAcl(request, bucket);
+                break;
+            case "PutObjectAcl":
+                putObjectAcl(request, bucket);
+                break;
+            default:
+                sendError(exchange, 501, "NotImplemented", request.operation() + " is not implemented");
+        }
+    }
+
+    private void listObjectVersions(Request request, Bucket bucket) throws IOException {
+        String prefix = request.query.getOrDefault("prefix", "");
+        String keyMarker = request.query.get("key-marker");
+        String versionIdMarker = request.query.get("version-id-marker");
+        int maxKeys = Math.min(MAX_KEYS, Integer.parseInt(request.query.getOrDefault("max-keys", "" + MAX_KEYS)));
+        boolean urlEncode = "url".equals(request.query.get("encoding-type"));
+
+        StringBuilder entries = new StringBuilder();
+        int count = 0;
+        Version last = null;
+        boolean truncated = false;
+        NavigableMap<String, List<Version>> keys = bucket.keys;
+        if (keyMarker != null && keyMarker.compareTo(prefix) >= 0) {
+            // resume within the marker key if we have a version ID, otherwise after it
+            keys = keys.tailMap(keyMarker, versionIdMarker != null && !versionIdMarker.isEmpty());
+        } else if (!prefix.isEmpty()) {
+            keys = keys.tailMap(prefix, true);
+        }
+        listing:
+        for (Map.Entry<String, List<Version>> entry : keys.entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) break;
+            List<Version> versions;
+            synchronized (entry.getValue()) {
+                versions = new ArrayList<>(entry.getValue());
+            }
+            Iterator<Version> iterator = versions.iterator();
+            if (entry.getKey().equals(keyMarker)) {
+                // skip up to and including the marker version
+                while (iterator.hasNext()) {
+                    if (iterator.next().versionId.equals(versionIdMarker)) break;
+                }
+            }
+            for (Version version : (Iterable<Version>) () -> iterator) {
+                if (count == maxKeys) {
+                    truncated = true;
+                    break listing;
+                }
+                appendVersion(entries, version, version == versions.get(0), urlEncode);
+                last = version;
+                count++;
+            }
+        }
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<ListVersionsResult xmlns=\"").append(XMLNS).append("\">");
+        element(xml, "Name", bucket.name);
+        element(xml, "Prefix", encodeKey(prefix, urlEncode));
+        element(xml, "KeyMarker", encodeKey(keyMarker == null ? "" : keyMarker, urlEncode));
+        element(xml, "VersionIdMarker", versionIdMarker == null ? "" : versionIdMarker);
+        element(xml, "MaxKeys", "" + maxKeys);
+        if (urlEncode) element(xml, "EncodingType", "url");
+        element(xml, "IsTruncated", "" + truncated);
+        if (truncated) {
+            element(xml, "NextKeyMarker", encodeKey(last.key, urlEncode));
+            element(xml, "NextVersionIdMarker", last.versionId);
+        }
+        xml.append(entries).append("</ListVersionsResult>");
+        send(request.exchange, 200, xml.toString());
+    }
+
+    private void appendVersion(StringBuilder xml, Version version, boolean latest, boolean urlEncode) {
+        String type = version.deleteMarker ? "DeleteMarker" : "Version";
+        xml.append('<').append(type).append('>');
+        element(xml, "Key", encodeKey(version.key, urlEncode));
+        element(xml, "VersionId", version.versionId);
+        element(xml, "IsLatest", "" + latest);
+        element(xml, "LastModified", DateTimeFormatter.ISO_INSTANT.format(version.lastModified.truncatedTo(ChronoUnit.MILLIS)));
+        if (!version.deleteMarker) {
+            element(xml, "ETag", "\"" + version.eTag + "\"");
+            element(xml, "Size", "" + version.size);
+            element(xml, "StorageClass", "STANDARD");
+        }
+        xml.append("<Owner>");
+        element(xml, "ID", version.owner);
+        element(xml, "DisplayName", version.owner);
+        xml.append("</Owner>");
+        xml.append("</").append(type).append('>');
+    }
+
+    private void putObject(Request request, Bucket bucket) throws IOException {
+        byte[] data = request.readBody();
+        Version version = bucket.add(new Version(request.key, nextVersionId(), false, Instant.now(),
+                md5Hex(data), data.length, DEFAULT_OWNER, newVersionStatus));
+        request.exchange.getResponseHeaders().set("ETag", "\"" + version.eTag + "\"");
+        request.exchange.getResponseHeaders().set("x-amz-version-id", version.versionId);
+        send(request.exchange, 200, null);
+    }
+
+    private void copyObject(Request request, Bucket bucket) throws IOException {
+        request.readBody();
+        // bucket/key[?versionId=id]
+        String copySource = request.exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+        String sourceVersionId = null;
+        int query = copySource.indexOf("?versionId=");
+        if (query >= 0) {
+            sourceVersionId = copySource.substring(query + "?versionId=".length());
+            copySource = copySource.substring(0, query);
+        }
+        copySource = decode(copySource.startsWith("/") ? copySource.substring(1) : copySource);
+        int slash = copySource.indexOf('/');
+        Bucket sourceBucket = buckets.get(copySource.substring(0, slash));
+        Version source = sourceBucket == null ? null : sourceBucket.find(copySource.substring(slash + 1), sourceVersionId);
+        if (source == null || source.deleteMarker) {
+            sendError(request.exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        Version version = bucket.add(new Version(request.key, nextVersionId(), false, Instant.now(),
+                source.eTag, source.size, source.owner, newVersionStatus));
+        request.exchange.getResponseHeaders().set("x-amz-version-id", version.versionId);
+        if (sourceVersionId != null) request.exchange.getResponseHeaders().set("x-amz-copy-source-version-id", sourceVersionId);
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<CopyObjectResult xmlns=\"").append(XMLNS).append("\">");
+        element(xml, "LastModified", DateTimeFormatter.ISO_INSTANT.format(version.lastModified.truncatedTo(ChronoUnit.MILLIS)));
+        element(xml, "ETag", "\"" + version.eTag + "\"");
+        xml.append("</CopyObjectResult>");
+        send(request.exchange, 200, xml.toString());
+    }
+
+    private void headObject(Request request, Bucket bucket) throws IOException {
+        String versionId = request.query.get("versionId");
+        Version version = bucket.find(request.key, versionId);
+        Headers headers = request.exchange.getResponseHeaders();
+        if (version == null) {
+            send(request.exchange, 404, null);
+            return;
+        }
+        headers.set("x-amz-version-id", version.versionId);
+        if (version.replicationStatus != null) {
+            String status = version.replicationStatus.toString();
+            if (objectScaleStatusNames && version.replicationStatus == ReplicationStatus.COMPLETE) status = "COMPLETED";
+            headers.set("x-amz-replication-status", status);
+        }
+        if (version.deleteMarker) {
+            headers.set("x-amz-delete-marker", "true");
+            // ObjectScale returns 405 (method not allowed) for a delete marker HEADed by version, and 404 otherwise
+            send(request.exchange, versionId != null ? 405 : 404, null);
+            return;
+        }
+        headers.set("ETag", "\"" + version.eTag + "\"");
+        headers.set("Last-Modified", HTTP_DATE.format(version.lastModified));
+        headers.set("Content-Length", "" + version.size);
+        send(request.exchange, 200, null);
+    }
+
+    private void deleteObject(Request request, Bucket bucket) throws IOException {
+        String versionId = request.query.get("versionId");
+        Headers headers = request.exchange.getResponseHeaders();
+        if (versionId != null) {
+            Version removed = bucket.remove(request.key, versionId);
+            if (removed != null && removed.deleteMarker) headers.set("x-amz-delete-marker", "true");
+            headers.set("x-amz-version-id", versionId);
+        } else {
+            Version marker = bucket.add(new Version(request.key, nextVersionId(), true, Instant.now(),
+                    null, 0, DEFAULT_OWNER, newVersionStatus));
+            headers.set("x-amz-delete-marker", "true");
+            headers.set("x-amz-version-id", marker.versionId);
+        }
+        send(request.exchange, 204, null);
+    }
+
+    private void getObjectAcl(Request request, Bucket bucket) throws IOException {
+        Version version = bucket.find(request.key, request.query.get("versionId"));
+        if (version == null || version.deleteMarker) {
+            sendError(request.exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        String acl = version.acl;
+        if (acl == null) {
+            StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            xml.append("<AccessControlPolicy xmlns=\"").append(XMLNS).append("\"><Owner>");
+            element(xml, "ID", version.owner);
+            element(xml, "DisplayName", version.owner);
+            xml.append("</Owner><AccessControlList><Grant>")
+                    .append("<Grantee xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"CanonicalUser\">");
+            element(xml, "ID", version.owner);
+            element(xml, "DisplayName", version.owner);
+            xml.append("</Grantee><Permission>FULL_CONTROL</Permission></Grant></AccessControlList></AccessControlPolicy>");
+            acl = xml.toString();
+        }
+        send(request.exchange, 200, acl);
+    }
+
+    private void putObjectAcl(Request request, Bucket bucket) throws IOException {
+        byte[] body = request.readBody();
+        Version version = bucket.find(request.key, request.query.get("versionId"));
+        if (version == null || version.deleteMarker) {
+            sendError(request.exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        // the request body is an AccessControlPolicy document, which is also the GetObjectAcl response
+        version.acl = new String(body, StandardCharsets.UTF_8);
+        send(request.exchange, 200, null);
+    }
+
+    private void send(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getResponseHeaders().set("x-amz-request-id", Long.toHexString(requestSequence.incrementAndGet()));
+        recordLatency();
+        if (body == null || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error>");
+        element(xml, "Code", code);
+        element(xml, "Message", message);
+        xml.append("</Error>");
+        send(exchange, status, xml.toString());
+    }
+
+    private static void element(StringBuilder xml, String name, String value) {
+        xml.append('<').append(name).append('>');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                case '"':
+                    xml.append("&quot;");
+                    break;
+                default:
+                    xml.append(c);
+            }
+        }
+        xml.append("</").append(name).append('>');
+    }
+
+    private static String encodeKey(String key, boolean urlEncode) {
+        if (!urlEncode) return key;
+        try {
+            return URLEncoder.encode(key, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // percent-decoding only (a '+' in a path is literal)
+    static String decode(String value) {
+        try {
+            return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String md5Hex(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(data)) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A parsed path-style request
+     */
+    static class Request {
+        final HttpExchange exchange;
+        final String method;
+        final String bucket;
+        final String key;
+        final Map<String, String> query = new LinkedHashMap<>();
+        private byte[] body;
+
+        Request(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getRawPath();
+            if (path.startsWith("/")) path = path.substring(1);
+            int slash = path.indexOf('/');
+            this.bucket = decode(slash < 0 ? path : path.substring(0, slash));
+            this.key = slash < 0 || slash == path.length() - 1 ? null : decode(path.substring(slash + 1));
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery != null) {
+                for (String parameter : rawQuery.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    if (equals < 0) query.put(decode(parameter), null);
+                    else query.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+                }
+            }
+        }
+
+        String operation() {
+            if (bucket.isEmpty()) return "ListBuckets";
+            if (key == null) {
+                switch (method) {
+                    case "PUT":
+                        return query.containsKey("versioning") ? "PutBucketVersioning" : "CreateBucket";
+                    case "HEAD":
+                        return "HeadBucket";
+                    case "DELETE":
+                        return "DeleteBucket";
+                    case "GET":
+                        return query.containsKey("versions") ? "ListObjectVersions" : "ListObjects";
+                }
+            } else {
+                switch (method) {
+                    case "PUT":
+                        if (query.containsKey("acl")) return "PutObjectAcl";
+                        return exchange.getRequestHeaders().containsKey("x-amz-copy-source") ? "CopyObject" : "PutObject";
+                    case "HEAD":
+                        return "HeadObject";
+                    case "DELETE":
+                        return "DeleteObject";
+                    case "GET":
+                        return query.containsKey("acl") ? "GetObjectAcl" : "GetObject";
+                }
+            }
+            return method + "Unknown";
+        }
+
+        /**
+         * Reads the request body, decoding the aws-chunked encoding the SDK uses to sign payloads over plain HTTP
+         */
+        byte[] readBody() throws IOException {
+            if (body == null) body = decodeBody();
+            return body;
+        }
+
+        private byte[] decodeBody() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] chunk = new byte[8192];
+                for (int read; (read = in.read(chunk)) > 0; ) buffer.write(chunk, 0, read);
+            }
+            byte[] body = buffer.toByteArray();
+            String contentSha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+            if (contentSha256 == null || !contentSha256.startsWith("STREAMING-")) return body;
+
+            // each chunk is <hex-size>;chunk-signature=<signature>\r\n<data>\r\n, ending with a chunk of size 0
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int position = 0;
+            while (position < body.length) {
+                int lineEnd = position;
+                while (lineEnd < body.length - 1 && !(body[lineEnd] == '\r' && body[lineEnd + 1] == '\n')) lineEnd++;
+                String header = new String(body, position, lineEnd - position, StandardCharsets.US_ASCII);
+                int size = Integer.parseInt(header.split(";")[0].trim(), 16);
+                if (size == 0) break;
+                data.write(body, lineEnd + 2, size);
+                position = lineEnd + 2 + size + 2;
+            }
+            return data.toByteArray();
+        }
+    }
+
+    /**
+     * A versioned bucket. Each key's versions are kept newest first
+     */
+    public static class Bucket {
+        final String name;
+        final ConcurrentSkipListMap<String, List<Version>> keys = new ConcurrentSkipListMap<>();
+        private final AtomicLong versionCount = new AtomicLong();
+
+        Bucket(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Adds a version, which becomes the latest version of its key
+         */
+        public Version add(Version version) {
+            List<Version> versions = keys.computeIfAbsent(version.key, k -> new ArrayList<>(1));
+            synchronized (versions) {
+                versions.add(0, version);
+            }
+            versionCount.incrementAndGet();
+            return version;
+        }
+
+        /**
+         * @param versionId the version to find, or null for the latest version
+         */
+        public Version find(String key, String versionId) {
+            List<Version> versions = keys.get(key);
+            if (versions == null) return null;
+            synchronized (versions) {
+                if (versionId == null) return versions.isEmpty() ? null : versions.get(0);
+                for (Version version : versions) {
+                    if (version.versionId.equals(versionId)) return version;
+                }
+            }
+            return null;
+        }
+
+        Version remove(String key, String versionId) {
+            List<Version> versions = keys.get(key);
+            if (versions == null) return null;
+            synchronized (versions) {
+                for (Iterator<Version> iterator = versions.iterator(); iterator.hasNext(); ) {
+                    Version version = iterator.next();
+                    if (version.versionId.equals(versionId)) {
+                        iterator.remove();
+                        versionCount.decrementAndGet();
+                        if (versions.isEmpty()) keys.remove(key, versions);
+                        return version;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return all versions of the key, newest first
+         */
+        public List<Version> getVersions(String key) {
+            List<Version> versions = keys.get(key);
+            if (versions == null) return new ArrayList<>();
+            synchronized (versions) {
+                return new ArrayList<>(versions);
+            }
+        }
+
+        public long getVersionCount() {
+            return versionCount.get();
+        }
+    }
+
+    /**
+     * An object version or delete marker. Only the replication status and ACL may change
+     */
+    public static class Version {
+        final String key;
+        final String versionId;
+        final boolean deleteMarker;
+        final Instant lastModified;
+        final String eTag;
+        final long size;
+        final String owner;
+        volatile ReplicationStatus replicationStatus;
+        volatile String acl;
+
+        public Version(String key, String versionId, boolean deleteMarker, Instant lastModified, String eTag, long size,
+                       String owner, ReplicationStatus replicationStatus) {
+            this.key = key;
+            this.versionId = versionId;
+            this.deleteMarker = deleteMarker;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+            this.size = size;
+            this.owner = owner;
+            this.replicationStatus = replicationStatus;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getVersionId() {
+            return versionId;
+        }
+
+        public boolean isDeleteMarker() {
+            return deleteMarker;
+        }
+
+        public Instant getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public ReplicationStatus getReplicationStatus() {
+            return replicationStatus;
+        }
+
+        public void setReplicationStatus(ReplicationStatus replicationStatus) {
+            this.replicationStatus = replicationStatus;
+        }
+
+        public String getAcl() {
+            return acl;
+        }
+    }
+
+    /**
+     * Records every latency, for exact percentiles over a benchmark run
+     */
+    public static class LatencyRecorder {
+        private long[] nanos = new long[1024];
+        private int count;
+
+        public synchronized void record(long latencyNanos) {
+            if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = latencyNanos;
+        }
+
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the percentile (i.e. 99) of recorded latencies, or 0 if there are none
+         */
+        public synchronized long getPercentileNanos(double percentile) {
+            if (count == 0) return 0;
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (int) Math.ceil(percentile / 100 * count) - 1)];
+        }
+    }
+}
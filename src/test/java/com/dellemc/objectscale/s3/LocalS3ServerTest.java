@@ -0,0 +1,183 @@
+package com.dellemc.objectscale.s3;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AccessControlPolicy;
+import software.amazon.awssdk.services.s3.model.Grant;
+import software.amazon.awssdk.services.s3.model.Grantee;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.Permission;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.Type;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class LocalS3ServerTest {
+    LocalS3Server server;
+    S3Client s3Client;
+    // for injected faults, so they are not hidden by retries
+    S3Client noRetryClient;
+
+    @BeforeAll
+    public void setup() {
+        server = new LocalS3Server().start();
+        s3Client = S3Client.builder()
+                .endpointOverride(server.getEndpoint())
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(LocalS3Server.ACCESS_KEY, LocalS3Server.SECRET_KEY)))
+                .region(Region.US_EAST_1)
+                .build();
+        noRetryClient = S3Client.builder()
+                .endpointOverride(server.getEndpoint())
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(LocalS3Server.ACCESS_KEY, LocalS3Server.SECRET_KEY)))
+                .region(Region.US_EAST_1)
+                .overrideConfiguration(builder -> builder.retryPolicy(RetryPolicy.none()))
+                .build();
+    }
+
+    @AfterAll
+    public void teardown() {
+        if (s3Client != null) s3Client.close();
+        if (noRetryClient != null) noRetryClient.close();
+        if (server != null) server.close();
+    }
+
+    @Test
+    public void testVersionsAndDeleteMarkers() {
+        String bucket = "versions";
+        s3Client.createBucket(builder -> builder.bucket(bucket));
+        String v1 = s3Client.putObject(builder -> builder.bucket(bucket).key("a/b c+d"), RequestBody.fromString("hello")).versionId();
+        String v2 = s3Client.putObject(builder -> builder.bucket(bucket).key("a/b c+d"), RequestBody.empty()).versionId();
+        String marker = s3Client.deleteObject(builder -> builder.bucket(bucket).key("a/b c+d")).versionId();
+
+        ListObjectVersionsResponse listing = s3Client.listObjectVersions(builder -> builder.bucket(bucket));
+        Assertions.assertEquals(2, listing.versions().size());
+        Assertions.assertEquals(1, listing.deleteMarkers().size());
+        Assertions.assertEquals("a/b c+d", listing.deleteMarkers().get(0).key());
+        Assertions.assertEquals(marker, listing.deleteMarkers().get(0).versionId());
+        Assertions.assertTrue(listing.deleteMarkers().get(0).isLatest());
+        Assertions.assertEquals(v2, listing.versions().get(0).versionId());
+        Assertions.assertEquals("\"d41d8cd98f00b204e9800998ecf8427e\"", listing.versions().get(0).eTag());
+        Assertions.assertEquals(v1, listing.versions().get(1).versionId());
+        Assertions.assertEquals(5, listing.versions().get(1).size());
+        Assertions.assertEquals(LocalS3Server.DEFAULT_OWNER, listing.versions().get(1).owner().id());
+
+        // HEAD returns the replication status, and a 405 (with the status) for a delete marker HEADed by version
+        Assertions.assertEquals(ReplicationStatus.COMPLETE,
+                s3Client.headObject(builder -> builder.bucket(bucket).key("a/b c+d").versionId(v1)).replicationStatus());
+        S3Exception e = Assertions.assertThrows(S3Exception.class,
+                () -> s3Client.headObject(builder -> builder.bucket(bucket).key("a/b c+d").versionId(marker)));
+        Assertions.assertEquals(405, e.statusCode());
+        Assertions.assertEquals("COMPLETE", e.awsErrorDetails().sdkHttpResponse().firstMatchingHeader("x-amz-replication-status").orElse(null));
+        e = Assertions.assertThrows(S3Exception.class, () -> s3Client.headObject(builder -> builder.bucket(bucket).key("a/b c+d")));
+        Assertions.assertEquals(404, e.statusCode());
+
+        // copying an old version makes it the latest again
+        String v3 = s3Client.copyObject(builder -> builder.sourceBucket(bucket).sourceKey("a/b c+d").sourceVersionId(v1)
+                .destinationBucket(bucket).destinationKey("a/b c+d")).versionId();
+        Assertions.assertEquals(v3, s3Client.headObject(builder -> builder.bucket(bucket).key("a/b c+d")).versionId());
+        Assertions.assertEquals(5, s3Client.headObject(builder -> builder.bucket(bucket).key("a/b c+d")).contentLength());
+
+        // deleting by version removes it
+        s3Client.deleteObject(builder -> builder.bucket(bucket).key("a/b c+d").versionId(marker));
+        Assertions.assertEquals(3, server.getBucket(bucket).getVersionCount());
+    }
+
+    @Test
+    public void testPagination() {
+        String bucket = "pagination";
+        LocalS3Server.Bucket localBucket = server.createBucket(bucket);
+        Map<ReplicationStatus, Long> counts = SyntheticBucket.builder()
+                .versionCount(2500)
+                .versionsPerKey(3)
+                .prefixCount(7)
+                .deleteMarkerFraction(0.2)
+                .build().populate(server, localBucket);
+        Assertions.assertEquals(2500, counts.values().stream().mapToLong(Long::longValue).sum());
+        Assertions.assertTrue(counts.get(ReplicationStatus.FAILED) > 0);
+
+        List<String> listed = new ArrayList<>();
+        int[] pages = {0};
+        s3Client.listObjectVersionsPaginator(builder -> builder.bucket(bucket).maxKeys(400)).forEach(page -> {
+            pages[0]++;
+            page.versions().forEach(version -> listed.add(version.key() + ":" + version.versionId()));
+            page.deleteMarkers().forEach(marker -> listed.add(marker.key() + ":" + marker.versionId()));
+        });
+        Assertions.assertEquals(7, pages[0]);
+        Assertions.assertEquals(2500, listed.size());
+        Assertions.assertEquals(2500, listed.stream().distinct().count());
+
+        // a prefix and a key marker
+        List<String> prefixed = new ArrayList<>();
+        s3Client.listObjectVersionsPaginator(builder -> builder.bucket(bucket).prefix("prefix-0003/")
+                .keyMarker("prefix-0003/object-0000000100")).forEach(page ->
+                page.versions().forEach(version -> prefixed.add(version.key())));
+        Assertions.assertFalse(prefixed.isEmpty());
+        Assertions.assertTrue(prefixed.stream().allMatch(key -> key.startsWith("prefix-0003/") && key.compareTo("prefix-0003/object-0000000100") > 0));
+    }
+
+    @Test
+    public void testAcls() {
+        String bucket = "acls";
+        s3Client.createBucket(builder -> builder.bucket(bucket));
+        String versionId = s3Client.putObject(builder -> builder.bucket(bucket).key("key"), RequestBody.empty()).versionId();
+        Assertions.assertEquals(LocalS3Server.DEFAULT_OWNER,
+                s3Client.getObjectAcl(builder -> builder.bucket(bucket).key("key").versionId(versionId)).owner().id());
+
+        AccessControlPolicy acl = AccessControlPolicy.builder()
+                .owner(owner -> owner.id("owner-1"))
+                .grants(Grant.builder().grantee(Grantee.builder().type(Type.CANONICAL_USER).id("reader-1").build())
+                        .permission(Permission.READ).build())
+                .build();
+        s3Client.putObjectAcl(builder -> builder.bucket(bucket).key("key").versionId(versionId).accessControlPolicy(acl));
+        List<Grant> grants = s3Client.getObjectAcl(builder -> builder.bucket(bucket).key("key").versionId(versionId)).grants();
+        Assertions.assertEquals(1, grants.size());
+        Assertions.assertEquals("reader-1", grants.get(0).grantee().id());
+        Assertions.assertEquals(Permission.READ, grants.get(0).permission());
+    }
+
+    @Test
+    public void testFaults() {
+        String bucket = "faults";
+        s3Client.createBucket(builder -> builder.bucket(bucket));
+        s3Client.putObject(builder -> builder.bucket(bucket).key("key"), RequestBody.empty());
+        try {
+            server.setFaults(Faults.builder().errorRate(1).build());
+            S3Exception e = Assertions.assertThrows(S3Exception.class, () -> noRetryClient.headObject(builder -> builder.bucket(bucket).key("key")));
+            Assertions.assertEquals(500, e.statusCode());
+
+            server.setFaults(Faults.builder().latency(LatencyModel.fixed(Duration.ofMillis(50))).build());
+            server.resetLatencies();
+            noRetryClient.headObject(builder -> builder.bucket(bucket).key("key"));
+            Assertions.assertEquals(1, server.getLatencies("HeadObject").getCount());
+            Assertions.assertTrue(server.getLatencies("HeadObject").getPercentileNanos(99) >= Duration.ofMillis(50).toNanos());
+
+            server.setFaults(Faults.builder().maxRequestsPerSecond(1).build());
+            int throttled = 0;
+            for (int i = 0; i < 5; i++) {
+                try {
+                    noRetryClient.headObject(builder -> builder.bucket(bucket).key("key"));
+                } catch (S3Exception throttle) {
+                    Assertions.assertEquals(503, throttle.statusCode());
+                    throttled++;
+                }
+            }
+            Assertions.assertTrue(throttled > 0);
+        } finally {
+            server.setFaults(Faults.none());
+        }
+    }
+}
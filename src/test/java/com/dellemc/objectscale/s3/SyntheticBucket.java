@@ -0,0 +1,102 @@
+package com.dellemc.objectscale.s3;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fills a {@link LocalS3Server} bucket with synthetic versions, without going through HTTP, so a bucket with millions
+ * of versions takes seconds to create. Keys are spread over <code>prefixCount</code> prefixes
+ * (<code>prefix-NNNN/object-NNNNNNNNNN</code>), each key has <code>versionsPerKey</code> versions, and the latest
+ * version of a fraction of keys is a delete marker. Each version's replication status is drawn from
+ * <code>statusMix</code>. The same seed always produces the same bucket.
+ */
+@Builder
+@Getter
+@ToString
+public class SyntheticBucket {
+    private final long versionCount;
+    @Builder.Default
+    private final int versionsPerKey = 1;
+    @Builder.Default
+    private final int prefixCount = 100;
+    private final double deleteMarkerFraction;
+    /**
+     * Relative weights of each replication status (default: 90% COMPLETE, 5% PENDING, 5% FAILED)
+     */
+    @Builder.Default
+    private final Map<ReplicationStatus, Double> statusMix = defaultStatusMix();
+    @Builder.Default
+    private final long objectSize = 4096;
+    /**
+     * The fraction of versions that are large objects (of <code>largeObjectSize</code>)
+     */
+    private final double largeObjectFraction;
+    @Builder.Default
+    private final long largeObjectSize = 256L * 1024 * 1024;
+    @Builder.Default
+    private final long seed = 42;
+
+    public static Map<ReplicationStatus, Double> defaultStatusMix() {
+        Map<ReplicationStatus, Double> mix = new LinkedHashMap<>();
+        mix.put(ReplicationStatus.COMPLETE, 0.90);
+        mix.put(ReplicationStatus.PENDING, 0.05);
+        mix.put(ReplicationStatus.FAILED, 0.05);
+        return mix;
+    }
+
+    /**
+     * Adds the versions to the bucket
+     *
+     * @return the number of versions added with each replication status
+     */
+    public Map<ReplicationStatus, Long> populate(LocalS3Server server, LocalS3Server.Bucket bucket) {
+        Random random = new Random(seed);
+        double totalWeight = statusMix.values().stream().mapToDouble(Double::doubleValue).sum();
+        Map<ReplicationStatus, Long> counts = new EnumMap<>(ReplicationStatus.class);
+        String[] prefixes = new String[prefixCount];
+        for (int i = 0; i < prefixCount; i++) prefixes[i] = String.format("prefix-%04d/", i);
+        // spread modification times over the last 30 days, oldest first
+        Instant start = Instant.now().minus(Duration.ofDays(30));
+        long millisPerVersion = Math.max(1, Duration.ofDays(30).toMillis() / Math.max(1, versionCount));
+        String eTag = LocalS3Server.md5Hex(new byte[0]);
+
+        long keyCount = (versionCount + versionsPerKey - 1) / versionsPerKey;
+        long added = 0;
+        for (long k = 0; k < keyCount && added < versionCount; k++) {
+            String key = prefixes[(int) (k % prefixCount)] + String.format("object-%010d", k);
+            int versions = (int) Math.min(versionsPerKey, versionCount - added);
+            boolean deleted = random.nextDouble() < deleteMarkerFraction;
+            for (int v = 0; v < versions; v++) {
+                ReplicationStatus status = pick(random, totalWeight);
+                boolean deleteMarker = deleted && v == versions - 1;
+                long size = deleteMarker ? 0 : random.nextDouble() < largeObjectFraction ? largeObjectSize : objectSize;
+                bucket.add(new LocalS3Server.Version(key, server.nextVersionId(), deleteMarker,
+                        start.plusMillis(added * millisPerVersion), deleteMarker ? null : eTag, size,
+                        LocalS3Server.DEFAULT_OWNER, status));
+                counts.merge(status, 1L, Long::sum);
+                added++;
+            }
+        }
+        return counts;
+    }
+
+    private ReplicationStatus pick(Random random, double totalWeight) {
+        double point = random.nextDouble() * totalWeight;
+        ReplicationStatus last = null;
+        for (Map.Entry<ReplicationStatus, Double> entry : statusMix.entrySet()) {
+            last = entry.getKey();
+            point -= entry.getValue();
+            if (point < 0) break;
+        }
+        return last;
+    }
+}
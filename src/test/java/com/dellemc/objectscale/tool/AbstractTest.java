@@ -1,12 +1,17 @@
 package com.dellemc.objectscale.tool;
 
+import com.dellemc.objectscale.s3.LocalS3Server;
 import com.dellemc.objectscale.util.TestConfig;
 import com.dellemc.objectscale.util.TestProperties;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.TestInstance;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
 import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
@@ -15,6 +20,7 @@ import software.amazon.awssdk.services.s3.model.ObjectVersion;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
@@ -22,24 +28,40 @@ import java.util.stream.IntStream;
 public abstract class AbstractTest {
     String s3Endpoint;
     String awsProfile;
+    String accessKey;
+    String secretKey;
     URI proxyUri;
     S3Client s3Client;
+    LocalS3Server localServer;
 
     abstract String getBucket();
 
     @BeforeAll
     public void setup() throws Exception {
-        s3Endpoint = TestConfig.getPropertyNotEmpty(TestProperties.S3_ENDPOINT);
-        awsProfile = TestConfig.getPropertyNotEmpty(TestProperties.AWS_PROFILE);
-        String proxyUriStr = TestConfig.getProperties().getProperty(TestProperties.PROXY_ENDPOINT);
-        if (proxyUriStr != null) {
-            proxyUri = URI.create(proxyUriStr);
-            System.setProperty("http.proxyHost", proxyUri.getHost());
-            System.setProperty("http.proxyPort", "" + proxyUri.getPort());
+        Properties properties = TestConfig.getProperties(TestConfig.DEFAULT_PROJECT_NAME, false);
+        AwsCredentialsProvider credentialsProvider;
+        if (properties == null) {
+            // without test.properties, run against the in-process S3 stand-in
+            localServer = new LocalS3Server().start();
+            s3Endpoint = localServer.getEndpoint().toString();
+            accessKey = LocalS3Server.ACCESS_KEY;
+            secretKey = LocalS3Server.SECRET_KEY;
+            credentialsProvider = StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        } else {
+            s3Endpoint = TestConfig.getPropertyNotEmpty(properties, TestProperties.S3_ENDPOINT);
+            awsProfile = TestConfig.getPropertyNotEmpty(properties, TestProperties.AWS_PROFILE);
+            String proxyUriStr = properties.getProperty(TestProperties.PROXY_ENDPOINT);
+            if (proxyUriStr != null) {
+                proxyUri = URI.create(proxyUriStr);
+                System.setProperty("http.proxyHost", proxyUri.getHost());
+                System.setProperty("http.proxyPort", "" + proxyUri.getPort());
+            }
+            credentialsProvider = ProfileCredentialsProvider.create(awsProfile);
         }
         s3Client = S3Client.builder()
                 .endpointOverride(URI.create(s3Endpoint))
-                .credentialsProvider(ProfileCredentialsProvider.create(awsProfile))
+                .credentialsProvider(credentialsProvider)
+                .region(Region.US_EAST_1)
                 .build();
         // create bucket
         s3Client.createBucket(builder -> builder.bucket(getBucket()));
@@ -55,6 +77,7 @@ public abstract class AbstractTest {
             s3Client.deleteBucket(builder -> builder.bucket(getBucket()));
             s3Client.close();
         }
+        if (localServer != null) localServer.close();
     }
 
     /**
@@ -0,0 +1,268 @@
+package com.dellemc.objectscale.tool;
+
+import org.junit.jupiter.api.*;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class BatchRunnerTest extends AbstractTest {
+    String bucket = "rereplication-tool-batch-test";
+    // a small, a medium and a large bucket
+    List<String> buckets = Arrays.asList(bucket + "-small", bucket, bucket + "-large");
+    List<Integer> keyCounts = Arrays.asList(4, 20, 60);
+
+    @Override
+    String getBucket() {
+        return bucket;
+    }
+
+    @Override
+    @BeforeAll
+    public void setup() throws Exception {
+        super.setup();
+        Assumptions.assumeTrue(localServer != null, "requires the local S3 stand-in");
+        // every version fails replication, so the inventory lists it and the re-replication copies it
+        localServer.setNewVersionStatus(ReplicationStatus.FAILED);
+        for (String otherBucket : new String[]{buckets.get(0), buckets.get(2)}) {
+            s3Client.createBucket(builder -> builder.bucket(otherBucket));
+            s3Client.putBucketVersioning(builder -> builder.bucket(otherBucket)
+                    .versioningConfiguration(builder1 -> builder1.status(BucketVersioningStatus.ENABLED)));
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            String batchBucket = buckets.get(i);
+            for (int key = 0; key < keyCounts.get(i); key++) {
+                String objectKey = "object-" + key;
+                s3Client.putObject(builder -> builder.bucket(batchBucket).key(objectKey), RequestBody.fromString(objectKey));
+            }
+        }
+    }
+
+    @AfterAll
+    public void cleanup() throws Exception {
+        for (String batchBucket : buckets) {
+            cleanBucket(batchBucket);
+            if (!batchBucket.equals(bucket)) s3Client.deleteBucket(builder -> builder.bucket(batchBucket));
+        }
+    }
+
+    @Test
+    public void testInventoryThenReReplicate() throws Exception {
+        Path dir = Files.createTempDirectory("rereplication-batch");
+        Path inventoryFile = dir.resolve("inventory-" + BatchRunner.BUCKET_PLACEHOLDER + ".csv");
+        try {
+            BatchRunner.Config inventoryConfig = BatchRunner.Config.forBuckets(InventoryGenerator.Config.builder()
+                    .endpoint(URI.create(s3Endpoint))
+                    .awsProfile(awsProfile)
+                    .accessKey(accessKey)
+                    .secretKey(secretKey)
+                    .bucket(String.join(",", buckets))
+                    .inventoryFile(inventoryFile)
+                    .threadCount(4)
+                    .filterType(InventoryGenerator.FilterType.AllVersions)
+                    .build(), buckets, 2);
+            inventoryConfig.validate();
+            ProcessingStats total = new ProcessingStats(System.currentTimeMillis());
+            try (BatchRunner runner = new BatchRunner(inventoryConfig)) {
+                runner.setGrossRecords(total);
+                runner.run();
+
+                List<BatchRunner.BucketRun> runs = runner.getBucketRuns();
+                for (int i = 0; i < buckets.size(); i++) {
+                    BatchRunner.BucketRun run = runs.get(i);
+                    Assertions.assertEquals(buckets.get(i), run.getBucket());
+                    Assertions.assertTrue(run.isDone());
+                    Assertions.assertNull(run.getError());
+                    Assertions.assertEquals((long) keyCounts.get(i), run.getGrossRecords().getProcessedObjects());
+                    Assertions.assertTrue(Files.exists(dir.resolve("inventory-" + buckets.get(i) + ".csv")));
+                }
+                Assertions.assertEquals(84, total.getProcessedObjects());
+                Assertions.assertTrue(runner.getSummary().contains("3 of 3 buckets complete"), runner.getSummary());
+            }
+
+            // each bucket re-replicates from its own inventory
+            BatchRunner.Config reReplicationConfig = BatchRunner.Config.forBuckets(ReReplicationProcessor.Config.builder()
+                    .endpoint(URI.create(s3Endpoint))
+                    .awsProfile(awsProfile)
+                    .accessKey(accessKey)
+                    .secretKey(secretKey)
+                    .inventoryFile(inventoryFile)
+                    .threadCount(4)
+                    .build(), buckets, 3);
+            reReplicationConfig.validate();
+            total = new ProcessingStats(System.currentTimeMillis());
+            try (BatchRunner runner = new BatchRunner(reReplicationConfig)) {
+                runner.setFilteredRecords(total);
+                runner.run();
+                Assertions.assertEquals(84, total.getProcessedObjects());
+                Assertions.assertEquals(0, total.getErrors());
+            }
+            for (int i = 0; i < buckets.size(); i++) {
+                String batchBucket = buckets.get(i);
+                // the original version and its copy
+                Assertions.assertEquals(2, s3Client.listObjectVersions(builder -> builder.bucket(batchBucket).prefix("object-0"))
+                        .versions().stream().filter(version -> version.key().equals("object-0")).count());
+            }
+        } finally {
+            for (String batchBucket : buckets) {
+                Files.deleteIfExists(dir.resolve("inventory-" + batchBucket + ".csv"));
+                Files.deleteIfExists(dir.resolve("inventory-" + batchBucket + ".csv" + ReReplicationJournal.JOURNAL_FILE_SUFFIX));
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testFailedBucket() throws Exception {
+        Path dir = Files.createTempDirectory("rereplication-batch");
+        List<String> withMissing = Arrays.asList(buckets.get(0), "rereplication-tool-batch-missing");
+        try {
+            try (BatchRunner runner = new BatchRunner(BatchRunner.Config.forBuckets(InventoryGenerator.Config.builder()
+                    .endpoint(URI.create(s3Endpoint))
+                    .awsProfile(awsProfile)
+                    .accessKey(accessKey)
+                    .secretKey(secretKey)
+                    .inventoryFile(dir.resolve(BatchRunner.BUCKET_PLACEHOLDER + ".csv"))
+                    .filterType(InventoryGenerator.FilterType.AllVersions)
+                    .build(), withMissing, 1))) {
+                RuntimeException e = Assertions.assertThrows(RuntimeException.class, runner::run);
+                Assertions.assertTrue(e.getMessage().startsWith("1 of 2 buckets failed"), e.getMessage());
+                // the other bucket still completes
+                Assertions.assertNull(runner.getBucketRuns().get(0).getError());
+                Assertions.assertTrue(runner.getBucketRuns().get(0).getGrossRecords().getProcessedObjects() >= keyCounts.get(0));
+                Assertions.assertNotNull(runner.getBucketRuns().get(1).getError());
+            }
+        } finally {
+            for (String batchBucket : withMissing) {
+                Files.deleteIfExists(dir.resolve(batchBucket + ".csv"));
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testBudgetAcrossBuckets() throws Exception {
+        Path dir = Files.createTempDirectory("rereplication-batch");
+        // separate buckets, so the copies don't change the versions the other tests see
+        List<String> budgetBuckets = Arrays.asList(bucket + "-budget-1", bucket + "-budget-2", bucket + "-budget-3");
+        try {
+            for (String budgetBucket : budgetBuckets) {
+                s3Client.createBucket(builder -> builder.bucket(budgetBucket));
+                s3Client.putBucketVersioning(builder -> builder.bucket(budgetBucket)
+                        .versioningConfiguration(builder1 -> builder1.status(BucketVersioningStatus.ENABLED)));
+                List<String> keys = new ArrayList<>();
+                for (int key = 0; key < 10; key++) {
+                    String objectKey = "object-" + key;
+                    s3Client.putObject(builder -> builder.bucket(budgetBucket).key(objectKey), RequestBody.fromString(objectKey));
+                    keys.add(objectKey);
+                }
+                Files.write(dir.resolve("inventory-" + budgetBucket + ".csv"), keys);
+            }
+
+            // one bucket at a time: the first is copied, the second stops part way, and the third is not started
+            ProcessingStats total = new ProcessingStats(System.currentTimeMillis());
+            try (BatchRunner runner = new BatchRunner(BatchRunner.Config.forBuckets(ReReplicationProcessor.Config.builder()
+                    .endpoint(URI.create(s3Endpoint))
+                    .awsProfile(awsProfile)
+                    .accessKey(accessKey)
+                    .secretKey(secretKey)
+                    .inventoryFile(dir.resolve("inventory-" + BatchRunner.BUCKET_PLACEHOLDER + ".csv"))
+                    .threadCount(4)
+                    .maxObjects(15L)
+                    .build(), budgetBuckets, 1))) {
+                runner.setFilteredRecords(total);
+                runner.run();
+
+                List<BatchRunner.BucketRun> runs = runner.getBucketRuns();
+                Assertions.assertEquals(15, total.getProcessedObjects());
+                Assertions.assertEquals(10, runs.get(0).getFilteredRecords().getProcessedObjects());
+                Assertions.assertEquals(5, runs.get(1).getFilteredRecords().getProcessedObjects());
+                Assertions.assertTrue(runs.get(1).isDone());
+                Assertions.assertFalse(runs.get(2).isDone());
+                Assertions.assertNotNull(runs.get(2).getSkipReason());
+                Assertions.assertTrue(runner.getSummary().contains("Stopped early"), runner.getSummary());
+                Assertions.assertTrue(runner.getSummary().contains("not started (the batch reached the maximum of 15 objects)"),
+                        runner.getSummary());
+            }
+        } finally {
+            for (String budgetBucket : budgetBuckets) {
+                Files.deleteIfExists(dir.resolve("inventory-" + budgetBucket + ".csv"));
+                Files.deleteIfExists(dir.resolve("inventory-" + budgetBucket + ".csv" + ReReplicationJournal.JOURNAL_FILE_SUFFIX));
+                cleanBucket(budgetBucket);
+                s3Client.deleteBucket(builder -> builder.bucket(budgetBucket));
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testSharedHedgeClient() throws Exception {
+        Path dir = Files.createTempDirectory("rereplication-batch");
+        BatchRunner.Config config = BatchRunner.Config.forBuckets(InventoryGenerator.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .inventoryFile(dir.resolve(BatchRunner.BUCKET_PLACEHOLDER + ".csv"))
+                .filterType(InventoryGenerator.FilterType.AllVersions)
+                .hedge(true)
+                .hedgeEndpoint(URI.create(s3Endpoint))
+                .build(), buckets, 2);
+        try (BatchRunner runner = new BatchRunner(config)) {
+            S3Client hedgeClient;
+            try (InventoryGenerator tool = (InventoryGenerator) runner.createTool(config.configFor(buckets.get(0)))) {
+                hedgeClient = tool.getHedgeClient();
+                Assertions.assertNotNull(hedgeClient);
+            }
+            try (InventoryGenerator tool = (InventoryGenerator) runner.createTool(config.configFor(buckets.get(1)))) {
+                Assertions.assertSame(hedgeClient, tool.getHedgeClient());
+            }
+            // a bucket's tool does not close the batch's client
+            hedgeClient.headBucket(builder -> builder.bucket(bucket));
+
+            runner.run();
+            for (BatchRunner.BucketRun run : runner.getBucketRuns()) {
+                Assertions.assertNull(run.getError());
+            }
+        } finally {
+            for (String batchBucket : buckets) {
+                Files.deleteIfExists(dir.resolve(batchBucket + ".csv"));
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testValidation() {
+        InventoryGenerator.Config bucketConfig = InventoryGenerator.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .inventoryFile(Paths.get("inventory.csv"))
+                .build();
+        // several buckets need per-bucket files
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchRunner.Config.forBuckets(bucketConfig, buckets, 2).validate());
+        InventoryGenerator.Config perBucket = bucketConfig.toBuilder()
+                .inventoryFile(Paths.get("inventory-" + BatchRunner.BUCKET_PLACEHOLDER + ".csv"))
+                .build();
+        BatchRunner.Config.forBuckets(perBucket, buckets, 2).validate();
+        Assertions.assertEquals(Paths.get("inventory-" + bucket + ".csv"),
+                BatchRunner.Config.forBuckets(perBucket, buckets, 2).configFor(bucket).getInventoryFile());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchRunner.Config.forBuckets(perBucket.toBuilder()
+                .auditFile(Paths.get("audit.csv")).build(), buckets, 2).validate());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchRunner.Config.forBuckets(perBucket,
+                Arrays.asList(bucket, bucket), 2).validate());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchRunner.Config.forBuckets(perBucket, buckets, 0).validate());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchRunner.Config.forBuckets(ReplicationSampler.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .inventoryFile(perBucket.getInventoryFile())
+                .build(), buckets, 2).validate());
+    }
+}
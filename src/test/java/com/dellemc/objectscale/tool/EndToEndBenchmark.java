@@ -0,0 +1,227 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.s3.Faults;
+import com.dellemc.objectscale.s3.LatencyModel;
+import com.dellemc.objectscale.s3.LocalS3Server;
+import com.dellemc.objectscale.s3.SyntheticBucket;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link InventoryGenerator} and then {@link ReReplicationProcessor} end to end against a {@link LocalS3Server}
+ * holding a synthetic bucket, and reports objects/s, per-operation latency (p50/p99, measured by the server, so
+ * including injected latency) and how much the tool allocated. This is a plain program rather than a JMH benchmark,
+ * because each run is long (millions of requests) and the interesting numbers are latency percentiles and allocation,
+ * not the time per invocation.
+ * <p>
+ * i.e. <code>./gradlew benchmark -PbenchmarkArgs="--versions 1000000 --latency-ms 2 --slow-fraction 0.01"</code>
+ */
+public class EndToEndBenchmark {
+    static final String BUCKET = "benchmark";
+    // the server's threads are not part of the tool's allocation
+    static final String SERVER_THREAD_PREFIX = "local-s3-";
+    static final String SAMPLER_THREAD_NAME = "allocation-sampler";
+
+    public static void main(String[] args) throws Exception {
+        Options options = options();
+        CommandLine line;
+        try {
+            line = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp(EndToEndBenchmark.class.getSimpleName(), options);
+            System.exit(1);
+            return;
+        }
+
+        // the tools' progress logging would swamp the results
+        Configurator.setLevel(LogManager.getRootLogger().getName(), Level.WARN);
+
+        long versions = Long.parseLong(line.getOptionValue("versions", "1000000"));
+        double failedFraction = Double.parseDouble(line.getOptionValue("failed-fraction", "0.05"));
+        Map<ReplicationStatus, Double> statusMix = new HashMap<>();
+        statusMix.put(ReplicationStatus.COMPLETE, 1 - failedFraction);
+        statusMix.put(ReplicationStatus.FAILED, failedFraction);
+        SyntheticBucket syntheticBucket = SyntheticBucket.builder()
+                .versionCount(versions)
+                .versionsPerKey(Integer.parseInt(line.getOptionValue("versions-per-key", "1")))
+                .deleteMarkerFraction(Double.parseDouble(line.getOptionValue("delete-marker-fraction", "0")))
+                .statusMix(statusMix)
+                .build();
+        Duration latency = Duration.ofMillis(Long.parseLong(line.getOptionValue("latency-ms", "0")));
+        Faults faults = Faults.builder()
+                .latency(LatencyModel.slowTail(latency,
+                        Double.parseDouble(line.getOptionValue("slow-fraction", "0")),
+                        Duration.ofMillis(Long.parseLong(line.getOptionValue("slow-ms", "500")))))
+                .errorRate(Double.parseDouble(line.getOptionValue("error-rate", "0")))
+                .maxRequestsPerSecond(Integer.parseInt(line.getOptionValue("max-requests-per-second", "0")))
+                .build();
+        int threads = Integer.parseInt(line.getOptionValue("threads", "" + AbstractReplicationTool.Config.DEFAULT_THREAD_COUNT));
+        boolean virtualThreads = line.hasOption("virtual-threads");
+
+        try (LocalS3Server server = new LocalS3Server().start()) {
+            long start = System.nanoTime();
+            Map<ReplicationStatus, Long> counts = syntheticBucket.populate(server, server.createBucket(BUCKET));
+            System.out.printf("Populated %d versions %s in %,d ms%n", versions, counts,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            System.out.printf("Latency %s (%s of requests %s ms), error rate %s, max requests/s %s, threads %d%s%n%n",
+                    latency, line.getOptionValue("slow-fraction", "0"), line.getOptionValue("slow-ms", "500"),
+                    faults.getErrorRate(), faults.getMaxRequestsPerSecond(), threads, virtualThreads ? " (virtual)" : "");
+            server.setFaults(faults);
+
+            Path inventoryFile = Files.createTempFile("benchmark-inventory", ".csv");
+            inventoryFile.toFile().deleteOnExit();
+            try {
+                server.resetLatencies();
+                InventoryGenerator generator = new InventoryGenerator(InventoryGenerator.Config.builder()
+                        .endpoint(server.getEndpoint())
+                        .accessKey(LocalS3Server.ACCESS_KEY)
+                        .secretKey(LocalS3Server.SECRET_KEY)
+                        .bucket(BUCKET)
+                        .inventoryFile(inventoryFile)
+                        .forceOverwrite(true)
+                        .threadCount(threads)
+                        .virtualThreads(virtualThreads)
+                        .build());
+                report("InventoryGenerator", generator, server, Arrays.asList("ListObjectVersions", "HeadObject"));
+
+                server.resetLatencies();
+                ReReplicationProcessor processor = new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
+                        .endpoint(server.getEndpoint())
+                        .accessKey(LocalS3Server.ACCESS_KEY)
+                        .secretKey(LocalS3Server.SECRET_KEY)
+                        .bucket(BUCKET)
+                        .inventoryFile(inventoryFile)
+                        .threadCount(threads)
+                        .virtualThreads(virtualThreads)
+                        .build());
+                report("ReReplicationProcessor", processor, server, Arrays.asList("HeadObject", "CopyObject", "GetObjectAcl", "PutObjectAcl"));
+            } finally {
+                Files.deleteIfExists(inventoryFile);
+            }
+        }
+        System.exit(0);
+    }
+
+    static void report(String name, AbstractReplicationTool tool, LocalS3Server server, List<String> operations) {
+        long now = System.currentTimeMillis();
+        ProcessingStats grossRecords = new ProcessingStats(now), filteredRecords = new ProcessingStats(now);
+        tool.setGrossRecords(grossRecords);
+        tool.setFilteredRecords(filteredRecords);
+        AllocationMeter allocation = new AllocationMeter();
+        long start = System.nanoTime();
+        try {
+            tool.run();
+        } finally {
+            tool.close();
+        }
+        long durationNanos = System.nanoTime() - start;
+        long allocatedBytes = allocation.stop();
+
+        long objects = grossRecords.getProcessedObjects();
+        System.out.println(name);
+        System.out.printf("  %,d objects in %,d ms: %,d objects/s (%,d errors)%n", objects,
+                TimeUnit.NANOSECONDS.toMillis(durationNanos), objects * 1_000_000_000L / Math.max(1, durationNanos),
+                grossRecords.getErrors() + filteredRecords.getErrors());
+        for (String operation : operations) {
+            LocalS3Server.LatencyRecorder latencies = server.getLatencies(operation);
+            if (latencies.getCount() == 0) continue;
+            System.out.printf("  %-20s %,10d requests, p50 %8.2f ms, p99 %8.2f ms%n", operation, latencies.getCount(),
+                    latencies.getPercentileNanos(50) / 1e6, latencies.getPercentileNanos(99) / 1e6);
+        }
+        System.out.printf("  allocated %s (%,d bytes/object)%n",
+                ProcessingStats.formatByteRate(allocatedBytes).replace("/s", ""), allocatedBytes / Math.max(1, objects));
+        String summary = tool.getSummary();
+        if (summary != null) System.out.println("  " + summary.replace("\n", "\n  "));
+        System.out.println();
+    }
+
+    /**
+     * Sums the bytes allocated by every thread except the server's (and its own). Threads are sampled periodically, so a short-lived
+     * thread may be missed, but the tools' work runs on long-lived pool threads
+     */
+    static class AllocationMeter {
+        private final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final Map<Long, Long> baseline = new HashMap<>();
+        private final Map<Long, Long> latest = new HashMap<>();
+        private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, SAMPLER_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AllocationMeter() {
+            sample(baseline);
+            sampler.scheduleAtFixedRate(() -> sample(latest), 100, 100, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void sample(Map<Long, Long> into) {
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith(SERVER_THREAD_PREFIX) || thread.getName().equals(SAMPLER_THREAD_NAME))
+                    continue;
+                long bytes = threadBean.getThreadAllocatedBytes(thread.getId());
+                if (bytes >= 0) into.put(thread.getId(), bytes);
+            }
+        }
+
+        /**
+         * @return the bytes allocated since this meter was created
+         */
+        synchronized long stop() {
+            sampler.shutdownNow();
+            sample(latest);
+            long total = 0;
+            for (Map.Entry<Long, Long> entry : latest.entrySet()) {
+                total += entry.getValue() - baseline.getOrDefault(entry.getKey(), 0L);
+            }
+            return total;
+        }
+    }
+
+    static Options options() {
+        Options options = new Options();
+        options.addOption(Option.builder().longOpt("versions").desc("The number of versions in the bucket (default: 1000000)")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("versions-per-key").desc("Versions of each key (default: 1)")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("failed-fraction").desc("The fraction of versions that have FAILED replication (default: 0.05)")
+                .hasArg().argName("fraction").build());
+        options.addOption(Option.builder().longOpt("delete-marker-fraction").desc("The fraction of keys whose latest version is a delete marker (default: 0)")
+                .hasArg().argName("fraction").build());
+        options.addOption(Option.builder().longOpt("latency-ms").desc("Typical request latency (default: 0)")
+                .hasArg().argName("millis").build());
+        options.addOption(Option.builder().longOpt("slow-fraction").desc("The fraction of requests that take --slow-ms (default: 0)")
+                .hasArg().argName("fraction").build());
+        options.addOption(Option.builder().longOpt("slow-ms").desc("The latency of slow requests (default: 500)")
+                .hasArg().argName("millis").build());
+        options.addOption(Option.builder().longOpt("error-rate").desc("The fraction of requests that fail with a 500 (default: 0)")
+                .hasArg().argName("fraction").build());
+        options.addOption(Option.builder().longOpt("max-requests-per-second").desc("Throttle (503) requests beyond this rate (default: unlimited)")
+                .hasArg().argName("rate").build());
+        options.addOption(Option.builder().longOpt("threads").desc("The tools' thread count (default: " + AbstractReplicationTool.Config.DEFAULT_THREAD_COUNT + ")")
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("virtual-threads").desc("Run the tools on virtual threads (Java 21+)").build());
+        return options;
+    }
+}
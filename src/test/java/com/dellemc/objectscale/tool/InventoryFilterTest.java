@@ -0,0 +1,102 @@
+package com.dellemc.objectscale.tool;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class InventoryFilterTest {
+    static final Instant NOW = Instant.now();
+
+    InventoryRow row(String key, boolean deleteMarker, boolean latest, Instant lastModified, long size) {
+        return new InventoryRow(key, "v1", deleteMarker, latest, lastModified, "etag", size, "owner", null);
+    }
+
+    InventoryFilter filter(InventoryGenerator.Config.ConfigBuilder<?, ?> builder) {
+        return new InventoryFilter(builder.build());
+    }
+
+    @Test
+    public void testFilterType() {
+        InventoryRow current = row("a", false, true, NOW, 1), nonCurrent = row("a", false, false, NOW, 1);
+
+        InventoryFilter filter = filter(InventoryGenerator.Config.builder());
+        Assertions.assertTrue(filter.testListing(current));
+        Assertions.assertFalse(filter.testListing(nonCurrent));
+
+        filter = filter(InventoryGenerator.Config.builder().filterType(InventoryGenerator.FilterType.AllVersions));
+        Assertions.assertTrue(filter.testListing(nonCurrent));
+    }
+
+    @Test
+    public void testListingCriteria() {
+        InventoryFilter filter = filter(InventoryGenerator.Config.builder()
+                .modifiedAfter(NOW.minus(Duration.ofDays(2)))
+                .modifiedBefore(NOW.minus(Duration.ofDays(1)))
+                .minSize(10L)
+                .maxSize(100L)
+                .excludeDeleteMarkers(true));
+
+        Instant inWindow = NOW.minus(Duration.ofHours(36));
+        Assertions.assertTrue(filter.testListing(row("a", false, true, inWindow, 10)));
+        Assertions.assertTrue(filter.testListing(row("a", false, true, inWindow, 100)));
+        Assertions.assertFalse(filter.testListing(row("a", false, true, inWindow, 9)));
+        Assertions.assertFalse(filter.testListing(row("a", false, true, inWindow, 101)));
+        Assertions.assertFalse(filter.testListing(row("a", false, true, NOW, 50)));
+        Assertions.assertFalse(filter.testListing(row("a", false, true, NOW.minus(Duration.ofDays(3)), 50)));
+        Assertions.assertFalse(filter.testListing(row("a", true, true, inWindow, 0)));
+
+        // size criteria should not apply to delete markers
+        filter = filter(InventoryGenerator.Config.builder().minSize(10L));
+        Assertions.assertTrue(filter.testListing(row("a", true, true, NOW, 0)));
+    }
+
+    @Test
+    public void testStatusCriteria() {
+        InventoryRow failed = row("a", false, true, NOW, 1);
+        failed.setReplicationStatus(ReplicationStatus.FAILED);
+        InventoryRow oldPending = row("b", false, true, NOW.minus(Duration.ofDays(2)), 1);
+        oldPending.setReplicationStatus(ReplicationStatus.PENDING);
+        InventoryRow newPending = row("c", false, true, NOW, 1);
+        newPending.setReplicationStatus(ReplicationStatus.PENDING);
+
+        InventoryFilter filter = filter(InventoryGenerator.Config.builder());
+        Assertions.assertTrue(filter.testStatus(failed));
+        Assertions.assertFalse(filter.testStatus(oldPending));
+
+        filter = filter(InventoryGenerator.Config.builder().pendingOlderThan(Duration.ofDays(1)));
+        Assertions.assertTrue(filter.testStatus(failed));
+        Assertions.assertTrue(filter.testStatus(oldPending));
+        Assertions.assertFalse(filter.testStatus(newPending));
+
+        filter = filter(InventoryGenerator.Config.builder().filterType(InventoryGenerator.FilterType.CurrentVersionOnly));
+        Assertions.assertTrue(filter.testStatus(newPending));
+    }
+
+    @Test
+    public void testKeyRange() {
+        InventoryFilter filter = filter(InventoryGenerator.Config.builder().endBefore("c"));
+        Assertions.assertFalse(filter.isPastEnd(row("b", false, true, NOW, 1)));
+        Assertions.assertTrue(filter.isPastEnd(row("c", false, true, NOW, 1)));
+        Assertions.assertTrue(filter.isPastEnd(row("d", false, true, NOW, 1)));
+    }
+
+    @Test
+    public void testTakeWhileIsLazy() {
+        AtomicInteger pulled = new AtomicInteger();
+        List<String> result = InventoryGenerator.takeWhile(
+                Stream.of("a", "b", "c", "d", "e").peek(s -> pulled.incrementAndGet()),
+                s -> s.compareTo("c") < 0).collect(Collectors.toList());
+
+        Assertions.assertEquals(Arrays.asList("a", "b"), result);
+        // only the first failing element should be pulled from the source
+        Assertions.assertEquals(3, pulled.get());
+    }
+}
@@ -1,5 +1,11 @@
 package com.dellemc.objectscale.tool;
 
+import com.dellemc.objectscale.s3.Faults;
+import com.dellemc.objectscale.s3.LatencyModel;
+import com.dellemc.objectscale.s3.LocalS3Server;
+import com.dellemc.objectscale.s3.SyntheticBucket;
+import com.dellemc.objectscale.util.BlockingIterator;
+import com.dellemc.objectscale.util.Hedger;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 import org.junit.jupiter.api.*;
@@ -9,6 +15,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -49,6 +56,8 @@ public class InventoryGeneratorTest extends AbstractTest {
         InventoryGenerator tool = new InventoryGenerator(InventoryGenerator.Config.builder()
                 .endpoint(URI.create(s3Endpoint))
                 .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
                 .bucket(bucket)
                 .inventoryFile(inventoryFile)
                 .filterType(InventoryGenerator.FilterType.AllVersions)
@@ -83,6 +92,105 @@ public class InventoryGeneratorTest extends AbstractTest {
         });
     }
 
+    @Test
+    public void testPublisher() {
+        // no inventory file; rows are published to the iterator
+        InventoryGenerator tool = new InventoryGenerator(InventoryGenerator.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .filterType(InventoryGenerator.FilterType.AllVersions)
+                .build());
+
+        int count = 0;
+        // a small batch, so the inventory has to wait for demand
+        try (BlockingIterator<InventoryRow> rows = BlockingIterator.of(tool.publisher(), 100)) {
+            while (rows.hasNext()) {
+                Assertions.assertTrue(rows.next().getKey().matches("object-[0-9]*"));
+                count++;
+            }
+        }
+        Assertions.assertEquals(OBJECT_COUNT + OBJECT_COUNT / 2, count);
+    }
+
+    @Test
+    public void testPublisherCancel() throws Exception {
+        InventoryGenerator tool = new InventoryGenerator(InventoryGenerator.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .filterType(InventoryGenerator.FilterType.AllVersions)
+                .build());
+
+        InventoryPublisher publisher = tool.publisher();
+        try (BlockingIterator<InventoryRow> rows = BlockingIterator.of(publisher, 10)) {
+            for (int i = 0; i < 25; i++) rows.next();
+        }
+        // closing the iterator stops the inventory
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!tool.getPipeline().isCancelled() && System.currentTimeMillis() < deadline) Thread.sleep(50);
+        Assertions.assertTrue(tool.getPipeline().isCancelled());
+
+        // an inventory can only be published once
+        BlockingIterator<InventoryRow> again = BlockingIterator.of(publisher);
+        Assertions.assertThrows(IllegalStateException.class, again::hasNext);
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        // latency can only be injected into the local server
+        try (LocalS3Server server = new LocalS3Server().start()) {
+            long versionCount = 2000;
+            SyntheticBucket.builder().versionCount(versionCount).versionsPerKey(2).deleteMarkerFraction(0.2).build()
+                    .populate(server, server.createBucket("hedge-test"));
+            // 5% of requests land on a slow node
+            server.setFaults(Faults.builder()
+                    .latency(LatencyModel.slowTail(Duration.ofMillis(1), 0.05, Duration.ofMillis(200)))
+                    .build());
+            Path inventoryFile = Files.createTempFile("rereplication-inventory", "csv");
+            inventoryFile.toFile().deleteOnExit();
+
+            // the public constructor, as used by the CLI, creates its own client
+            InventoryGenerator tool = new InventoryGenerator(InventoryGenerator.Config.builder()
+                    .endpoint(server.getEndpoint())
+                    .accessKey(LocalS3Server.ACCESS_KEY)
+                    .secretKey(LocalS3Server.SECRET_KEY)
+                    .bucket("hedge-test")
+                    .inventoryFile(inventoryFile)
+                    .forceOverwrite(true)
+                    .threadCount(8)
+                    .filterType(InventoryGenerator.FilterType.AllVersions)
+                    .hedge(true)
+                    .hedgePercentile(90)
+                    .hedgeBudget(0.2)
+                    .build());
+            try {
+                tool.run();
+                Hedger hedger = tool.getHedger();
+                Assertions.assertTrue(hedger.getHedgeCount() > 0);
+                // a hedge that fails (i.e. without a client) never wins
+                Assertions.assertTrue(hedger.getHedgeWinCount() > 0, hedger.getSummary());
+                // slow requests keep the threshold above the typical latency
+                Assertions.assertTrue(hedger.getLatencyTracker().getPercentileNanos() >= Duration.ofMillis(1).toNanos());
+            } finally {
+                tool.close();
+            }
+
+            // delete markers (a 405 on HEAD) are kept, even when their HEAD was hedged
+            List<CSVRecord> records = CSVFormat.DEFAULT.withHeader(InventoryRow.Header.class)
+                    .withSkipHeaderRecord()
+                    .withIgnoreEmptyLines()
+                    .parse(new FileReader(inventoryFile.toFile())).getRecords();
+            Assertions.assertEquals(versionCount, records.size());
+            records.stream().map(ReReplicationProcessor::inventoryRowFromCsvRecord)
+                    .forEach(row -> Assertions.assertNotNull(row.getReplicationStatus(), row.getKey()));
+        }
+    }
+
     @Override
     @AfterAll
     public void teardown() throws Exception {
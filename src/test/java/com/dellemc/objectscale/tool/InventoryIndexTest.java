@@ -0,0 +1,121 @@
+package com.dellemc.objectscale.tool;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class InventoryIndexTest {
+    public static final int KEY_COUNT = 500;
+    public static final int INDEX_INTERVAL = 7;
+
+    Path inventoryFile;
+    List<InventoryRow> rows;
+
+    @BeforeEach
+    public void writeInventory() throws Exception {
+        inventoryFile = Files.createTempFile("rereplication-inventory", "csv");
+        rows = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            // include some keys that need quoting/escaping
+            String key = String.format("object-%04d", i) + (i % 10 == 0 ? ",\"odd\"\nkey" : "");
+            // every 3rd key has several versions, so some keys will span index entries
+            int versions = i % 3 == 0 ? 5 : 1;
+            for (int v = 0; v < versions; v++) {
+                rows.add(new InventoryRow(key, "version-" + v, false, v == versions - 1, Instant.now(),
+                        "abcdef0123456789", (long) i, "owner", v % 2 == 0 ? ReplicationStatus.FAILED : ReplicationStatus.COMPLETE));
+            }
+        }
+        try (InventoryWriter writer = new InventoryWriter(inventoryFile, INDEX_INTERVAL)) {
+            for (InventoryRow row : rows) {
+                writer.write(row);
+            }
+        }
+    }
+
+    @AfterEach
+    public void deleteInventory() throws Exception {
+        Files.deleteIfExists(InventoryIndex.indexFileFor(inventoryFile));
+        Files.deleteIfExists(inventoryFile);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        InventoryIndex index = InventoryIndex.load(inventoryFile);
+
+        Assertions.assertEquals(rows.size(), index.getTotalRows());
+        Assertions.assertEquals(Files.size(inventoryFile), index.getEndOffset());
+        Assertions.assertEquals((rows.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL, index.getEntryCount());
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        InventoryIndex index = InventoryIndex.load(inventoryFile);
+
+        for (String key : rows.stream().map(InventoryRow::getKey).distinct().collect(Collectors.toList())) {
+            List<String> expected = rows.stream().filter(row -> row.getKey().equals(key))
+                    .map(InventoryRow::getVersionId).collect(Collectors.toList());
+            List<String> actual = index.lookup(key).stream()
+                    .map(InventoryRow::getVersionId).collect(Collectors.toList());
+            Assertions.assertEquals(expected, actual, "wrong versions found for key [" + key + "]");
+        }
+
+        Assertions.assertTrue(index.lookup("object-0001a").isEmpty());
+        Assertions.assertTrue(index.lookup("a").isEmpty());
+        Assertions.assertTrue(index.lookup("z").isEmpty());
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        InventoryIndex index = InventoryIndex.load(inventoryFile);
+
+        for (int parts : new int[]{1, 2, 7, 16}) {
+            List<InventoryIndex.Range> ranges = index.split(parts);
+            Assertions.assertEquals(parts, ranges.size());
+
+            // ranges should be contiguous and cover every row exactly once
+            List<String> readRows = new ArrayList<>();
+            long nextOffset = ranges.get(0).getStartOffset();
+            for (InventoryIndex.Range range : ranges) {
+                Assertions.assertEquals(nextOffset, range.getStartOffset());
+                nextOffset = range.getEndOffset();
+                try (CSVParser parser = index.openRange(range)) {
+                    List<CSVRecord> records = parser.getRecords();
+                    Assertions.assertEquals(range.getRowCount(), records.size());
+                    records.forEach(record -> readRows.add(record.get(InventoryRow.Header.Key) + ":" + record.get(InventoryRow.Header.VersionId)));
+                }
+            }
+            Assertions.assertEquals(index.getEndOffset(), nextOffset);
+            Assertions.assertEquals(rows.stream().map(row -> row.getKey() + ":" + row.getVersionId()).collect(Collectors.toList()), readRows);
+
+            // ranges should be balanced to within an index interval or so
+            if (parts > 1) {
+                long maxRows = ranges.stream().mapToLong(InventoryIndex.Range::getRowCount).max().getAsLong();
+                Assertions.assertTrue(maxRows <= rows.size() / parts + 2 * INDEX_INTERVAL);
+            }
+        }
+    }
+
+    @Test
+    public void testEstimateRowCount() throws Exception {
+        InventoryIndex index = InventoryIndex.load(inventoryFile);
+
+        Assertions.assertEquals(rows.size(), index.estimateRowCount(null, null));
+
+        String fromKey = "object-0100", toKey = "object-0200";
+        long actual = rows.stream().filter(row -> row.getKey().compareTo(fromKey) >= 0 && row.getKey().compareTo(toKey) < 0).count();
+        long estimate = index.estimateRowCount(fromKey, toKey);
+        Assertions.assertTrue(estimate >= actual);
+        Assertions.assertTrue(estimate <= actual + 2 * INDEX_INTERVAL);
+    }
+}
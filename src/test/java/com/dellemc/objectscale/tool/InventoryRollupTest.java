@@ -0,0 +1,111 @@
+package com.dellemc.objectscale.tool;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class InventoryRollupTest {
+    InventoryRow row(String key, String owner, long size, ReplicationStatus status, Instant lastModified) {
+        return new InventoryRow(key, "v1", false, true, lastModified, "etag", size, owner, status);
+    }
+
+    @Test
+    public void testPrefixesAndTotals() {
+        InventoryRollup rollup = new InventoryRollup(2, 100);
+        Instant now = Instant.now();
+        rollup.add(row("a/b/c/1", "alice", 10, ReplicationStatus.FAILED, now));
+        rollup.add(row("a/b/c/2", "alice", 20, ReplicationStatus.COMPLETE, now));
+        rollup.add(row("a/d/3", "bob", 30, ReplicationStatus.FAILED, now));
+        rollup.add(row("e/4", "bob", 40, ReplicationStatus.PENDING, now));
+        rollup.add(row("5", "bob", 50, null, now));
+
+        Assertions.assertEquals(5, rollup.getTotals().getRows());
+        Assertions.assertEquals(150, rollup.getTotals().getBytes());
+        Assertions.assertEquals(2, rollup.getTotals().getCount(ReplicationStatus.FAILED));
+        Assertions.assertEquals(40, rollup.getTotals().getBytes(ReplicationStatus.FAILED));
+        Assertions.assertEquals(1, rollup.getTotals().getCount(null));
+
+        Map<String, InventoryRollup.Stats> prefixes = rollup.getPrefixes().stream()
+                .collect(Collectors.toMap(InventoryRollup.Stats::getName, Function.identity()));
+        // depth is 2, so a/b/c/ should not be tracked
+        Assertions.assertEquals(4, prefixes.size());
+        Assertions.assertEquals(3, prefixes.get("a/").getRows());
+        Assertions.assertEquals(2, prefixes.get("a/").getCount(ReplicationStatus.FAILED));
+        Assertions.assertEquals(2, prefixes.get("a/b/").getRows());
+        Assertions.assertEquals(1, prefixes.get("a/d/").getCount(ReplicationStatus.FAILED));
+        Assertions.assertEquals(40, prefixes.get("e/").getBytes(ReplicationStatus.PENDING));
+        // ordered by failures first
+        Assertions.assertEquals("a/", rollup.getPrefixes().get(0).getName());
+
+        List<InventoryRollup.Stats> owners = rollup.getOwners();
+        Assertions.assertEquals(2, owners.size());
+        Assertions.assertEquals("bob", owners.get(0).getName());
+        Assertions.assertEquals(3, owners.get(0).getRows());
+        Assertions.assertFalse(rollup.isApproximate());
+    }
+
+    @Test
+    public void testPendingAge() {
+        InventoryRollup rollup = new InventoryRollup(1, 100);
+        long now = System.currentTimeMillis();
+        rollup.add(row("a", "o", 1, ReplicationStatus.PENDING, Instant.ofEpochMilli(now - 1000)), now);
+        rollup.add(row("b", "o", 1, ReplicationStatus.PENDING, Instant.ofEpochMilli(now - Duration.ofHours(2).toMillis())), now);
+        rollup.add(row("c", "o", 1, ReplicationStatus.PENDING, Instant.ofEpochMilli(now - Duration.ofDays(90).toMillis())), now);
+        rollup.add(row("d", "o", 1, ReplicationStatus.FAILED, Instant.ofEpochMilli(now - Duration.ofDays(90).toMillis())), now);
+
+        long[] counts = rollup.getPendingAgeCounts();
+        Assertions.assertEquals(1, counts[0]); // < 1 minute
+        Assertions.assertEquals(1, counts[3]); // 1 - 6 hours
+        Assertions.assertEquals(1, counts[counts.length - 1]); // > 30 days
+        Assertions.assertEquals(3, Arrays.stream(counts).sum());
+    }
+
+    @Test
+    public void testBoundedHeavyHitters() {
+        int maxEntries = 10;
+        InventoryRollup rollup = new InventoryRollup(1, maxEntries);
+        Instant now = Instant.now();
+        // a few heavy prefixes mixed with lots of one-off prefixes
+        for (int i = 0; i < 10000; i++) {
+            rollup.add(row("heavy-" + (i % 3) + "/key-" + i, "owner", 1, ReplicationStatus.FAILED, now));
+            rollup.add(row("light-" + i + "/key", "owner", 1, ReplicationStatus.COMPLETE, now));
+        }
+
+        List<InventoryRollup.Stats> prefixes = rollup.getPrefixes();
+        Assertions.assertEquals(maxEntries, prefixes.size());
+        Assertions.assertTrue(rollup.isApproximate());
+        Assertions.assertEquals(20000, rollup.getTotals().getRows()); // totals are always exact
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("heavy-", prefixes.get(i).getName().substring(0, 6));
+            // counts are upper bounds, and the error tells us by how much
+            Assertions.assertTrue(prefixes.get(i).getRows() >= 3333);
+            Assertions.assertTrue(prefixes.get(i).getRows() - prefixes.get(i).getError() <= 3334);
+        }
+    }
+
+    @Test
+    public void testWriteReport() throws Exception {
+        InventoryRollup rollup = new InventoryRollup(2, 100);
+        rollup.add(row("a/\"quoted\"/1", "owner", 10, ReplicationStatus.FAILED, Instant.now()));
+        Path reportFile = Files.createTempFile("rereplication-rollup", "json");
+        reportFile.toFile().deleteOnExit();
+
+        rollup.writeReport(reportFile, true);
+
+        String report = new String(Files.readAllBytes(reportFile), StandardCharsets.UTF_8);
+        Assertions.assertTrue(report.contains("\"complete\": true"));
+        Assertions.assertTrue(report.contains("\"prefix\": \"a/\\\"quoted\\\"/\""));
+        Assertions.assertTrue(report.contains("\"FAILED\": {\"rows\": 1, \"bytes\": 10}"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.dellemc.objectscale.tool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class KeyFilterTest {
+    List<Path> tempFiles = new ArrayList<>();
+
+    @AfterEach
+    public void deleteTempFiles() throws Exception {
+        for (Path file : tempFiles) Files.deleteIfExists(file);
+    }
+
+    Path keysFile(String... lines) throws Exception {
+        Path file = Files.createTempFile("rereplication-keys", ".txt");
+        tempFiles.add(file);
+        Files.write(file, Arrays.asList(lines));
+        return file;
+    }
+
+    @Test
+    public void testGlobs() throws Exception {
+        List<String> patterns = Arrays.asList("logs/*.gz", "glob:data/**/part-?.csv");
+        KeyFilter filter = new KeyFilter(null, null, patterns, null);
+        Assertions.assertTrue(filter.test("logs/app.gz"));
+        Assertions.assertFalse(filter.test("logs/2021/app.gz"));
+        Assertions.assertFalse(filter.test("logs/app.gzip"));
+        Assertions.assertFalse(filter.test("logsXapp.gz"));
+        Assertions.assertTrue(filter.test("data/a/b/part-1.csv"));
+        Assertions.assertFalse(filter.test("data/a/b/part-10.csv"));
+        Assertions.assertFalse(filter.test("other/data/a/part-1.csv"));
+    }
+
+    @Test
+    public void testRegex() throws Exception {
+        KeyFilter filter = new KeyFilter(null, null, null, Collections.singletonList("regex:.*\\.tmp$"));
+        Assertions.assertFalse(filter.test("a/b.tmp"));
+        Assertions.assertFalse(filter.test("a/b\nc.tmp"));
+        Assertions.assertTrue(filter.test("a/b.tmp.gz"));
+    }
+
+    @Test
+    public void testKeyLists() throws Exception {
+        Path include = keysFile("a", "b", "c", "d/1", "d/2");
+        // an inventory file works as a key list
+        Path exclude = keysFile("Key,VersionId", "b,v1", "\"c\",v2");
+        try (KeyFilter filter = new KeyFilter(include, exclude, Collections.singletonList("e/*"),
+                Collections.singletonList("d/2"))) {
+            Assertions.assertTrue(filter.test("a"));
+            Assertions.assertFalse(filter.test("b"));
+            Assertions.assertFalse(filter.test("c"));
+            Assertions.assertTrue(filter.test("d/1"));
+            Assertions.assertFalse(filter.test("d/2"));
+            Assertions.assertTrue(filter.test("e/1"));
+            Assertions.assertFalse(filter.test("f"));
+            Assertions.assertFalse(filter.test("Key"));
+        }
+    }
+
+    @Test
+    public void testFromConfig() throws Exception {
+        Assertions.assertNull(KeyFilter.fromConfig(InventoryGenerator.Config.builder().build()));
+
+        InventoryGenerator.Config config = InventoryGenerator.Config.builder()
+                .excludeKeysFile(keysFile("x")).build();
+        try (KeyFilter filter = KeyFilter.fromConfig(config)) {
+            Assertions.assertNotNull(filter);
+            Assertions.assertFalse(filter.test("x"));
+            Assertions.assertTrue(filter.test("y"));
+        }
+    }
+}
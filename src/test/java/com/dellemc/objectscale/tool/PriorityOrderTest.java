@@ -0,0 +1,111 @@
+package com.dellemc.objectscale.tool;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class PriorityOrderTest {
+    static final Instant NOW = Instant.now();
+
+    InventoryRow row(String key, Long size) {
+        return new InventoryRow(key, "v1", false, true, NOW, "etag", size, "owner", null);
+    }
+
+    List<String> keys(Stream<InventoryRow> rows) {
+        try (Stream<InventoryRow> stream = rows) {
+            return stream.map(InventoryRow::getKey).collect(Collectors.toList());
+        }
+    }
+
+    // InventoryRow has no equals(), so compare every field
+    static String describe(InventoryRow row) {
+        return Arrays.asList(row.getKey(), row.getVersionId(), row.getIsDeleteMarker(), row.getIsLatest(),
+                row.getLastModified(), row.getETag(), row.getSize(), row.getOwnerId(), row.getReplicationStatus()).toString();
+    }
+
+    @Test
+    public void testPrefixWeights() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a/", 10);
+        weights.put("a/b/", -1);
+        PriorityOrder order = new PriorityOrder(PriorityOrder.Policy.None, weights, 10);
+
+        Assertions.assertTrue(order.isEnabled());
+        Assertions.assertEquals(10, order.weightOf("a/c"));
+        // the longest prefix wins
+        Assertions.assertEquals(-1, order.weightOf("a/b/c"));
+        Assertions.assertEquals(0, order.weightOf("c"));
+        Assertions.assertFalse(new PriorityOrder(PriorityOrder.Policy.None, null, 10).isEnabled());
+
+        List<String> result = keys(order.buffered(Stream.of(row("x", 1L), row("a/b/1", 1L), row("a/1", 1L), row("y", 1L))));
+        Assertions.assertEquals(Arrays.asList("a/1", "x", "y", "a/b/1"), result);
+    }
+
+    @Test
+    public void testBufferedWindow() {
+        PriorityOrder order = new PriorityOrder(PriorityOrder.Policy.Smallest, null, 3);
+
+        // rows are only reordered within the window
+        List<String> result = keys(order.buffered(Stream.of(
+                row("5", 5L), row("4", 4L), row("3", 3L), row("2", 2L), row("1", 1L), row("6", 6L))));
+        Assertions.assertEquals(Arrays.asList("3", "2", "1", "4", "5", "6"), result);
+    }
+
+    @Test
+    public void testSortedInMemory() throws IOException {
+        PriorityOrder order = new PriorityOrder(PriorityOrder.Policy.Smallest, null, 100);
+
+        List<String> result = keys(order.sorted(Stream.of(row("3", 3L), row("1", 1L), row("2", 2L))));
+        Assertions.assertEquals(Arrays.asList("1", "2", "3"), result);
+    }
+
+    @Test
+    public void testSortedWithSpill() throws IOException {
+        assertSorted(new PriorityOrder(PriorityOrder.Policy.Newest, Collections.singletonMap("key-09", 1), 64));
+    }
+
+    @Test
+    public void testSortedWithMergePasses() throws IOException {
+        // 100 chunks, merged 3 files at a time over several passes
+        assertSorted(new PriorityOrder(PriorityOrder.Policy.Newest, Collections.singletonMap("key-09", 1), 10, null, 3));
+    }
+
+    void assertSorted(PriorityOrder order) throws IOException {
+        List<InventoryRow> rows = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            // plenty of ties, to check that the order is stable across chunks
+            InventoryRow row = new InventoryRow(String.format("key-%04d", i), i % 3 == 0 ? null : "v" + i,
+                    false, true, NOW.minusSeconds(random.nextInt(50)), "etag", i % 7 == 0 ? null : (long) random.nextInt(50),
+                    "owner", null);
+            if (i % 5 == 0) row.setReplicationStatus(ReplicationStatus.FAILED);
+            rows.add(row);
+        }
+        List<InventoryRow> result;
+        try (Stream<InventoryRow> sorted = order.sorted(rows.stream())) {
+            result = sorted.collect(Collectors.toList());
+        }
+
+        List<InventoryRow> expected = new ArrayList<>(rows);
+        // List.sort is stable
+        expected.sort((a, b) -> {
+            int weight = Integer.compare(order.weightOf(b.getKey()), order.weightOf(a.getKey()));
+            return weight != 0 ? weight : b.getLastModified().compareTo(a.getLastModified());
+        });
+        // rows read back from spill files must be intact
+        Assertions.assertEquals(expected.stream().map(PriorityOrderTest::describe).collect(Collectors.toList()),
+                result.stream().map(PriorityOrderTest::describe).collect(Collectors.toList()));
+    }
+}
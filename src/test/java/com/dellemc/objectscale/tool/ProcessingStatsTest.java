@@ -16,4 +16,25 @@ public class ProcessingStatsTest {
         stats.setEndTimeMillis(now + 1_000); // +1 second
         Assertions.assertEquals(10, stats.getPerSecondAverage());
     }
+
+    @Test
+    public void testDuplicates() {
+        ProcessingStats stats = new ProcessingStats(System.currentTimeMillis());
+        stats.incProcessedObjects(3);
+        stats.incDuplicates();
+        // duplicates are counted separately from processed objects
+        Assertions.assertEquals(1, stats.getDuplicates());
+        Assertions.assertEquals(3, stats.getProcessedObjects());
+    }
+
+    @Test
+    public void testByteRate() {
+        long now = System.currentTimeMillis();
+        ProcessingStats stats = new ProcessingStats(now);
+        stats.incProcessedBytes(10L * 1024 * 1024);
+        stats.setEndTimeMillis(now + 2_000);
+        Assertions.assertEquals(5 * 1024 * 1024, stats.getBytesPerSecondAverage());
+        Assertions.assertEquals("5.0 MB/s", ProcessingStats.formatByteRate(stats.getBytesPerSecondAverage()));
+        Assertions.assertEquals("512 B/s", ProcessingStats.formatByteRate(512));
+    }
 }
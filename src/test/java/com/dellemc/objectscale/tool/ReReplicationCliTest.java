@@ -1,9 +1,17 @@
 package com.dellemc.objectscale.tool;
 
+import com.dellemc.objectscale.util.Throttle;
 import org.apache.commons.cli.DefaultParser;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+
 public class ReReplicationCliTest {
     @Test
     public void testInventoryToolCli() throws Exception {
@@ -23,6 +31,26 @@ public class ReReplicationCliTest {
                 "-i",
                 "--prefix", prefix,
                 "--force-overwrite",
+                "--index-interval", "1000",
+                "--rollup",
+                "--rollup-depth", "3",
+                "--rollup-max-prefixes", "500",
+                "--virtual-threads",
+                "--max-inflight-memory", "256m",
+                "--hedge",
+                "--hedge-percentile", "99",
+                "--hedge-budget", "2",
+                "--hedge-endpoint", "http://node-2:9020",
+                "--replay-trace", "trace-1",
+                "--replay-speed", "10",
+                "--audit-log", "audit.csv",
+                "--temp-dir", "/data/tmp",
+                "--stall-timeout", "5m",
+                "--max-stalls", "4",
+                "--task-deadline", "20m",
+                "--task-retries", "1",
+                "--jfr", "run.jfr",
+                "--jfr-max-size", "64m",
         };
 
         InventoryGenerator.Config config = (InventoryGenerator.Config) ReReplicationCli.parseConfig(
@@ -38,6 +66,27 @@ public class ReReplicationCliTest {
         Assertions.assertEquals(InventoryGenerator.FilterType.FailedCurrentVersionOnly, config.getFilterType());
         Assertions.assertEquals(prefix, config.getPrefix());
         Assertions.assertTrue(config.isForceOverwrite());
+        Assertions.assertEquals(1000, config.getIndexInterval());
+        Assertions.assertTrue(config.isRollup());
+        Assertions.assertEquals(3, config.getRollupDepth());
+        Assertions.assertEquals(500, config.getRollupMaxEntries());
+        Assertions.assertTrue(config.isVirtualThreads());
+        Assertions.assertEquals(256L * 1024 * 1024, config.getInflightMemoryLimit());
+        Assertions.assertTrue(config.isHedge());
+        Assertions.assertEquals(99, config.getHedgePercentile());
+        Assertions.assertEquals(0.02, config.getHedgeBudget(), 0.0001);
+        Assertions.assertEquals("http://node-2:9020", config.getHedgeEndpoint().toString());
+        Assertions.assertEquals("trace-1", config.getReplayTrace().toString());
+        Assertions.assertEquals(10, config.getReplaySpeed(), 0.0001);
+        Assertions.assertNull(config.getRecordTrace());
+        Assertions.assertEquals("audit.csv", config.getAuditFile().toString());
+        Assertions.assertEquals(Paths.get("/data/tmp"), config.getTempDir());
+        Assertions.assertEquals(Duration.ofMinutes(5), config.getStallTimeout());
+        Assertions.assertEquals(4, config.getMaxStalls());
+        Assertions.assertEquals(Duration.ofMinutes(20), config.getTaskDeadline());
+        Assertions.assertEquals(1, config.getTaskRetries());
+        Assertions.assertEquals("run.jfr", config.getJfrFile().toString());
+        Assertions.assertEquals(64L * 1024 * 1024, config.getJfrMaxSize());
     }
 
     @Test
@@ -68,6 +117,10 @@ public class ReReplicationCliTest {
         Assertions.assertEquals(InventoryGenerator.FilterType.CurrentVersionOnly, config.getFilterType());
         Assertions.assertNull(config.getPrefix());
         Assertions.assertFalse(config.isForceOverwrite());
+        Assertions.assertEquals(0, config.getIndexInterval());
+        Assertions.assertFalse(config.isRollup());
+        Assertions.assertEquals(InventoryRollup.DEFAULT_DEPTH, config.getRollupDepth());
+        Assertions.assertEquals(InventoryRollup.DEFAULT_MAX_ENTRIES, config.getRollupMaxEntries());
     }
 
     @Test
@@ -91,6 +144,157 @@ public class ReReplicationCliTest {
         Assertions.assertEquals(InventoryGenerator.FilterType.AllVersions, config.getFilterType());
     }
 
+    @Test
+    public void testInventoryFilterCli() throws Exception {
+        String[] args = {
+                "-e", "endpoint-1",
+                "-b", "bucket-1",
+                "-f", "file-1",
+                "-i",
+                "--modified-after", "2021-09-01",
+                "--modified-before", "2021-09-02T12:00:00Z",
+                "--min-size", "10k",
+                "--max-size", "2G",
+                "--exclude-delete-markers",
+                "--start-after", "key-a",
+                "--end-before", "key-b",
+                "--pending-older-than", "36h",
+                "--include-keys", "include.txt",
+                "--exclude-keys", "exclude.csv",
+                "--include-pattern", "logs/**",
+                "--include-pattern", "regex:data/.*",
+                "--exclude-pattern", "*.tmp"
+        };
+
+        InventoryGenerator.Config config = (InventoryGenerator.Config) ReReplicationCli.parseConfig(
+                new DefaultParser().parse(ReReplicationCli.options(), args));
+
+        Assertions.assertEquals(Instant.parse("2021-09-01T00:00:00Z"), config.getModifiedAfter());
+        Assertions.assertEquals(Instant.parse("2021-09-02T12:00:00Z"), config.getModifiedBefore());
+        Assertions.assertEquals(10 * 1024L, config.getMinSize());
+        Assertions.assertEquals(2L * 1024 * 1024 * 1024, config.getMaxSize());
+        Assertions.assertTrue(config.isExcludeDeleteMarkers());
+        Assertions.assertEquals("key-a", config.getStartAfter());
+        Assertions.assertEquals("key-b", config.getEndBefore());
+        Assertions.assertEquals(Duration.ofHours(36), config.getPendingOlderThan());
+        Assertions.assertEquals(Paths.get("include.txt"), config.getIncludeKeysFile());
+        Assertions.assertEquals(Paths.get("exclude.csv"), config.getExcludeKeysFile());
+        Assertions.assertEquals(Arrays.asList("logs/**", "regex:data/.*"), config.getIncludePatterns());
+        Assertions.assertEquals(Collections.singletonList("*.tmp"), config.getExcludePatterns());
+    }
+
+    @Test
+    public void testParseHelpers() {
+        Assertions.assertEquals(Duration.ofSeconds(90), ReReplicationCli.parseDuration("90s"));
+        Assertions.assertEquals(Duration.ofMinutes(30), ReReplicationCli.parseDuration("30m"));
+        Assertions.assertEquals(Duration.ofDays(7), ReReplicationCli.parseDuration("7d"));
+        Assertions.assertEquals(Duration.ofHours(24), ReReplicationCli.parseDuration("PT24H"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ReReplicationCli.parseDuration("7w"));
+        Assertions.assertNull(ReReplicationCli.parseDuration(null));
+
+        Assertions.assertEquals(100L, ReReplicationCli.parseSize("100"));
+        Assertions.assertEquals(1024L * 1024, ReReplicationCli.parseSize("1m"));
+        Assertions.assertEquals(2L << 30, ReReplicationCli.parseSize("2g"));
+        Assertions.assertEquals(512L * 1024, ReReplicationCli.parseSize("512K"));
+        Assertions.assertEquals(1024L * 1024, ReReplicationCli.parseSize("1MB"));
+        Assertions.assertEquals(3L << 40, ReReplicationCli.parseSize("3t"));
+        Assertions.assertNull(ReReplicationCli.parseSize(null));
+
+        Assertions.assertEquals(new Throttle.Limits(null, 0.5, null), ReReplicationCli.parseThrottleLimits("ops:0.5"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ReReplicationCli.parseThrottleLimits("speed:fast"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ReReplicationCli.parseThrottleWindows(new String[]{"06:00=pause"}));
+    }
+
+    @Test
+    public void testWatchCli() throws Exception {
+        String[] args = {
+                "-e", "endpoint-1",
+                "-b", "bucket-1,bucket-2",
+                "-b", "bucket-3",
+                "-f", "watch.state",
+                "--watch",
+                "--prefix", "logs/",
+                "--pass-interval", "5m",
+                "--max-rate", "200",
+                "--snapshot-interval", "1m",
+                "--status-port", "8099",
+                "--max-repairs", "5",
+                "--max-passes", "10",
+                "--pending-older-than", "2h"
+        };
+
+        ReplicationWatcher.Config config = (ReplicationWatcher.Config) ReReplicationCli.parseConfig(
+                new DefaultParser().parse(ReReplicationCli.options(), args));
+        config.validate();
+
+        Assertions.assertEquals("bucket-1", config.getBucket());
+        Assertions.assertEquals(Arrays.asList("bucket-1", "bucket-2", "bucket-3"), config.getWatchedBuckets());
+        Assertions.assertEquals("logs/", config.getPrefix());
+        Assertions.assertEquals(Duration.ofMinutes(5), config.getPassInterval());
+        Assertions.assertEquals(200.0, config.getMaxRequestsPerSecond());
+        Assertions.assertEquals(Duration.ofMinutes(1), config.getSnapshotInterval());
+        Assertions.assertEquals(8099, config.getStatusPort());
+        Assertions.assertEquals(5, config.getMaxRepairs());
+        Assertions.assertEquals(10, config.getMaxPasses());
+        Assertions.assertEquals(Duration.ofHours(2), config.getPendingOlderThan());
+    }
+
+    @Test
+    public void testBatchCli() throws Exception {
+        String[] args = {
+                "-e", "endpoint-1",
+                "-b", "bucket-1,bucket-2",
+                "-b", "bucket-3",
+                "-f", "inventory-{bucket}.csv",
+                "-r",
+                "-t", "16",
+                "--parallel-buckets", "2",
+                "--throttle", "06:00-22:00=threads:8",
+                "--audit-log", "audit-{bucket}.csv"
+        };
+
+        BatchRunner.Config config = (BatchRunner.Config) ReReplicationCli.parseConfig(
+                new DefaultParser().parse(ReReplicationCli.options(), args));
+
+        Assertions.assertEquals(Arrays.asList("bucket-1", "bucket-2", "bucket-3"), config.getBuckets());
+        Assertions.assertEquals(2, config.getParallelBuckets());
+        Assertions.assertEquals(16, config.getThreadCount());
+        Assertions.assertNotNull(config.getThrottleSchedule());
+        ReReplicationProcessor.Config bucketConfig = (ReReplicationProcessor.Config) config.configFor("bucket-2");
+        Assertions.assertEquals("bucket-2", bucketConfig.getBucket());
+        Assertions.assertEquals(Paths.get("inventory-bucket-2.csv"), bucketConfig.getInventoryFile());
+        Assertions.assertEquals(Paths.get("audit-bucket-2.csv"), bucketConfig.getAuditFile());
+        Assertions.assertEquals(16, bucketConfig.getThreadCount());
+        // the shared throttle follows the schedule instead
+        Assertions.assertNull(bucketConfig.getThrottleSchedule());
+
+        // one bucket is not a batch
+        args = new String[]{"-e", "endpoint-1", "-b", "bucket-1", "-f", "inventory.csv", "-i"};
+        Assertions.assertTrue(ReReplicationCli.parseConfig(new DefaultParser().parse(ReReplicationCli.options(), args))
+                instanceof InventoryGenerator.Config);
+    }
+
+    @Test
+    public void testSamplerCli() throws Exception {
+        String[] args = {
+                "-e", "endpoint-1",
+                "-b", "bucket-1",
+                "-f", "file-1",
+                "--sample",
+                "--all-versions",
+                "--sample-size", "5000",
+                "--sample-precision", "0.005"
+        };
+
+        ReplicationSampler.Config config = (ReplicationSampler.Config) ReReplicationCli.parseConfig(
+                new DefaultParser().parse(ReReplicationCli.options(), args));
+
+        Assertions.assertEquals("bucket-1", config.getBucket());
+        Assertions.assertEquals(InventoryGenerator.FilterType.AllVersions, config.getFilterType());
+        Assertions.assertEquals(5000, config.getSampleSize());
+        Assertions.assertEquals(0.005, config.getSamplePrecision());
+    }
+
     @Test
     public void testReReplicationToolCli() throws Exception {
         String endpoint = "endpoint-1", bucket = "bucket-1", accessKey = "accessKey-1";
@@ -106,7 +310,22 @@ public class ReReplicationCliTest {
                 "-f", file,
                 "-t", "" + threads,
                 "-r",
-                "--re-replicate-custom-acls"
+                "--re-replicate-custom-acls",
+                "--partition", "2/8",
+                "--resume",
+                "--verify",
+                "--verify-timeout", "2h",
+                "--large-object-size", "1g",
+                "--large-object-threads", "4",
+                "--priority", "newest",
+                "--priority-prefix", "critical/=10",
+                "--priority-prefix", "a=b/=-1",
+                "--priority-buffer", "5000",
+                "--priority-sort",
+                "--throttle", "06:00-22:00=threads:8,ops:200,bytes:50m",
+                "--throttle", "22:00-23:00=pause",
+                "--max-duration", "8h",
+                "--max-objects", "1000000"
         };
 
         ReReplicationProcessor.Config config = (ReReplicationProcessor.Config) ReReplicationCli.parseConfig(
@@ -120,6 +339,27 @@ public class ReReplicationCliTest {
         Assertions.assertEquals(file, config.getInventoryFile().toString());
         Assertions.assertEquals(threads, config.getThreadCount());
         Assertions.assertTrue(config.isReReplicateCustomAcls());
+        Assertions.assertEquals(1, config.getPartitionIndex());
+        Assertions.assertEquals(8, config.getPartitionCount());
+        Assertions.assertTrue(config.isResume());
+        Assertions.assertTrue(config.isVerify());
+        Assertions.assertEquals(Duration.ofHours(2), config.getVerifyTimeout());
+        Assertions.assertEquals(1024L * 1024 * 1024, config.getLargeObjectSize());
+        Assertions.assertEquals(4, config.getLargeObjectThreadCount());
+        Assertions.assertEquals(PriorityOrder.Policy.Newest, config.getPriorityPolicy());
+        Assertions.assertEquals(10, config.getPriorityPrefixWeights().get("critical/"));
+        Assertions.assertEquals(-1, config.getPriorityPrefixWeights().get("a=b/"));
+        Assertions.assertEquals(5000, config.getPriorityBufferSize());
+        Assertions.assertTrue(config.isPrioritySort());
+        ThrottleSchedule schedule = config.getThrottleSchedule();
+        Assertions.assertEquals(2, schedule.getWindows().size());
+        Assertions.assertEquals(new Throttle.Limits(8, 200.0, 50L * 1024 * 1024), schedule.limitsAt(LocalTime.of(6, 0)));
+        Assertions.assertEquals(Throttle.Limits.PAUSED, schedule.limitsAt(LocalTime.of(22, 30)));
+        Assertions.assertEquals(Throttle.Limits.UNLIMITED, schedule.limitsAt(LocalTime.of(23, 0)));
+        Assertions.assertEquals(Throttle.Limits.UNLIMITED, schedule.limitsAt(LocalTime.of(5, 59)));
+        Assertions.assertEquals(Duration.ofHours(8), config.getMaxDuration());
+        Assertions.assertEquals(1000000L, config.getMaxObjects());
+        config.validate();
     }
 
     @Test
@@ -147,5 +387,16 @@ public class ReReplicationCliTest {
         Assertions.assertEquals(file, config.getInventoryFile().toString());
         Assertions.assertEquals(AbstractReplicationTool.Config.DEFAULT_THREAD_COUNT, config.getThreadCount());
         Assertions.assertFalse(config.isReReplicateCustomAcls());
+        Assertions.assertEquals(0, config.getPartitionCount());
+        Assertions.assertFalse(config.isResume());
+        Assertions.assertFalse(config.isVerify());
+        Assertions.assertEquals(ReplicationVerifier.DEFAULT_TIMEOUT, config.getVerifyTimeout());
+        Assertions.assertEquals(ReReplicationProcessor.DEFAULT_LARGE_OBJECT_SIZE, config.getLargeObjectSize());
+        Assertions.assertEquals(PriorityOrder.Policy.None, config.getPriorityPolicy());
+        Assertions.assertFalse(config.isPrioritySort());
+        Assertions.assertEquals(AbstractReplicationTool.Config.DEFAULT_THREAD_COUNT / 4, config.getLargeObjectThreadCount());
+        Assertions.assertNull(config.getThrottleSchedule());
+        Assertions.assertNull(config.getMaxDuration());
+        Assertions.assertNull(config.getMaxObjects());
     }
 }
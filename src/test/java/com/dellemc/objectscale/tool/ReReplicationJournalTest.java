@@ -0,0 +1,107 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.util.OffHeapKeySet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class ReReplicationJournalTest {
+    Path journalFile;
+
+    @BeforeEach
+    public void createJournalFile() throws Exception {
+        journalFile = Files.createTempFile("rereplication-journal", ReReplicationJournal.JOURNAL_FILE_SUFFIX);
+    }
+
+    @AfterEach
+    public void deleteJournalFile() throws Exception {
+        Files.deleteIfExists(journalFile);
+    }
+
+    InventoryRow row(String key) {
+        return new InventoryRow(key, "v1", null, null, null, null, null, null, null);
+    }
+
+    @Test
+    public void testJournalFile() {
+        Path inventoryFile = Paths.get("failed.csv");
+        Assertions.assertEquals(Paths.get("failed.csv.journal"),
+                ReReplicationProcessor.sidecarFile(inventoryFile, 0, 0, ReReplicationJournal.JOURNAL_FILE_SUFFIX));
+        Assertions.assertEquals(Paths.get("failed.csv.2-of-8.journal"),
+                ReReplicationProcessor.sidecarFile(inventoryFile, 1, 8, ReReplicationJournal.JOURNAL_FILE_SUFFIX));
+    }
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        int keyCount = 5000;
+        try (ReReplicationJournal journal = new ReReplicationJournal(journalFile, false)) {
+            for (int i = 0; i < keyCount; i++) {
+                journal.completed(row("object-" + i), "new-" + i);
+            }
+            journal.completed(row("odd,\"key\"\nhere"), null);
+        }
+
+        try (OffHeapKeySet keys = ReReplicationJournal.loadKeys(journalFile)) {
+            Assertions.assertEquals(keyCount + 1, keys.size());
+            Assertions.assertTrue(keys.contains("object-0"));
+            Assertions.assertTrue(keys.contains("object-" + (keyCount - 1)));
+            Assertions.assertTrue(keys.contains("odd,\"key\"\nhere"));
+            Assertions.assertFalse(keys.contains("object-" + keyCount));
+        }
+    }
+
+    @Test
+    public void testPartialRowAfterCrash() throws Exception {
+        try (ReReplicationJournal journal = new ReReplicationJournal(journalFile, false)) {
+            journal.completed(row("object-1"), "new-1");
+            journal.completed(row("object-2"), "new-2");
+        }
+        // simulate a crash in the middle of a row
+        Files.write(journalFile, "object-3,v1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (OffHeapKeySet keys = ReReplicationJournal.loadKeys(journalFile)) {
+            Assertions.assertEquals(2, keys.size());
+            Assertions.assertFalse(keys.contains("object-3"));
+        }
+
+        // resuming should drop the partial row before appending
+        try (ReReplicationJournal journal = new ReReplicationJournal(journalFile, true)) {
+            journal.completed(row("object-4"), "new-4");
+        }
+        try (OffHeapKeySet keys = ReReplicationJournal.loadKeys(journalFile)) {
+            Assertions.assertEquals(3, keys.size());
+            Assertions.assertTrue(keys.contains("object-4"));
+            Assertions.assertFalse(keys.contains("object-3"));
+        }
+        Assertions.assertEquals(3, Files.readAllLines(journalFile).size());
+    }
+
+    @Test
+    public void testPartialRowWithNewlineInKey() throws Exception {
+        try (ReReplicationJournal journal = new ReReplicationJournal(journalFile, false)) {
+            journal.completed(row("object-1"), "new-1");
+            journal.completed(row("quoted \"key\"\nwith a newline"), "new-2");
+        }
+        // a crash inside a quoted key, after the newline in it
+        Files.write(journalFile, "\"torn\nkey".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ReReplicationJournal journal = new ReReplicationJournal(journalFile, true)) {
+            journal.completed(row("object-3"), "new-3");
+            journal.completed(row("object-4"), "new-4");
+        }
+        try (OffHeapKeySet keys = ReReplicationJournal.loadKeys(journalFile)) {
+            Assertions.assertEquals(4, keys.size());
+            Assertions.assertTrue(keys.contains("quoted \"key\"\nwith a newline"));
+            Assertions.assertTrue(keys.contains("object-3"));
+            Assertions.assertTrue(keys.contains("object-4"));
+            Assertions.assertFalse(keys.contains("torn\nkey"));
+        }
+    }
+}
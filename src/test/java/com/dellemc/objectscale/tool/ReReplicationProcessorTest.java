@@ -1,8 +1,10 @@
 package com.dellemc.objectscale.tool;
 
+import com.dellemc.objectscale.util.Throttle;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.junit.jupiter.api.*;
 import software.amazon.awssdk.core.retry.ClockSkew;
@@ -13,8 +15,11 @@ import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -80,6 +85,8 @@ public class ReReplicationProcessorTest extends AbstractTest {
         ReReplicationProcessor tool = new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
                 .endpoint(URI.create(s3Endpoint))
                 .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
                 .bucket(bucket)
                 .inventoryFile(inventoryFile)
                 .build());
@@ -107,6 +114,8 @@ public class ReReplicationProcessorTest extends AbstractTest {
         ReReplicationProcessor tool = new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
                 .endpoint(URI.create(s3Endpoint))
                 .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
                 .bucket(bucket)
                 .inventoryFile(inventoryFile)
                 .build());
@@ -118,6 +127,156 @@ public class ReReplicationProcessorTest extends AbstractTest {
         verifyOnlyTheseKeysWereTouched(keys, testStartTime);
     }
 
+    @Test
+    public void testAuditLog() throws Exception {
+        Path inventoryFile = Files.createTempFile("rereplication-inventory", "csv");
+        inventoryFile.toFile().deleteOnExit();
+        Path auditFile = Files.createTempFile("rereplication-audit", "csv");
+        auditFile.toFile().deleteOnExit();
+        List<InventoryRow> rows = generateInventoryObjects(300, 350, true);
+        Files.write(inventoryFile, rows.stream().map(this::rowToKeyAndVersion).collect(Collectors.toList()), StandardCharsets.UTF_8);
+
+        ReReplicationProcessor tool = new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .inventoryFile(inventoryFile)
+                .auditFile(auditFile)
+                .build());
+        tool.run();
+
+        List<String[]> audited = new ArrayList<>();
+        try (CSVParser records = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(Files.newBufferedReader(auditFile))) {
+            Assertions.assertEquals(Arrays.stream(AuditLog.Header.values()).map(AuditLog.Header::name).collect(Collectors.toList()),
+                    records.getHeaderNames());
+            records.forEach(record -> audited.add(new String[]{record.get(AuditLog.Header.Operation),
+                    record.get(AuditLog.Header.Key), record.get(AuditLog.Header.NewVersionId), record.get(AuditLog.Header.Outcome)}));
+        }
+        // one row per key, each with the version that was created
+        Assertions.assertEquals(rows.stream().map(InventoryRow::getKey).distinct().count(), audited.size());
+        for (String[] row : audited) {
+            Assertions.assertEquals(AuditLog.OPERATION_COPY, row[0]);
+            Assertions.assertEquals(AuditLog.OUTCOME_OK, row[3]);
+            Assertions.assertEquals(s3Client.headObject(b -> b.bucket(bucket).key(row[1])).versionId(), row[2]);
+        }
+        Assertions.assertTrue(tool.getSummary().contains("COPY OK: " + audited.size()));
+    }
+
+    @Test
+    public void testWithDuplicateKeys() throws Exception {
+        final Instant testStartTime = delayAndGetStartTime();
+
+        // generate temp file
+        Path inventoryFile = Files.createTempFile("rereplication-inventory", "csv");
+        inventoryFile.toFile().deleteOnExit();
+        // simulate concatenated lists, so every key appears twice
+        List<String> keys = generateInventoryObjects(400, 450, true).stream().map(InventoryRow::getKey).collect(Collectors.toList());
+        List<String> lines = new ArrayList<>(keys);
+        lines.addAll(keys);
+        // write file
+        Files.write(inventoryFile, lines, StandardCharsets.UTF_8);
+
+        // tool should touch each key only once
+        ReReplicationProcessor tool = new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .inventoryFile(inventoryFile)
+                .build());
+        ProcessingStats grossRecords = new ProcessingStats(System.currentTimeMillis());
+        tool.setGrossRecords(grossRecords);
+        tool.run();
+
+        // verify each key was touched (and has only one new version)
+        Assertions.assertEquals(26, keys.size());
+        Assertions.assertEquals(52, grossRecords.getProcessedObjects());
+        Assertions.assertEquals(26, grossRecords.getDuplicates());
+        verifyOnlyTheseKeysWereTouched(keys, testStartTime);
+    }
+
+    @Test
+    public void testSink() throws Exception {
+        final Instant testStartTime = delayAndGetStartTime();
+
+        List<InventoryRow> rows = generateInventoryObjects(700, 750, true);
+        // a second copy of the first key, and a version that has already replicated
+        InventoryRow duplicate = generateInventoryObjects(700, 700, true).get(0);
+        InventoryRow completed = generateInventoryObjects(600, 600, true).get(0);
+        completed.setReplicationStatus(ReplicationStatus.COMPLETE);
+
+        // no inventory file; rows are submitted directly
+        ReReplicationProcessor tool = new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .build());
+        Map<InventoryRow, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        CompletableFuture<String> duplicateFuture, completedFuture;
+        // a small queue, so submit() has to wait for the pipeline
+        try (ReReplicationSink sink = tool.openSink(4)) {
+            for (InventoryRow row : rows) futures.put(row, sink.submit(row));
+            duplicateFuture = sink.submit(duplicate);
+            completedFuture = sink.submit(completed);
+            Assertions.assertThrows(IllegalStateException.class, () -> sink.submit(completed));
+        }
+
+        // closing waits for every row to complete
+        Assertions.assertEquals(26, rows.size());
+        for (Map.Entry<InventoryRow, CompletableFuture<String>> entry : futures.entrySet()) {
+            Assertions.assertTrue(entry.getValue().isDone());
+            Assertions.assertEquals(s3Client.headObject(b -> b.bucket(bucket).key(entry.getKey().getKey())).versionId(),
+                    entry.getValue().get());
+        }
+        Assertions.assertNull(duplicateFuture.get());
+        Assertions.assertNull(completedFuture.get());
+        verifyOnlyTheseKeysWereTouched(rows.stream().map(InventoryRow::getKey).collect(Collectors.toList()), testStartTime);
+    }
+
+    @Test
+    public void testMaxObjectsThenResume() throws Exception {
+        Path inventoryFile = Files.createTempFile("rereplication-inventory", "csv");
+        inventoryFile.toFile().deleteOnExit();
+        List<String> keys = generateInventoryObjects(500, 550, true).stream().map(InventoryRow::getKey).collect(Collectors.toList());
+        Files.write(inventoryFile, keys, StandardCharsets.UTF_8);
+        ReReplicationProcessor.Config config = ReReplicationProcessor.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .inventoryFile(inventoryFile)
+                // throttled all day
+                .throttleSchedule(new ThrottleSchedule(Collections.singletonList(new ThrottleSchedule.Window(
+                        LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, new Throttle.Limits(2, 100.0, null)))))
+                .maxObjects(10L)
+                .build();
+        try {
+            ReReplicationProcessor tool = new ReReplicationProcessor(config);
+            ProcessingStats filteredRecords = new ProcessingStats(System.currentTimeMillis());
+            tool.setFilteredRecords(filteredRecords);
+            tool.run();
+            Assertions.assertEquals(10, filteredRecords.getProcessedObjects());
+            Assertions.assertTrue(tool.getSummary().contains("Stopped early"), tool.getSummary());
+            Assertions.assertTrue(tool.getSummary().contains("Throttle:"), tool.getSummary());
+
+            // the next run picks up the rest
+            tool = new ReReplicationProcessor(config.toBuilder().maxObjects(null).resume(true).build());
+            filteredRecords = new ProcessingStats(System.currentTimeMillis());
+            tool.setFilteredRecords(filteredRecords);
+            tool.run();
+            Assertions.assertEquals(keys.size() - 10, filteredRecords.getProcessedObjects());
+            Assertions.assertFalse(tool.getSummary().contains("Stopped early"), tool.getSummary());
+        } finally {
+            Files.deleteIfExists(Paths.get(inventoryFile + ReReplicationJournal.JOURNAL_FILE_SUFFIX));
+        }
+    }
+
     String rowToKeyAndVersion(InventoryRow row) {
         return String.join(",", Arrays.asList(row.getKey(), row.getVersionId()));
     }
@@ -142,6 +301,8 @@ public class ReReplicationProcessorTest extends AbstractTest {
         ReReplicationProcessor tool = new ReReplicationProcessor(ReReplicationProcessor.Config.builder()
                 .endpoint(URI.create(s3Endpoint))
                 .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
                 .bucket(bucket)
                 .inventoryFile(inventoryFile)
                 .build());
@@ -0,0 +1,126 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.s3.LocalS3Server;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReplicationVerifierTest {
+    /**
+     * Simulates replication: each key becomes its final status after a number of HEADs
+     */
+    static class SimulatedVerifier extends ReplicationVerifier {
+        final Map<String, AtomicInteger> heads = new ConcurrentHashMap<>();
+
+        SimulatedVerifier(Duration timeout) {
+            super(null, "bucket", 4, Duration.ofMillis(5), Duration.ofMillis(20), timeout);
+        }
+
+        @Override
+        ReplicationStatus headReplicationStatus(String key, String versionId) {
+            int count = heads.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            if (key.startsWith("error") && count == 1) throw new RuntimeException("simulated HEAD failure");
+            if (key.startsWith("fatal")) throw new AssertionError("simulated fatal HEAD failure");
+            if (key.startsWith("stuck")) return ReplicationStatus.PENDING;
+            if (count < 3) return ReplicationStatus.PENDING;
+            return key.startsWith("failed") ? ReplicationStatus.FAILED : ReplicationStatus.COMPLETE;
+        }
+    }
+
+    @Test
+    public void testVerification() throws Exception {
+        Path retryFile = Files.createTempFile("rereplication-retry", ".csv");
+        try (SimulatedVerifier verifier = new SimulatedVerifier(Duration.ofMillis(300))) {
+            for (int i = 0; i < 100; i++) verifier.schedule("complete-" + i, "v" + i);
+            verifier.schedule("failed-1", "v1");
+            verifier.schedule("stuck-1", "v1");
+            verifier.schedule("error-1", "v1");
+            verifier.awaitCompletion();
+
+            Assertions.assertEquals(0, verifier.getOutstanding());
+            Assertions.assertEquals(101, verifier.getCompleteCount());
+            Assertions.assertEquals(1, verifier.getFailedCount());
+            Assertions.assertEquals(1, verifier.getTimedOutCount());
+            // each version should only be HEADed until it has a final status
+            Assertions.assertEquals(3, verifier.heads.get("complete-0").get());
+            Assertions.assertEquals(3, verifier.heads.get("failed-1").get());
+            Assertions.assertTrue(verifier.heads.get("stuck-1").get() >= 3);
+
+            verifier.writeRetryFile(retryFile);
+            List<String> lines = Files.readAllLines(retryFile);
+            Collections.sort(lines);
+            Assertions.assertEquals(2, lines.size());
+            Assertions.assertEquals("failed-1,v1", lines.get(0));
+            Assertions.assertEquals("stuck-1,v1", lines.get(1));
+        } finally {
+            Files.deleteIfExists(retryFile);
+        }
+    }
+
+    @Test
+    public void testNothingScheduled() throws Exception {
+        try (SimulatedVerifier verifier = new SimulatedVerifier(Duration.ofMillis(100))) {
+            verifier.awaitCompletion();
+            Assertions.assertEquals(0, verifier.getCompleteCount());
+        }
+    }
+
+    @Test
+    public void testErrorDuringCheck() throws Exception {
+        Path retryFile = Files.createTempFile("rereplication-retry", ".csv");
+        try (SimulatedVerifier verifier = new SimulatedVerifier(Duration.ofSeconds(10))) {
+            verifier.schedule("fatal-1", "v1");
+            for (int i = 0; i < 10; i++) verifier.schedule("complete-" + i, "v" + i);
+            // must not wait forever for the check that threw
+            verifier.awaitCompletion();
+
+            Assertions.assertEquals(0, verifier.getOutstanding());
+            Assertions.assertEquals(10, verifier.getCompleteCount());
+            Assertions.assertEquals(1, verifier.heads.get("fatal-1").get());
+
+            verifier.writeRetryFile(retryFile);
+            Assertions.assertEquals(Collections.singletonList("fatal-1,v1"), Files.readAllLines(retryFile));
+        } finally {
+            Files.deleteIfExists(retryFile);
+        }
+    }
+
+    @Test
+    public void testObjectScaleCompletedStatus() throws Exception {
+        // ObjectScale reports COMPLETED, which the SDK does not know
+        try (LocalS3Server server = new LocalS3Server().start();
+             S3Client s3Client = S3Client.builder()
+                     .endpointOverride(server.getEndpoint())
+                     .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(LocalS3Server.ACCESS_KEY, LocalS3Server.SECRET_KEY)))
+                     .region(Region.US_EAST_1)
+                     .build()) {
+            server.setObjectScaleStatusNames(true);
+            s3Client.createBucket(builder -> builder.bucket("bucket"));
+            String versionId = s3Client.putObject(builder -> builder.bucket("bucket").key("key"), RequestBody.empty()).versionId();
+            Assertions.assertEquals("COMPLETED",
+                    s3Client.headObject(builder -> builder.bucket("bucket").key("key")).replicationStatusAsString());
+
+            try (ReplicationVerifier verifier = new ReplicationVerifier(s3Client, "bucket", 1, Duration.ofMillis(5),
+                    Duration.ofMillis(20), Duration.ofMillis(500))) {
+                verifier.schedule("key", versionId);
+                verifier.awaitCompletion();
+                Assertions.assertEquals(1, verifier.getCompleteCount());
+                Assertions.assertEquals(0, verifier.getTimedOutCount());
+            }
+        }
+    }
+}
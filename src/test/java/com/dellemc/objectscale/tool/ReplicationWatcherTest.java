@@ -0,0 +1,174 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.s3.LocalS3Server;
+import org.junit.jupiter.api.*;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a bucket on the local S3 stand-in (replication status can only be changed there)
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ReplicationWatcherTest extends AbstractTest {
+    public static final int OBJECT_COUNT = 20;
+    String bucket = "rereplication-tool-watch-test";
+
+    @Override
+    String getBucket() {
+        return bucket;
+    }
+
+    @Override
+    @BeforeAll
+    public void setup() throws Exception {
+        super.setup();
+        Assumptions.assumeTrue(localServer != null, "requires the local S3 stand-in");
+
+        // 10 current versions and 10 delete markers
+        createObjectVersions(OBJECT_COUNT);
+    }
+
+    @AfterAll
+    public void cleanup() throws Exception {
+        cleanBucket(bucket);
+    }
+
+    @Test
+    public void testRepairAndConfirm() throws Exception {
+        Path stateFile = Files.createTempFile("rereplication-watch", ".state");
+        Files.delete(stateFile);
+        stateFile.toFile().deleteOnExit();
+        List<String> failedKeys = Arrays.asList("object-0", "object-4", "object-8");
+        for (String key : failedKeys) setCurrentStatus(key, ReplicationStatus.FAILED);
+        // re-replicated versions stay PENDING until the second pass
+        localServer.setNewVersionStatus(ReplicationStatus.PENDING);
+
+        try (ReplicationWatcher watcher = new ReplicationWatcher(config(stateFile).maxPasses(1).build())) {
+            watcher.run();
+
+            WatchState.Bucket state = watcher.getState().getBucket(bucket);
+            Assertions.assertEquals(1, state.getPasses());
+            Assertions.assertNull(state.getPosition());
+            Assertions.assertEquals(OBJECT_COUNT / 2 - failedKeys.size(), state.getReplicatedCount());
+            Assertions.assertEquals(failedKeys.size(), state.getRepairCount());
+            for (String key : failedKeys) {
+                Assertions.assertEquals(currentVersionId(key), state.getRepair(key).getVersionId());
+                Assertions.assertEquals(1, state.getRepair(key).getAttempts());
+            }
+        }
+        Assertions.assertTrue(Files.exists(stateFile));
+
+        // the new versions replicate; a new watcher loads the state, and only HEADs the versions it doesn't know about
+        for (String key : failedKeys) setCurrentStatus(key, ReplicationStatus.COMPLETE);
+        localServer.setNewVersionStatus(ReplicationStatus.COMPLETE);
+        try (ReplicationWatcher watcher = new ReplicationWatcher(config(stateFile).maxPasses(2)
+                .passInterval(Duration.ofSeconds(2)).statusPort(0).build())) {
+            CompletableFuture<Void> run = CompletableFuture.runAsync(watcher);
+
+            // between passes, the status endpoint reports the first pass
+            String status = null;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (System.nanoTime() < deadline) {
+                InetSocketAddress address = watcher.getStatusAddress();
+                if (address != null) {
+                    status = get(new URL("http://localhost:" + address.getPort() + ReplicationWatcher.STATUS_PATH));
+                    if (status.contains("\"state\": \"waiting\"")) break;
+                }
+                Thread.sleep(20);
+            }
+            Assertions.assertNotNull(status);
+            Assertions.assertTrue(status.contains("\"state\": \"waiting\""), status);
+            Assertions.assertTrue(status.contains("\"passes\": 2"), status);
+            Assertions.assertTrue(status.contains("\"headed\": " + failedKeys.size()), status);
+            Assertions.assertTrue(status.contains("\"confirmed\": " + failedKeys.size()), status);
+            Assertions.assertTrue(status.contains("\"backlog\": 0"), status);
+            run.get(1, TimeUnit.MINUTES);
+
+            WatchState.Bucket state = watcher.getState().getBucket(bucket);
+            Assertions.assertEquals(3, state.getPasses());
+            Assertions.assertEquals(OBJECT_COUNT / 2, state.getReplicatedCount());
+            Assertions.assertEquals(0, state.getRepairCount());
+        }
+    }
+
+    @Test
+    public void testForgetsDeletedKeys() {
+        WatchState.Bucket state = new WatchState(Arrays.asList("b")).getBucket("b");
+        for (String key : Arrays.asList("a", "b", "c", "d", "e", "f")) state.putReplicated(key, "v1");
+        state.repairs.put("c", new WatchState.Repair("v2", 1));
+        Assertions.assertEquals(6, state.getReplicatedCount());
+
+        // a pass interrupted after "b" resumes, and lists "d" but not "c"
+        state.startListing("b");
+        state.listed("d");
+        Assertions.assertEquals(5, state.getReplicatedCount());
+        Assertions.assertFalse(state.isReplicated("c", "v1"));
+        Assertions.assertNull(state.getRepair("c"));
+        Assertions.assertTrue(state.isReplicated("a", "v1"));
+
+        // the listing ends at "e"
+        state.listed("e");
+        state.listingComplete();
+        Assertions.assertEquals(4, state.getReplicatedCount());
+        Assertions.assertFalse(state.isReplicated("f", "v1"));
+
+        // a full pass that lists nothing forgets everything
+        state.startListing(null);
+        state.listingComplete();
+        Assertions.assertEquals(0, state.getReplicatedCount());
+    }
+
+    @Test
+    public void testValidation() {
+        Path stateFile = Paths.get("watch.state");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> config(stateFile)
+                .buckets(Arrays.asList(bucket, bucket)).build().validate());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> config(stateFile)
+                .maxRequestsPerSecond(0.0).build().validate());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> config(stateFile)
+                .maxRepairs(0).build().validate());
+        config(stateFile).build().validate();
+    }
+
+    ReplicationWatcher.Config.ConfigBuilder<?, ?> config(Path stateFile) {
+        return ReplicationWatcher.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .inventoryFile(stateFile)
+                .passInterval(Duration.ZERO);
+    }
+
+    void setCurrentStatus(String key, ReplicationStatus status) {
+        LocalS3Server.Bucket localBucket = localServer.getBucket(bucket);
+        localBucket.find(key, currentVersionId(key)).setReplicationStatus(status);
+    }
+
+    String currentVersionId(String key) {
+        return s3Client.headObject(builder -> builder.bucket(bucket).key(key)).versionId();
+    }
+
+    static String get(URL url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (InputStream in = connection.getInputStream(); Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+            Assertions.assertEquals(200, connection.getResponseCode());
+            return scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+        }
+    }
+}
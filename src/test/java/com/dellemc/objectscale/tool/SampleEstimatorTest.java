@@ -0,0 +1,74 @@
+package com.dellemc.objectscale.tool;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.ReplicationStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class SampleEstimatorTest {
+    InventoryRow row(ReplicationStatus status, long size) {
+        return new InventoryRow("key", "v1", false, true, null, null, size, null, status);
+    }
+
+    List<InventoryRow> population(int size, double failedFraction, long failedSize, long otherSize) {
+        List<InventoryRow> rows = new ArrayList<>();
+        int failed = (int) (size * failedFraction);
+        for (int i = 0; i < size; i++) {
+            rows.add(i < failed ? row(ReplicationStatus.FAILED, failedSize) : row(ReplicationStatus.COMPLETE, otherSize));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testCensusIsExact() {
+        List<InventoryRow> rows = population(1000, 0.1, 100, 1);
+        SampleEstimator estimator = new SampleEstimator(rows.size(), 100 * 100 + 900);
+        rows.forEach(estimator::add);
+
+        SampleEstimator.Estimate failed = estimator.estimate(ReplicationStatus.FAILED);
+        Assertions.assertEquals(0.1, failed.getFraction(), 1e-9);
+        Assertions.assertEquals(failed.getFraction(), failed.getFractionLow(), 1e-9);
+        Assertions.assertEquals(failed.getFraction(), failed.getFractionHigh(), 1e-9);
+        Assertions.assertEquals(100, failed.getCount());
+        Assertions.assertEquals(100 * 100, failed.getBytes());
+        Assertions.assertEquals(failed.getBytes(), failed.getBytesLow());
+        Assertions.assertEquals(failed.getBytes(), failed.getBytesHigh());
+        Assertions.assertEquals(0, estimator.getHalfWidth(ReplicationStatus.PENDING), 1e-9);
+    }
+
+    @Test
+    public void testNoSamples() {
+        SampleEstimator estimator = new SampleEstimator(500, 5000);
+        SampleEstimator.Estimate failed = estimator.estimate(ReplicationStatus.FAILED);
+        Assertions.assertEquals(0, failed.getFractionLow(), 1e-9);
+        Assertions.assertEquals(1, failed.getFractionHigh(), 1e-9);
+        Assertions.assertEquals(500, failed.getCountHigh());
+    }
+
+    @Test
+    public void testIntervalCoverage() {
+        // with 95% intervals, the true value should be covered in roughly 95% of trials
+        int populationSize = 100000, sampleSize = 2000, trials = 200;
+        double failedFraction = 0.03;
+        List<InventoryRow> rows = population(populationSize, failedFraction, 1000, 10);
+        long trueFailedBytes = (long) (populationSize * failedFraction) * 1000;
+        long populationBytes = rows.stream().mapToLong(InventoryRow::getSize).sum();
+        Random random = new Random(42);
+
+        int fractionCovered = 0, bytesCovered = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            Collections.shuffle(rows, random);
+            SampleEstimator estimator = new SampleEstimator(populationSize, populationBytes);
+            rows.subList(0, sampleSize).forEach(estimator::add);
+            SampleEstimator.Estimate failed = estimator.estimate(ReplicationStatus.FAILED);
+            if (failed.getFractionLow() <= failedFraction && failed.getFractionHigh() >= failedFraction) fractionCovered++;
+            if (failed.getBytesLow() <= trueFailedBytes && failed.getBytesHigh() >= trueFailedBytes) bytesCovered++;
+        }
+        Assertions.assertTrue(fractionCovered >= trials * 0.9, "fraction covered in " + fractionCovered + " of " + trials);
+        Assertions.assertTrue(bytesCovered >= trials * 0.88, "bytes covered in " + bytesCovered + " of " + trials);
+    }
+}
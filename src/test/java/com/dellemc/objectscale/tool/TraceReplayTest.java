@@ -0,0 +1,113 @@
+package com.dellemc.objectscale.tool;
+
+import com.dellemc.objectscale.trace.TraceEvent;
+import com.dellemc.objectscale.trace.TraceFile;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Records an inventory run, then replays it without the endpoint and expects the same inventory
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TraceReplayTest extends AbstractTest {
+    public static final int OBJECT_COUNT = 300;
+    String bucket = "inventory-tool-trace-test";
+
+    @Override
+    String getBucket() {
+        return bucket;
+    }
+
+    @Override
+    @BeforeAll
+    public void setup() throws Exception {
+        super.setup();
+
+        createObjectVersions(OBJECT_COUNT);
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException {
+        Path traceFile = Files.createTempFile("rereplication-trace", ".bin");
+        traceFile.toFile().deleteOnExit();
+        Path recordedInventory = Files.createTempFile("rereplication-inventory", "csv");
+        recordedInventory.toFile().deleteOnExit();
+        Path replayedInventory = Files.createTempFile("rereplication-inventory", "csv");
+        replayedInventory.toFile().deleteOnExit();
+
+        InventoryGenerator.Config config = InventoryGenerator.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .awsProfile(awsProfile)
+                .accessKey(accessKey)
+                .secretKey(secretKey)
+                .bucket(bucket)
+                .inventoryFile(recordedInventory)
+                .forceOverwrite(true)
+                .filterType(InventoryGenerator.FilterType.AllVersions)
+                .recordTrace(traceFile)
+                .build();
+        config.validate();
+        try (InventoryGenerator tool = new InventoryGenerator(config)) {
+            tool.run();
+        }
+
+        List<TraceEvent> events = TraceFile.read(traceFile);
+        List<TraceEvent> listings = events.stream()
+                .filter(event -> event.getOperation() == TraceEvent.Operation.ListObjectVersions)
+                .collect(Collectors.toList());
+        Assertions.assertFalse(listings.isEmpty());
+        Assertions.assertEquals(OBJECT_COUNT + OBJECT_COUNT / 2, listings.stream()
+                .mapToInt(event -> event.getVersions().size() + event.getDeleteMarkers().size()).sum());
+        events.forEach(event -> {
+            Assertions.assertTrue(event.getDurationNanos() > 0);
+            Assertions.assertTrue(event.getAttempts() >= 1);
+        });
+
+        // no endpoint; everything must come from the trace
+        config = InventoryGenerator.Config.builder()
+                .bucket(bucket)
+                .inventoryFile(replayedInventory)
+                .forceOverwrite(true)
+                .filterType(InventoryGenerator.FilterType.AllVersions)
+                .replayTrace(traceFile)
+                .replaySpeed(10)
+                .build();
+        config.validate();
+        try (InventoryGenerator tool = new InventoryGenerator(config)) {
+            tool.run();
+        }
+
+        Assertions.assertEquals(sortedLines(recordedInventory), sortedLines(replayedInventory));
+    }
+
+    @Test
+    public void testRecordAndReplayExclusive() {
+        Path traceFile = Paths.get("trace.bin");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> InventoryGenerator.Config.builder()
+                .endpoint(URI.create(s3Endpoint))
+                .bucket(bucket)
+                .inventoryFile(Paths.get("inventory.csv"))
+                .recordTrace(traceFile)
+                .replayTrace(traceFile)
+                .build().validate());
+    }
+
+    private static List<String> sortedLines(Path file) throws IOException {
+        return Files.readAllLines(file).stream().sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    @AfterAll
+    public void teardown() throws Exception {
+        cleanBucket(getBucket());
+
+        super.teardown();
+    }
+}
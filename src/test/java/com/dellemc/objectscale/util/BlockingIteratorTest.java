@@ -0,0 +1,58 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class BlockingIteratorTest {
+    @Test
+    public void testBatches() {
+        List<Long> requests = new ArrayList<>();
+        List<Integer> items = new ArrayList<>();
+        try (BlockingIterator<Integer> iterator = BlockingIterator.of(rangePublisher(25, requests, null), 10)) {
+            iterator.forEachRemaining(items::add);
+            Assertions.assertThrows(NoSuchElementException.class, iterator::next);
+        }
+        Assertions.assertEquals(25, items.size());
+        for (int i = 0; i < items.size(); i++) Assertions.assertEquals(i, items.get(i));
+        // the next batch is only requested once the last one has been read
+        Assertions.assertEquals(3, requests.size());
+        requests.forEach(n -> Assertions.assertEquals(10, n));
+    }
+
+    @Test
+    public void testError() {
+        RuntimeException error = new RuntimeException("publisher failed");
+        BlockingIterator<Integer> iterator = BlockingIterator.of(rangePublisher(5, new ArrayList<>(), error), 10);
+        for (int i = 0; i < 5; i++) Assertions.assertEquals(i, iterator.next());
+        Assertions.assertSame(error, Assertions.assertThrows(RuntimeException.class, iterator::hasNext));
+    }
+
+    // publishes 0 to count-1 on the requesting thread, then completes (or fails)
+    static Publisher<Integer> rangePublisher(int count, List<Long> requests, RuntimeException error) {
+        return subscriber -> subscriber.onSubscribe(new Subscription() {
+            int next;
+
+            @Override
+            public void request(long n) {
+                requests.add(n);
+                for (long i = 0; i < n && next < count; i++) subscriber.onNext(next++);
+                if (next == count) {
+                    next++;
+                    if (error != null) subscriber.onError(error);
+                    else subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                next = count + 1;
+            }
+        });
+    }
+}
@@ -0,0 +1,145 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class EnhancedThreadPoolExecutorTest {
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Test
+    public void testBlockingSubmit() throws Exception {
+        EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(2, new LinkedBlockingDeque<>(3), "test-pool");
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // 2 running + 3 queued fills the pool
+            for (int i = 0; i < 5; i++) executor.blockingSubmit(() -> await(release));
+            Assertions.assertThrows(RejectedExecutionException.class, () -> executor.submit(() -> await(release)));
+
+            AtomicInteger submitted = new AtomicInteger();
+            Thread submitter = new Thread(() -> {
+                executor.blockingSubmit(submitted::incrementAndGet);
+            });
+            submitter.start();
+            submitter.join(500);
+            Assertions.assertTrue(submitter.isAlive(), "submitter should block while the queue is full");
+
+            release.countDown();
+            submitter.join(10000);
+            Assertions.assertFalse(submitter.isAlive());
+        } finally {
+            executor.shutdown();
+            Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(0, executor.getUnfinishedTasks());
+        Assertions.assertEquals(0, executor.getActiveCount());
+    }
+
+    @Test
+    public void testCallableIsWrappedOnce() throws Exception {
+        EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(1, new LinkedBlockingDeque<>(10));
+        try {
+            Callable<String> callable = () -> "done";
+            Future<String> future = executor.blockingSubmit(callable);
+            Assertions.assertEquals("done", future.get(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(future instanceof EnhancedFutureTask);
+            Assertions.assertSame(callable, ((EnhancedFutureTask<String>) future).getCallable());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(2, new LinkedBlockingDeque<>(100));
+        try {
+            Assertions.assertTrue(executor.pause());
+            Assertions.assertFalse(executor.pause());
+            Assertions.assertTrue(executor.isPaused());
+
+            CountDownLatch done = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) executor.blockingSubmit(done::countDown);
+            Assertions.assertFalse(done.await(500, TimeUnit.MILLISECONDS));
+            Assertions.assertEquals(10, done.getCount());
+
+            Assertions.assertTrue(executor.resume());
+            Assertions.assertFalse(executor.isPaused());
+            Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(4, new LinkedBlockingDeque<>(100));
+        AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(40);
+        Runnable task = () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignored) {
+            }
+            running.decrementAndGet();
+            done.countDown();
+        };
+        try {
+            executor.resizeThreadPool(1);
+            // wait for the excess threads to finish their current tasks
+            Thread.sleep(100);
+            maxRunning.set(0);
+            for (int i = 0; i < 20; i++) executor.blockingSubmit(task);
+            while (done.getCount() > 20) Thread.sleep(10);
+            Assertions.assertEquals(1, maxRunning.get());
+
+            executor.resizeThreadPool(4);
+            for (int i = 0; i < 20; i++) executor.blockingSubmit(task);
+            Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(maxRunning.get() > 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStopReleasesBlockedSubmitters() throws Exception {
+        EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(1, new LinkedBlockingDeque<>(1));
+        CountDownLatch release = new CountDownLatch(1);
+        executor.blockingSubmit(() -> await(release));
+        executor.blockingSubmit(() -> await(release));
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread submitter = new Thread(() -> {
+            try {
+                executor.blockingSubmit(() -> {
+                });
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        submitter.start();
+        submitter.join(200);
+        Assertions.assertTrue(submitter.isAlive());
+
+        executor.stop();
+        submitter.join(10000);
+        Assertions.assertFalse(submitter.isAlive());
+        Assertions.assertTrue(error.get() instanceof IllegalStateException);
+        release.countDown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
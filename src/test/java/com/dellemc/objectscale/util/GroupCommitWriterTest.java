@@ -0,0 +1,46 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitWriterTest {
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        Path file = Files.createTempFile("group-commit", ".log");
+        try {
+            int threads = 8, perThread = 2000;
+            GroupCommitWriter<String> writer = new GroupCommitWriter<>(file, false, record -> record, "test-writer", 100);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                executor.execute(() -> {
+                    for (int i = 0; i < perThread; i++) writer.append(thread + "-" + i);
+                });
+            }
+            executor.shutdown();
+            Assertions.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+            writer.close();
+
+            List<String> lines = Files.readAllLines(file);
+            Set<String> unique = new HashSet<>(lines);
+            Assertions.assertEquals(threads * perThread, lines.size());
+            Assertions.assertEquals(threads * perThread, unique.size());
+            Assertions.assertEquals(threads * perThread, writer.getCommittedCount());
+            // records should have been committed in groups, not one at a time
+            Assertions.assertTrue(writer.getBatchCount() < writer.getCommittedCount());
+
+            Assertions.assertThrows(IllegalStateException.class, () -> writer.append("late"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgerTest {
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testLatencyTracker() {
+        LatencyTracker tracker = new LatencyTracker(95, 100, 20);
+        for (int i = 1; i < 20; i++) tracker.record(i);
+        Assertions.assertEquals(-1, tracker.getPercentileNanos());
+        tracker.record(20);
+        Assertions.assertEquals(19, tracker.getPercentileNanos());
+
+        // the window slides: once old samples are replaced, the percentile follows the new latency
+        for (int i = 0; i < 100; i++) tracker.record(1000);
+        Assertions.assertEquals(1000, tracker.getPercentileNanos());
+        Assertions.assertEquals(120, tracker.getSampleCount());
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() {
+        try (Hedger hedger = new Hedger("test", new LatencyTracker(95, 100, 10), 1, false)) {
+            // warm up with fast requests; nothing is hedged before the threshold is known
+            for (int i = 0; i < 10; i++) Assertions.assertEquals("fast", hedger.call(isHedge -> "fast"));
+            Assertions.assertEquals(0, hedger.getHedgeCount());
+            // (a fast request may still be slower than most)
+            for (int i = 0; i < 10; i++) Assertions.assertEquals("fast", hedger.call(isHedge -> "fast"));
+            long hedgeCount = hedger.getHedgeCount(), hedgeWinCount = hedger.getHedgeWinCount();
+
+            // the primary is stuck (i.e. on a slow node), so the hedge wins, and the primary is interrupted
+            CountDownLatch primaryInterrupted = new CountDownLatch(1);
+            String result = hedger.call(isHedge -> {
+                if (isHedge) return "hedge";
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    primaryInterrupted.countDown();
+                }
+                return "primary";
+            });
+            Assertions.assertEquals("hedge", result);
+            Assertions.assertEquals(hedgeCount + 1, hedger.getHedgeCount());
+            Assertions.assertEquals(hedgeWinCount + 1, hedger.getHedgeWinCount());
+            Assertions.assertEquals(21, hedger.getRequestCount());
+            Assertions.assertTrue(hedger.getSummary().startsWith("Hedged " + (hedgeCount + 1) + " of 21 requests"));
+            Assertions.assertDoesNotThrow(() -> primaryInterrupted.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testThresholdKeepsSlowRequests() {
+        try (Hedger hedger = new Hedger("test", new LatencyTracker(95, 50, 10), 1, false)) {
+            for (int i = 0; i < 20; i++) hedger.call(isHedge -> {
+                sleep(20);
+                return "ok";
+            });
+            long threshold = hedger.getLatencyTracker().getPercentileNanos();
+            Assertions.assertTrue(threshold >= TimeUnit.MILLISECONDS.toNanos(20));
+
+            // every request is stuck and loses to its (fast) hedge; how long each ran before it was stopped is still
+            // recorded, so the threshold does not fall to the hedges' latency and hedges do not fire ever earlier
+            for (int i = 0; i < 60; i++) {
+                Assertions.assertEquals("hedge", hedger.call(isHedge -> {
+                    if (isHedge) return "hedge";
+                    sleep(10000);
+                    return "primary";
+                }));
+                Assertions.assertFalse(Thread.currentThread().isInterrupted());
+            }
+            Assertions.assertEquals(60, hedger.getHedgeWinCount());
+            Assertions.assertTrue(hedger.getLatencyTracker().getPercentileNanos() >= threshold,
+                    "threshold fell from " + threshold + " to " + hedger.getLatencyTracker().getPercentileNanos());
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        // each request earns a tenth of a hedge
+        try (Hedger hedger = new Hedger("test", new LatencyTracker(50, 1000, 10), 0.1, false)) {
+            for (int i = 0; i < 10; i++) hedger.call(isHedge -> "fast");
+            AtomicInteger hedges = new AtomicInteger();
+            for (int i = 0; i < 40; i++) {
+                hedger.call(isHedge -> {
+                    if (isHedge) hedges.incrementAndGet();
+                    else sleep(20);
+                    return "ok";
+                });
+            }
+            // every slow request would be hedged, but 50 requests only earn 5 hedges
+            Assertions.assertTrue(hedger.getHedgeCount() > 0);
+            Assertions.assertTrue(hedger.getHedgeCount() <= 5, "hedges: " + hedger.getHedgeCount());
+            Assertions.assertEquals(hedger.getHedgeCount(), hedges.get());
+        }
+    }
+
+    @Test
+    public void testFailures() {
+        try (Hedger hedger = new Hedger("test", new LatencyTracker(95, 100, 10), 1, false)) {
+            for (int i = 0; i < 10; i++) hedger.call(isHedge -> "fast");
+
+            // a failure is thrown
+            IllegalStateException error = Assertions.assertThrows(IllegalStateException.class,
+                    () -> hedger.call(isHedge -> {
+                        throw new IllegalStateException("primary");
+                    }));
+            Assertions.assertEquals("primary", error.getMessage());
+
+            // if the slow primary fails, the hedge can still succeed
+            Assertions.assertEquals("hedge", hedger.call(isHedge -> {
+                if (isHedge) {
+                    sleep(50);
+                    return "hedge";
+                }
+                sleep(20);
+                throw new IllegalStateException("primary");
+            }));
+
+            // if both fail, the first error is thrown
+            error = Assertions.assertThrows(IllegalStateException.class, () -> hedger.call(isHedge -> {
+                if (!isHedge) sleep(20);
+                throw new IllegalStateException(isHedge ? "hedge" : "primary");
+            }));
+            Assertions.assertEquals("hedge", error.getMessage());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LanedExecutorTest {
+    @Test
+    public void testSlowLaneDoesNotStarveFastLane() throws Exception {
+        LanedExecutor executor = new LanedExecutor("test",
+                new LanedExecutor.Lane("fast", 2, 4, 100),
+                new LanedExecutor.Lane("slow", 2, 2, 100));
+        CountDownLatch release = new CountDownLatch(1), slowStarted = new CountDownLatch(2);
+        AtomicInteger slowRunning = new AtomicInteger(), maxSlowRunning = new AtomicInteger();
+        try {
+            // fill the slow lane with tasks that block
+            for (int i = 0; i < 10; i++) {
+                executor.blockingSubmit(1, () -> {
+                    maxSlowRunning.accumulateAndGet(slowRunning.incrementAndGet(), Math::max);
+                    slowStarted.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    slowRunning.decrementAndGet();
+                });
+            }
+            // fast tasks should still complete
+            CountDownLatch fastDone = new CountDownLatch(50);
+            for (int i = 0; i < 50; i++) executor.blockingSubmit(0, fastDone::countDown);
+            Assertions.assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+            // the slow lane may not borrow, so it should never exceed its own threads
+            Assertions.assertEquals(2, maxSlowRunning.get());
+            Assertions.assertEquals(2, executor.getActiveCount(1));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(0, executor.getQueueSize(1));
+    }
+
+    @Test
+    public void testBorrowing() throws Exception {
+        // the fast lane has no threads of its own, so all of its work is borrowed
+        LanedExecutor executor = new LanedExecutor("test",
+                new LanedExecutor.Lane("fast", 0, 3, 10),
+                new LanedExecutor.Lane("slow", 3, 3, 10));
+        CountDownLatch running = new CountDownLatch(3), release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            executor.blockingSubmit(0, () -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+        // all three tasks should run at once on the idle slow-lane threads
+        Assertions.assertTrue(running.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assertions.assertThrows(IllegalStateException.class, () -> executor.blockingSubmit(0, () -> {
+        }));
+    }
+}
@@ -0,0 +1,36 @@
+package com.dellemc.objectscale.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+public class LogSamplerTest {
+    @Test
+    public void testBurstThenInterval() throws Exception {
+        Logger logger = LoggerContext.getContext(false).getLogger(LogSamplerTest.class.getName());
+        Configurator.setLevel(logger.getName(), Level.INFO);
+        LogSampler sampler = new LogSampler(5, Duration.ofMillis(200));
+
+        for (int i = 0; i < 100; i++) sampler.log(logger, Level.INFO, "a", "message a{}", i);
+        // the first 5 are logged, the rest are suppressed until the interval passes
+        Assertions.assertEquals(95, sampler.getSuppressedCount());
+
+        // each kind has its own burst
+        for (int i = 0; i < 5; i++) sampler.log(logger, Level.INFO, "b", "message b{}", i);
+        Assertions.assertEquals(95, sampler.getSuppressedCount());
+
+        Thread.sleep(250);
+        sampler.log(logger, Level.INFO, "a", "message a{}", 100);
+        sampler.log(logger, Level.INFO, "a", "message a{}", 101);
+        Assertions.assertEquals(96, sampler.getSuppressedCount());
+
+        // disabled levels are not counted
+        sampler.log(logger, Level.TRACE, "a", "message a{}", 102);
+        Assertions.assertEquals(96, sampler.getSuppressedCount());
+    }
+}
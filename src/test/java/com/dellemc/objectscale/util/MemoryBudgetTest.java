@@ -0,0 +1,54 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryBudgetTest {
+    @Test
+    public void testAcquireRelease() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        Assertions.assertTrue(budget.tryAcquire(60, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(budget.tryAcquire(40, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(budget.tryAcquire(1, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(100, budget.getUsed());
+        Assertions.assertEquals(1, budget.getWaitCount());
+
+        // a release wakes a waiting acquire
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                if (budget.tryAcquire(50, 10, TimeUnit.SECONDS)) acquired.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        Assertions.assertEquals(1, acquired.getCount());
+        budget.release(60);
+        Assertions.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(90, budget.getUsed());
+        Assertions.assertEquals(100, budget.getPeakUsed());
+    }
+
+    @Test
+    public void testOversizeItem() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        // an item bigger than the budget is admitted only when nothing else is held
+        Assertions.assertTrue(budget.tryAcquire(10, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(budget.tryAcquire(500, 10, TimeUnit.MILLISECONDS));
+        budget.release(10);
+        Assertions.assertTrue(budget.tryAcquire(500, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(budget.tryAcquire(1, 10, TimeUnit.MILLISECONDS));
+        budget.release(500);
+        Assertions.assertEquals(0, budget.getUsed());
+        Assertions.assertEquals(500, budget.getPeakUsed());
+    }
+
+    @Test
+    public void testInvalidLimit() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(0));
+    }
+}
@@ -0,0 +1,80 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public class OffHeapKeySetTest {
+    @Test
+    public void testAddAndContains() throws Exception {
+        // enough keys to re-hash the table several times
+        int keyCount = 100000;
+        try (OffHeapKeySet keySet = new OffHeapKeySet()) {
+            for (int i = 0; i < keyCount; i++) {
+                Assertions.assertTrue(keySet.add("prefix/object-" + i));
+            }
+            Assertions.assertEquals(keyCount, keySet.size());
+
+            // duplicates are not added
+            Assertions.assertFalse(keySet.add("prefix/object-0"));
+            Assertions.assertFalse(keySet.add("prefix/object-" + (keyCount - 1)));
+            Assertions.assertEquals(keyCount, keySet.size());
+
+            for (int i = 0; i < keyCount; i++) {
+                Assertions.assertTrue(keySet.contains("prefix/object-" + i));
+                Assertions.assertFalse(keySet.contains("prefix/object-" + (keyCount + i)));
+            }
+            Assertions.assertFalse(keySet.contains("prefix/object-"));
+            Assertions.assertFalse(keySet.contains(""));
+        }
+    }
+
+    @Test
+    public void testOddKeys() throws Exception {
+        try (OffHeapKeySet keySet = new OffHeapKeySet(10)) {
+            String[] keys = {"", "a,\"quoted\"\nkey", "\u00e9t\u00e9/\u00fcber", new String(new char[1024]).replace('\0', 'x')};
+            for (String key : keys) Assertions.assertTrue(keySet.add(key));
+            for (String key : keys) Assertions.assertTrue(keySet.contains(key));
+            Assertions.assertFalse(keySet.contains("ete/uber"));
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> keySet.add(new String(new char[OffHeapKeySet.MAX_KEY_BYTES + 1])));
+        }
+    }
+
+    @Test
+    public void testKeysSpanChunks() throws Exception {
+        // keys should never straddle key store chunks
+        String key = new String(new char[1000]).replace('\0', 'k');
+        int keyCount = OffHeapKeySet.KEY_CHUNK_BYTES / 1000 + 100;
+        try (OffHeapKeySet keySet = new OffHeapKeySet(keyCount)) {
+            for (int i = 0; i < keyCount; i++) keySet.add(key + i);
+            for (int i = 0; i < keyCount; i++) Assertions.assertTrue(keySet.contains(key + i));
+            Assertions.assertTrue(keySet.getStorageBytes() > OffHeapKeySet.KEY_CHUNK_BYTES);
+        }
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        Path dir = Files.createTempDirectory("offheap-test");
+        try {
+            try (OffHeapKeySet keySet = new OffHeapKeySet(dir, 0)) {
+                // grow the table a few times; each old table is deleted as soon as it is replaced
+                for (int i = 0; i < 10 * OffHeapKeySet.MIN_CAPACITY; i++) keySet.add("key-" + i);
+                for (int i = 0; i < 10 * OffHeapKeySet.MIN_CAPACITY; i++) Assertions.assertTrue(keySet.contains("key-" + i));
+                Assertions.assertEquals(2, count(dir));
+            }
+            Assertions.assertEquals(0, count(dir));
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    static long count(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+    @Test
+    public void testRate() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(100);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                try {
+                    for (int j = 0; j < 25; j++) rateLimiter.acquire();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 100 permits at 100/s, shared by every thread (the first is free)
+        Assertions.assertTrue(elapsedMs >= 950, "took " + elapsedMs + "ms");
+        Assertions.assertTrue(elapsedMs < 3000, "took " + elapsedMs + "ms");
+        Assertions.assertTrue(rateLimiter.getWaitNanos() > 0);
+
+        // several permits at once take their share of the rate
+        start = System.nanoTime();
+        rateLimiter.acquire(50);
+        rateLimiter.acquire();
+        elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assertions.assertTrue(elapsedMs >= 450, "took " + elapsedMs + "ms");
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0));
+    }
+}
@@ -0,0 +1,69 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ThrottleTest {
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        Throttle throttle = new Throttle(new Throttle.Limits(2, null, null));
+        AtomicInteger active = new AtomicInteger(), maxActive = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 40; i++) {
+            executor.execute(() -> {
+                try {
+                    throttle.acquire(0);
+                    try {
+                        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                        Thread.sleep(5);
+                        active.decrementAndGet();
+                    } finally {
+                        throttle.release();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        Assertions.assertEquals(2, maxActive.get());
+    }
+
+    @Test
+    public void testBytesPerSecond() throws Exception {
+        Throttle throttle = new Throttle(new Throttle.Limits(null, null, 1024L * 1024));
+        long start = System.nanoTime();
+        // the first 512KiB starts right away; the next waits for it
+        throttle.acquire(512 * 1024);
+        throttle.release();
+        throttle.acquire(1);
+        throttle.release();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assertions.assertTrue(elapsedMs >= 450, "took " + elapsedMs + "ms");
+    }
+
+    @Test
+    public void testPauseAndAbandon() throws Exception {
+        Throttle throttle = new Throttle(Throttle.Limits.PAUSED);
+        Assertions.assertTrue(throttle.isPaused());
+        AtomicInteger attempts = new AtomicInteger();
+        // gives up on the third check
+        Assertions.assertFalse(throttle.acquire(0, () -> attempts.incrementAndGet() > 2));
+        Assertions.assertTrue(throttle.getPausedNanos() > 0);
+
+        throttle.setLimits(Throttle.Limits.UNLIMITED);
+        Assertions.assertFalse(throttle.isPaused());
+        Assertions.assertTrue(throttle.acquire(0, () -> true));
+        throttle.release();
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Throttle.Limits(-1, null, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Throttle.Limits(null, 0.0, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Throttle.Limits(null, null, 0L));
+    }
+}
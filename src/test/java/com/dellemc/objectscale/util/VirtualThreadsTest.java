@@ -0,0 +1,66 @@
+package com.dellemc.objectscale.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadsTest {
+    @Test
+    public void testAvailability() throws Exception {
+        boolean expected;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            expected = true;
+        } catch (NoSuchMethodException e) {
+            expected = false;
+        }
+        Assertions.assertEquals(expected, VirtualThreads.isAvailable());
+
+        Thread platform = VirtualThreads.newThread(() -> {
+        }, "platform", false);
+        Assertions.assertFalse(VirtualThreads.isVirtual(platform));
+        Assertions.assertTrue(platform.isDaemon());
+        Assertions.assertEquals("platform", platform.getName());
+
+        if (VirtualThreads.isAvailable()) {
+            Thread virtual = VirtualThreads.newThread(() -> {
+            }, "virtual", true);
+            Assertions.assertTrue(VirtualThreads.isVirtual(virtual));
+            Assertions.assertEquals("virtual", virtual.getName());
+        } else {
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> VirtualThreads.newThread(() -> {
+            }));
+        }
+    }
+
+    @Test
+    public void testVirtualPool() throws Exception {
+        if (!VirtualThreads.isAvailable()) return;
+
+        // many more blocked tasks than we would want platform threads for
+        int poolSize = 2000;
+        EnhancedThreadPoolExecutor executor = new EnhancedThreadPoolExecutor(poolSize, new LinkedBlockingDeque<>(100),
+                "test-pool", true);
+        CountDownLatch running = new CountDownLatch(poolSize), release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                executor.blockingSubmit(() -> {
+                    Assertions.assertTrue(VirtualThreads.isVirtual(Thread.currentThread()));
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+            }
+            Assertions.assertTrue(running.await(30, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        Assertions.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+}